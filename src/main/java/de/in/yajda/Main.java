@@ -1,5 +1,9 @@
 package de.in.yajda;
 
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
@@ -12,6 +16,8 @@ import com.formdev.flatlaf.FlatDarkLaf;
 
 import de.in.utils.Log4jTools;
 import de.in.utils.Version;
+import de.in.yajda.dll.BuildDiff;
+import de.in.yajda.jfr.FlightRecording;
 import de.in.yajda.ui.MainWindow;
 
 public class Main {
@@ -31,6 +37,12 @@ public class Main {
 	}
 
 	public static void main(String[] args) {
+		// headless build comparison: report to stdout and exit, no UI
+		int diff = List.of(args).indexOf("--diff");
+		if (diff >= 0) {
+			BuildDiff.main(Arrays.copyOfRange(args, diff + 1, args.length));
+			return;
+		}
 
 		Log4jTools.redirectStdOutErrLog();
 		Log4jTools.logEnvironment(LOGGER);
@@ -40,6 +52,9 @@ public class Main {
 		} catch (UnsupportedLookAndFeelException ex) {
 			LOGGER.warn("Failed to set FlatDarkLaf: ",ex);
 		}
+		Path jfrFile = jfrFileArgument(args);
+		if (jfrFile != null)
+			startFlightRecording(jfrFile);
 
 		SwingUtilities.invokeLater(() -> {
 			// Basic platform checks
@@ -50,9 +65,9 @@ public class Main {
 			}
 
 			if (!IS_WINDOWS) {
-				// Allow running on Linux/macOS for UI-only usage; just warn that DLL proxying will be disabled.
+				// On Linux/macOS DLLs are inspect-only; shared objects get the full scripting workflow.
 				JOptionPane.showMessageDialog(null,
-						"Non-Windows OS detected. DLL proxy generation via JNA will be disabled. You can still edit scripts and view project files.",
+						"Non-Windows OS detected. Windows DLLs can be inspected but not called; shared objects (.so) are loaded and called via JNA.",
 						"Non-Windows mode", JOptionPane.WARNING_MESSAGE);
 			}
 
@@ -66,4 +81,37 @@ public class Main {
 			}
 		});
 	}
+
+	/**
+	 * The file of "--jfr=&lt;file&gt;" or "--jfr &lt;file&gt;", or null if the flag is not given.
+	 */
+	static Path jfrFileArgument(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].startsWith("--jfr="))
+				return Path.of(args[i].substring("--jfr=".length()));
+			if (args[i].equals("--jfr"))
+				return Path.of(i + 1 < args.length ? args[i + 1] : "yajda.jfr");
+		}
+		return null;
+	}
+
+	/**
+	 * Record the whole session and write the recording when the JVM exits.
+	 */
+	private static void startFlightRecording(Path file) {
+		try {
+			FlightRecording.start();
+			LOGGER.info("Flight recording started, will be written to " + file.toAbsolutePath());
+		} catch (Exception ex) {
+			LOGGER.warn("Failed to start flight recording: ", ex);
+			return;
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				FlightRecording.stop(file);
+			} catch (Exception ex) {
+				LOGGER.warn("Failed to write flight recording: ", ex);
+			}
+		}, "jfr-dump"));
+	}
 }
\ No newline at end of file
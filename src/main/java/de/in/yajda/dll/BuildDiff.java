@@ -0,0 +1,536 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+import de.in.yajda.dll.HeaderParser.HeaderInfo;
+
+/**
+ * What changed between two builds of a library: added, removed and renamed exports, ordinal shifts, signature changes and changed function
+ * bodies. Meant for vendor drops, where the question is what a new version of a DLL breaks or touches, as opposed to {@link SymbolDiff},
+ * which only tells the UI which rows to refresh.
+ *
+ * Both export tables are sorted by name once and walked in a single merge pass. Exports that exist on one side only are paired up as
+ * renames when their bodies hash the same and no other unmatched export shares that hash. Only declared signatures are compared: the
+ * header's prototype when one is given, or the one a decorated name encodes. Other exports show the export table's signature, which may be
+ * a code estimate, but a change of that estimate is not reported.
+ *
+ * A body is hashed from the export's address up to the next export's address, the end of its code section or {@link #MAX_BODY} bytes,
+ * whichever comes first; so a change in a non-exported function placed right behind an export is attributed to that export. ELF symbols
+ * carry their size, and x64 PE functions with unwind data have their extent in the {@link UnwindTable}; both bound the body exactly. On
+ * x86-64 RIP-relative displacements and the targets of relative calls and jumps are left out of the hash, so code that merely moved
+ * during a relink keeps its hash. Data exports and forwarders have no body.
+ *
+ * {@link #diffTrees} compares whole install trees, pairing libraries by their relative path; {@link #main} runs it headless.
+ */
+public class BuildDiff {
+	/** Longest stretch of code hashed per export. */
+	public static final int MAX_BODY = 64 * 1024;
+
+	public enum Kind {
+		ADDED, REMOVED, RENAMED, ORDINAL_CHANGED, SIGNATURE_CHANGED, BODY_CHANGED
+	}
+
+	/**
+	 * One difference. For renames {@link #oldName} is the name in the old build; for other kinds it equals {@link #name}.
+	 */
+	public static final class Change {
+		public final Kind kind;
+		public final String name;
+		public final String oldName;
+		public final String before;
+		public final String after;
+
+		Change(Kind kind, String name, String oldName, String before, String after) {
+			this.kind = kind;
+			this.name = name;
+			this.oldName = oldName;
+			this.before = before;
+			this.after = after;
+		}
+
+		@Override
+		public String toString() {
+			switch (kind) {
+			case ADDED:
+				return "ADDED      " + after;
+			case REMOVED:
+				return "REMOVED    " + before;
+			case RENAMED:
+				return "RENAMED    " + oldName + " -> " + name;
+			case ORDINAL_CHANGED:
+				return "ORDINAL    " + name + "  " + before + " -> " + after;
+			case SIGNATURE_CHANGED:
+				return "SIGNATURE  " + before + " -> " + after;
+			default:
+				return "BODY       " + name;
+			}
+		}
+	}
+
+	/**
+	 * Differences between two builds of one library.
+	 */
+	public static final class Report {
+		/** Path relative to the tree root, or the file name for a single pair. */
+		public final String library;
+		public final File oldFile;
+		public final File newFile;
+		public final List<Change> changes;
+
+		Report(String library, File oldFile, File newFile, List<Change> changes) {
+			this.library = library;
+			this.oldFile = oldFile;
+			this.newFile = newFile;
+			this.changes = Collections.unmodifiableList(changes);
+		}
+
+		public boolean isEmpty() {
+			return changes.isEmpty();
+		}
+
+		public int count(Kind kind) {
+			int n = 0;
+			for (Change c : changes) {
+				if (c.kind == kind)
+					n++;
+			}
+			return n;
+		}
+
+		public String summary() {
+			return String.format("%s: +%d -%d renamed=%d ordinal=%d signature=%d body=%d", library, count(Kind.ADDED), count(Kind.REMOVED),
+					count(Kind.RENAMED), count(Kind.ORDINAL_CHANGED), count(Kind.SIGNATURE_CHANGED), count(Kind.BODY_CHANGED));
+		}
+	}
+
+	/**
+	 * Differences between two install trees: libraries found on one side only, and a report per library present in both that changed.
+	 */
+	public static final class TreeReport {
+		public final List<String> addedLibraries = new ArrayList<>();
+		public final List<String> removedLibraries = new ArrayList<>();
+		public final List<Report> changed = new ArrayList<>();
+		/** Libraries that could not be read, with the reason. */
+		public final List<String> failures = new ArrayList<>();
+		public int compared;
+
+		public boolean isEmpty() {
+			return addedLibraries.isEmpty() && removedLibraries.isEmpty() && changed.isEmpty();
+		}
+
+		public String summary() {
+			return String.format("%d libraries compared: %d added, %d removed, %d changed, %d unreadable", compared, addedLibraries.size(),
+					removedLibraries.size(), changed.size(), failures.size());
+		}
+
+		public List<String> lines() {
+			List<String> lines = new ArrayList<>();
+			for (String l : addedLibraries)
+				lines.add("LIBRARY ADDED    " + l);
+			for (String l : removedLibraries)
+				lines.add("LIBRARY REMOVED  " + l);
+			for (String f : failures)
+				lines.add("UNREADABLE       " + f);
+			for (Report r : changed) {
+				lines.add(r.summary());
+				for (Change c : r.changes)
+					lines.add("  " + c);
+			}
+			return lines;
+		}
+	}
+
+	/**
+	 * An export with what the diff compares: signature text, whether it is declared rather than estimated, and body hash (0 if it has no
+	 * body).
+	 */
+	static final class Export {
+		final String name;
+		final int ordinal;
+		final String signature;
+		final boolean declared;
+		final long bodyHash;
+
+		Export(String name, int ordinal, String signature, boolean declared, long bodyHash) {
+			this.name = name;
+			this.ordinal = ordinal;
+			this.signature = signature;
+			this.declared = declared;
+			this.bodyHash = bodyHash;
+		}
+	}
+
+	/**
+	 * Compare two builds of a library. The header prototypes are optional (null); where given they override the export table's
+	 * signatures of the same name.
+	 */
+	public static Report diff(File oldLib, Map<String, HeaderInfo> oldHeader, File newLib, Map<String, HeaderInfo> newHeader) throws IOException {
+		return diff(newLib.getName(), oldLib, oldHeader, newLib, newHeader);
+	}
+
+	/**
+	 * Compare two builds of a library, each with the header found next to it (see {@link #headerFor}).
+	 */
+	public static Report diff(File oldLib, File newLib) throws IOException {
+		return diff(oldLib, readHeader(headerFor(oldLib)), newLib, readHeader(headerFor(newLib)));
+	}
+
+	private static Report diff(String library, File oldLib, Map<String, HeaderInfo> oldHeader, File newLib, Map<String, HeaderInfo> newHeader)
+			throws IOException {
+		Export[] before = read(oldLib, oldHeader);
+		Export[] after = read(newLib, newHeader);
+		return new Report(library, oldLib, newLib, merge(before, after));
+	}
+
+	/**
+	 * The core merge over two name-sorted export tables.
+	 */
+	static List<Change> merge(Export[] before, Export[] after) {
+		List<Change> changes = new ArrayList<>();
+		List<Export> removed = new ArrayList<>();
+		List<Export> added = new ArrayList<>();
+		int i = 0, j = 0;
+		while (i < before.length || j < after.length) {
+			int c = i == before.length ? 1 : j == after.length ? -1 : before[i].name.compareTo(after[j].name);
+			if (c < 0) {
+				removed.add(before[i++]);
+			} else if (c > 0) {
+				added.add(after[j++]);
+			} else {
+				compare(before[i++], after[j++], changes);
+			}
+		}
+		// renames: a body that disappeared under one name and appeared under another, unambiguously
+		Map<Long, Integer> removedByHash = uniqueHashes(removed);
+		Map<Long, Integer> addedByHash = uniqueHashes(added);
+		boolean[] renamedOld = new boolean[removed.size()];
+		boolean[] renamedNew = new boolean[added.size()];
+		for (Map.Entry<Long, Integer> e : addedByHash.entrySet()) {
+			Integer r = removedByHash.get(e.getKey());
+			if (r == null || r < 0 || e.getValue() < 0)
+				continue;
+			Export o = removed.get(r);
+			Export n = added.get(e.getValue());
+			renamedOld[r] = true;
+			renamedNew[e.getValue()] = true;
+			changes.add(new Change(Kind.RENAMED, n.name, o.name, o.name, n.name));
+			if (o.ordinal >= 0 && n.ordinal >= 0 && o.ordinal != n.ordinal)
+				changes.add(new Change(Kind.ORDINAL_CHANGED, n.name, o.name, "#" + o.ordinal, "#" + n.ordinal));
+		}
+		for (int k = 0; k < removed.size(); k++) {
+			if (!renamedOld[k])
+				changes.add(new Change(Kind.REMOVED, removed.get(k).name, removed.get(k).name, removed.get(k).signature, null));
+		}
+		for (int k = 0; k < added.size(); k++) {
+			if (!renamedNew[k])
+				changes.add(new Change(Kind.ADDED, added.get(k).name, added.get(k).name, null, added.get(k).signature));
+		}
+		changes.sort(Comparator.comparing((Change ch) -> ch.kind).thenComparing(ch -> ch.name));
+		return changes;
+	}
+
+	private static void compare(Export o, Export n, List<Change> changes) {
+		if (o.ordinal >= 0 && n.ordinal >= 0 && o.ordinal != n.ordinal)
+			changes.add(new Change(Kind.ORDINAL_CHANGED, n.name, o.name, "#" + o.ordinal, "#" + n.ordinal));
+		if (o.declared && n.declared && !Objects.equals(o.signature, n.signature))
+			changes.add(new Change(Kind.SIGNATURE_CHANGED, n.name, o.name, o.signature, n.signature));
+		if (o.bodyHash != n.bodyHash)
+			changes.add(new Change(Kind.BODY_CHANGED, n.name, o.name, null, null));
+	}
+
+	/**
+	 * Body hash -> index of the only export with that hash, or -1 if several share it. Exports without a body are left out.
+	 */
+	private static Map<Long, Integer> uniqueHashes(List<Export> exports) {
+		Map<Long, Integer> m = new HashMap<>();
+		for (int k = 0; k < exports.size(); k++) {
+			long h = exports.get(k).bodyHash;
+			if (h != 0)
+				m.merge(h, k, (a, b) -> -1);
+		}
+		return m;
+	}
+
+	// ---- reading ----
+
+	/**
+	 * The exports of a library, sorted by name, with signatures and body hashes.
+	 */
+	static Export[] read(File library, Map<String, HeaderInfo> header) throws IOException {
+		return exports(scan(library), header);
+	}
+
+	/**
+	 * Exports and body hashes of one image, before a header is applied.
+	 */
+	static final class Scan {
+		final List<FunctionInfo> functions;
+		final long[] hashes;
+
+		Scan(List<FunctionInfo> functions, long[] hashes) {
+			this.functions = functions;
+			this.hashes = hashes;
+		}
+	}
+
+	static Scan scan(File library) throws IOException {
+		List<FunctionInfo> functions = ExportParser.forFile(library).parseExports(library);
+		PrologueAnalyzer.CodeMap code;
+		boolean x64;
+		int forwarderStart = 0, forwarderEnd = 0;
+		PeImage pe = null;
+		long[] sizes = new long[functions.size()];
+		if (ExportParser.isElf(library)) {
+			ElfImage image = ElfImage.open(library);
+			code = image.codeMap();
+			x64 = image.isX64();
+			for (int k = 0; k < sizes.length; k++) {
+				int idx = image.lookup(functions.get(k).name);
+				sizes[k] = idx > 0 ? image.symbolSize(idx) : 0;
+			}
+		} else {
+			pe = PeImage.read(library);
+			code = PrologueAnalyzer.forPe(pe);
+			x64 = pe.isX64();
+			forwarderStart = pe.dataDirectoryRva(PeImage.DIR_EXPORT);
+			forwarderEnd = forwarderStart + pe.dataDirectorySize(PeImage.DIR_EXPORT);
+		}
+		// distinct code addresses in ascending order: each body ends where the next export starts
+		long[] starts = functions.stream().mapToLong(fi -> fi.rva & 0xFFFFFFFFL).filter(a -> a != 0).sorted().distinct().toArray();
+		long[] hashes = new long[functions.size()];
+		try (FileChannel ch = FileChannel.open(library.toPath(), StandardOpenOption.READ)) {
+			if (ch.size() <= Integer.MAX_VALUE) {
+				MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+				if (pe != null && x64) {
+					// x64 functions that touch the stack have their exact extent in the unwind table
+					UnwindTable unwind = UnwindTable.parse(pe, mapped);
+					for (int k = 0; k < sizes.length; k++)
+						sizes[k] = unwind.sizeAt(functions.get(k).rva);
+				}
+				int fs = forwarderStart, fe = forwarderEnd;
+				IntStream.range(0, functions.size()).parallel().forEach(k -> {
+					int rva = functions.get(k).rva;
+					if (rva == 0 || (rva >= fs && rva < fe))
+						return;
+					ByteBuffer buf = mapped.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+					hashes[k] = bodyHash(buf, code, starts, rva & 0xFFFFFFFFL, sizes[k], x64);
+				});
+			}
+		}
+		return new Scan(functions, hashes);
+	}
+
+	private static Export[] exports(Scan scan, Map<String, HeaderInfo> header) {
+		Export[] exports = new Export[scan.functions.size()];
+		for (int k = 0; k < exports.length; k++) {
+			FunctionInfo fi = scan.functions.get(k);
+			HeaderInfo hi = header != null ? header.get(fi.name) : null;
+			String sig = hi != null ? signature(fi.name, hi.returnType, hi.paramTypes) : signature(fi.name, fi.returnType, fi.paramTypes);
+			boolean declared = hi != null || Demangler.demangle(fi.name) != null;
+			exports[k] = new Export(fi.name, fi.ordinal, sig, declared, scan.hashes[k]);
+		}
+		Arrays.sort(exports, Comparator.comparing((Export e) -> e.name));
+		return exports;
+	}
+
+	private static String signature(String name, String returnType, List<String> paramTypes) {
+		return returnType + " " + name + "(" + String.join(", ", paramTypes) + ")";
+	}
+
+	/**
+	 * Hash of the code of one export, 0 if the address is not in code. The size is used if known (not 0). On x86-64 relocatable fields
+	 * are hashed as zeros.
+	 */
+	static long bodyHash(ByteBuffer buf, PrologueAnalyzer.CodeMap code, long[] starts, long address, long size, boolean x64) {
+		long start = code.toOffset(address);
+		long end = code.codeEnd(address);
+		if (start < 0 || end <= start)
+			return 0;
+		if (size > 0)
+			end = Math.min(end, start + size);
+		int next = Arrays.binarySearch(starts, address);
+		next = next >= 0 ? next + 1 : -next - 1;
+		if (next < starts.length) {
+			long nextOffset = code.toOffset(starts[next]);
+			if (nextOffset > start)
+				end = Math.min(end, nextOffset);
+		}
+		end = Math.min(Math.min(end, start + MAX_BODY), buf.limit());
+		byte[] body = new byte[(int) (end - start)];
+		buf.get((int) start, body);
+		if (x64)
+			maskRelocatable(buf, (int) start, (int) end, body);
+		long h = 0xCBF29CE484222325L; // FNV-1a
+		for (byte b : body) {
+			h ^= b & 0xFF;
+			h *= 0x100000001B3L;
+		}
+		return h != 0 ? h : 1;
+	}
+
+	/**
+	 * Zero RIP-relative displacements and relative call/jump targets in the copied body; bytes past the first undecodable instruction stay.
+	 */
+	private static void maskRelocatable(ByteBuffer buf, int start, int end, byte[] body) {
+		X64Decoder.Instruction in = new X64Decoder.Instruction();
+		int p = start;
+		while (p < end && X64Decoder.decode(buf, p, end, in)) {
+			int last = p + in.length - start;
+			if (in.hasModrm && in.base == X64Decoder.RIP)
+				Arrays.fill(body, last - in.immSize - 4, last - in.immSize, (byte) 0);
+			boolean relBranch = (in.map == X64Decoder.MAP_PRIMARY && (in.opcode == 0xE8 || in.opcode == 0xE9))
+					|| (in.map == X64Decoder.MAP_0F && in.opcode >= 0x80 && in.opcode <= 0x8F);
+			if (relBranch)
+				Arrays.fill(body, last - in.immSize, last, (byte) 0);
+			p += in.length;
+		}
+	}
+
+	// ---- trees ----
+
+	/**
+	 * Compare every library under two install roots, paired by relative path. Libraries are compared in parallel; each uses the header
+	 * found next to it. Files are hashed first ({@link ImageHashes}): pairs with identical content are not parsed at all, and an image that
+	 * occurs several times in the trees is scanned once.
+	 */
+	public static TreeReport diffTrees(Path oldRoot, Path newRoot) throws IOException {
+		String[] before = libraries(oldRoot);
+		String[] after = libraries(newRoot);
+		TreeReport report = new TreeReport();
+		List<String> common = new ArrayList<>();
+		int i = 0, j = 0;
+		while (i < before.length || j < after.length) {
+			int c = i == before.length ? 1 : j == after.length ? -1 : before[i].compareTo(after[j]);
+			if (c < 0) {
+				report.removedLibraries.add(before[i++]);
+			} else if (c > 0) {
+				report.addedLibraries.add(after[j++]);
+			} else {
+				common.add(before[i]);
+				i++;
+				j++;
+			}
+		}
+		report.compared = common.size();
+		// image hash -> scan, shared by all copies of an image
+		Map<String, Scan> scans = new ConcurrentHashMap<>();
+		List<Object> results = common.parallelStream().map(rel -> {
+			File o = oldRoot.resolve(rel).toFile();
+			File n = newRoot.resolve(rel).toFile();
+			try {
+				ImageHashes ho = ImageHashes.of(o);
+				ImageHashes hn = ImageHashes.of(n);
+				if (ho.imageHash.equals(hn.imageHash))
+					return null;
+				Export[] oldExports = exports(scanOnce(scans, ho), readHeader(headerFor(o)));
+				Export[] newExports = exports(scanOnce(scans, hn), readHeader(headerFor(n)));
+				return (Object) new Report(rel, o, n, merge(oldExports, newExports));
+			} catch (IOException | RuntimeException ex) {
+				return rel + ": " + (ex.getMessage() != null ? ex.getMessage() : ex.toString());
+			}
+		}).collect(Collectors.toList());
+		for (Object r : results) {
+			if (r instanceof Report && !((Report) r).isEmpty())
+				report.changed.add((Report) r);
+			else if (r instanceof String)
+				report.failures.add((String) r);
+		}
+		return report;
+	}
+
+	/**
+	 * Relative paths ('/'-separated) of the libraries under a root, sorted.
+	 */
+	private static String[] libraries(Path root) throws IOException {
+		try (Stream<Path> files = Files.walk(root)) {
+			return files.filter(Files::isRegularFile).filter(p -> ExportParser.isLibraryName(p.getFileName().toString()))
+					.map(p -> root.relativize(p).toString().replace(File.separatorChar, '/')).sorted().toArray(String[]::new);
+		}
+	}
+
+	/**
+	 * The scan of an image, shared by its copies. Scanned outside the map, so a long scan does not block other threads on the map; two
+	 * threads meeting the same image at once may both scan it, and the first result is kept.
+	 */
+	private static Scan scanOnce(Map<String, Scan> scans, ImageHashes image) throws IOException {
+		Scan s = scans.get(image.imageHash);
+		if (s != null)
+			return s;
+		s = scan(image.file);
+		Scan previous = scans.putIfAbsent(image.imageHash, s);
+		return previous != null ? previous : s;
+	}
+
+	/**
+	 * The header next to a library: foo.h for foo.dll, libfoo.so.1 or foo.so, or null if there is none.
+	 */
+	public static File headerFor(File library) {
+		String name = library.getName();
+		int dot = name.indexOf('.');
+		String stem = dot > 0 ? name.substring(0, dot) : name;
+		for (String candidate : new String[] { stem, stem.startsWith("lib") ? stem.substring(3) : null }) {
+			if (candidate == null || candidate.isEmpty())
+				continue;
+			File h = new File(library.getParentFile(), candidate + ".h");
+			if (h.isFile())
+				return h;
+		}
+		return null;
+	}
+
+	private static Map<String, HeaderInfo> readHeader(File header) throws IOException {
+		return header != null ? new HeaderParser().parseHeader(header) : null;
+	}
+
+	/**
+	 * Headless comparison: BuildDiff &lt;old&gt; &lt;new&gt;, where both are libraries or both are install trees. Prints one line per
+	 * difference; exits with 0 if there are none, 1 if there are, 2 on errors, including libraries of a tree that could not be read.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("usage: --diff <old library or directory> <new library or directory>");
+			System.exit(2);
+		}
+		File oldFile = new File(args[0]);
+		File newFile = new File(args[1]);
+		try {
+			int status;
+			if (oldFile.isDirectory() && newFile.isDirectory()) {
+				TreeReport report = diffTrees(oldFile.toPath(), newFile.toPath());
+				report.lines().forEach(System.out::println);
+				System.out.println(report.summary());
+				status = !report.failures.isEmpty() ? 2 : report.isEmpty() ? 0 : 1;
+			} else {
+				Report report = diff(oldFile, newFile);
+				report.changes.forEach(System.out::println);
+				System.out.println(report.summary());
+				status = report.isEmpty() ? 0 : 1;
+			}
+			System.exit(status);
+		} catch (IOException | RuntimeException ex) {
+			System.err.println("Diff failed: " + ex.getMessage());
+			System.exit(2);
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+/**
+ * Per-function counters for native calls: call count, errors, total and maximum time, and a latency histogram with power-of-two buckets
+ * (bucket i counts calls that took less than 2^i ns). All counters are {@link LongAdder}s, which stripe their cells per contending thread,
+ * so concurrent callers of the same function do not contend on one cache line.
+ *
+ * One instance ({@link #getDefault()}) is shared by the proxy factories and the script invoker; it is bound as 'metrics' in scripts, e.g.
+ * metrics.writeCsv("calls.csv").
+ */
+public class CallMetrics {
+	/** Buckets cover up to 2^40 ns (about 18 minutes); longer calls land in the last bucket. */
+	public static final int BUCKETS = 41;
+
+	private static final CallMetrics DEFAULT = new CallMetrics();
+
+	public static CallMetrics getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Live counters of one function.
+	 */
+	public static final class Counter {
+		final String module;
+		final String function;
+		final LongAdder calls = new LongAdder();
+		final LongAdder errors = new LongAdder();
+		final LongAdder totalNanos = new LongAdder();
+		final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+		final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+		Counter(String module, String function) {
+			this.module = module;
+			this.function = function;
+			for (int i = 0; i < BUCKETS; i++)
+				histogram[i] = new LongAdder();
+		}
+
+		/**
+		 * Record one call that took the given time.
+		 */
+		public void record(long nanos, boolean failed) {
+			calls.increment();
+			if (failed)
+				errors.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+			histogram[bucket(nanos)].increment();
+		}
+
+		void reset() {
+			calls.reset();
+			errors.reset();
+			totalNanos.reset();
+			maxNanos.reset();
+			for (LongAdder h : histogram)
+				h.reset();
+		}
+	}
+
+	/**
+	 * Point-in-time copy of a counter, for display and export.
+	 */
+	public static final class Snapshot {
+		public final String module;
+		public final String function;
+		public final long calls;
+		public final long errors;
+		public final long totalNanos;
+		public final long maxNanos;
+		public final long[] histogram;
+
+		Snapshot(Counter c) {
+			module = c.module;
+			function = c.function;
+			histogram = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++)
+				histogram[i] = c.histogram[i].sum();
+			// read without a lock while calls continue, so the fields may be a few calls apart
+			calls = c.calls.sum();
+			errors = c.errors.sum();
+			totalNanos = c.totalNanos.sum();
+			maxNanos = c.maxNanos.get();
+		}
+
+		public double meanNanos() {
+			return calls == 0 ? 0 : (double) totalNanos / calls;
+		}
+
+		/**
+		 * Upper bound of the bucket holding the given percentile (0..100), capped at the observed maximum.
+		 */
+		public long percentileNanos(double p) {
+			long total = 0;
+			for (long h : histogram)
+				total += h;
+			if (total == 0)
+				return 0;
+			long rank = (long) Math.ceil(total * p / 100.0);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += histogram[i];
+				if (seen >= rank)
+					return Math.min(1L << i, maxNanos);
+			}
+			return maxNanos;
+		}
+	}
+
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+	static int bucket(long nanos) {
+		if (nanos <= 0)
+			return 0;
+		return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+	}
+
+	/**
+	 * Counter for a function of a module, created on first use. Callers on hot paths should keep the returned counter.
+	 */
+	public Counter counter(String module, String function) {
+		String key = module + '!' + function;
+		Counter c = counters.get(key);
+		if (c != null)
+			return c;
+		return counters.computeIfAbsent(key, k -> new Counter(module, function));
+	}
+
+	public void record(String module, String function, long nanos, boolean failed) {
+		counter(module, function).record(nanos, failed);
+	}
+
+	/**
+	 * Zero all counters. The counters stay registered, since proxy factories keep theirs across calls; functions show up again with
+	 * their next call.
+	 */
+	public void reset() {
+		for (Counter c : counters.values())
+			c.reset();
+	}
+
+	/**
+	 * Snapshots of all functions called since startup or the last reset, most total time first.
+	 */
+	public List<Snapshot> snapshot() {
+		List<Snapshot> res = new ArrayList<>(counters.size());
+		for (Counter c : counters.values()) {
+			Snapshot s = new Snapshot(c);
+			if (s.calls > 0)
+				res.add(s);
+		}
+		res.sort(Comparator.comparingLong((Snapshot s) -> s.totalNanos).reversed());
+		return res;
+	}
+
+	@SuppressWarnings("unchecked")
+	public String toJson() {
+		JSONArray arr = new JSONArray();
+		for (Snapshot s : snapshot()) {
+			JSONObject o = new JSONObject();
+			o.put("module", s.module);
+			o.put("function", s.function);
+			o.put("calls", s.calls);
+			o.put("errors", s.errors);
+			o.put("totalNanos", s.totalNanos);
+			o.put("maxNanos", s.maxNanos);
+			o.put("p50Nanos", s.percentileNanos(50));
+			o.put("p99Nanos", s.percentileNanos(99));
+			JSONArray hist = new JSONArray();
+			for (long h : s.histogram)
+				hist.add(h);
+			o.put("histogramLog2Nanos", hist);
+			arr.add(o);
+		}
+		return arr.toJSONString();
+	}
+
+	/**
+	 * CSV with one row per function; histogram columns are named by their upper bound in ns.
+	 */
+	public String toCsv() {
+		StringBuilder sb = new StringBuilder("module,function,calls,errors,totalNanos,meanNanos,p50Nanos,p99Nanos,maxNanos");
+		for (int i = 0; i < BUCKETS; i++)
+			sb.append(",lt").append(1L << i);
+		sb.append('\n');
+		for (Snapshot s : snapshot()) {
+			sb.append(csv(s.module)).append(',').append(csv(s.function)).append(',').append(s.calls).append(',').append(s.errors).append(',')
+					.append(s.totalNanos).append(',').append(String.format(Locale.ROOT, "%.1f", s.meanNanos())).append(',')
+					.append(s.percentileNanos(50)).append(',').append(s.percentileNanos(99)).append(',').append(s.maxNanos);
+			for (long h : s.histogram)
+				sb.append(',').append(h);
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	private static String csv(String s) {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0)
+			return s;
+		return '"' + s.replace("\"", "\"\"") + '"';
+	}
+
+	public void writeJson(String path) throws IOException {
+		Files.writeString(new File(path).toPath(), toJson(), StandardCharsets.UTF_8);
+	}
+
+	public void writeCsv(String path) throws IOException {
+		Files.writeString(new File(path).toPath(), toCsv(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,377 @@
+package de.in.yajda.dll;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+import com.sun.jna.WString;
+
+/**
+ * Records native calls into a binary log that {@link CallReplay} can run against another build of the library.
+ *
+ * The log is written through memory-mapped regions of the file. It starts with a header (magic, version, length of the valid data) and
+ * continues with length-prefixed records: a SYMBOL record assigns an id to a module/function pair the first time it is called, a CALL
+ * record holds the symbol id, start time and duration, whether the call failed, the return value, the arguments, and the contents of the
+ * buffers the call changed. Arguments are typed values: numbers, strings, the contents of JNA {@link Memory} blocks and primitive arrays as
+ * they were before the call, raw pointers (kept, but not replayable), callbacks (by signature) and other objects (by class name).
+ *
+ * Recording is process-wide: while a recorder is {@link #active()}, the proxy factories and the script invoker record every call that
+ * reaches a library; results served from the memo cache are not recorded. All numbers are little endian.
+ */
+public class CallRecorder implements Closeable {
+	static final int MAGIC = 0x4352_4A59; // "YJRC"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+
+	static final byte SYMBOL = 1;
+	static final byte CALL = 2;
+
+	static final byte FLAG_FAILED = 1;
+	static final byte FLAG_VOID = 2;
+
+	// value tags
+	static final byte NULL = 0;
+	static final byte INT = 1;
+	static final byte LONG = 2;
+	static final byte FLOAT = 3;
+	static final byte DOUBLE = 4;
+	static final byte SHORT = 5;
+	static final byte BYTE = 6;
+	static final byte BOOLEAN = 7;
+	static final byte CHAR = 8;
+	static final byte STRING = 9;
+	static final byte WSTRING = 10;
+	static final byte MEMORY = 11;
+	static final byte ARRAY = 12;
+	static final byte POINTER = 13;
+	static final byte CALLBACK = 14;
+	static final byte OTHER = 15;
+
+	/** Regions of the file are mapped this many bytes at a time. */
+	private static final int REGION_SIZE = 16 << 20;
+
+	private static final AtomicReference<CallRecorder> ACTIVE = new AtomicReference<>();
+
+	private final Path file;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private MappedByteBuffer region;
+	private long regionStart;
+	private long position = HEADER_SIZE;
+	private long calls;
+	private final long t0 = System.nanoTime();
+	private final AtomicInteger nextSymbol = new AtomicInteger();
+	// module -> function -> symbol id
+	private final Map<String, Map<String, Integer>> symbols = new ConcurrentHashMap<>();
+	private final ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN));
+	private boolean closed;
+
+	private CallRecorder(Path file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, HEADER_SIZE);
+		mapRegion(HEADER_SIZE, REGION_SIZE);
+	}
+
+	/**
+	 * Start recording all native calls into the file, replacing a recording that is running.
+	 */
+	public static CallRecorder start(Path file) throws IOException {
+		// close the running recording before opening the file, it may be the same one
+		closeIfAny(ACTIVE.getAndSet(null));
+		CallRecorder r = new CallRecorder(file);
+		// a concurrent start may have put its own in between
+		closeIfAny(ACTIVE.getAndSet(r));
+		return r;
+	}
+
+	private static void closeIfAny(CallRecorder r) {
+		if (r != null)
+			r.close();
+	}
+
+	/**
+	 * The running recorder, or null.
+	 */
+	public static CallRecorder active() {
+		return ACTIVE.get();
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	public synchronized long getCalls() {
+		return calls;
+	}
+
+	public synchronized long getBytes() {
+		return position;
+	}
+
+	/**
+	 * Copy the contents of the buffer arguments before the call, so the record shows what went in. Null if there are none.
+	 */
+	public byte[][] snapshot(Object[] args) {
+		if (args == null)
+			return null;
+		byte[][] res = null;
+		for (int i = 0; i < args.length; i++) {
+			byte[] bytes = contents(args[i]);
+			if (bytes == null)
+				continue;
+			if (res == null)
+				res = new byte[args.length][];
+			res[i] = bytes;
+		}
+		return res;
+	}
+
+	/**
+	 * Append one call. The buffer arguments are read again to record what the call wrote into them.
+	 */
+	public void record(String module, String function, Object[] args, byte[][] before, boolean isVoid, Object result, boolean failed,
+			long startNanos, long durationNanos) {
+		int symbol = symbol(module, function);
+		ByteBuffer b = scratch.get();
+		b.clear();
+		b = ensure(b, 64);
+		b.putInt(0); // length, patched below
+		b.put(CALL).putInt(symbol).putLong(startNanos - t0).putLong(durationNanos);
+		b.put((byte) ((failed ? FLAG_FAILED : 0) | (isVoid ? FLAG_VOID : 0)));
+		b = putValue(b, isVoid ? null : result, null);
+		int n = args == null ? 0 : args.length;
+		b = ensure(b, 2);
+		b.putShort((short) n);
+		for (int i = 0; i < n; i++)
+			b = putValue(b, args[i], before != null ? before[i] : null);
+		// buffers the call changed: index and new contents
+		int countAt = b.position();
+		b = ensure(b, 2);
+		b.putShort((short) 0);
+		short changed = 0;
+		for (int i = 0; before != null && i < n; i++) {
+			if (before[i] == null)
+				continue;
+			byte[] after = contents(args[i]);
+			if (after == null || Arrays.equals(before[i], after))
+				continue;
+			b = ensure(b, 6 + after.length);
+			b.putShort((short) i).putInt(after.length).put(after);
+			changed++;
+		}
+		b.putShort(countAt, changed);
+		b.putInt(0, b.position() - 4);
+		b.flip();
+		synchronized (this) {
+			if (closed)
+				return;
+			append(b);
+			calls++;
+		}
+	}
+
+	/**
+	 * Stop recording; the log stays readable.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		ACTIVE.compareAndSet(this, null);
+		header.putLong(8, position);
+		region.force();
+		header.force();
+		region = null;
+		try {
+			// drop the unused rest of the last region; fails while the mapping is alive on some platforms, the header length counts
+			channel.truncate(position);
+		} catch (IOException ignored) {
+		}
+		try {
+			channel.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	private int symbol(String module, String function) {
+		Map<String, Integer> byFunction = symbols.computeIfAbsent(module, m -> new ConcurrentHashMap<>());
+		Integer id = byFunction.get(function);
+		if (id != null)
+			return id;
+		synchronized (this) {
+			id = byFunction.get(function);
+			if (id != null)
+				return id;
+			id = nextSymbol.getAndIncrement();
+			byte[] m = module.getBytes(StandardCharsets.UTF_8);
+			byte[] f = function.getBytes(StandardCharsets.UTF_8);
+			ByteBuffer b = ByteBuffer.allocate(4 + 1 + 4 + 4 + m.length + 4 + f.length).order(ByteOrder.LITTLE_ENDIAN);
+			b.putInt(b.capacity() - 4).put(SYMBOL).putInt(id).putInt(m.length).put(m).putInt(f.length).put(f).flip();
+			if (!closed)
+				append(b);
+			byFunction.put(function, id);
+			return id;
+		}
+	}
+
+	// caller holds the lock
+	private void append(ByteBuffer record) {
+		int len = record.remaining();
+		if (position + len > regionStart + region.capacity())
+			mapRegion(position, Math.max(REGION_SIZE, len));
+		region.position((int) (position - regionStart));
+		region.put(record);
+		position += len;
+		header.putLong(8, position);
+	}
+
+	private void mapRegion(long start, int size) {
+		try {
+			region = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+			region.order(ByteOrder.LITTLE_ENDIAN);
+			regionStart = start;
+		} catch (IOException ex) {
+			throw new IllegalStateException("Failed to extend call log " + file + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	private ByteBuffer ensure(ByteBuffer b, int more) {
+		if (b.remaining() >= more)
+			return b;
+		ByteBuffer bigger = ByteBuffer.allocate(Math.max(b.capacity() * 2, b.position() + more)).order(ByteOrder.LITTLE_ENDIAN);
+		b.flip();
+		bigger.put(b);
+		scratch.set(bigger);
+		return bigger;
+	}
+
+	private ByteBuffer putValue(ByteBuffer b, Object v, byte[] contents) {
+		b = ensure(b, 16);
+		if (v == null) {
+			b.put(NULL);
+		} else if (v instanceof Integer) {
+			b.put(INT).putInt((Integer) v);
+		} else if (v instanceof Long) {
+			b.put(LONG).putLong((Long) v);
+		} else if (v instanceof Float) {
+			b.put(FLOAT).putFloat((Float) v);
+		} else if (v instanceof Double) {
+			b.put(DOUBLE).putDouble((Double) v);
+		} else if (v instanceof Short) {
+			b.put(SHORT).putShort((Short) v);
+		} else if (v instanceof Byte) {
+			b.put(BYTE).put((Byte) v);
+		} else if (v instanceof Boolean) {
+			b.put(BOOLEAN).put((byte) ((Boolean) v ? 1 : 0));
+		} else if (v instanceof Character) {
+			b.put(CHAR).putChar((Character) v);
+		} else if (v instanceof String) {
+			b = putString(b.put(STRING), (String) v);
+		} else if (v instanceof WString) {
+			b = putString(b.put(WSTRING), v.toString());
+		} else if (v instanceof Memory || isPrimitiveArray(v)) {
+			byte[] bytes = contents != null ? contents : contents(v);
+			b = ensure(b, 8 + bytes.length);
+			if (v instanceof Memory)
+				b.put(MEMORY);
+			else
+				b.put(ARRAY).put(arrayType(v));
+			b.putInt(bytes.length).put(bytes);
+		} else if (v instanceof Pointer) {
+			b.put(POINTER).putLong(Pointer.nativeValue((Pointer) v));
+		} else if (v instanceof StringMarshaler.NativeText) {
+			// recorded as the pointer, the text is only decoded if the script reads it
+			b.put(POINTER).putLong(Pointer.nativeValue(((StringMarshaler.NativeText) v).getPointer()));
+		} else if (v instanceof Callbacks.Bound) {
+			b = putString(b.put(CALLBACK), ((Callbacks.Bound) v).signature.text);
+		} else if (v instanceof Callbacks.Stub) {
+			b = putString(b.put(CALLBACK), ((Callbacks.Stub) v).signature.text);
+		} else {
+			b = putString(b.put(OTHER), v.getClass().getName());
+		}
+		return b;
+	}
+
+	private ByteBuffer putString(ByteBuffer b, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		b = ensure(b, 4 + bytes.length);
+		return b.putInt(bytes.length).put(bytes);
+	}
+
+	private static boolean isPrimitiveArray(Object v) {
+		return v instanceof byte[] || v instanceof short[] || v instanceof int[] || v instanceof long[] || v instanceof float[]
+				|| v instanceof double[];
+	}
+
+	/**
+	 * Element type of a primitive array, as the value tag of its elements.
+	 */
+	static byte arrayType(Object v) {
+		if (v instanceof byte[])
+			return BYTE;
+		if (v instanceof short[])
+			return SHORT;
+		if (v instanceof int[])
+			return INT;
+		if (v instanceof long[])
+			return LONG;
+		if (v instanceof float[])
+			return FLOAT;
+		return DOUBLE;
+	}
+
+	/**
+	 * Raw little endian contents of a buffer argument, or null if the value is none.
+	 */
+	static byte[] contents(Object v) {
+		if (v instanceof Memory) {
+			Memory m = (Memory) v;
+			return m.getByteArray(0, (int) m.size());
+		}
+		if (v instanceof byte[])
+			return ((byte[]) v).clone();
+		ByteBuffer b;
+		if (v instanceof short[]) {
+			short[] a = (short[]) v;
+			b = ByteBuffer.allocate(a.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+			b.asShortBuffer().put(a);
+		} else if (v instanceof int[]) {
+			int[] a = (int[]) v;
+			b = ByteBuffer.allocate(a.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+			b.asIntBuffer().put(a);
+		} else if (v instanceof long[]) {
+			long[] a = (long[]) v;
+			b = ByteBuffer.allocate(a.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+			b.asLongBuffer().put(a);
+		} else if (v instanceof float[]) {
+			float[] a = (float[]) v;
+			b = ByteBuffer.allocate(a.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+			b.asFloatBuffer().put(a);
+		} else if (v instanceof double[]) {
+			double[] a = (double[]) v;
+			b = ByteBuffer.allocate(a.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+			b.asDoubleBuffer().put(a);
+		} else {
+			return null;
+		}
+		return b.array();
+	}
+}
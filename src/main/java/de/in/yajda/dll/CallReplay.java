@@ -0,0 +1,492 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.sun.jna.Function;
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+import com.sun.jna.WString;
+
+/**
+ * Runs the calls of a {@link CallRecorder} log against a (new build of a) library and reports where the results diverge: a call that now
+ * fails or now succeeds, a different return value, or different contents of a buffer the call writes. Pointer return values are compared
+ * by null-ness only, since addresses differ between runs.
+ *
+ * Calls are issued back to back on the calling thread, without the proxy factory, metrics or memo cache in between. Handles are carried
+ * over: a first pass over the log finds the return values that later calls take as arguments (pointers, or integers when the function was
+ * called without a declared return type). Those are compared by null-ness only, and passed on as what the replayed call returned. Calls
+ * that cannot be reproduced are skipped: other non-null raw pointer arguments (they pointed into the recording process), and arguments of
+ * other types. Callback arguments get a stub that returns 0. A missing export is reported once and its calls are skipped.
+ *
+ * Calls made without a declared return type come back as integers from whatever is in the return register. The optional map of return
+ * types (function name -> C type from the header) tells which of them are void (not compared) or pointers.
+ */
+public class CallReplay {
+	/** Divergences kept in the report; all are counted. */
+	public static final int MAX_DIVERGENCES = 1000;
+	private static final int WINDOW = 64 << 20;
+
+	public static final class Divergence {
+		/** Index of the call in the log, from 0. */
+		public final long call;
+		public final String module;
+		public final String function;
+		public final String what;
+		public final String expected;
+		public final String actual;
+
+		Divergence(long call, String module, String function, String what, String expected, String actual) {
+			this.call = call;
+			this.module = module;
+			this.function = function;
+			this.what = what;
+			this.expected = expected;
+			this.actual = actual;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + call + " " + module + "!" + function + ": " + what + " expected " + expected + ", got " + actual;
+		}
+	}
+
+	public static final class Report {
+		public long calls;
+		public long replayed;
+		public long skipped;
+		public long divergenceCount;
+		/** Time of the replayed calls in the recording and now. */
+		public long recordedNanos;
+		public long replayNanos;
+		public final List<Divergence> divergences = new ArrayList<>();
+
+		void diverged(Divergence d) {
+			divergenceCount++;
+			if (divergences.size() < MAX_DIVERGENCES)
+				divergences.add(d);
+		}
+
+		public String summary() {
+			return String.format(Locale.ROOT, "%d calls: %d replayed, %d skipped, %d divergences; native time %.1f ms recorded, %.1f ms now", calls,
+					replayed, skipped, divergenceCount, recordedNanos / 1e6, replayNanos / 1e6);
+		}
+	}
+
+	private static final class Symbol {
+		final String module;
+		final String function;
+		Function target;
+		boolean missing;
+
+		Symbol(String module, String function) {
+			this.module = module;
+			this.function = function;
+		}
+	}
+
+	/**
+	 * A buffer argument: its contents before the call and the type to pass it as.
+	 */
+	private static final class Buffer {
+		final byte tag;
+		final byte elementType;
+		final byte[] before;
+
+		Buffer(byte tag, byte elementType, byte[] before) {
+			this.tag = tag;
+			this.elementType = elementType;
+			this.before = before;
+		}
+	}
+
+	/**
+	 * A non-null pointer from the recording; only usable again if an earlier call returned it.
+	 */
+	private static final class RecordedPointer {
+		final long address;
+
+		RecordedPointer(long address) {
+			this.address = address;
+		}
+
+		@Override
+		public String toString() {
+			return "non-null pointer";
+		}
+	}
+
+	// an argument of a type that was not recorded by value
+	private static final Object UNREPLAYABLE = new Object();
+	// integers below this are counts, sizes or flags rather than handles
+	private static final long MIN_HANDLE = 0x10000;
+
+	private final java.util.function.Function<String, File> libraries;
+	private final Map<String, String> returnTypes;
+	private final Report report = new Report();
+	private final Map<Integer, Symbol> symbols = new HashMap<>();
+	private final Map<String, Callbacks.Stub> noopCallbacks = new HashMap<>();
+	// integers returned by one call and passed to a later one
+	private final Set<Long> handleValues = new HashSet<>();
+	// recorded handle -> handle returned in the replay
+	private final Map<Long, Object> handles = new HashMap<>();
+	// first pass: decode values without creating callback stubs
+	private boolean scanning;
+
+	private CallReplay(java.util.function.Function<String, File> libraries, Map<String, String> returnTypes) {
+		this.libraries = libraries;
+		this.returnTypes = returnTypes != null ? returnTypes : Map.of();
+	}
+
+	/**
+	 * Replay every call of the log against one library, whatever module it was recorded for.
+	 */
+	public static Report replay(Path log, File library) throws IOException {
+		return replay(log, library, null);
+	}
+
+	/**
+	 * Replay every call of the log against one library, with the declared return types of its functions (may be null).
+	 */
+	public static Report replay(Path log, File library, Map<String, String> returnTypes) throws IOException {
+		return new CallReplay(module -> library, returnTypes).run(log);
+	}
+
+	/**
+	 * Replay against the libraries found for the recorded module names (file names); calls of modules without a library are skipped.
+	 */
+	public static Report replay(Path log, Map<String, File> libraries, Map<String, String> returnTypes) throws IOException {
+		return new CallReplay(libraries::get, returnTypes).run(log);
+	}
+
+	private Report run(Path log) throws IOException {
+		try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+			scanHandles(new Reader(ch));
+			Reader r = new Reader(ch);
+			ByteBuffer rec;
+			while ((rec = r.next()) != null) {
+				byte type = rec.get();
+				if (type == CallRecorder.SYMBOL) {
+					int id = rec.getInt();
+					symbols.put(id, new Symbol(getString(rec), getString(rec)));
+				} else if (type == CallRecorder.CALL) {
+					replayCall(rec);
+				}
+			}
+		} finally {
+			for (Callbacks.Stub s : noopCallbacks.values())
+				Callbacks.getDefault().unpin(s);
+		}
+		return report;
+	}
+
+	private void scanHandles(Reader r) throws IOException {
+		scanning = true;
+		Set<Long> returned = new HashSet<>();
+		ByteBuffer rec;
+		while ((rec = r.next()) != null) {
+			if (rec.get() != CallRecorder.CALL)
+				continue;
+			rec.position(rec.position() + 4 + 8 + 8 + 1); // symbol, start, duration, flags
+			Object result = getValue(rec);
+			int n = rec.getShort();
+			for (int i = 0; i < n; i++) {
+				Object v = getValue(rec);
+				if (v instanceof Long && returned.contains(v))
+					handleValues.add((Long) v);
+			}
+			if (result instanceof Long && Math.abs((Long) result) >= MIN_HANDLE)
+				returned.add((Long) result);
+		}
+		scanning = false;
+	}
+
+	private void replayCall(ByteBuffer rec) {
+		long index = report.calls++;
+		Symbol sym = symbols.get(rec.getInt());
+		rec.getLong(); // start time
+		long recordedNanos = rec.getLong();
+		byte flags = rec.get();
+		boolean failed = (flags & CallRecorder.FLAG_FAILED) != 0;
+		boolean isVoid = (flags & CallRecorder.FLAG_VOID) != 0;
+		byte resultTag = rec.get(rec.position());
+		Object expected = getValue(rec);
+		int n = rec.getShort();
+		Object[] args = new Object[n];
+		byte[][] before = new byte[n][];
+		boolean replayable = sym != null;
+		for (int i = 0; i < n; i++) {
+			Object v = getValue(rec);
+			if (v instanceof Buffer) {
+				before[i] = ((Buffer) v).before;
+				v = toArgument((Buffer) v);
+			} else if (v instanceof RecordedPointer) {
+				v = handles.getOrDefault(((RecordedPointer) v).address, UNREPLAYABLE);
+			} else if (v instanceof Long && handleValues.contains(v)) {
+				v = handles.getOrDefault(v, v);
+			}
+			if (v == UNREPLAYABLE)
+				replayable = false;
+			args[i] = v;
+		}
+		Map<Integer, byte[]> changed = new HashMap<>();
+		int c = rec.getShort();
+		for (int i = 0; i < c; i++) {
+			int arg = rec.getShort();
+			byte[] after = new byte[rec.getInt()];
+			rec.get(after);
+			changed.put(arg, after);
+		}
+		Function f = replayable ? resolve(sym, index) : null;
+		if (f == null) {
+			report.skipped++;
+			return;
+		}
+
+		Object actual = null;
+		Throwable error = null;
+		long t0 = System.nanoTime();
+		try {
+			if (isVoid)
+				f.invokeVoid(args);
+			else
+				actual = f.invoke(returnType(resultTag), args);
+		} catch (Throwable t) {
+			error = t;
+		}
+		report.replayNanos += System.nanoTime() - t0;
+		report.recordedNanos += recordedNanos;
+		report.replayed++;
+
+		if (failed != (error != null)) {
+			report.diverged(new Divergence(index, sym.module, sym.function, "outcome", failed ? "failure" : "success",
+					error != null ? "failure: " + error.getMessage() : "success"));
+			return;
+		}
+		if (failed)
+			return;
+		String declared = returnTypes.get(sym.function);
+		boolean handle = expected instanceof RecordedPointer || handleValues.contains(expected) || declared != null && declared.contains("*");
+		if (handle) {
+			if (isNull(expected) != isNull(actual))
+				report.diverged(new Divergence(index, sym.module, sym.function, "return value", isNull(expected) ? "null" : "non-null",
+						isNull(actual) ? "null" : "non-null"));
+			else if (!isNull(expected))
+				handles.put(expected instanceof RecordedPointer ? ((RecordedPointer) expected).address : (Long) expected, actual);
+		} else if (!isVoid && !"void".equals(declared) && !Objects.equals(expected, actual)) {
+			report.diverged(new Divergence(index, sym.module, sym.function, "return value", String.valueOf(expected), String.valueOf(actual)));
+		}
+		for (int i = 0; i < n; i++) {
+			if (before[i] == null)
+				continue;
+			byte[] want = changed.getOrDefault(i, before[i]);
+			byte[] got = CallRecorder.contents(args[i]);
+			if (!Arrays.equals(want, got))
+				report.diverged(new Divergence(index, sym.module, sym.function, "buffer argument " + (i + 1), describe(want), describe(got)));
+		}
+	}
+
+	private Function resolve(Symbol sym, long index) {
+		if (sym.target != null || sym.missing)
+			return sym.target;
+		File lib = libraries.apply(sym.module);
+		if (lib == null) {
+			sym.missing = true;
+			return null;
+		}
+		try {
+			sym.target = NativeLibrary.getInstance(lib.getAbsolutePath()).getFunction(sym.function);
+		} catch (UnsatisfiedLinkError ex) {
+			sym.missing = true;
+			report.diverged(new Divergence(index, sym.module, sym.function, "export", "present", "missing in " + lib.getName()));
+		}
+		return sym.target;
+	}
+
+	private static Class<?> returnType(byte tag) {
+		switch (tag) {
+		case CallRecorder.INT:
+			return Integer.class;
+		case CallRecorder.FLOAT:
+			return Float.class;
+		case CallRecorder.DOUBLE:
+			return Double.class;
+		case CallRecorder.SHORT:
+			return Short.class;
+		case CallRecorder.BYTE:
+			return Byte.class;
+		case CallRecorder.POINTER:
+		case CallRecorder.NULL:
+			return Pointer.class;
+		default:
+			return Long.class;
+		}
+	}
+
+	private static boolean isNull(Object o) {
+		return o == null || o instanceof Pointer && Pointer.nativeValue((Pointer) o) == 0 || o instanceof Number && ((Number) o).longValue() == 0;
+	}
+
+	private static String describe(byte[] bytes) {
+		if (bytes == null)
+			return "null";
+		StringBuilder sb = new StringBuilder(bytes.length + " bytes [");
+		for (int i = 0; i < Math.min(16, bytes.length); i++)
+			sb.append(String.format("%02x", bytes[i] & 0xFF));
+		return sb.append(bytes.length > 16 ? "...]" : "]").toString();
+	}
+
+	private static Object toArgument(Buffer b) {
+		if (b.tag == CallRecorder.MEMORY) {
+			Memory m = new Memory(Math.max(1, b.before.length));
+			m.write(0, b.before, 0, b.before.length);
+			return m;
+		}
+		ByteBuffer bb = ByteBuffer.wrap(b.before).order(ByteOrder.LITTLE_ENDIAN);
+		switch (b.elementType) {
+		case CallRecorder.BYTE:
+			return b.before.clone();
+		case CallRecorder.SHORT: {
+			short[] a = new short[b.before.length / 2];
+			bb.asShortBuffer().get(a);
+			return a;
+		}
+		case CallRecorder.INT: {
+			int[] a = new int[b.before.length / 4];
+			bb.asIntBuffer().get(a);
+			return a;
+		}
+		case CallRecorder.LONG: {
+			long[] a = new long[b.before.length / 8];
+			bb.asLongBuffer().get(a);
+			return a;
+		}
+		case CallRecorder.FLOAT: {
+			float[] a = new float[b.before.length / 4];
+			bb.asFloatBuffer().get(a);
+			return a;
+		}
+		default: {
+			double[] a = new double[b.before.length / 8];
+			bb.asDoubleBuffer().get(a);
+			return a;
+		}
+		}
+	}
+
+	private Object getValue(ByteBuffer b) {
+		byte tag = b.get();
+		switch (tag) {
+		case CallRecorder.NULL:
+			return null;
+		case CallRecorder.INT:
+			return b.getInt();
+		case CallRecorder.LONG:
+			return b.getLong();
+		case CallRecorder.FLOAT:
+			return b.getFloat();
+		case CallRecorder.DOUBLE:
+			return b.getDouble();
+		case CallRecorder.SHORT:
+			return b.getShort();
+		case CallRecorder.BYTE:
+			return b.get();
+		case CallRecorder.BOOLEAN:
+			return b.get() != 0;
+		case CallRecorder.CHAR:
+			return b.getChar();
+		case CallRecorder.STRING:
+			return getString(b);
+		case CallRecorder.WSTRING:
+			return new WString(getString(b));
+		case CallRecorder.MEMORY:
+		case CallRecorder.ARRAY: {
+			byte elementType = tag == CallRecorder.ARRAY ? b.get() : 0;
+			byte[] bytes = new byte[b.getInt()];
+			b.get(bytes);
+			return new Buffer(tag, elementType, bytes);
+		}
+		case CallRecorder.POINTER: {
+			long address = b.getLong();
+			return address == 0 ? null : new RecordedPointer(address);
+		}
+		case CallRecorder.CALLBACK: {
+			String sig = getString(b);
+			return scanning ? null : noopCallbacks.computeIfAbsent(sig, s -> Callbacks.getDefault().pin(s, args -> null));
+		}
+		default:
+			getString(b); // OTHER: class name
+			return UNREPLAYABLE;
+		}
+	}
+
+	private static String getString(ByteBuffer b) {
+		byte[] bytes = new byte[b.getInt()];
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the records of a log through mapped windows of the file.
+	 */
+	private static final class Reader {
+		final FileChannel ch;
+		final long end;
+		ByteBuffer window;
+		long windowStart;
+		long pos = CallRecorder.HEADER_SIZE;
+
+		Reader(FileChannel ch) throws IOException {
+			this.ch = ch;
+			ByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY, 0, CallRecorder.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (h.getInt(0) != CallRecorder.MAGIC)
+				throw new IOException("Not a call log");
+			if (h.getInt(4) != CallRecorder.VERSION)
+				throw new IOException("Unsupported call log version " + h.getInt(4));
+			long length = h.getLong(8);
+			this.end = length >= CallRecorder.HEADER_SIZE && length <= ch.size() ? length : ch.size();
+		}
+
+		/**
+		 * The next record without its length prefix, or null at the end.
+		 */
+		ByteBuffer next() throws IOException {
+			if (pos + 4 > end)
+				return null;
+			ensure(4);
+			int len = window.getInt((int) (pos - windowStart));
+			if (len <= 0 || pos + 4 + len > end)
+				return null; // torn record at the end of an interrupted recording
+			ensure(4 + len);
+			int at = (int) (pos - windowStart) + 4;
+			ByteBuffer rec = window.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			rec.position(at).limit(at + len);
+			pos += 4 + len;
+			return rec.slice().order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if (window != null && pos >= windowStart && pos + bytes <= windowStart + window.capacity())
+				return;
+			long size = Math.min(Math.max(WINDOW, bytes), end - pos);
+			window = ch.map(FileChannel.MapMode.READ_ONLY, pos, size).order(ByteOrder.LITTLE_ENDIAN);
+			windowStart = pos;
+		}
+	}
+}
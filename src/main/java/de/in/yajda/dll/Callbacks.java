@@ -0,0 +1,404 @@
+package de.in.yajda.dll;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.jna.CallbackProxy;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.WString;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+import de.in.yajda.dll.HeaderParser.HeaderInfo;
+
+/**
+ * Script closures as native callbacks, for function-pointer parameters such as progress callbacks, enumerators and comparators.
+ *
+ * A script passes a {@link Closure} where the function expects a function pointer, either wrapped with its C signature
+ * (callbacks.of("int (*)(int, void *)", fn)) or bare, if the loaded header declares that parameter as a function pointer. For the
+ * duration of the native call the closure is bound to a {@link Stub}, a JNA {@link CallbackProxy} whose native trampoline is created the
+ * first time the stub is passed. Stubs are pooled per signature and go back to the pool when the call returns, so a script that
+ * enumerates a million items, or calls an enumerator a million times, reuses the same few trampolines.
+ *
+ * A library that keeps the pointer beyond the call (registered handlers) needs a stub that stays bound: {@link #pin} hands one out until
+ * {@link #unpin}. A stub that is called after its call returned does nothing and returns 0.
+ *
+ * One instance ({@link #getDefault()}) is shared by the proxy factories and the script invoker; it is bound as 'callbacks' in scripts.
+ * Callbacks use the platform's default calling convention (the only one on x64).
+ */
+public class Callbacks {
+	private static final Callbacks DEFAULT = new Callbacks();
+
+	public static Callbacks getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * A script function called from native code. Arguments arrive as Integer, Long, Short, Byte, Float, Double, Pointer or String
+	 * (const char *) according to the signature; the result is converted to the return type, null meaning 0.
+	 */
+	public interface Closure {
+		Object call(Object[] args) throws Exception;
+	}
+
+	/**
+	 * A closure together with the signature it is called with.
+	 */
+	public static final class Bound {
+		final Signature signature;
+		final Closure closure;
+
+		Bound(Signature signature, Closure closure) {
+			this.signature = signature;
+			this.closure = closure;
+		}
+	}
+
+	static final class Signature {
+		final String text;
+		final Class<?> returnType;
+		final Class<?>[] paramTypes;
+		// what JNA passes: strings arrive as pointers and are decoded by the stub
+		final Class<?>[] nativeTypes;
+		final Deque<Stub> idle = new ConcurrentLinkedDeque<>();
+		final LongAdder stubs = new LongAdder();
+		final LongAdder calls = new LongAdder();
+
+		Signature(String text, HeaderInfo info) {
+			this.text = text;
+			this.returnType = "void".equals(info.returnType) ? void.class : javaType(info.returnType);
+			this.paramTypes = new Class<?>[info.paramTypes.size()];
+			this.nativeTypes = new Class<?>[paramTypes.length];
+			for (int i = 0; i < paramTypes.length; i++) {
+				paramTypes[i] = javaType(info.paramTypes.get(i));
+				nativeTypes[i] = paramTypes[i] == String.class || paramTypes[i] == WString.class ? Pointer.class : paramTypes[i];
+			}
+		}
+	}
+
+	/**
+	 * Native entry point of one signature. The target is swapped per lease; the trampoline stays.
+	 */
+	public static final class Stub implements CallbackProxy {
+		final Signature signature;
+		volatile Closure target;
+		volatile Throwable failure;
+
+		Stub(Signature signature) {
+			this.signature = signature;
+		}
+
+		@Override
+		public Object callback(Object[] args) {
+			signature.calls.increment();
+			Closure c = target;
+			if (c == null)
+				return convert(null, signature.returnType);
+			try {
+				Class<?>[] types = signature.paramTypes;
+				for (int i = 0; i < args.length && i < types.length; i++) {
+					if (args[i] instanceof Pointer && types[i] == String.class)
+						args[i] = ((Pointer) args[i]).getString(0);
+					else if (args[i] instanceof Pointer && types[i] == WString.class)
+						args[i] = new WString(((Pointer) args[i]).getWideString(0));
+				}
+				return convert(c.call(args), signature.returnType);
+			} catch (Throwable t) {
+				// native code cannot unwind a Java exception: report it when the call returns
+				if (failure == null)
+					failure = t;
+				return convert(null, signature.returnType);
+			}
+		}
+
+		@Override
+		public Class<?>[] getParameterTypes() {
+			return signature.nativeTypes;
+		}
+
+		@Override
+		public Class<?> getReturnType() {
+			return signature.returnType;
+		}
+	}
+
+	/**
+	 * Stubs bound for one native call, and the arguments to pass instead of the closures.
+	 */
+	public static final class Lease implements AutoCloseable {
+		public final Object[] args;
+		private final List<Stub> stubs;
+
+		Lease(Object[] args, List<Stub> stubs) {
+			this.args = args;
+			this.stubs = stubs;
+		}
+
+		/**
+		 * Throw the first exception a closure threw during the call, if any.
+		 */
+		public void rethrow() {
+			for (Stub s : stubs) {
+				Throwable t = s.failure;
+				if (t != null)
+					throw new RuntimeException("Callback " + s.signature.text + " failed: " + t.getMessage(), t);
+			}
+		}
+
+		@Override
+		public void close() {
+			for (Stub s : stubs) {
+				s.target = null;
+				s.failure = null;
+				s.signature.idle.offerFirst(s); // most recently used first: its trampoline is warm
+			}
+		}
+	}
+
+	private final Map<String, Signature> signatures = new ConcurrentHashMap<>();
+	// function name -> signature per parameter, null where the parameter is no function pointer
+	private volatile Map<String, Signature[]> prototypes = Map.of();
+
+	/**
+	 * Wrap a closure with the C signature it is called with, e.g. "int (*)(int, void *)".
+	 */
+	public Bound of(String signature, Closure closure) {
+		if (closure == null)
+			throw new IllegalArgumentException("closure is null");
+		return new Bound(signature(signature), closure);
+	}
+
+	/**
+	 * A stub that stays bound to the closure until {@link #unpin}, for callbacks the library stores and calls later.
+	 */
+	public Stub pin(String signature, Closure closure) {
+		Stub s = take(signature(signature));
+		s.target = closure;
+		return s;
+	}
+
+	public void unpin(Stub stub) {
+		stub.target = null;
+		stub.failure = null;
+		stub.signature.idle.offerFirst(stub);
+	}
+
+	/**
+	 * Remember which parameters of the functions are function pointers, so bare closures can be passed for them.
+	 */
+	public void setPrototypes(Collection<FunctionInfo> functions) {
+		Map<String, Signature[]> map = new HashMap<>();
+		for (FunctionInfo fi : functions) {
+			Signature[] sigs = null;
+			for (int i = 0; i < fi.paramTypes.size(); i++) {
+				if (HeaderParser.parseFunctionPointer(fi.paramTypes.get(i)) == null)
+					continue;
+				if (sigs == null)
+					sigs = new Signature[fi.paramTypes.size()];
+				sigs[i] = signature(fi.paramTypes.get(i));
+			}
+			if (sigs != null)
+				map.put(fi.name, sigs);
+		}
+		prototypes = map;
+	}
+
+	/**
+	 * Bind the closures among the arguments of a call to stubs. Returns null, without allocating, if there are none; otherwise the lease
+	 * with the arguments to pass, to be closed when the call returns.
+	 */
+	public Lease lease(String function, Object[] args) {
+		if (args == null)
+			return null;
+		int first = -1;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] instanceof Bound || args[i] instanceof Closure) {
+				first = i;
+				break;
+			}
+		}
+		if (first < 0)
+			return null;
+		Object[] a = args.clone();
+		List<Stub> stubs = new ArrayList<>(2);
+		Signature[] declared = prototypes.get(function);
+		for (int i = first; i < a.length; i++) {
+			Signature sig;
+			Closure closure;
+			if (a[i] instanceof Bound) {
+				sig = ((Bound) a[i]).signature;
+				closure = ((Bound) a[i]).closure;
+			} else if (a[i] instanceof Closure) {
+				sig = declared != null && i < declared.length ? declared[i] : null;
+				if (sig == null) {
+					new Lease(a, stubs).close();
+					throw new IllegalArgumentException("Parameter " + (i + 1) + " of " + function
+							+ " is not declared as a function pointer; pass callbacks.of(\"<ret> (*)(<params>)\", closure)");
+				}
+				closure = (Closure) a[i];
+			} else {
+				continue;
+			}
+			Stub s = take(sig);
+			s.target = closure;
+			stubs.add(s);
+			a[i] = s;
+		}
+		return new Lease(a, stubs);
+	}
+
+	/**
+	 * One line per signature: stubs created (each with its own trampoline) and callbacks received.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for (Signature s : signatures.values())
+			sb.append(s.text).append("  stubs=").append(s.stubs.sum()).append(" calls=").append(s.calls.sum()).append(System.lineSeparator());
+		return sb.length() == 0 ? "No callback signatures used." : sb.toString();
+	}
+
+	private Signature signature(String text) {
+		Signature s = signatures.get(text);
+		if (s != null)
+			return s;
+		HeaderInfo info = HeaderParser.parseFunctionPointer(text);
+		if (info == null)
+			throw new IllegalArgumentException("Not a function pointer type: " + text + " (expected e.g. \"int (*)(int, void *)\")");
+		return signatures.computeIfAbsent(text, t -> new Signature(t, info));
+	}
+
+	private static Stub take(Signature sig) {
+		Stub s = sig.idle.pollFirst();
+		if (s == null) {
+			s = new Stub(sig);
+			sig.stubs.increment();
+		}
+		return s;
+	}
+
+	/**
+	 * Java type JNA passes for a C or Win32 type in a callback. Win32 type names are matched case-sensitively, since BOOL is a 4-byte int
+	 * and bool a 1-byte one. Other integer types are taken as 64 bits (long long, __int64, ULONGLONG).
+	 */
+	static Class<?> javaType(String cType) {
+		String t = cType.replaceAll("\\s+", " ").trim();
+		boolean readOnly = t.startsWith("const ");
+		String base = t.replace("const ", "").replace("volatile ", "").trim();
+		int star = base.indexOf('*');
+		if (star >= 0) {
+			// only read-only strings are converted; a writable buffer stays a pointer
+			String pointee = base.substring(0, star).trim();
+			if (readOnly && star == base.lastIndexOf('*')) {
+				if (pointee.equals("char"))
+					return String.class;
+				if (pointee.equals("wchar_t") || pointee.equals("WCHAR"))
+					return WString.class;
+			}
+			return Pointer.class;
+		}
+		switch (base) {
+		case "char":
+		case "signed char":
+		case "unsigned char":
+		case "bool":
+		case "_Bool":
+		case "int8_t":
+		case "uint8_t":
+		case "CHAR":
+		case "UCHAR":
+		case "BYTE":
+		case "BOOLEAN":
+			return byte.class;
+		case "short":
+		case "short int":
+		case "unsigned short":
+		case "unsigned short int":
+		case "wchar_t":
+		case "int16_t":
+		case "uint16_t":
+		case "SHORT":
+		case "USHORT":
+		case "WORD":
+		case "WCHAR":
+			return short.class;
+		case "int":
+		case "signed":
+		case "signed int":
+		case "unsigned":
+		case "unsigned int":
+		case "int32_t":
+		case "uint32_t":
+		case "INT":
+		case "UINT":
+		case "BOOL":
+		case "LONG":
+		case "ULONG":
+		case "DWORD":
+		case "HRESULT":
+		case "HALF_PTR":
+			return int.class;
+		case "long":
+		case "long int":
+		case "unsigned long":
+		case "unsigned long int":
+			return Native.LONG_SIZE == 8 ? long.class : int.class;
+		case "float":
+		case "FLOAT":
+			return float.class;
+		case "double":
+		case "long double":
+			return double.class;
+		case "size_t":
+		case "ssize_t":
+		case "intptr_t":
+		case "uintptr_t":
+		case "SIZE_T":
+		case "INT_PTR":
+		case "UINT_PTR":
+		case "LONG_PTR":
+		case "ULONG_PTR":
+		case "DWORD_PTR":
+		case "WPARAM":
+		case "LPARAM":
+		case "LRESULT":
+			return Native.POINTER_SIZE == 8 ? long.class : int.class;
+		case "LPCSTR":
+		case "PCSTR":
+			return String.class;
+		case "LPCWSTR":
+		case "PCWSTR":
+			return WString.class;
+		default:
+			// HANDLE, HWND, LPVOID, PDWORD and the like
+			if (base.matches("(H|LP|P)[A-Z0-9_]+"))
+				return Pointer.class;
+			return long.class;
+		}
+	}
+
+	private static Object convert(Object value, Class<?> type) {
+		if (type == void.class)
+			return null;
+		if (type == Pointer.class || type == String.class || type == WString.class)
+			return type.isInstance(value) ? value : null;
+		long v = value instanceof Number ? ((Number) value).longValue()
+				: value instanceof Boolean ? (((Boolean) value) ? 1 : 0) : value instanceof Character ? (Character) value : 0;
+		if (type == int.class)
+			return (int) v;
+		if (type == long.class)
+			return v;
+		if (type == short.class)
+			return (short) v;
+		if (type == byte.class)
+			return (byte) v;
+		double d = value instanceof Number ? ((Number) value).doubleValue() : v;
+		return type == float.class ? (Object) (float) d : (Object) d;
+	}
+}
@@ -0,0 +1,1030 @@
+package de.in.yajda.dll;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Recovers function signatures from decorated export names without a header:
+ * <ul>
+ * <li>MSVC C++ decoration ({@code ?Foo@Bar@@QEAAHH@Z} -> {@code int Bar::Foo(int)})</li>
+ * <li>Itanium C++ ABI mangling used by GCC/Clang on ELF ({@code _ZN3Bar3FooEi} -> {@code Bar::Foo(int)}); Itanium does not encode the
+ * return type of non-template functions, which stays "unknown"</li>
+ * <li>x86 {@code _name@N} (stdcall) and {@code @name@N} (fastcall) decoration, which only gives the argument byte count; parameters are
+ * reported as N/4 "unknown" entries</li>
+ * </ul>
+ *
+ * Bulk scans see the same scopes and class names over and over. Context-free name components (MSVC qualified names without back
+ * references, Itanium nested names without substitutions or template parameters) are therefore memoized together with the back
+ * reference/substitution entries they produce, and decoded type strings are interned so that identical types share one String.
+ *
+ * Unsupported constructs make {@link #demangle(String)} return null; callers then keep the "unknown" signature.
+ */
+public class Demangler {
+
+	public static class Signature {
+		/** Demangled, scope-qualified name, e.g. "Bar::Foo". */
+		public final String name;
+		public final String returnType;
+		public final List<String> paramTypes;
+
+		Signature(String name, String returnType, List<String> paramTypes) {
+			this.name = name;
+			this.returnType = returnType;
+			this.paramTypes = Collections.unmodifiableList(paramTypes);
+		}
+
+		@Override
+		public String toString() {
+			return returnType + " " + name + "(" + String.join(", ", paramTypes) + ")";
+		}
+	}
+
+	private static final int MAX_CACHE = 200_000;
+
+	/** Memoized name components: mangled fragment -> decoded text plus the back references it adds. */
+	private static final Map<String, Component> COMPONENTS = new ConcurrentHashMap<>();
+	/** Interned decoded type strings. */
+	private static final Map<String, String> TYPES = new ConcurrentHashMap<>();
+
+	private static final class Component {
+		final String text;
+		final String[] refs;
+
+		Component(String text, List<String> refs) {
+			this.text = text;
+			this.refs = refs.toArray(new String[0]);
+		}
+	}
+
+	private static final class Unsupported extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static final Unsupported UNSUPPORTED = new Unsupported();
+
+	/**
+	 * Demangle a decorated export name, or return null if the name is undecorated or uses unsupported constructs.
+	 */
+	public static Signature demangle(String mangled) {
+		if (mangled == null || mangled.length() < 3)
+			return null;
+		try {
+			if (mangled.charAt(0) == '?')
+				return new Msvc(mangled).parse();
+			if (mangled.startsWith("_Z"))
+				return new Itanium(mangled, 2).parse();
+			if (mangled.startsWith("__Z")) // Mach-O style extra underscore
+				return new Itanium(mangled, 3).parse();
+			return parseCDecoration(mangled);
+		} catch (Unsupported | IndexOutOfBoundsException | NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Number of memoized name components; exposed for diagnostics.
+	 */
+	public static int getCacheSize() {
+		return COMPONENTS.size();
+	}
+
+	private static Signature parseCDecoration(String s) {
+		int at = s.lastIndexOf('@');
+		if (at <= 1 || at == s.length() - 1 || (s.charAt(0) != '_' && s.charAt(0) != '@'))
+			return null;
+		for (int i = at + 1; i < s.length(); i++) {
+			if (!Character.isDigit(s.charAt(i)))
+				return null;
+		}
+		int bytes = Integer.parseInt(s.substring(at + 1));
+		List<String> params = new ArrayList<>();
+		for (int i = 0; i < bytes / 4; i++)
+			params.add("unknown");
+		return new Signature(s.substring(1, at), "unknown", params);
+	}
+
+	private static String intern(String type) {
+		if (TYPES.size() >= MAX_CACHE)
+			return type;
+		String prev = TYPES.putIfAbsent(type, type);
+		return prev != null ? prev : type;
+	}
+
+	private static void remember(String key, String text, List<String> refs) {
+		if (COMPONENTS.size() < MAX_CACHE)
+			COMPONENTS.putIfAbsent(key, new Component(text, refs));
+	}
+
+	// ------------------------------------------------------------------------------------------------------------------------------
+	// MSVC
+
+	private static final class Msvc {
+		private final String s;
+		private int pos;
+		private List<String> nameRefs = new ArrayList<>(10);
+		private List<String> typeRefs = new ArrayList<>(10);
+
+		Msvc(String s) {
+			this.s = s;
+		}
+
+		private char peek() {
+			return pos < s.length() ? s.charAt(pos) : '\0';
+		}
+
+		private char next() {
+			return s.charAt(pos++);
+		}
+
+		Signature parse() {
+			pos = 1;
+			String name = parseQualifiedName();
+			char code = next();
+			boolean hasThis;
+			if (code == 'Y' || code == 'Z') {
+				hasThis = false;
+			} else if (code >= 'A' && code <= 'X') {
+				int kind = ((code - 'A') % 8) / 2; // 0 plain, 1 static, 2 virtual, 3 thunk
+				if (kind == 3)
+					parseNumber(); // this adjustor
+				hasThis = kind != 1;
+			} else {
+				return null; // data symbols, vftables, RTTI
+			}
+			if (hasThis) {
+				while (peek() == 'E' || peek() == 'I' || peek() == 'F')
+					pos++; // __ptr64, __restrict, __unaligned
+				pos++; // cv-qualifier of 'this'
+			}
+			pos++; // calling convention
+			String ret;
+			if (peek() == '@') {
+				pos++;
+				ret = "void"; // constructors and destructors
+			} else {
+				if (s.startsWith("?A", pos))
+					pos += 2;
+				ret = parseType();
+			}
+			return new Signature(name, ret, parseParams());
+		}
+
+		private List<String> parseParams() {
+			List<String> params = new ArrayList<>();
+			if (peek() == 'X') {
+				pos++;
+				return params;
+			}
+			while (pos < s.length()) {
+				char c = peek();
+				if (c == '@') {
+					pos++;
+					break;
+				}
+				if (c == 'Z') {
+					pos++;
+					params.add("...");
+					break;
+				}
+				if (Character.isDigit(c)) {
+					pos++;
+					params.add(typeRefs.get(c - '0'));
+					continue;
+				}
+				int start = pos;
+				String t = parseType();
+				if (pos - start > 1 && typeRefs.size() < 10)
+					typeRefs.add(t);
+				params.add(t);
+			}
+			return params;
+		}
+
+		private int parseNumber() {
+			boolean neg = false;
+			if (peek() == '?') {
+				neg = true;
+				pos++;
+			}
+			char c = next();
+			if (Character.isDigit(c))
+				return neg ? -(c - '0' + 1) : c - '0' + 1;
+			int v = 0;
+			while (c != '@') {
+				v = v * 16 + (c - 'A');
+				c = next();
+			}
+			return neg ? -v : v;
+		}
+
+		/**
+		 * Qualified name terminated by '@': fragments are stored innermost first and joined outermost first.
+		 */
+		private String parseQualifiedName() {
+			int start = pos;
+			int end = s.indexOf("@@", pos);
+			String key = null;
+			if (end > pos && noBackrefs(start, end)) {
+				key = "M" + s.substring(start, end + 2);
+				Component c = COMPONENTS.get(key);
+				if (c != null) {
+					for (String r : c.refs) {
+						if (nameRefs.size() < 10)
+							nameRefs.add(r);
+					}
+					pos = end + 2;
+					return c.text;
+				}
+			}
+			int refsBefore = nameRefs.size();
+			List<String> parts = new ArrayList<>(4);
+			String special = null;
+			if (peek() == '?' && pos + 1 < s.length() && s.charAt(pos + 1) != '$') {
+				pos++;
+				special = parseSpecialName();
+			}
+			while (peek() != '@') {
+				char c = peek();
+				if (Character.isDigit(c)) {
+					pos++;
+					parts.add(nameRefs.get(c - '0'));
+				} else if (s.startsWith("?$", pos)) {
+					pos += 2;
+					parts.add(parseTemplateName());
+				} else {
+					String frag = readFragment();
+					if (nameRefs.size() < 10)
+						nameRefs.add(frag);
+					parts.add(frag);
+				}
+			}
+			pos++;
+			if (special != null) {
+				String cls = parts.isEmpty() ? "" : parts.get(0);
+				int lt = cls.indexOf('<');
+				String bare = lt > 0 ? cls.substring(0, lt) : cls;
+				parts.add(0, special.equals("ctor") ? bare : special.equals("dtor") ? "~" + bare : special);
+			}
+			Collections.reverse(parts);
+			String text = intern(String.join("::", parts));
+			if (key != null && special == null)
+				remember(key, text, nameRefs.subList(refsBefore, nameRefs.size()));
+			return text;
+		}
+
+		private boolean noBackrefs(int from, int to) {
+			for (int i = from; i < to; i++) {
+				char c = s.charAt(i);
+				if (Character.isDigit(c) || c == '?' || c == '$')
+					return false;
+			}
+			return true;
+		}
+
+		private String readFragment() {
+			int at = s.indexOf('@', pos);
+			if (at < 0)
+				throw UNSUPPORTED;
+			String frag = s.substring(pos, at);
+			pos = at + 1;
+			return frag;
+		}
+
+		private String parseTemplateName() {
+			// template arguments have their own back reference scope
+			List<String> savedNames = nameRefs, savedTypes = typeRefs;
+			nameRefs = new ArrayList<>(10);
+			typeRefs = new ArrayList<>(10);
+			String base = readFragment();
+			nameRefs.add(base);
+			List<String> args = new ArrayList<>();
+			while (peek() != '@') {
+				char c = peek();
+				if (c == '$' && pos + 1 < s.length() && s.charAt(pos + 1) == '0') {
+					pos += 2;
+					args.add(Integer.toString(parseNumber()));
+				} else if (Character.isDigit(c)) {
+					pos++;
+					args.add(typeRefs.get(c - '0'));
+				} else {
+					int start = pos;
+					String t = parseType();
+					if (pos - start > 1 && typeRefs.size() < 10)
+						typeRefs.add(t);
+					args.add(t);
+				}
+			}
+			pos++;
+			nameRefs = savedNames;
+			typeRefs = savedTypes;
+			String full = base + "<" + String.join(",", args) + ">";
+			if (nameRefs.size() < 10)
+				nameRefs.add(full);
+			return full;
+		}
+
+		private String parseSpecialName() {
+			char c = next();
+			switch (c) {
+			case '0':
+				return "ctor";
+			case '1':
+				return "dtor";
+			case '2':
+				return "operator new";
+			case '3':
+				return "operator delete";
+			case '4':
+				return "operator=";
+			case '5':
+				return "operator>>";
+			case '6':
+				return "operator<<";
+			case '7':
+				return "operator!";
+			case '8':
+				return "operator==";
+			case '9':
+				return "operator!=";
+			case 'A':
+				return "operator[]";
+			case 'B':
+				return "operator cast";
+			case 'C':
+				return "operator->";
+			case 'D':
+				return "operator*";
+			case 'E':
+				return "operator++";
+			case 'F':
+				return "operator--";
+			case 'G':
+				return "operator-";
+			case 'H':
+				return "operator+";
+			case 'I':
+				return "operator&";
+			case 'K':
+				return "operator/";
+			case 'L':
+				return "operator%";
+			case 'M':
+				return "operator<";
+			case 'N':
+				return "operator<=";
+			case 'O':
+				return "operator>";
+			case 'P':
+				return "operator>=";
+			case 'R':
+				return "operator()";
+			case 'Y':
+				return "operator+=";
+			case 'Z':
+				return "operator-=";
+			default:
+				throw UNSUPPORTED;
+			}
+		}
+
+		private String parseType() {
+			char c = next();
+			switch (c) {
+			case 'X':
+				return "void";
+			case 'C':
+				return "signed char";
+			case 'D':
+				return "char";
+			case 'E':
+				return "unsigned char";
+			case 'F':
+				return "short";
+			case 'G':
+				return "unsigned short";
+			case 'H':
+				return "int";
+			case 'I':
+				return "unsigned int";
+			case 'J':
+				return "long";
+			case 'K':
+				return "unsigned long";
+			case 'M':
+				return "float";
+			case 'N':
+				return "double";
+			case 'O':
+				return "long double";
+			case '_':
+				return parseExtendedType();
+			case 'P':
+				return parsePointer("*", "");
+			case 'Q':
+				return parsePointer("*", " const");
+			case 'R':
+				return parsePointer("*", " volatile");
+			case 'S':
+				return parsePointer("*", " const volatile");
+			case 'A':
+				return parsePointer("&", "");
+			case 'B':
+				return parsePointer("&", " volatile");
+			case 'T':
+			case 'U':
+			case 'V':
+				return parseQualifiedName();
+			case 'W':
+				pos++; // underlying type of the enum
+				return parseQualifiedName();
+			case '$':
+				if (s.startsWith("$Q", pos)) {
+					pos += 2;
+					return parsePointer("&&", "");
+				}
+				if (s.startsWith("$T", pos)) {
+					pos += 2;
+					return "std::nullptr_t";
+				}
+				throw UNSUPPORTED;
+			case '?':
+				String cv = cvPrefix(next());
+				return intern(cv + parseType());
+			default:
+				if (Character.isDigit(c))
+					return typeRefs.get(c - '0');
+				throw UNSUPPORTED;
+			}
+		}
+
+		private String parseExtendedType() {
+			char c = next();
+			switch (c) {
+			case 'N':
+				return "bool";
+			case 'J':
+				return "__int64";
+			case 'K':
+				return "unsigned __int64";
+			case 'W':
+				return "wchar_t";
+			case 'S':
+				return "char16_t";
+			case 'U':
+				return "char32_t";
+			case 'Q':
+				return "char8_t";
+			default:
+				throw UNSUPPORTED;
+			}
+		}
+
+		private String parsePointer(String op, String qual) {
+			if (peek() == '6') {
+				// pointer to function: calling convention, return type, params, throw spec
+				pos++;
+				pos++;
+				String ret = parseType();
+				List<String> params = parseParams();
+				if (peek() == 'Z')
+					pos++;
+				return intern(ret + " (" + op + ")(" + String.join(", ", params) + ")");
+			}
+			while (peek() == 'E' || peek() == 'I' || peek() == 'F')
+				pos++;
+			String cv = cvPrefix(next());
+			String pointee = parseType();
+			return intern(cv + pointee + " " + op + qual);
+		}
+
+		private String cvPrefix(char c) {
+			switch (c) {
+			case 'A':
+				return "";
+			case 'B':
+				return "const ";
+			case 'C':
+				return "volatile ";
+			case 'D':
+				return "const volatile ";
+			default:
+				throw UNSUPPORTED;
+			}
+		}
+	}
+
+	// ------------------------------------------------------------------------------------------------------------------------------
+	// Itanium
+
+	private static final class Itanium {
+		private final String s;
+		private int pos;
+		private final List<String> subs = new ArrayList<>();
+		private List<String> templateArgs = Collections.emptyList();
+		// set by parseName for the outermost name
+		private boolean isTemplate;
+		private boolean isCtorDtor;
+
+		Itanium(String s, int start) {
+			this.s = s;
+			this.pos = start;
+		}
+
+		private char peek() {
+			return pos < s.length() ? s.charAt(pos) : '\0';
+		}
+
+		private char next() {
+			return s.charAt(pos++);
+		}
+
+		Signature parse() {
+			String name = parseName();
+			if (pos >= s.length() || peek() == '.')
+				return null; // data symbol
+			String ret = "unknown";
+			if (isCtorDtor)
+				ret = "void";
+			else if (isTemplate)
+				ret = parseType();
+			List<String> params = new ArrayList<>();
+			while (pos < s.length() && peek() != '.' && peek() != 'E')
+				params.add(parseType());
+			if (params.size() == 1 && params.get(0).equals("void"))
+				params.clear();
+			return new Signature(name, ret, params);
+		}
+
+		private String parseName() {
+			isTemplate = false;
+			isCtorDtor = false;
+			char c = peek();
+			if (c == 'N')
+				return parseNestedName();
+			if (c == 'Z')
+				throw UNSUPPORTED; // local names
+			String n;
+			if (c == 'S' && !s.startsWith("St", pos)) {
+				n = parseSubstitution();
+			} else {
+				boolean std = s.startsWith("St", pos);
+				if (std)
+					pos += 2;
+				n = parseUnqualifiedName(null);
+				if (std)
+					n = "std::" + n;
+			}
+			if (peek() == 'I') {
+				subs.add(n);
+				List<String> args = new ArrayList<>();
+				n = n + parseTemplateArgs(args);
+				templateArgs = args;
+				isTemplate = true;
+			}
+			return n;
+		}
+
+		private String parseNestedName() {
+			int start = pos;
+			int end = scanNested(start);
+			String key = null;
+			if (end > 0) {
+				key = "I" + s.substring(start, end);
+				Component c = COMPONENTS.get(key);
+				if (c != null) {
+					// refs hold the substitution candidates followed by the ctor/dtor flag
+					int n = c.refs.length - 1;
+					for (int i = 0; i < n; i++)
+						subs.add(c.refs[i]);
+					isTemplate = false;
+					isCtorDtor = c.refs[n].equals("C");
+					pos = end;
+					return c.text;
+				}
+			}
+			int subsBefore = subs.size();
+			pos++; // N
+			while (peek() == 'r' || peek() == 'V' || peek() == 'K' || peek() == 'R' || peek() == 'O')
+				pos++;
+			String prefix = null;
+			boolean template = false;
+			boolean ctorDtor = false;
+			while (peek() != 'E') {
+				char c = peek();
+				boolean candidate = true;
+				template = false;
+				ctorDtor = false;
+				if (c == 'S') {
+					candidate = s.startsWith("St", pos); // plain substitutions are not new candidates
+					prefix = parseSubstitution();
+				} else if (c == 'T') {
+					candidate = false; // registered by parseTemplateParam
+					prefix = parseTemplateParam();
+				} else if (c == 'I') {
+					if (prefix == null)
+						throw UNSUPPORTED;
+					List<String> args = new ArrayList<>();
+					prefix = prefix + parseTemplateArgs(args);
+					templateArgs = args;
+					template = true;
+				} else {
+					ctorDtor = (c == 'C' || c == 'D') && pos + 1 < s.length() && Character.isDigit(s.charAt(pos + 1));
+					String component = parseUnqualifiedName(prefix);
+					prefix = prefix != null ? prefix + "::" + component : component;
+				}
+				// every prefix except the complete name is a substitution candidate
+				if (candidate && peek() != 'E')
+					subs.add(prefix);
+			}
+			pos++; // E
+			String text = intern(prefix);
+			isTemplate = template;
+			isCtorDtor = ctorDtor;
+			// template-ids also set the template arguments for T_ references, so only plain names are memoized
+			if (key != null && !template) {
+				List<String> refs = new ArrayList<>(subs.subList(subsBefore, subs.size()));
+				refs.add(ctorDtor ? "C" : "-");
+				remember(key, text, refs);
+			}
+			return text;
+		}
+
+		/**
+		 * Find the end of a nested name starting at 'N' if it is context-free (no substitutions or template parameters), else -1.
+		 */
+		private int scanNested(int i) {
+			int depth = 0;
+			while (i < s.length()) {
+				char c = s.charAt(i);
+				if (Character.isDigit(c)) {
+					int j = i;
+					while (j < s.length() && Character.isDigit(s.charAt(j)))
+						j++;
+					i = j + Integer.parseInt(s.substring(i, j));
+					continue;
+				}
+				if (c == 'S' || c == 'T')
+					return -1;
+				if (c == 'N' || c == 'I' || c == 'L')
+					depth++;
+				else if (c == 'E' && --depth == 0)
+					return i + 1;
+				i++;
+			}
+			return -1;
+		}
+
+		private String parseUnqualifiedName(String enclosing) {
+			char c = peek();
+			if (Character.isDigit(c))
+				return parseSourceName();
+			if (c == 'C') {
+				pos += 2;
+				return simpleName(enclosing);
+			}
+			if (c == 'D' && pos + 1 < s.length() && Character.isDigit(s.charAt(pos + 1))) {
+				pos += 2;
+				return "~" + simpleName(enclosing);
+			}
+			if (c == 'L') {
+				pos++;
+				return parseSourceName(); // internal linkage
+			}
+			return parseOperatorName();
+		}
+
+		private String simpleName(String qualified) {
+			if (qualified == null)
+				throw UNSUPPORTED;
+			int sep = qualified.lastIndexOf("::");
+			String n = sep >= 0 ? qualified.substring(sep + 2) : qualified;
+			int lt = n.indexOf('<');
+			return lt > 0 ? n.substring(0, lt) : n;
+		}
+
+		private String parseSourceName() {
+			int start = pos;
+			while (Character.isDigit(peek()))
+				pos++;
+			int len = Integer.parseInt(s.substring(start, pos));
+			String n = s.substring(pos, pos + len);
+			pos += len;
+			return n.startsWith("_GLOBAL__N") ? "(anonymous namespace)" : n;
+		}
+
+		private String parseOperatorName() {
+			String op = s.substring(pos, pos + 2);
+			pos += 2;
+			switch (op) {
+			case "nw":
+				return "operator new";
+			case "na":
+				return "operator new[]";
+			case "dl":
+				return "operator delete";
+			case "da":
+				return "operator delete[]";
+			case "pl":
+				return "operator+";
+			case "mi":
+				return "operator-";
+			case "ml":
+				return "operator*";
+			case "dv":
+				return "operator/";
+			case "rm":
+				return "operator%";
+			case "an":
+				return "operator&";
+			case "or":
+				return "operator|";
+			case "eo":
+				return "operator^";
+			case "aS":
+				return "operator=";
+			case "pL":
+				return "operator+=";
+			case "mI":
+				return "operator-=";
+			case "eq":
+				return "operator==";
+			case "ne":
+				return "operator!=";
+			case "lt":
+				return "operator<";
+			case "gt":
+				return "operator>";
+			case "le":
+				return "operator<=";
+			case "ge":
+				return "operator>=";
+			case "nt":
+				return "operator!";
+			case "ls":
+				return "operator<<";
+			case "rs":
+				return "operator>>";
+			case "pp":
+				return "operator++";
+			case "mm":
+				return "operator--";
+			case "cl":
+				return "operator()";
+			case "ix":
+				return "operator[]";
+			case "pt":
+				return "operator->";
+			case "cv":
+				return "operator " + parseType();
+			default:
+				throw UNSUPPORTED;
+			}
+		}
+
+		private String parseSubstitution() {
+			pos++; // S
+			char c = next();
+			switch (c) {
+			case 't':
+				return "std::" + parseUnqualifiedName(null);
+			case 'a':
+				return "std::allocator";
+			case 'b':
+				return "std::basic_string";
+			case 's':
+				return "std::string";
+			case 'i':
+				return "std::istream";
+			case 'o':
+				return "std::ostream";
+			case 'd':
+				return "std::iostream";
+			case '_':
+				return subs.get(0);
+			default:
+				int idx = 0;
+				while (c != '_') {
+					idx = idx * 36 + (Character.isDigit(c) ? c - '0' : c - 'A' + 10);
+					c = next();
+				}
+				return subs.get(idx + 1);
+			}
+		}
+
+		private String parseTemplateParam() {
+			pos++; // T
+			int idx = 0;
+			char c = next();
+			if (c != '_') {
+				while (c != '_') {
+					idx = idx * 36 + (Character.isDigit(c) ? c - '0' : c - 'A' + 10);
+					c = next();
+				}
+				idx++;
+			}
+			String t = idx < templateArgs.size() ? templateArgs.get(idx) : "T" + idx;
+			subs.add(t);
+			return t;
+		}
+
+		private String parseTemplateArgs(List<String> args) {
+			pos++; // I
+			while (peek() != 'E') {
+				if (peek() == 'L') {
+					pos++;
+					String type = parseType();
+					int start = pos;
+					while (peek() != 'E')
+						pos++;
+					String lit = s.substring(start, pos).replace('n', '-');
+					pos++;
+					args.add(type.equals("bool") ? (lit.equals("0") ? "false" : "true") : lit);
+				} else {
+					args.add(parseType());
+				}
+			}
+			pos++;
+			return "<" + String.join(", ", args) + ">";
+		}
+
+		private String parseType() {
+			char c = peek();
+			String t;
+			switch (c) {
+			case 'v':
+				pos++;
+				return "void";
+			case 'w':
+				pos++;
+				return "wchar_t";
+			case 'b':
+				pos++;
+				return "bool";
+			case 'c':
+				pos++;
+				return "char";
+			case 'a':
+				pos++;
+				return "signed char";
+			case 'h':
+				pos++;
+				return "unsigned char";
+			case 's':
+				pos++;
+				return "short";
+			case 't':
+				pos++;
+				return "unsigned short";
+			case 'i':
+				pos++;
+				return "int";
+			case 'j':
+				pos++;
+				return "unsigned int";
+			case 'l':
+				pos++;
+				return "long";
+			case 'm':
+				pos++;
+				return "unsigned long";
+			case 'x':
+				pos++;
+				return "long long";
+			case 'y':
+				pos++;
+				return "unsigned long long";
+			case 'n':
+				pos++;
+				return "__int128";
+			case 'o':
+				pos++;
+				return "unsigned __int128";
+			case 'f':
+				pos++;
+				return "float";
+			case 'd':
+				pos++;
+				return "double";
+			case 'e':
+				pos++;
+				return "long double";
+			case 'z':
+				pos++;
+				return "...";
+			case 'D':
+				pos++;
+				char d = next();
+				switch (d) {
+				case 's':
+					return "char16_t";
+				case 'i':
+					return "char32_t";
+				case 'u':
+					return "char8_t";
+				case 'n':
+					return "std::nullptr_t";
+				case 'p':
+					t = parseType() + "...";
+					break;
+				default:
+					throw UNSUPPORTED;
+				}
+				break;
+			case 'P':
+				pos++;
+				t = pointerTo(parseType(), "*");
+				break;
+			case 'R':
+				pos++;
+				t = pointerTo(parseType(), "&");
+				break;
+			case 'O':
+				pos++;
+				t = pointerTo(parseType(), "&&");
+				break;
+			case 'K':
+				pos++;
+				t = "const " + parseType();
+				break;
+			case 'V':
+				pos++;
+				t = "volatile " + parseType();
+				break;
+			case 'r':
+				pos++;
+				t = parseType();
+				break;
+			case 'F':
+				pos++;
+				if (peek() == 'Y')
+					pos++;
+				String ret = parseType();
+				List<String> params = new ArrayList<>();
+				while (peek() != 'E')
+					params.add(parseType());
+				pos++;
+				if (params.size() == 1 && params.get(0).equals("void"))
+					params.clear();
+				t = ret + " ()(" + String.join(", ", params) + ")";
+				break;
+			case 'A':
+				pos++;
+				int start = pos;
+				while (peek() != '_')
+					pos++;
+				String dim = s.substring(start, pos);
+				pos++;
+				t = parseType() + " [" + dim + "]";
+				break;
+			case 'T':
+				// template parameter; parseTemplateParam registers it as a substitution itself
+				return parseTemplateParam();
+			case 'S':
+				if (s.startsWith("St", pos)) {
+					t = parseClassName();
+					break;
+				}
+				t = parseSubstitution();
+				if (peek() == 'I') {
+					t = t + parseTemplateArgs(new ArrayList<>());
+					break;
+				}
+				return t; // a substitution is not a new candidate
+			case 'N':
+			default:
+				if (c == 'N' || Character.isDigit(c)) {
+					t = parseClassName();
+					break;
+				}
+				throw UNSUPPORTED;
+			}
+			t = intern(t);
+			subs.add(t);
+			return t;
+		}
+
+		private String parseClassName() {
+			boolean saveTemplate = isTemplate, saveCtor = isCtorDtor;
+			List<String> saveArgs = templateArgs;
+			String n = parseName();
+			isTemplate = saveTemplate;
+			isCtorDtor = saveCtor;
+			templateArgs = saveArgs;
+			return n;
+		}
+
+		private static String pointerTo(String pointee, String op) {
+			int fn = pointee.indexOf(" ()(");
+			if (fn > 0)
+				return pointee.substring(0, fn) + " (" + op + ")" + pointee.substring(fn + 3);
+			return pointee + " " + op;
+		}
+	}
+}
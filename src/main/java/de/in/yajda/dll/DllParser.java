@@ -7,89 +7,97 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import de.in.yajda.jfr.Events;
 
 /**
- * Minimal PE export table reader that extracts exported symbol names. It attempts to parse the PE headers and export directory. If types/signatures are not discoverable from the binary,
- * parameter/return types are marked as "unknown".
+ * Minimal PE export table reader that extracts exported symbol names. It attempts to parse the PE headers and export directory. Decorated
+ * names are run through the {@link Demangler}; if types/signatures are not discoverable from the binary, parameter/return types are marked
+ * as "unknown". Types from a matching PDB ({@link PdbFile#forLibrary}) are not applied here but resolved per export when the
+ * {@link SymbolDatabase} reads it.
  *
  * NOTE: This is a compact implementation for MVP and not a full PE parser.
  */
-public class DllParser {
+public class DllParser implements ExportParser {
 
 	public static class FunctionInfo {
 		public final String name;
 		public final String returnType;
 		public final List<String> paramTypes;
+		/** Export ordinal (biased by the directory's Base), -1 if unknown (e.g. header-only entries). */
+		public final int ordinal;
+		/** RVA of the function from AddressOfFunctions, 0 if unknown. */
+		public final int rva;
 
 		public FunctionInfo(String name, String returnType, List<String> paramTypes) {
+			this(name, returnType, paramTypes, -1, 0);
+		}
+
+		public FunctionInfo(String name, String returnType, List<String> paramTypes, int ordinal, int rva) {
 			this.name = name;
 			this.returnType = returnType;
 			this.paramTypes = paramTypes;
+			this.ordinal = ordinal;
+			this.rva = rva;
+		}
+
+		/**
+		 * Copy of this export with the return and parameter types replaced. Ordinal and RVA are kept.
+		 */
+		public FunctionInfo withSignature(String returnType, List<String> paramTypes) {
+			return new FunctionInfo(name, returnType, paramTypes, ordinal, rva);
+		}
+
+		/**
+		 * Equality covers name and signature only, so that a rebuild that merely moves code is not reported as a change.
+		 */
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof FunctionInfo))
+				return false;
+			FunctionInfo other = (FunctionInfo) o;
+			return Objects.equals(name, other.name) && Objects.equals(returnType, other.returnType) && Objects.equals(paramTypes, other.paramTypes);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, returnType, paramTypes);
 		}
 	}
 
+	@Override
 	public List<FunctionInfo> parseExports(File dll) throws IOException {
+		Events.ParseExports ev = new Events.ParseExports();
+		ev.begin();
+		List<FunctionInfo> result = null;
+		Throwable failure = null;
+		try {
+			result = readExports(dll);
+			return result;
+		} catch (IOException | RuntimeException ex) {
+			failure = ex;
+			throw ex;
+		} finally {
+			ev.finish(dll, "PE", result != null ? result.size() : 0, failure);
+		}
+	}
+
+	private List<FunctionInfo> readExports(File dll) throws IOException {
 		try (RandomAccessFile raf = new RandomAccessFile(dll, "r")) {
-			byte[] mz = new byte[2];
-			raf.readFully(mz);
-			if (mz[0] != 'M' || mz[1] != 'Z') {
-				throw new IOException("Not a PE file (MZ header missing)");
-			}
-			raf.seek(0x3C);
-			int e_lfanew = readIntLE(raf);
-			raf.seek(e_lfanew);
-			int ntSig = readIntLE(raf);
-			if (ntSig != 0x00004550) { // "PE\0\0"
-				throw new IOException("Invalid PE signature");
-			}
-			// FileHeader: 20 bytes after signature
-			raf.skipBytes(20);
-			// OptionalHeader starts here; read Magic to determine 32/64
-			int magic = readUnsignedShortLE(raf);
-			boolean is64 = (magic == 0x20B);
-			// Move to DataDirectory: in Optional Header, DataDirectory starts at offset:
-			// For PE32+: offset 112 from start of OptionalHeader to DataDirectory[0]
-			// For PE32: offset 96
-			int dataDirOffset = is64 ? (int) (raf.getFilePointer() + (112 - 2)) : (int) (raf.getFilePointer() + (96 - 2));
-			// we already read 2 bytes (magic), so adjust
-			raf.seek(dataDirOffset);
+			// Headers and section table; sections translate RVA -> file offset
+			PeImage image = PeImage.read(raf);
 			// Export table directory is first entry (8 bytes): VirtualAddress (rva) and Size
-			int exportRVA = readIntLE(raf);
-			int exportSize = readIntLE(raf);
+			int exportRVA = image.dataDirectoryRva(PeImage.DIR_EXPORT);
 			if (exportRVA == 0) {
 				// No export table
 				return new ArrayList<>();
 			}
 
-			// Read section headers to translate RVA -> file offset
-			// Seek to NumberOfSections in FileHeader (we skipped it earlier but we didn't store it)
-			// Simpler approach: re-read NumberOfSections from FileHeader
-			raf.seek(e_lfanew + 4);
-			int numberOfSections = readUnsignedShortLE(raf);
-			// Skip sizeOfOptionalHeader and characteristics (2 + 2)
-			raf.skipBytes(12);
-			// Now at start of OptionalHeader again; skip it to come to Section Headers.
-			// Read SizeOfOptionalHeader (we need it)
-			raf.seek(e_lfanew + 20);
-			int sizeOfOptionalHeader = readUnsignedShortLE(raf);
-			long sectionHeadersStart = e_lfanew + 24 + sizeOfOptionalHeader;
-			// Read sections
-			raf.seek(sectionHeadersStart);
-			Section[] sections = new Section[numberOfSections];
-			for (int i = 0; i < numberOfSections; i++) {
-				byte[] nameBytes = new byte[8];
-				raf.readFully(nameBytes);
-				String name = new String(nameBytes).trim();
-				int virtualSize = readIntLE(raf);
-				int virtualAddress = readIntLE(raf);
-				int sizeOfRawData = readIntLE(raf);
-				int pointerToRawData = readIntLE(raf);
-				// skip rest of section header (16 bytes)
-				raf.skipBytes(16);
-				sections[i] = new Section(name, virtualAddress, virtualSize, pointerToRawData, sizeOfRawData);
-			}
-
-			long exportOffset = rvaToOffset(exportRVA, sections);
+			long exportOffset = image.rvaToOffset(exportRVA);
 			if (exportOffset <= 0) {
 				return new ArrayList<>();
 			}
@@ -108,9 +116,9 @@ public class DllParser {
 			int addrOfNamesRVA = readIntLE(raf);
 			int addrOfNameOrdinalsRVA = readIntLE(raf);
 
-			long addrOfNamesOffset = rvaToOffset(addrOfNamesRVA, sections);
-			long addrOfNameOrdinalsOffset = rvaToOffset(addrOfNameOrdinalsRVA, sections);
-			long addrOfFunctionsOffset = rvaToOffset(addrOfFunctionsRVA, sections);
+			long addrOfNamesOffset = image.rvaToOffset(addrOfNamesRVA);
+			long addrOfNameOrdinalsOffset = image.rvaToOffset(addrOfNameOrdinalsRVA);
+			long addrOfFunctionsOffset = image.rvaToOffset(addrOfFunctionsRVA);
 
 			List<FunctionInfo> result = new ArrayList<>();
 			if (addrOfNamesOffset <= 0)
@@ -128,52 +136,72 @@ public class DllParser {
 			for (int i = 0; i < numberOfNames; i++) {
 				ordinals[i] = readUnsignedShortLE(raf);
 			}
+			// Read function RVAs (indexed by unbiased ordinal)
+			int[] functionRVAs = new int[addrOfFunctionsOffset > 0 ? numberOfFunctions : 0];
+			if (addrOfFunctionsOffset > 0) {
+				raf.seek(addrOfFunctionsOffset);
+				for (int i = 0; i < numberOfFunctions; i++) {
+					functionRVAs[i] = readIntLE(raf);
+				}
+			}
 
 			for (int i = 0; i < numberOfNames; i++) {
 				int nRva = nameRVAs[i];
-				long nameOffset = rvaToOffset(nRva, sections);
+				long nameOffset = image.rvaToOffset(nRva);
 				if (nameOffset <= 0)
 					continue;
 				raf.seek(nameOffset);
 				String name = readNullTerminatedString(raf);
-				// Parameter and return type discovery not available from export table.
-				// Mark as unknown
+				// The export table carries no types; decorated (C++ / stdcall) names encode them, plain C names stay unknown.
+				String returnType = "unknown";
 				List<String> params = new ArrayList<>();
-				// Heuristic: if name contains '@' or decorated stdcall patterns, try extract arg byte count -> unknown parameters
-				if (name.contains("@") || name.matches(".*\\@\\d+$")) {
-					// Could parse ordinal arg bytes but mapping to types is complex. Placeholder.
-					params.add("unknown");
+				Demangler.Signature sig = Demangler.demangle(name);
+				if (sig != null) {
+					returnType = sig.returnType;
+					params = sig.paramTypes;
 				}
-				result.add(new FunctionInfo(name, "unknown", params));
+				int rva = ordinals[i] < functionRVAs.length ? functionRVAs[ordinals[i]] : 0;
+				result.add(new FunctionInfo(name, returnType, params, base + ordinals[i], rva));
 			}
+			if (image.isX64())
+				inferFromCode(dll, image, exportRVA, image.dataDirectorySize(PeImage.DIR_EXPORT), result);
 			return result;
 		}
 	}
 
-	private static class Section {
-		final String name;
-		final int virtualAddress;
-		final int virtualSize;
-		final int pointerToRawData;
-		final int sizeOfRawData;
-
-		Section(String name, int virtualAddress, int virtualSize, int pointerToRawData, int sizeOfRawData) {
-			this.name = name;
-			this.virtualAddress = virtualAddress;
-			this.virtualSize = virtualSize;
-			this.pointerToRawData = pointerToRawData;
-			this.sizeOfRawData = sizeOfRawData;
+	/**
+	 * Fill in estimated parameters for exports that are still without a signature, from their x64 code. Forwarders (whose RVA points into
+	 * the export directory) are skipped. The return type stays "unknown" so header prototypes keep precedence.
+	 */
+	private static void inferFromCode(File dll, PeImage image, int exportRVA, int exportSize, List<FunctionInfo> result) {
+		List<Integer> rvas = new ArrayList<>();
+		for (FunctionInfo fi : result) {
+			if (needsInference(fi) && (fi.rva < exportRVA || fi.rva >= exportRVA + exportSize))
+				rvas.add(fi.rva);
+		}
+		if (rvas.isEmpty())
+			return;
+		Map<Long, List<String>> inferred;
+		try {
+			inferred = new PrologueAnalyzer().analyzeExports(dll, image, rvas);
+		} catch (IOException ex) {
+			// the names are still useful without the estimate
+			return;
+		}
+		for (int i = 0; i < result.size(); i++) {
+			FunctionInfo fi = result.get(i);
+			List<String> params = needsInference(fi) ? inferred.get(fi.rva & 0xFFFFFFFFL) : null;
+			if (params != null && !params.isEmpty())
+				result.set(i, fi.withSignature(fi.returnType, new ArrayList<>(params)));
 		}
 	}
 
-	private static long rvaToOffset(int rva, Section[] sections) {
-		for (Section s : sections) {
-			if (rva >= s.virtualAddress && rva < s.virtualAddress + Math.max(s.virtualSize, s.sizeOfRawData)) {
-				int delta = rva - s.virtualAddress;
-				return s.pointerToRawData + delta;
-			}
-		}
-		return -1;
+	/**
+	 * Whether an export has no signature yet. A demangled name counts as known even with an empty parameter list and an "unknown" return
+	 * type (Itanium names do not encode the return type of plain functions), so "bar() const" is not turned into an estimate.
+	 */
+	static boolean needsInference(FunctionInfo fi) {
+		return fi.rva != 0 && "unknown".equals(fi.returnType) && fi.paramTypes.isEmpty() && Demangler.demangle(fi.name) == null;
 	}
 
 	private static int readIntLE(RandomAccessFile raf) throws IOException {
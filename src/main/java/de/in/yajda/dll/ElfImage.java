@@ -0,0 +1,381 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Dynamic symbol table of an ELF shared object, read from a read-only mapping. The tables are located through the PT_DYNAMIC segment
+ * (DT_SYMTAB, DT_STRTAB, DT_GNU_HASH / DT_HASH) like the dynamic loader does, so stripped section headers do not matter. Symbols are read
+ * in place from the mapping; {@link #lookup(String)} uses the GNU hash table (bloom filter, bucket, chain) and is O(1) on average.
+ */
+public class ElfImage {
+	public static final int EM_386 = 3;
+	public static final int EM_X86_64 = 62;
+	public static final int EM_AARCH64 = 183;
+
+	private static final int PT_LOAD = 1;
+	private static final int PT_DYNAMIC = 2;
+	private static final int PF_X = 1;
+
+	private static final long DT_NULL = 0;
+	private static final long DT_HASH = 4;
+	private static final long DT_STRTAB = 5;
+	private static final long DT_SYMTAB = 6;
+	private static final long DT_STRSZ = 10;
+	private static final long DT_GNU_HASH = 0x6ffffef5L;
+	private static final long DT_VERSYM = 0x6ffffff0L;
+
+	// .gnu.version entry of a non-default version (name@VER, not name@@VER)
+	private static final int VERSYM_HIDDEN = 0x8000;
+
+	private static final int SHT_DYNSYM = 11;
+
+	public static final int STT_FUNC = 2;
+	public static final int STT_GNU_IFUNC = 10;
+	public static final int STB_GLOBAL = 1;
+	public static final int STB_WEAK = 2;
+	public static final int STB_GNU_UNIQUE = 10;
+
+	private final ByteBuffer map;
+	public final boolean is64;
+	public final int machine;
+
+	// PT_LOAD segments: vaddr, offset, filesz, executable
+	private final long[] segVaddr;
+	private final long[] segOffset;
+	private final long[] segFileSize;
+	private final boolean[] segExec;
+
+	private final int symtab; // file offset
+	private final int symEntSize;
+	private final int strtab;
+	private final int strSize;
+	private final int symbolCount;
+	private final int versym; // file offset of the DT_VERSYM array, -1 if unversioned
+
+	// GNU hash, -1 if absent
+	private final int gnuHash;
+	private final int nbuckets;
+	private final int symOffset;
+	private final int bloomSize;
+	private final int bloomShift;
+	private final int buckets;
+	private final int chains;
+
+	private ElfImage(ByteBuffer map) throws IOException {
+		this.map = map;
+		if (map.limit() < 52 || map.getInt(0) != 0x464C457F) // "\x7FELF" read little-endian
+			throw new IOException("Not an ELF file");
+		is64 = map.get(4) == 2;
+		if (map.get(5) != 1)
+			throw new IOException("Big-endian ELF files are not supported");
+		machine = map.getShort(18) & 0xFFFF;
+		long phoff = is64 ? map.getLong(32) : map.getInt(28) & 0xFFFFFFFFL;
+		int phentsize = map.getShort(is64 ? 54 : 42) & 0xFFFF;
+		int phnum = map.getShort(is64 ? 56 : 44) & 0xFFFF;
+
+		int loads = 0;
+		long dynOffset = -1, dynSize = 0;
+		for (int i = 0; i < phnum; i++) {
+			int ph = (int) (phoff + (long) i * phentsize);
+			int type = map.getInt(ph);
+			if (type == PT_LOAD)
+				loads++;
+			else if (type == PT_DYNAMIC) {
+				dynOffset = is64 ? map.getLong(ph + 8) : map.getInt(ph + 4) & 0xFFFFFFFFL;
+				dynSize = is64 ? map.getLong(ph + 32) : map.getInt(ph + 16) & 0xFFFFFFFFL;
+			}
+		}
+		segVaddr = new long[loads];
+		segOffset = new long[loads];
+		segFileSize = new long[loads];
+		segExec = new boolean[loads];
+		for (int i = 0, s = 0; i < phnum; i++) {
+			int ph = (int) (phoff + (long) i * phentsize);
+			if (map.getInt(ph) != PT_LOAD)
+				continue;
+			if (is64) {
+				segExec[s] = (map.getInt(ph + 4) & PF_X) != 0;
+				segOffset[s] = map.getLong(ph + 8);
+				segVaddr[s] = map.getLong(ph + 16);
+				segFileSize[s] = map.getLong(ph + 32);
+			} else {
+				segOffset[s] = map.getInt(ph + 4) & 0xFFFFFFFFL;
+				segVaddr[s] = map.getInt(ph + 8) & 0xFFFFFFFFL;
+				segFileSize[s] = map.getInt(ph + 16) & 0xFFFFFFFFL;
+				segExec[s] = (map.getInt(ph + 24) & PF_X) != 0;
+			}
+			s++;
+		}
+
+		long symtabAddr = 0, strtabAddr = 0, strsz = 0, gnuHashAddr = 0, hashAddr = 0, versymAddr = 0;
+		int dynEnt = is64 ? 16 : 8;
+		for (long d = dynOffset; dynOffset >= 0 && d + dynEnt <= dynOffset + dynSize; d += dynEnt) {
+			long tag = is64 ? map.getLong((int) d) : map.getInt((int) d);
+			long val = is64 ? map.getLong((int) d + 8) : map.getInt((int) d + 4) & 0xFFFFFFFFL;
+			if (tag == DT_NULL)
+				break;
+			if (tag == DT_SYMTAB)
+				symtabAddr = val;
+			else if (tag == DT_STRTAB)
+				strtabAddr = val;
+			else if (tag == DT_STRSZ)
+				strsz = val;
+			else if (tag == DT_GNU_HASH)
+				gnuHashAddr = val;
+			else if (tag == DT_HASH)
+				hashAddr = val;
+			else if (tag == DT_VERSYM)
+				versymAddr = val;
+		}
+		if (symtabAddr == 0 || strtabAddr == 0)
+			throw new IOException("ELF file has no dynamic symbol table");
+		symtab = (int) toOffset(symtabAddr);
+		strtab = (int) toOffset(strtabAddr);
+		strSize = (int) strsz;
+		symEntSize = is64 ? 24 : 16;
+		versym = versymAddr != 0 ? (int) toOffset(versymAddr) : -1;
+
+		gnuHash = gnuHashAddr != 0 ? (int) toOffset(gnuHashAddr) : -1;
+		if (gnuHash >= 0) {
+			nbuckets = map.getInt(gnuHash);
+			symOffset = map.getInt(gnuHash + 4);
+			bloomSize = map.getInt(gnuHash + 8);
+			bloomShift = map.getInt(gnuHash + 12);
+			buckets = gnuHash + 16 + bloomSize * (is64 ? 8 : 4);
+			chains = buckets + nbuckets * 4;
+		} else {
+			nbuckets = symOffset = bloomSize = bloomShift = buckets = chains = 0;
+		}
+
+		if (gnuHash >= 0)
+			symbolCount = gnuSymbolCount();
+		else if (hashAddr != 0)
+			symbolCount = map.getInt((int) toOffset(hashAddr) + 4); // nchain
+		else
+			symbolCount = dynsymSectionCount();
+	}
+
+	/**
+	 * Map an ELF file read-only and locate its dynamic symbol table.
+	 */
+	public static ElfImage open(File file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (ch.size() > Integer.MAX_VALUE)
+				throw new IOException("ELF file too large to map: " + file);
+			ByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+			try {
+				return new ElfImage(map);
+			} catch (IndexOutOfBoundsException ex) {
+				throw new IOException("Truncated ELF file: " + file, ex);
+			}
+		}
+	}
+
+	/**
+	 * Locate the dynamic symbol table in a buffer holding the whole file (e.g. a mapped view).
+	 */
+	public static ElfImage parse(ByteBuffer file) throws IOException {
+		try {
+			return new ElfImage(file.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+		} catch (IndexOutOfBoundsException ex) {
+			throw new IOException("Truncated ELF file", ex);
+		}
+	}
+
+	/**
+	 * The GNU hash table has no symbol count; it is one past the last symbol reachable from the highest bucket.
+	 */
+	private int gnuSymbolCount() {
+		int max = 0;
+		for (int b = 0; b < nbuckets; b++)
+			max = Math.max(max, map.getInt(buckets + b * 4));
+		if (max < symOffset)
+			return symOffset;
+		int idx = max;
+		while ((map.getInt(chains + (idx - symOffset) * 4) & 1) == 0)
+			idx++;
+		return idx + 1;
+	}
+
+	private int dynsymSectionCount() {
+		long shoff = is64 ? map.getLong(40) : map.getInt(32) & 0xFFFFFFFFL;
+		int shentsize = map.getShort(is64 ? 58 : 46) & 0xFFFF;
+		int shnum = map.getShort(is64 ? 60 : 48) & 0xFFFF;
+		for (int i = 0; i < shnum && shoff > 0; i++) {
+			int sh = (int) (shoff + (long) i * shentsize);
+			if (map.getInt(sh + 4) == SHT_DYNSYM) {
+				long size = is64 ? map.getLong(sh + 32) : map.getInt(sh + 20) & 0xFFFFFFFFL;
+				return (int) (size / symEntSize);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * File offset of a virtual address, or -1 if no loadable segment backs it.
+	 */
+	public long toOffset(long vaddr) {
+		for (int i = 0; i < segVaddr.length; i++) {
+			if (vaddr >= segVaddr[i] && vaddr < segVaddr[i] + segFileSize[i])
+				return segOffset[i] + (vaddr - segVaddr[i]);
+		}
+		return -1;
+	}
+
+	/**
+	 * Virtual address a file offset is loaded at, or -1 if no loadable segment covers it.
+	 */
+	public long toAddress(long offset) {
+		for (int i = 0; i < segVaddr.length; i++) {
+			if (offset >= segOffset[i] && offset < segOffset[i] + segFileSize[i])
+				return segVaddr[i] + (offset - segOffset[i]);
+		}
+		return -1;
+	}
+
+	/**
+	 * Address translation for {@link PrologueAnalyzer}: executable PT_LOAD segments are code.
+	 */
+	public PrologueAnalyzer.CodeMap codeMap() {
+		return new PrologueAnalyzer.CodeMap() {
+			@Override
+			public long toOffset(long address) {
+				return ElfImage.this.toOffset(address);
+			}
+
+			@Override
+			public long codeEnd(long address) {
+				for (int i = 0; i < segVaddr.length; i++) {
+					if (segExec[i] && address >= segVaddr[i] && address < segVaddr[i] + segFileSize[i])
+						return segOffset[i] + segFileSize[i];
+				}
+				return -1;
+			}
+		};
+	}
+
+	public boolean isX64() {
+		return machine == EM_X86_64;
+	}
+
+	public int getSymbolCount() {
+		return symbolCount;
+	}
+
+	private int sym(int index) {
+		return symtab + index * symEntSize;
+	}
+
+	public String symbolName(int index) {
+		int nameOff = map.getInt(sym(index));
+		int start = strtab + nameOff;
+		int end = start;
+		int limit = strSize > 0 ? strtab + strSize : map.limit();
+		while (end < limit && map.get(end) != 0)
+			end++;
+		byte[] b = new byte[end - start];
+		map.get(start, b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	public long symbolValue(int index) {
+		return is64 ? map.getLong(sym(index) + 8) : map.getInt(sym(index) + 4) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Size of the symbol's object or code in bytes, 0 if unknown.
+	 */
+	public long symbolSize(int index) {
+		return is64 ? map.getLong(sym(index) + 16) : map.getInt(sym(index) + 8) & 0xFFFFFFFFL;
+	}
+
+	private int symbolInfo(int index) {
+		return map.get(sym(index) + (is64 ? 4 : 12)) & 0xFF;
+	}
+
+	private int symbolSection(int index) {
+		return map.getShort(sym(index) + (is64 ? 6 : 14)) & 0xFFFF;
+	}
+
+	private int symbolVisibility(int index) {
+		return map.get(sym(index) + (is64 ? 5 : 13)) & 3;
+	}
+
+	/**
+	 * True for a non-default symbol version (hidden bit in .gnu.version). Such entries only serve binaries linked against that version; an
+	 * unversioned lookup such as dlsym resolves the name to its default version.
+	 */
+	public boolean isHiddenVersion(int index) {
+		return versym >= 0 && (map.getShort(versym + index * 2) & VERSYM_HIDDEN) != 0;
+	}
+
+	/**
+	 * Defined, globally visible function (STT_FUNC or STT_GNU_IFUNC, global/weak/unique binding, default or protected visibility), and not a
+	 * hidden symbol version.
+	 */
+	public boolean isExportedFunction(int index) {
+		if (isHiddenVersion(index))
+			return false;
+		int info = symbolInfo(index);
+		int type = info & 0xF;
+		int bind = info >> 4;
+		int vis = symbolVisibility(index);
+		return symbolSection(index) != 0 && (type == STT_FUNC || type == STT_GNU_IFUNC)
+				&& (bind == STB_GLOBAL || bind == STB_WEAK || bind == STB_GNU_UNIQUE) && (vis == 0 || vis == 3);
+	}
+
+	static int gnuHash(byte[] name) {
+		int h = 5381;
+		for (byte c : name)
+			h = h * 33 + (c & 0xFF);
+		return h;
+	}
+
+	/**
+	 * Index of the named symbol in the dynamic symbol table, or -1. Uses DT_GNU_HASH when present, otherwise scans. Hidden symbol versions
+	 * are passed over, as the dynamic loader does for an unversioned name.
+	 */
+	public int lookup(String name) {
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		if (gnuHash < 0) {
+			for (int i = 1; i < symbolCount; i++) {
+				if (nameEquals(i, key) && !isHiddenVersion(i))
+					return i;
+			}
+			return -1;
+		}
+		int h = gnuHash(key);
+		int bits = is64 ? 64 : 32;
+		int word = Integer.remainderUnsigned(Integer.divideUnsigned(h, bits), bloomSize);
+		long bloom = is64 ? map.getLong(gnuHash + 16 + word * 8) : map.getInt(gnuHash + 16 + word * 4) & 0xFFFFFFFFL;
+		long mask = (1L << Integer.remainderUnsigned(h, bits)) | (1L << Integer.remainderUnsigned(h >>> bloomShift, bits));
+		if ((bloom & mask) != mask)
+			return -1;
+		int idx = map.getInt(buckets + Integer.remainderUnsigned(h, nbuckets) * 4);
+		if (idx < symOffset)
+			return -1;
+		while (true) {
+			int h2 = map.getInt(chains + (idx - symOffset) * 4);
+			if ((h | 1) == (h2 | 1) && nameEquals(idx, key) && !isHiddenVersion(idx))
+				return idx;
+			if ((h2 & 1) != 0)
+				return -1;
+			idx++;
+		}
+	}
+
+	private boolean nameEquals(int index, byte[] key) {
+		int p = strtab + map.getInt(sym(index));
+		for (byte b : key) {
+			if (map.get(p++) != b)
+				return false;
+		}
+		return map.get(p) == 0;
+	}
+}
@@ -0,0 +1,101 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+import de.in.yajda.jfr.Events;
+
+/**
+ * Export reader for ELF shared objects (.so). Exports are the defined, globally visible functions of the dynamic symbol table, read in
+ * place from a mapping of the file. Itanium-mangled names are run through the {@link Demangler}; remaining x86-64 functions get a parameter
+ * estimate from their code under the System V calling convention. ELF has no ordinals, so {@link FunctionInfo#ordinal} is -1 and
+ * {@link FunctionInfo#rva} holds the symbol value (the load-base relative address). Of a versioned symbol only the default version is
+ * listed, once.
+ */
+public class ElfParser implements ExportParser {
+
+	@Override
+	public List<FunctionInfo> parseExports(File so) throws IOException {
+		Events.ParseExports ev = new Events.ParseExports();
+		ev.begin();
+		List<FunctionInfo> result = null;
+		Throwable failure = null;
+		try {
+			result = readExports(so);
+			return result;
+		} catch (IOException | RuntimeException ex) {
+			failure = ex;
+			throw ex;
+		} finally {
+			ev.finish(so, "ELF", result != null ? result.size() : 0, failure);
+		}
+	}
+
+	private List<FunctionInfo> readExports(File so) throws IOException {
+		ElfImage image = ElfImage.open(so);
+		List<FunctionInfo> result = new ArrayList<>();
+		Set<String> names = new HashSet<>();
+		int n = image.getSymbolCount();
+		for (int i = 1; i < n; i++) { // symbol 0 is the undefined entry
+			if (!image.isExportedFunction(i))
+				continue;
+			FunctionInfo fi = toFunction(image, i);
+			// a name can still repeat, e.g. default versions of several version nodes; the first one wins
+			if (names.add(fi.name))
+				result.add(fi);
+		}
+		if (image.isX64())
+			inferFromCode(so, image, result);
+		return result;
+	}
+
+	/**
+	 * Look up a single export by name through the GNU hash table, without enumerating the others. Returns null if the object does not
+	 * export a function of that name.
+	 */
+	public FunctionInfo lookup(File so, String name) throws IOException {
+		ElfImage image = ElfImage.open(so);
+		int idx = image.lookup(name);
+		return idx > 0 && image.isExportedFunction(idx) ? toFunction(image, idx) : null;
+	}
+
+	private static FunctionInfo toFunction(ElfImage image, int index) {
+		String name = image.symbolName(index);
+		String returnType = "unknown";
+		List<String> params = new ArrayList<>();
+		Demangler.Signature sig = Demangler.demangle(name);
+		if (sig != null) {
+			returnType = sig.returnType;
+			params = sig.paramTypes;
+		}
+		return new FunctionInfo(name, returnType, params, -1, (int) image.symbolValue(index));
+	}
+
+	private static void inferFromCode(File so, ElfImage image, List<FunctionInfo> result) {
+		List<Long> addresses = new ArrayList<>();
+		for (FunctionInfo fi : result) {
+			if (DllParser.needsInference(fi))
+				addresses.add(fi.rva & 0xFFFFFFFFL);
+		}
+		if (addresses.isEmpty())
+			return;
+		Map<Long, List<String>> inferred;
+		try {
+			inferred = new PrologueAnalyzer(PrologueAnalyzer.Abi.SYSV).analyze(so, image.codeMap(), addresses);
+		} catch (IOException ex) {
+			return;
+		}
+		for (int i = 0; i < result.size(); i++) {
+			FunctionInfo fi = result.get(i);
+			List<String> params = DllParser.needsInference(fi) ? inferred.get(fi.rva & 0xFFFFFFFFL) : null;
+			if (params != null && !params.isEmpty())
+				result.set(i, fi.withSignature(fi.returnType, new ArrayList<>(params)));
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.Locale;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+
+/**
+ * Reads the exported functions of a native library. {@link #forFile(File)} picks the backend from the file's magic: {@link DllParser} for
+ * PE images (Windows DLLs), {@link ElfParser} for ELF shared objects.
+ */
+public interface ExportParser {
+
+	List<FunctionInfo> parseExports(File library) throws IOException;
+
+	/**
+	 * Parser for the format of the given file. Files that are neither ELF nor PE get the PE parser, which reports the format error.
+	 */
+	static ExportParser forFile(File library) throws IOException {
+		return isElf(library) ? new ElfParser() : new DllParser();
+	}
+
+	static boolean isElf(File library) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(library, "r")) {
+			if (raf.length() < 4)
+				return false;
+			byte[] magic = new byte[4];
+			raf.readFully(magic);
+			return magic[0] == 0x7F && magic[1] == 'E' && magic[2] == 'L' && magic[3] == 'F';
+		}
+	}
+
+	/**
+	 * Whether a file name looks like a native library: *.dll, *.so and versioned names like libfoo.so.1.2.
+	 */
+	static boolean isLibraryName(String fileName) {
+		return fileName.toLowerCase(Locale.ROOT).matches(".*\\.(dll|so)(\\.\\d+)*");
+	}
+
+	/**
+	 * Whether the library can be loaded by JNA on this platform: ELF objects everywhere but Windows, PE images only on Windows.
+	 */
+	static boolean isLoadableHere(File library, boolean windows) {
+		try {
+			return isElf(library) != windows;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package de.in.yajda.dll;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches individual files (the current DLL and header) through a {@link WatchService} on their parent directories and notifies a
+ * callback once a file has settled after a change.
+ *
+ * Build tools usually write a DLL in several steps (truncate, write, touch), so events are debounced: the callback fires only after no
+ * further event arrived for {@link #DEBOUNCE_MS} and the file's size or timestamp really differs from the last notification.
+ */
+public class FileWatcher implements Closeable {
+	static final long DEBOUNCE_MS = 400;
+
+	private final WatchService watchService;
+	private final Map<Path, WatchKey> dirKeys = new HashMap<>();
+	private final Map<Path, Watched> watched = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService debouncer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "file-watcher-debounce");
+		t.setDaemon(true);
+		return t;
+	});
+	private final Thread pollThread;
+
+	private static class Watched {
+		final Runnable onChange;
+		long lastModified;
+		long length;
+		ScheduledFuture<?> pending;
+
+		Watched(File f, Runnable onChange) {
+			this.onChange = onChange;
+			this.lastModified = f.lastModified();
+			this.length = f.length();
+		}
+	}
+
+	public FileWatcher() throws IOException {
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.pollThread = new Thread(this::pollLoop, "file-watcher");
+		pollThread.setDaemon(true);
+		pollThread.start();
+	}
+
+	/**
+	 * Start watching a file. A previously registered callback for the same file is replaced.
+	 */
+	public synchronized void watch(File file, Runnable onChange) throws IOException {
+		Path p = file.getAbsoluteFile().toPath().normalize();
+		Path dir = p.getParent();
+		if (!dirKeys.containsKey(dir)) {
+			dirKeys.put(dir, dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY));
+		}
+		Watched old = watched.put(p, new Watched(p.toFile(), onChange));
+		if (old != null && old.pending != null)
+			old.pending.cancel(false);
+	}
+
+	/**
+	 * Stop watching a file. The parent directory registration is dropped when no other watched file lives there.
+	 */
+	public synchronized void unwatch(File file) {
+		if (file == null)
+			return;
+		Path p = file.getAbsoluteFile().toPath().normalize();
+		Watched w = watched.remove(p);
+		if (w != null && w.pending != null)
+			w.pending.cancel(false);
+		Path dir = p.getParent();
+		boolean dirStillUsed = watched.keySet().stream().anyMatch(k -> dir.equals(k.getParent()));
+		if (!dirStillUsed) {
+			WatchKey key = dirKeys.remove(dir);
+			if (key != null)
+				key.cancel();
+		}
+	}
+
+	private void pollLoop() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			Path dir = (Path) key.watchable();
+			for (WatchEvent<?> ev : key.pollEvents()) {
+				if (ev.kind() == OVERFLOW) {
+					// events were lost; re-check every file in this directory
+					watched.keySet().stream().filter(p -> dir.equals(p.getParent())).forEach(this::schedule);
+					continue;
+				}
+				Path changed = dir.resolve((Path) ev.context()).normalize();
+				if (watched.containsKey(changed))
+					schedule(changed);
+			}
+			key.reset();
+		}
+	}
+
+	private void schedule(Path p) {
+		Watched w = watched.get(p);
+		if (w == null)
+			return;
+		synchronized (w) {
+			if (w.pending != null)
+				w.pending.cancel(false);
+			w.pending = debouncer.schedule(() -> fireIfChanged(p, w), DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void fireIfChanged(Path p, Watched w) {
+		File f = p.toFile();
+		if (!f.exists())
+			return; // deleted or mid-rebuild; a later CREATE/MODIFY event will trigger again
+		long lm = f.lastModified();
+		long len = f.length();
+		synchronized (w) {
+			if (lm == w.lastModified && len == w.length)
+				return;
+			w.lastModified = lm;
+			w.length = len;
+		}
+		try {
+			w.onChange.run();
+		} catch (Throwable ignored) {
+			// a failing callback must not stop the watcher
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		debouncer.shutdownNow();
+		pollThread.interrupt();
+		watchService.close();
+	}
+}
@@ -0,0 +1,599 @@
+package de.in.yajda.dll;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import com.sun.jna.Function;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+import de.in.yajda.dll.HeaderParser.HeaderInfo;
+
+/**
+ * Signature-driven fuzzer for one native function. Argument vectors are generated from the parameter types: boundary integers of the
+ * parameter's width, NaNs/infinities/denormals for floating point, and for pointers null, small and wild addresses, a freed ("dangling")
+ * block, or a fresh buffer of a boundary size; an integer right after a buffer is often set to the buffer's size (or one more).
+ *
+ * Calls run in child JVMs (one per worker, by default one per core) so a crash only costs a restart; inputs are sent in batches over a
+ * pipe and answered one line each. A missing answer is a crash, no answer within the hang timeout a hang. Inputs that crash, hang, throw
+ * or produce a return value not seen before are kept in a corpus, deduplicated by input; the new-result inputs also seed mutations.
+ *
+ * Inputs are text, one token per argument: x&lt;hex&gt; raw bits, b&lt;size&gt;:&lt;fill&gt; a buffer, d a dangling pointer. This is also the format
+ * of the corpus files.
+ */
+public class Fuzzer {
+	public enum Kind {
+		INT8, INT16, INT32, INT64, FLOAT, DOUBLE, POINTER, STRING
+	}
+
+	public enum Outcome {
+		CRASH, HANG, ERROR, NEW_RESULT
+	}
+
+	/**
+	 * One corpus entry.
+	 */
+	public static final class Entry {
+		public final Outcome outcome;
+		public final String input;
+		public final String detail;
+
+		Entry(Outcome outcome, String input, String detail) {
+			this.outcome = outcome;
+			this.input = input;
+			this.detail = detail;
+		}
+
+		@Override
+		public String toString() {
+			return outcome + " " + input + (detail != null ? "  (" + detail + ")" : "");
+		}
+	}
+
+	public static final class Stats {
+		public final long calls;
+		public final long crashes;
+		public final long hangs;
+		public final long errors;
+		public final long newResults;
+		public final long elapsedNanos;
+
+		Stats(long calls, long crashes, long hangs, long errors, long newResults, long elapsedNanos) {
+			this.calls = calls;
+			this.crashes = crashes;
+			this.hangs = hangs;
+			this.errors = errors;
+			this.newResults = newResults;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		public double callsPerSecond() {
+			return elapsedNanos == 0 ? 0 : calls * 1e9 / elapsedNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%d calls (%.0f/s), %d crashes, %d hangs, %d errors, %d new results", calls, callsPerSecond(), crashes,
+					hangs, errors, newResults);
+		}
+	}
+
+	/** Distinct return values remembered; beyond that nothing counts as new any more. */
+	private static final int MAX_RESULTS = 10_000;
+	private static final int[] BUFFER_SIZES = { 0, 1, 7, 8, 16, 64, 255, 256, 4096, 65536 };
+	private static final int[] FILLS = { 0x00, 0x41, 0x7F, 0xFF };
+	/** Time a worker JVM may take to start and load the library. */
+	private static final long STARTUP_TIMEOUT_MS = 30_000;
+	private static final long[] WILD_POINTERS = { 1, 0x10, 0x1000, -1, 0xDEADBEEFL, 0x00007FFFFFFFFFFFL, 0xFFFF800000000000L, 0x4141414141414141L };
+
+	private final File library;
+	private final String function;
+	private final Kind returnKind; // null for void
+	private final Kind[] params;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private long hangTimeoutMs = 1000;
+	private int batchSize = 256;
+	private File corpusDir;
+
+	private final Map<String, Entry> corpus = new ConcurrentHashMap<>();
+	private final Set<Long> results = ConcurrentHashMap.newKeySet();
+	private final List<String> seeds = new CopyOnWriteArrayList<>();
+	private final LongAdder calls = new LongAdder();
+	private final LongAdder crashes = new LongAdder();
+	private final LongAdder hangs = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder newResults = new LongAdder();
+	private volatile boolean stopped;
+
+	public Fuzzer(File library, String function, HeaderInfo signature) {
+		this.library = library;
+		this.function = function;
+		this.returnKind = "void".equals(signature.returnType) ? null : kindOf(signature.returnType);
+		this.params = new Kind[signature.paramTypes.size()];
+		for (int i = 0; i < params.length; i++)
+			params[i] = kindOf(signature.paramTypes.get(i));
+	}
+
+	public void setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
+	}
+
+	public void setHangTimeoutMs(long ms) {
+		this.hangTimeoutMs = ms;
+	}
+
+	/**
+	 * Also write each corpus entry to a file in this directory.
+	 */
+	public void setCorpusDir(File dir) {
+		this.corpusDir = dir;
+	}
+
+	/**
+	 * Argument kind of a C type as written in headers and demangled names. Unknown types are passed as register-sized integers.
+	 */
+	public static Kind kindOf(String cType) {
+		String t = cType == null ? "" : cType.toLowerCase(Locale.ROOT).replace("const ", "").replace("unsigned ", "").replace("signed ", "").trim();
+		if (t.contains("*"))
+			return t.startsWith("char") || t.startsWith("wchar_t") ? Kind.STRING : Kind.POINTER;
+		switch (t) {
+		case "char":
+		case "bool":
+		case "int8_t":
+		case "uint8_t":
+			return Kind.INT8;
+		case "short":
+		case "wchar_t":
+		case "int16_t":
+		case "uint16_t":
+			return Kind.INT16;
+		case "int":
+		case "int32_t":
+		case "uint32_t":
+		case "dword":
+			return Kind.INT32;
+		case "long":
+			return Native.LONG_SIZE == 8 ? Kind.INT64 : Kind.INT32;
+		case "float":
+			return Kind.FLOAT;
+		case "double":
+		case "long double":
+			return Kind.DOUBLE;
+		default:
+			return Kind.INT64;
+		}
+	}
+
+	public Collection<Entry> getCorpus() {
+		return Collections.unmodifiableCollection(corpus.values());
+	}
+
+	public void stop() {
+		stopped = true;
+	}
+
+	public Stats stats(long elapsedNanos) {
+		return new Stats(calls.sum(), crashes.sum(), hangs.sum(), errors.sum(), newResults.sum(), elapsedNanos);
+	}
+
+	/**
+	 * Fuzz for the given time (or until {@link #stop()}), reporting stats about once a second.
+	 */
+	public Stats run(long durationMs, Consumer<Stats> progress) throws InterruptedException {
+		stopped = false;
+		long t0 = System.nanoTime();
+		long deadline = t0 + TimeUnit.MILLISECONDS.toNanos(durationMs);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < workers; i++) {
+			long seed = t0 + i * 0x9E3779B97F4A7C15L;
+			Thread t = new Thread(() -> work(new SplittableRandom(seed), deadline), "fuzz-" + i);
+			t.setDaemon(true);
+			t.start();
+			threads.add(t);
+		}
+		while (!stopped && System.nanoTime() < deadline) {
+			Thread.sleep(Math.min(1000, Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+			if (progress != null)
+				progress.accept(stats(System.nanoTime() - t0));
+		}
+		stopped = true;
+		for (Thread t : threads)
+			t.join();
+		return stats(System.nanoTime() - t0);
+	}
+
+	// ---- parent side ----
+
+	/**
+	 * A child JVM running {@link #main(String[])}; its answers are read on a separate thread so that a hang can be timed out.
+	 */
+	private final class Child {
+		final Process process;
+		final BufferedWriter in;
+		final BlockingQueue<String> answers = new LinkedBlockingQueue<>();
+
+		Child() throws IOException {
+			List<String> cmd = new ArrayList<>();
+			cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+			// a crashing worker leaves its hs_err file in the temp directory instead of the working directory, and no core dump
+			cmd.add("-XX:-CreateCoredumpOnCrash");
+			cmd.add("-XX:ErrorFile=" + new File(System.getProperty("java.io.tmpdir"), "yajda-fuzz-hs_err_%p.log"));
+			cmd.add("-cp");
+			cmd.add(System.getProperty("java.class.path"));
+			cmd.add(Fuzzer.class.getName());
+			cmd.add(library.getAbsolutePath());
+			cmd.add(function);
+			cmd.add(returnKind == null ? "VOID" : returnKind.name());
+			for (Kind k : params)
+				cmd.add(k.name());
+			process = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+			in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.US_ASCII));
+			Thread reader = new Thread(() -> {
+				try (BufferedReader r = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+					String line;
+					while ((line = r.readLine()) != null) {
+						if (!line.isEmpty()) // "" marks the end of stream
+							answers.add(line);
+					}
+				} catch (IOException ignored) {
+					// the child died; handled as end of stream
+				}
+				answers.add("");
+			}, "fuzz-reader");
+			reader.setDaemon(true);
+			reader.start();
+			String ready;
+			try {
+				ready = answers.poll(STARTUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				ready = null;
+			}
+			if (!"ready".equals(ready)) {
+				kill();
+				throw new IOException("Fuzz worker did not start for " + library.getName() + "!" + function);
+			}
+		}
+
+		/**
+		 * The next answer line, "" at end of stream or null on timeout. Anything else on stdout (the VM's banner when it dies) is skipped.
+		 */
+		String nextAnswer(long timeoutMs) throws InterruptedException {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+			while (true) {
+				String line = answers.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (line == null || line.isEmpty() || line.startsWith("r ") || line.startsWith("e "))
+					return line;
+			}
+		}
+
+		void kill() {
+			process.destroyForcibly();
+		}
+	}
+
+	private void work(SplittableRandom rnd, long deadline) {
+		Child child = null;
+		String[] batch = new String[batchSize];
+		try {
+			while (!stopped && System.nanoTime() < deadline) {
+				if (child == null)
+					child = new Child();
+				try {
+					for (int i = 0; i < batch.length; i++) {
+						batch[i] = nextInput(rnd);
+						child.in.write(batch[i]);
+						child.in.newLine();
+					}
+					child.in.flush();
+				} catch (IOException ex) {
+					// the pipe broke: the worker died on an earlier batch without an input to blame, start over
+					child.kill();
+					child = null;
+					continue;
+				}
+				for (int i = 0; i < batch.length; i++) {
+					String answer = child.nextAnswer(hangTimeoutMs);
+					if (answer == null) {
+						hangs.increment();
+						record(Outcome.HANG, batch[i], "no answer within " + hangTimeoutMs + " ms");
+						child.kill();
+						child = null;
+						break;
+					}
+					if (answer.isEmpty()) {
+						crashes.increment();
+						record(Outcome.CRASH, batch[i], "worker exited");
+						child.kill();
+						child = null;
+						break;
+					}
+					calls.increment();
+					handle(batch[i], answer);
+				}
+			}
+		} catch (IOException ex) {
+			// the worker did not start; the other workers will not do better
+			stopped = true;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (child != null)
+				child.kill();
+		}
+	}
+
+	private void handle(String input, String answer) {
+		if (answer.startsWith("r ")) {
+			long bits = Long.parseUnsignedLong(answer.substring(2), 16);
+			if (results.size() < MAX_RESULTS && results.add(bits)) {
+				newResults.increment();
+				record(Outcome.NEW_RESULT, input, "returned 0x" + Long.toHexString(bits));
+				seeds.add(input);
+			}
+		} else {
+			String msg = answer.substring(Math.min(2, answer.length()));
+			// JNA reports faults it caught in protected mode as "Invalid memory access"
+			if (msg.contains("Invalid memory access")) {
+				crashes.increment();
+				record(Outcome.CRASH, input, msg);
+			} else {
+				errors.increment();
+				record(Outcome.ERROR, input, msg);
+			}
+		}
+	}
+
+	private void record(Outcome outcome, String input, String detail) {
+		String key = outcome + " " + input;
+		Entry e = new Entry(outcome, input, detail);
+		if (corpus.putIfAbsent(key, e) != null || corpusDir == null)
+			return;
+		File f = new File(corpusDir, outcome.name().toLowerCase(Locale.ROOT) + "-" + Integer.toHexString(key.hashCode()) + ".txt");
+		try {
+			Files.createDirectories(corpusDir.toPath());
+			Files.writeString(f.toPath(), function + "\n" + input + "\n" + detail + "\n", StandardCharsets.UTF_8);
+		} catch (IOException ignored) {
+			// the entry is still in memory
+		}
+	}
+
+	// ---- input generation ----
+
+	String nextInput(SplittableRandom rnd) {
+		int n = seeds.size();
+		if (n > 0 && rnd.nextInt(4) == 0)
+			return mutate(seeds.get(rnd.nextInt(n)), rnd);
+		String[] tokens = new String[params.length];
+		for (int i = 0; i < params.length; i++)
+			tokens[i] = value(i, tokens, rnd);
+		return String.join(" ", tokens);
+	}
+
+	private String mutate(String seed, SplittableRandom rnd) {
+		String[] tokens = seed.split(" ");
+		if (tokens.length != params.length || tokens.length == 0)
+			return seed;
+		int changes = 1 + rnd.nextInt(2);
+		for (int c = 0; c < changes; c++) {
+			int i = rnd.nextInt(tokens.length);
+			tokens[i] = value(i, tokens, rnd);
+		}
+		return String.join(" ", tokens);
+	}
+
+	private String value(int index, String[] tokens, SplittableRandom rnd) {
+		Kind k = params[index];
+		// a length right after a buffer: its size, one more, or zero
+		if (isInteger(k) && index > 0 && tokens[index - 1] != null && tokens[index - 1].startsWith("b") && rnd.nextBoolean()) {
+			String b = tokens[index - 1];
+			long size = Long.parseLong(b.substring(1, b.indexOf(':')));
+			long[] choices = { size, size + 1, 0 };
+			return hex(choices[rnd.nextInt(choices.length)]);
+		}
+		switch (k) {
+		case INT8:
+			return hex(intValue(rnd, new long[] { 0, 1, -1, 0x7F, 0x80, 0xFF }, 8));
+		case INT16:
+			return hex(intValue(rnd, new long[] { 0, 1, -1, 0x7FFF, 0x8000, 0xFFFF }, 16));
+		case INT32:
+			return hex(intValue(rnd, new long[] { 0, 1, -1, 0xFF, 0x100, 0xFFFF, 0x10000, Integer.MAX_VALUE, Integer.MIN_VALUE, 0xFFFFFFFFL }, 32));
+		case INT64:
+			return hex(intValue(rnd, new long[] { 0, 1, -1, 0xFFFFFFFFL, 0x100000000L, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE }, 64));
+		case FLOAT:
+			return hex(Float.floatToRawIntBits(pick(rnd, new float[] { Float.NaN, Float.intBitsToFloat(0x7FA00000), Float.POSITIVE_INFINITY,
+					Float.NEGATIVE_INFINITY, 0f, -0f, Float.MIN_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, 1f, -1f, (float) rnd.nextDouble(-1e6, 1e6) })) & 0xFFFFFFFFL);
+		case DOUBLE:
+			return hex(Double.doubleToRawLongBits(pick(rnd, new double[] { Double.NaN, Double.longBitsToDouble(0x7FF4000000000000L), Double.POSITIVE_INFINITY,
+					Double.NEGATIVE_INFINITY, 0d, -0d, Double.MIN_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, 1d, -1d, rnd.nextDouble(-1e12, 1e12) })));
+		case STRING:
+			if (rnd.nextInt(8) == 0)
+				return "x0";
+			return buffer(rnd);
+		default: // POINTER
+			switch (rnd.nextInt(4)) {
+			case 0:
+				return "x0";
+			case 1:
+				return hex(WILD_POINTERS[rnd.nextInt(WILD_POINTERS.length)]);
+			case 2:
+				return "d";
+			default:
+				return buffer(rnd);
+			}
+		}
+	}
+
+	private static boolean isInteger(Kind k) {
+		return k == Kind.INT8 || k == Kind.INT16 || k == Kind.INT32 || k == Kind.INT64;
+	}
+
+	private static long intValue(SplittableRandom rnd, long[] boundaries, int bits) {
+		switch (rnd.nextInt(4)) {
+		case 0:
+			return rnd.nextLong(0, 1025); // small counts and indexes
+		case 1:
+			return bits == 64 ? rnd.nextLong() : rnd.nextLong() & ((1L << bits) - 1);
+		default:
+			return boundaries[rnd.nextInt(boundaries.length)];
+		}
+	}
+
+	private static String buffer(SplittableRandom rnd) {
+		return "b" + BUFFER_SIZES[rnd.nextInt(BUFFER_SIZES.length)] + ":" + Integer.toHexString(FILLS[rnd.nextInt(FILLS.length)]);
+	}
+
+	private static float pick(SplittableRandom rnd, float[] values) {
+		return values[rnd.nextInt(values.length)];
+	}
+
+	private static double pick(SplittableRandom rnd, double[] values) {
+		return values[rnd.nextInt(values.length)];
+	}
+
+	private static String hex(long v) {
+		return "x" + Long.toHexString(v);
+	}
+
+	// ---- child side ----
+
+	/**
+	 * Worker process: library, function, return kind (or VOID) and parameter kinds as arguments. Prints "ready" once the function is
+	 * resolved, then reads inputs on stdin and writes one answer line per input on stdout: "r &lt;hex&gt;" with the return value bits or
+	 * "e &lt;message&gt;" for an exception.
+	 */
+	public static void main(String[] args) throws IOException {
+		Function f = NativeLibrary.getInstance(args[0]).getFunction(args[1]);
+		Kind ret = args[2].equals("VOID") ? null : Kind.valueOf(args[2]);
+		Kind[] kinds = new Kind[args.length - 3];
+		for (int i = 0; i < kinds.length; i++)
+			kinds[i] = Kind.valueOf(args[i + 3]);
+		// on Windows faults become exceptions and the worker survives; elsewhere protection needs libjsig, so the process dies and the
+		// parent notices
+		if (Platform.isWindows())
+			Native.setProtected(true);
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII));
+		PrintStream out = new PrintStream(new FileOutputStream(FileDescriptor.out), false, StandardCharsets.UTF_8);
+		out.println("ready");
+		out.flush();
+		String line;
+		while ((line = in.readLine()) != null) {
+			List<Memory> buffers = new ArrayList<>();
+			try {
+				Object[] a = arguments(line, kinds, buffers);
+				out.println("r " + Long.toHexString(call(f, ret, a)));
+			} catch (Throwable t) {
+				out.println("e " + String.valueOf(t.getMessage()).replace('\n', ' '));
+			} finally {
+				for (Memory m : buffers)
+					m.close();
+			}
+			// answer a whole batch in one write
+			if (!in.ready())
+				out.flush();
+		}
+		out.flush();
+	}
+
+	private static Object[] arguments(String line, Kind[] kinds, List<Memory> buffers) {
+		String[] tokens = line.isEmpty() ? new String[0] : line.split(" ");
+		Object[] a = new Object[kinds.length];
+		for (int i = 0; i < kinds.length; i++) {
+			String t = tokens[i];
+			if (t.equals("d")) {
+				Memory m = new Memory(64);
+				long addr = Pointer.nativeValue(m);
+				m.close();
+				a[i] = new Pointer(addr);
+			} else if (t.startsWith("b")) {
+				int colon = t.indexOf(':');
+				int size = Integer.parseInt(t.substring(1, colon));
+				Memory m = new Memory(Math.max(1, size));
+				m.setMemory(0, m.size(), (byte) Integer.parseInt(t.substring(colon + 1), 16));
+				if (kinds[i] == Kind.STRING)
+					m.setByte(m.size() - 1, (byte) 0);
+				buffers.add(m);
+				a[i] = m;
+			} else {
+				long v = Long.parseUnsignedLong(t.substring(1), 16);
+				switch (kinds[i]) {
+				case INT8:
+					a[i] = (byte) v;
+					break;
+				case INT16:
+					a[i] = (short) v;
+					break;
+				case INT32:
+					a[i] = (int) v;
+					break;
+				case FLOAT:
+					a[i] = Float.intBitsToFloat((int) v);
+					break;
+				case DOUBLE:
+					a[i] = Double.longBitsToDouble(v);
+					break;
+				case POINTER:
+				case STRING:
+					a[i] = v == 0 ? null : new Pointer(v);
+					break;
+				default:
+					a[i] = v;
+				}
+			}
+		}
+		return a;
+	}
+
+	/**
+	 * Call and reduce the return value to bits that identify it. Pointers only count as null or not, since addresses differ per run, and
+	 * floating point values by sign and exponent (NaN and infinities included), otherwise every input would return something new.
+	 */
+	private static long call(Function f, Kind ret, Object[] a) {
+		if (ret == null) {
+			f.invokeVoid(a);
+			return 0;
+		}
+		switch (ret) {
+		case INT8:
+		case INT16:
+		case INT32:
+			return f.invokeInt(a);
+		case FLOAT:
+			return Double.doubleToLongBits(f.invokeFloat(a)) >>> 52;
+		case DOUBLE:
+			return Double.doubleToLongBits(f.invokeDouble(a)) >>> 52;
+		case POINTER:
+		case STRING:
+			return f.invokePointer(a) == null ? 0 : 1;
+		default:
+			return f.invokeLong(a);
+		}
+	}
+}
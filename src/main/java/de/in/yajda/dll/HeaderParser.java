@@ -8,18 +8,26 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import de.in.yajda.jfr.Events;
+
 /**
  * Minimal C header parser for function prototypes. Heuristic implementation: strips comments, finds simple function prototypes like: int
  * Add(int a, float b); void DoSomething(void);
  *
- * Limitations: - Does not parse complex declarations (function pointers, macros, C++ overloads). - Attempts to extract a return type and a
- * list of parameter types (best-effort).
+ * Function-pointer parameters, written inline ("int (*cb)(int, void *)") or through a typedef ("typedef int (CALLBACK *Progress)(int);"),
+ * are reported in the canonical form "int (*)(int, void *)"; {@link #parseFunctionPointer(String)} turns that back into a signature.
+ *
+ * Limitations: - Does not parse complex declarations (nested function pointers, macros, C++ overloads). - Attempts to extract a return
+ * type and a list of parameter types (best-effort).
  *
  * Note: reading header files may fail if encoding is not UTF-8. We attempt several encodings.
  */
@@ -33,20 +41,70 @@ public class HeaderParser {
 			this.returnType = returnType;
 			this.paramTypes = paramTypes;
 		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof HeaderInfo))
+				return false;
+			HeaderInfo other = (HeaderInfo) o;
+			return Objects.equals(returnType, other.returnType) && Objects.equals(paramTypes, other.paramTypes);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(returnType, paramTypes);
+		}
 	}
 
 	private static final Pattern PROTOTYPE = Pattern.compile(
-			// return type (group 1), function name (group 2), parameter list (group 3)
-			"([A-Za-z_\\*\\s0-9]+?)\\s+([A-Za-z_][A-Za-z0-9_]*)\\s*\\(([^;\\)]*)\\)\\s*;", Pattern.MULTILINE);
+			// return type (group 1), function name (group 2), parameter list (group 3); parameters may contain one level of parentheses
+			"([A-Za-z_\\*\\s0-9]+?)\\s+([A-Za-z_][A-Za-z0-9_]*)\\s*\\(((?:[^;()]|\\([^;()]*\\))*)\\)\\s*;", Pattern.MULTILINE);
+
+	private static final Set<String> TYPE_KEYWORDS = Set.of("void", "char", "short", "int", "long", "float", "double", "signed", "unsigned",
+			"bool");
+
+	private static final Pattern FUNCTION_POINTER_TYPEDEF = Pattern.compile(
+			// typedef return type (group 1) (calling convention * name (group 2)) (parameter list (group 3));
+			"typedef\\s+([A-Za-z_\\*\\s0-9]+?)\\s*\\(\\s*(?:[A-Za-z_][A-Za-z0-9_]*+\\s*)*+\\*\\s*([A-Za-z_][A-Za-z0-9_]*)\\s*\\)\\s*\\(([^;()]*)\\)\\s*;");
+
+	// return type (group 1) (calling convention * optional name) (parameter list (group 2))
+	private static final Pattern FUNCTION_POINTER = Pattern.compile(
+			"(?s)\\s*(.+?)\\s*\\(\\s*(?:[A-Za-z_][A-Za-z0-9_]*+\\s*)*+\\*\\s*[A-Za-z_0-9]*\\s*\\)\\s*\\(([^()]*)\\)\\s*");
 
 	/**
 	 * Parse a header file and return a map of function name -> HeaderInfo
 	 */
 	public Map<String, HeaderInfo> parseHeader(File headerFile) throws IOException {
+		Events.ParseHeader ev = new Events.ParseHeader();
+		ev.begin();
+		Map<String, HeaderInfo> result = null;
+		Throwable failure = null;
+		try {
+			result = readPrototypes(headerFile);
+			return result;
+		} catch (IOException | RuntimeException ex) {
+			failure = ex;
+			throw ex;
+		} finally {
+			ev.finish(headerFile, result != null ? result.size() : 0, failure);
+		}
+	}
+
+	private Map<String, HeaderInfo> readPrototypes(File headerFile) throws IOException {
 		String src = readFileWithFallBackEncodings(headerFile);
 		src = removeComments(src);
 		Map<String, HeaderInfo> map = new LinkedHashMap<>();
 
+		// function-pointer typedefs first, so that prototypes using them get the full signature
+		Map<String, String> callbackTypes = new HashMap<>();
+		Matcher td = FUNCTION_POINTER_TYPEDEF.matcher(src);
+		while (td.find())
+			callbackTypes.put(td.group(2), functionPointerType(normalizeType(td.group(1).trim()), parseParamList(td.group(3).trim(), Map.of())));
+		if (!callbackTypes.isEmpty())
+			src = td.replaceAll(" ");
+
 		Matcher m = PROTOTYPE.matcher(src);
 		while (m.find()) {
 			String rawRet = m.group(1).trim();
@@ -54,7 +112,7 @@ public class HeaderParser {
 			String params = m.group(3).trim();
 
 			String ret = normalizeType(rawRet);
-			List<String> paramTypes = parseParamList(params);
+			List<String> paramTypes = parseParamList(params, callbackTypes);
 			map.put(name, new HeaderInfo(ret, paramTypes));
 		}
 		return map;
@@ -90,22 +148,67 @@ public class HeaderParser {
 		return s;
 	}
 
-	private List<String> parseParamList(String params) {
+	/**
+	 * Signature of a function-pointer type such as "int (*)(int, void *)" or "void (__stdcall *cb)(const char *)", or null if the type is
+	 * not a function pointer.
+	 */
+	public static HeaderInfo parseFunctionPointer(String type) {
+		if (type == null)
+			return null;
+		Matcher m = FUNCTION_POINTER.matcher(type);
+		if (!m.matches())
+			return null;
+		return new HeaderInfo(normalizeType(m.group(1)), parseParamList(m.group(2).trim(), Map.of()));
+	}
+
+	private static String functionPointerType(String returnType, List<String> paramTypes) {
+		return returnType + " (*)(" + String.join(", ", paramTypes) + ")";
+	}
+
+	/**
+	 * Split at the commas that are not inside parentheses (those of function-pointer parameters).
+	 */
+	private static List<String> splitTopLevel(String params) {
+		List<String> parts = new ArrayList<>();
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < params.length(); i++) {
+			char c = params.charAt(i);
+			if (c == '(')
+				depth++;
+			else if (c == ')')
+				depth--;
+			else if (c == ',' && depth == 0) {
+				parts.add(params.substring(start, i));
+				start = i + 1;
+			}
+		}
+		parts.add(params.substring(start));
+		return parts;
+	}
+
+	private static List<String> parseParamList(String params, Map<String, String> callbackTypes) {
 		List<String> res = new ArrayList<>();
 		if (params.isEmpty() || params.equalsIgnoreCase("void")) {
 			return res;
 		}
-		String[] parts = params.split(",");
-		for (String p : parts) {
+		for (String p : splitTopLevel(params)) {
 			String t = p.trim();
+			HeaderInfo fp = parseFunctionPointer(t);
+			if (fp != null) {
+				res.add(functionPointerType(fp.returnType, fp.paramTypes));
+				continue;
+			}
 			// remove any parameter name at end: naive approach -> drop last token if it looks like an identifier
 			// e.g. "const char *name" -> keep "const char *"
+			// split the stars off a parameter name: "void *ctx" -> "void * ctx"
+			t = t.replaceAll("\\*+(?=[A-Za-z_][A-Za-z0-9_]*$)", "$0 ");
 			String[] toks = t.split("\\s+");
 			if (toks.length == 0)
 				continue;
 			// If last token contains '*' or digits, could be part of type; otherwise assume it's a name and remove it
 			String last = toks[toks.length - 1];
-			if (isParamName(last)) {
+			if (toks.length > 1 && isParamName(last)) {
 				// drop last token
 				String[] typeToks = Arrays.copyOf(toks, toks.length - 1);
 				String type = String.join(" ", typeToks).trim();
@@ -113,17 +216,17 @@ public class HeaderParser {
 					// fallback to unknown
 					res.add("unknown");
 				} else {
-					res.add(normalizeType(type));
+					res.add(callbackTypes.getOrDefault(type, normalizeType(type)));
 				}
 			} else {
 				// treat whole as type (e.g., "int" or "char*")
-				res.add(normalizeType(t));
+				res.add(callbackTypes.getOrDefault(t, normalizeType(t)));
 			}
 		}
 		return res;
 	}
 
-	private boolean isParamName(String token) {
+	private static boolean isParamName(String token) {
 		// heuristics: if token contains letters and not '*' and not something like 'const'
 		// parameter names usually are simple identifiers possibly with array suffixes.
 		// If token contains '*' it's more likely part of type.
@@ -132,11 +235,11 @@ public class HeaderParser {
 		// if token includes digits only or starts with '[' treat as name
 		if (token.matches("\\[.*") || token.matches(".*\\]"))
 			return true;
-		// token is identifier-like -> consider it parameter name
-		return token.matches("[A-Za-z_][A-Za-z0-9_]*");
+		// token is identifier-like -> consider it parameter name, unless it ends an unnamed type ("unsigned int")
+		return token.matches("[A-Za-z_][A-Za-z0-9_]*") && !TYPE_KEYWORDS.contains(token);
 	}
 
-	private String normalizeType(String raw) {
+	private static String normalizeType(String raw) {
 		String t = raw.replaceAll("\\s+", " ").trim();
 		// move pointer stars next to base type: "char *" -> "char *"
 		t = t.replaceAll("\\s*\\*\\s*", " *");
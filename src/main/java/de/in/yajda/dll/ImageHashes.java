@@ -0,0 +1,209 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * SHA-256 content hashes of a library file: one per section and one for the whole image, computed over a read-only mapping.
+ *
+ * For PE images the file is cut along the section table into the headers, each section's raw data and the bytes no section covers (gaps,
+ * overlay such as an Authenticode signature). Other files are cut into {@link #CHUNK} sized pieces. The pieces are hashed in parallel, and
+ * the image hash is the hash of the piece hashes in file order; it covers every byte, so equal image hashes mean identical files. Section
+ * hashes tell near-identical builds apart: a copy that only differs in its resources or signature has the same .text hash.
+ *
+ * Used by {@link Workspace#addDlls} to parse each distinct image once, however many copies an install tree holds.
+ */
+public class ImageHashes {
+	/** Piece size for files without a section table. */
+	public static final int CHUNK = 4 * 1024 * 1024;
+
+	/**
+	 * Hash of one piece of the file. Pieces not backed by a section are named "(headers)", "(unmapped)" (gaps between
+	 * sections) or "(overlay)" (data behind the last section).
+	 */
+	public static final class Section {
+		public final String name;
+		public final long offset;
+		public final long size;
+		public final String hash;
+
+		Section(String name, long offset, long size, String hash) {
+			this.name = name;
+			this.offset = offset;
+			this.size = size;
+			this.hash = hash;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-10s 0x%08X %10d %s", name, offset, size, hash);
+		}
+	}
+
+	public final File file;
+	/** File length and modification time when hashed, to tell whether the hashes are still current. */
+	public final long length;
+	public final long lastModified;
+	public final String imageHash;
+	public final List<Section> sections;
+
+	private ImageHashes(File file, long length, long lastModified, String imageHash, List<Section> sections) {
+		this.file = file;
+		this.length = length;
+		this.lastModified = lastModified;
+		this.imageHash = imageHash;
+		this.sections = Collections.unmodifiableList(sections);
+	}
+
+	/**
+	 * Whether the file still has the length and modification time it had when it was hashed.
+	 */
+	public boolean isCurrent() {
+		return file.length() == length && file.lastModified() == lastModified;
+	}
+
+	/**
+	 * Names of the sections whose content differs from the other image's section of the same name, including sections present in only
+	 * one of them.
+	 */
+	public List<String> differingSections(ImageHashes other) {
+		List<String> res = new ArrayList<>();
+		for (Section s : sections) {
+			Section o = other.section(s.name);
+			if (o == null || !o.hash.equals(s.hash))
+				res.add(s.name);
+		}
+		for (Section o : other.sections) {
+			if (section(o.name) == null)
+				res.add(o.name);
+		}
+		return res;
+	}
+
+	public Section section(String name) {
+		for (Section s : sections) {
+			if (s.name.equals(name))
+				return s;
+		}
+		return null;
+	}
+
+	/**
+	 * Hash one file; its pieces are hashed in parallel.
+	 */
+	public static ImageHashes of(File file) throws IOException {
+		long lastModified = file.lastModified();
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = ch.size();
+			List<long[]> ranges = new ArrayList<>();
+			List<String> names = new ArrayList<>();
+			MappedByteBuffer mapped = size > 0 && size <= Integer.MAX_VALUE ? ch.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+			if (mapped == null)
+				throw new IOException("Cannot map " + file + " (" + size + " bytes)");
+			PeImage image = peImage(mapped);
+			if (image != null)
+				cutSections(image, size, ranges, names);
+			else
+				cutChunks(size, ranges, names);
+
+			byte[][] digests = new byte[ranges.size()][];
+			IntStream.range(0, ranges.size()).parallel().forEach(i -> {
+				long[] r = ranges.get(i);
+				digests[i] = sha256(mapped.slice((int) r[0], (int) r[1]));
+			});
+			MessageDigest whole = digest();
+			List<Section> sections = new ArrayList<>();
+			for (int i = 0; i < digests.length; i++) {
+				whole.update(digests[i]);
+				sections.add(new Section(names.get(i), ranges.get(i)[0], ranges.get(i)[1], HexFormat.of().formatHex(digests[i])));
+			}
+			return new ImageHashes(file, size, lastModified, HexFormat.of().formatHex(whole.digest()), sections);
+		}
+	}
+
+	/**
+	 * Hash many files in parallel. Files that cannot be read are left out.
+	 */
+	public static List<ImageHashes> ofAll(List<File> files) {
+		return files.parallelStream().map(f -> {
+			try {
+				return of(f);
+			} catch (IOException ex) {
+				return null;
+			}
+		}).filter(Objects::nonNull).collect(Collectors.toList());
+	}
+
+	private static PeImage peImage(ByteBuffer mapped) {
+		try {
+			return PeImage.parse(mapped);
+		} catch (IOException | RuntimeException ex) {
+			// not PE (or a damaged header): hash in chunks
+			return null;
+		}
+	}
+
+	/**
+	 * Headers, each section's raw data in file order, and whatever lies between or behind them.
+	 */
+	private static void cutSections(PeImage image, long size, List<long[]> ranges, List<String> names) {
+		PeImage.Section[] sections = image.getSections();
+		Arrays.sort(sections, Comparator.comparingLong(s -> s.pointerToRawData & 0xFFFFFFFFL));
+		long headerEnd = Math.min(size, image.sizeOfHeaders & 0xFFFFFFFFL);
+		add(ranges, names, "(headers)", 0, headerEnd);
+		long pos = headerEnd;
+		for (PeImage.Section s : sections) {
+			long start = s.pointerToRawData & 0xFFFFFFFFL;
+			long end = Math.min(size, start + (s.sizeOfRawData & 0xFFFFFFFFL));
+			// raw ranges may overlap (or be empty for uninitialized data): hash only what no earlier piece covered
+			start = Math.max(start, pos);
+			if (end <= start)
+				continue;
+			add(ranges, names, "(unmapped)", pos, start);
+			add(ranges, names, s.name, start, end);
+			pos = end;
+		}
+		add(ranges, names, "(overlay)", pos, size);
+	}
+
+	private static void cutChunks(long size, List<long[]> ranges, List<String> names) {
+		for (long pos = 0; pos < size; pos += CHUNK)
+			add(ranges, names, "chunk" + pos / CHUNK, pos, Math.min(size, pos + CHUNK));
+	}
+
+	private static void add(List<long[]> ranges, List<String> names, String name, long start, long end) {
+		if (end > start) {
+			ranges.add(new long[] { start, end - start });
+			names.add(name);
+		}
+	}
+
+	private static byte[] sha256(ByteBuffer data) {
+		MessageDigest md = digest();
+		md.update(data);
+		return md.digest();
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
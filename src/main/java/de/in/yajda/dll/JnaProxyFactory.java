@@ -1,11 +1,20 @@
 package de.in.yajda.dll;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.sun.jna.Function;
 import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+
+import de.in.yajda.jfr.Events;
 
 /**
  * Creates a dynamic proxy "native" object whose method calls are routed to functions inside a DLL using JNA Function.invoke.
@@ -13,61 +22,250 @@ import com.sun.jna.NativeLibrary;
  * Usage in scripts (BeanShell): native.Add(1, 2);
  *
  * Note: This proxy attempts to map common primitive Java types to native types. Signature detection is limited; for unknowns the caller must pass appropriate Java primitives.
+ *
+ * Shadow copies: when enabled, the DLL is copied to a temporary file and the copy is loaded, so the original stays writable for the
+ * native build while it is loaded here. {@link #reload()} swaps in a fresh copy without changing the proxy object that scripts hold.
+ *
+ * Calls hold a read lock on the library while they are inside it; {@link #reload()} and {@link #dispose()} take the write lock, so an
+ * image is only unloaded once the calls into it (from the script runner, parallel workers or callbacks) have returned.
  */
 public class JnaProxyFactory {
-	private final NativeLibrary lib;
-	private final Map<String, Function> functions = new HashMap<>();
+	private final String dllPath;
+	private final boolean shadowCopy;
+	private volatile NativeLibrary lib;
+	private volatile Path shadowFile;
+	private volatile boolean disposed;
+	// read: a call is using lib; write: lib is being swapped or released
+	private final ReentrantReadWriteLock calls = new ReentrantReadWriteLock();
+	private final Map<String, Function> functions = new ConcurrentHashMap<>();
+	// call metrics per function, kept across reloads so a rebuild does not reset the numbers
+	private final Map<String, CallMetrics.Counter> counters = new ConcurrentHashMap<>();
+	private final String moduleName;
+	// canonical file of the original DLL; memoized results are kept per file, not per name
+	private final File memoKey;
 
 	public static class ProxyWrapper {
 		private final Object proxyObject;
+		private final JnaProxyFactory factory;
 
 		public ProxyWrapper(Object o) {
+			this(o, null);
+		}
+
+		public ProxyWrapper(Object o, JnaProxyFactory factory) {
 			this.proxyObject = o;
+			this.factory = factory;
 		}
 
 		public Object getProxyObject() {
 			return proxyObject;
 		}
+
+		/**
+		 * Call a native function by name. Picked up by the script NativeInvoker, so scripts go through the (shadow-copied) library of
+		 * this proxy instead of loading the original DLL.
+		 */
+		public Object invoke(String name, Object[] args) {
+			if (factory == null)
+				throw new IllegalStateException("Proxy is not bound to a library");
+			return factory.invoke(name, Object.class, args);
+		}
 	}
 
 	public JnaProxyFactory(String dllPath) {
-		this.lib = NativeLibrary.getInstance(dllPath);
+		this(dllPath, false);
+	}
+
+	public JnaProxyFactory(String dllPath, boolean shadowCopy) {
+		this.dllPath = dllPath;
+		this.shadowCopy = shadowCopy;
+		this.moduleName = new File(dllPath).getName();
+		this.memoKey = canonical(new File(dllPath));
+		this.lib = load();
 		// Note: do not pre-enumerate; will lookup lazily
 	}
 
-	public ProxyWrapper createNativeProxy() {
-		InvocationHandler handler = (proxy, method, args) -> {
-			String name = method.getName();
-			Function f = functions.computeIfAbsent(name, n -> {
-				try {
-					return lib.getFunction(n);
-				} catch (UnsatisfiedLinkError ex) {
-					return null;
-				}
-			});
-			if (f == null) {
-				throw new NoSuchMethodError("Native function not found: " + name);
+	/**
+	 * Load the current state of the DLL again (through a new shadow copy if enabled) and rebind the proxy to it. Cached functions are
+	 * dropped since their addresses belong to the previous image; they are resolved again on first use.
+	 *
+	 * The copy and the load happen before any lock is taken; the previous image is released after the calls running in it have
+	 * returned. Does nothing once the factory is disposed. May block, so do not call it on the EDT.
+	 */
+	public synchronized void reload() {
+		if (disposed)
+			return;
+		Path oldShadow = shadowFile;
+		NativeLibrary fresh = load();
+		NativeLibrary old;
+		calls.writeLock().lock();
+		try {
+			old = lib;
+			lib = fresh;
+			functions.clear();
+		} finally {
+			calls.writeLock().unlock();
+		}
+		MemoCache.getDefault().invalidate(memoKey);
+		if (old != null && old != fresh) {
+			old.close();
+		}
+		deleteQuietly(oldShadow);
+	}
+
+	/**
+	 * Release the loaded library and remove its shadow copy, once the calls running in it have returned.
+	 */
+	public synchronized void dispose() {
+		NativeLibrary old;
+		calls.writeLock().lock();
+		try {
+			disposed = true;
+			functions.clear();
+			old = lib;
+			lib = null;
+		} finally {
+			calls.writeLock().unlock();
+		}
+		if (old != null)
+			old.close();
+		deleteQuietly(shadowFile);
+		shadowFile = null;
+	}
+
+	public String getDllPath() {
+		return dllPath;
+	}
+
+	/**
+	 * The file actually loaded: the current shadow copy if enabled, else the DLL itself. Readers that map the image should use this one,
+	 * so they do not keep the original locked against the next build.
+	 */
+	public File getLoadedFile() {
+		Path shadow = shadowFile;
+		return shadow != null ? shadow.toFile() : new File(dllPath);
+	}
+
+	private NativeLibrary load() {
+		if (!shadowCopy)
+			return NativeLibrary.getInstance(dllPath);
+		try {
+			File src = new File(dllPath);
+			String name = src.getName();
+			int dot = name.lastIndexOf('.');
+			String base = dot > 0 ? name.substring(0, dot) : name;
+			String ext = dot > 0 ? name.substring(dot) : "";
+			Path dir = Files.createDirectories(Path.of(System.getProperty("java.io.tmpdir"), "yajda-shadow"));
+			Path copy = dir.resolve(base + "-" + System.nanoTime() + ext);
+			Files.copy(src.toPath(), copy, StandardCopyOption.REPLACE_EXISTING);
+			copy.toFile().deleteOnExit();
+			shadowFile = copy;
+			return NativeLibrary.getInstance(copy.toString());
+		} catch (IOException ex) {
+			throw new IllegalStateException("Failed to create shadow copy of " + dllPath + ": " + ex.getMessage(), ex);
+		}
+	}
+
+	private static File canonical(File f) {
+		try {
+			return f.getCanonicalFile();
+		} catch (IOException ex) {
+			return f.getAbsoluteFile();
+		}
+	}
+
+	private static void deleteQuietly(Path p) {
+		if (p == null)
+			return;
+		try {
+			Files.deleteIfExists(p);
+		} catch (IOException ignored) {
+			// still mapped on some platforms; deleteOnExit takes care of it
+		}
+	}
+
+	private Function lookup(String name) {
+		NativeLibrary current = lib;
+		if (current == null)
+			throw new IllegalStateException("Library has been disposed: " + dllPath);
+		Function f = functions.computeIfAbsent(name, n -> {
+			try {
+				return current.getFunction(n);
+			} catch (UnsatisfiedLinkError ex) {
+				return null;
 			}
-			// Map args and attempt to infer return type from Java method return type
-			Class<?> ret = method.getReturnType();
-			Object result;
+		});
+		if (f == null) {
+			throw new NoSuchMethodError("Native function not found: " + name);
+		}
+		return f;
+	}
+
+	Object invoke(String name, Class<?> declaredReturn, Object[] args) {
+		// results of pure functions come from the memo cache; those calls do not reach the library and are not counted as native calls
+		MemoCache.Table memo = MemoCache.getDefault().table(memoKey, name);
+		if (memo != null) {
+			Object cached = memo.get(args, declaredReturn);
+			if (cached != MemoCache.MISS)
+				return cached;
+		}
+		CallMetrics.Counter counter = counters.computeIfAbsent(name, n -> CallMetrics.getDefault().counter(moduleName, n));
+		Events.NativeCall ev = new Events.NativeCall();
+		ev.begin();
+		CallRecorder recorder = CallRecorder.active();
+		byte[][] before = recorder != null ? recorder.snapshot(args) : null;
+		Object res = null;
+		long t0 = System.nanoTime();
+		boolean failed = true;
+		StringMarshaler marshaler = StringMarshaler.getDefault();
+		// script closures among the arguments are passed as pooled callback stubs, strings as native copies per the header types
+		try (Callbacks.Lease callbacks = Callbacks.getDefault().lease(name, args);
+				StringMarshaler.Lease strings = marshaler.lease(name, callbacks != null ? callbacks.args : args)) {
+			Object[] a = strings != null ? strings.args : callbacks != null ? callbacks.args : args == null ? new Object[0] : args;
+			// the image must stay loaded until the call has returned
+			calls.readLock().lock();
 			try {
-				// If method declared return type is void, pass VOID
-				if (ret == Void.TYPE) {
-					f.invokeVoid(args == null ? new Object[0] : args);
-					return null;
+				Function f = lookup(name);
+				// If declared return type is void, pass VOID
+				if (declaredReturn == Void.TYPE) {
+					f.invokeVoid(a);
+					res = null;
+				} else if (declaredReturn == Object.class && marshaler.returnsString(name)) {
+					// char * / wchar_t * results are decoded when the script reads them
+					res = marshaler.result(name, (Pointer) f.invoke(Pointer.class, a));
+				} else {
+					// Choose a mapping for return type
+					res = f.invoke(mapReturnType(declaredReturn), a);
 				}
-				// Choose a mapping for return type
-				Class<?> mapRet = mapReturnType(ret);
-				return f.invoke(mapRet, args == null ? new Object[0] : args);
-			} catch (Throwable ex) {
-				throw ex;
+			} finally {
+				calls.readLock().unlock();
 			}
-		};
+			if (callbacks != null)
+				callbacks.rethrow();
+			failed = false;
+			if (memo != null) {
+				// a memoized text must not depend on the library keeping the buffer alive
+				if (res instanceof StringMarshaler.NativeText)
+					res = res.toString();
+				memo.put(args, declaredReturn, res);
+			}
+			return res;
+		} finally {
+			long nanos = System.nanoTime() - t0;
+			counter.record(nanos, failed);
+			ev.finish(moduleName, name, args, failed);
+			if (recorder != null)
+				recorder.record(moduleName, name, args, before, declaredReturn == Void.TYPE, res, failed, t0, nanos);
+		}
+	}
+
+	public ProxyWrapper createNativeProxy() {
+		// Map args and attempt to infer return type from Java method return type
+		InvocationHandler handler = (proxy, method, args) -> invoke(method.getName(), method.getReturnType(), args);
 
 		// Create a dynamic proxy; fully qualify to avoid name clash with ProxyWrapper
 		Object p = java.lang.reflect.Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Map.class }, handler);
-		return new ProxyWrapper(p);
+		return new ProxyWrapper(p, this);
 	}
 
 	private Class<?> mapReturnType(Class<?> ret) {
@@ -84,4 +282,4 @@ public class JnaProxyFactory {
 		// default raw pointer as long
 		return Long.class;
 	}
-}
\ No newline at end of file
+}
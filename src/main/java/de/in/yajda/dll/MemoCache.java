@@ -0,0 +1,319 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Result cache for native functions the project marks as pure (same arguments, same result, no side effects), e.g. checksums or code
+ * to string lookups that scripts call over and over with the same values.
+ *
+ * Each pure function of a module has a fixed-size table. Modules are told apart by their canonical path, so two builds or copies of the
+ * same DLL in the workspace keep separate results. An entry is keyed by the argument tuple as raw bits plus a type tag per argument
+ * (and the requested return type), so 1 as int and 1 as long are different keys. A lookup hashes and compares the boxed arguments in place
+ * without allocating; only a miss builds a key. Calls with any argument other than a primitive wrapper or null (strings, buffers,
+ * structures) bypass the cache, since the result may depend on memory the key does not cover.
+ *
+ * Tables are 4-way set associative: a key can live in 4 adjacent slots, and when all 4 are taken a new entry replaces one of them. Slots
+ * hold immutable entries and are read and written without locks; two threads missing on the same key both call the function, which is
+ * harmless for a pure function.
+ *
+ * One instance ({@link #getDefault()}) is shared by the proxy factories and the script invoker; it is bound as 'memo' in scripts, e.g.
+ * print(memo.report()).
+ */
+public class MemoCache {
+	/** Returned by {@link Table#get} when the call is not cached. */
+	public static final Object MISS = new Object();
+	public static final int DEFAULT_CAPACITY = 4096;
+	private static final int WAYS = 4;
+
+	private static final MemoCache DEFAULT = new MemoCache();
+
+	public static MemoCache getDefault() {
+		return DEFAULT;
+	}
+
+	private static final class Entry {
+		final int hash;
+		final Class<?> returnType;
+		final byte[] kinds;
+		final long[] bits;
+		final Object value;
+
+		Entry(int hash, Class<?> returnType, byte[] kinds, long[] bits, Object value) {
+			this.hash = hash;
+			this.returnType = returnType;
+			this.kinds = kinds;
+			this.bits = bits;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * Cache of one function.
+	 */
+	public static final class Table {
+		final String module;
+		final String function;
+		private final AtomicReferenceArray<Entry> slots;
+		private final int mask;
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+		final LongAdder bypassed = new LongAdder();
+
+		Table(String module, String function, int capacity) {
+			this.module = module;
+			this.function = function;
+			int n = Integer.highestOneBit(Math.max(WAYS, capacity - 1) << 1);
+			this.slots = new AtomicReferenceArray<>(n);
+			this.mask = n - 1;
+		}
+
+		/**
+		 * The cached result of a call, or {@link #MISS}. A miss should be followed by {@link #put} with the result of the real call.
+		 */
+		public Object get(Object[] args, Class<?> returnType) {
+			int h = hash(args, returnType);
+			if (h == 0) {
+				bypassed.increment();
+				return MISS;
+			}
+			int base = h & mask & ~(WAYS - 1);
+			for (int i = 0; i < WAYS; i++) {
+				Entry e = slots.get(base + i);
+				if (e != null && e.hash == h && e.returnType == returnType && matches(e, args)) {
+					hits.increment();
+					return e.value;
+				}
+			}
+			misses.increment();
+			return MISS;
+		}
+
+		public void put(Object[] args, Class<?> returnType, Object value) {
+			int h = hash(args, returnType);
+			if (h == 0)
+				return;
+			int n = args == null ? 0 : args.length;
+			byte[] kinds = new byte[n];
+			long[] bits = new long[n];
+			for (int i = 0; i < n; i++) {
+				kinds[i] = kind(args[i]);
+				bits[i] = bits(args[i]);
+			}
+			Entry e = new Entry(h, returnType, kinds, bits, value);
+			int base = h & mask & ~(WAYS - 1);
+			for (int i = 0; i < WAYS; i++) {
+				if (slots.get(base + i) == null && slots.compareAndSet(base + i, null, e))
+					return;
+			}
+			// set full: replace a way picked by other hash bits, so hot keys of one set do not always evict each other
+			slots.set(base + ((h >>> 16) & (WAYS - 1)), e);
+		}
+
+		void clear() {
+			for (int i = 0; i < slots.length(); i++)
+				slots.set(i, null);
+		}
+
+		private static boolean matches(Entry e, Object[] args) {
+			int n = args == null ? 0 : args.length;
+			if (e.kinds.length != n)
+				return false;
+			for (int i = 0; i < n; i++) {
+				if (e.kinds[i] != kind(args[i]) || e.bits[i] != bits(args[i]))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Point-in-time counters of one table.
+	 */
+	public static final class Stats {
+		public final String module;
+		public final String function;
+		public final long hits;
+		public final long misses;
+		public final long bypassed;
+
+		Stats(Table t) {
+			this.module = t.module;
+			this.function = t.function;
+			this.hits = t.hits.sum();
+			this.misses = t.misses.sum();
+			this.bypassed = t.bypassed.sum();
+		}
+
+		public double hitRate() {
+			long lookups = hits + misses;
+			return lookups == 0 ? 0 : (double) hits / lookups;
+		}
+	}
+
+	private volatile Set<String> pure = Set.of();
+	private volatile int capacity = DEFAULT_CAPACITY;
+	// canonical path of the module -> function -> table
+	private final Map<String, Map<String, Table>> tables = new ConcurrentHashMap<>();
+
+	/**
+	 * Set the names of the pure functions; applies to every module that exports them. Existing tables are dropped.
+	 */
+	public void setPureFunctions(Collection<String> names) {
+		pure = Set.copyOf(names);
+		tables.clear();
+	}
+
+	public Set<String> getPureFunctions() {
+		return pure;
+	}
+
+	/**
+	 * Entries per function for tables created from now on; rounded up to a power of two.
+	 */
+	public void setCapacity(int entries) {
+		capacity = Math.max(WAYS, entries);
+	}
+
+	/**
+	 * The table of a function of a module, given by its canonical file, or null if the function is not marked pure. Reports show the file
+	 * name.
+	 */
+	public Table table(File module, String function) {
+		if (!pure.contains(function))
+			return null;
+		String key = module.getPath();
+		Map<String, Table> byFunction = tables.get(key);
+		if (byFunction == null)
+			byFunction = tables.computeIfAbsent(key, m -> new ConcurrentHashMap<>());
+		Table t = byFunction.get(function);
+		return t != null ? t : byFunction.computeIfAbsent(function, f -> new Table(module.getName(), f, capacity));
+	}
+
+	/**
+	 * Forget the cached results of a module, given by its canonical file, e.g. after it was rebuilt; the counters are kept.
+	 */
+	public void invalidate(File module) {
+		Map<String, Table> byFunction = tables.get(module.getPath());
+		if (byFunction != null)
+			byFunction.values().forEach(Table::clear);
+	}
+
+	/**
+	 * Forget all cached results and counters.
+	 */
+	public void reset() {
+		tables.clear();
+	}
+
+	public List<Stats> snapshot() {
+		List<Stats> res = new ArrayList<>();
+		for (Map<String, Table> byFunction : tables.values()) {
+			for (Table t : byFunction.values())
+				res.add(new Stats(t));
+		}
+		res.sort(Comparator.comparingLong((Stats s) -> s.hits + s.misses).reversed());
+		return res;
+	}
+
+	public long hits() {
+		long n = 0;
+		for (Stats s : snapshot())
+			n += s.hits;
+		return n;
+	}
+
+	public long misses() {
+		long n = 0;
+		for (Stats s : snapshot())
+			n += s.misses;
+		return n;
+	}
+
+	/**
+	 * One line per cached function: hits, misses, hit rate and calls that bypassed the cache.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for (Stats s : snapshot()) {
+			sb.append(String.format(Locale.ROOT, "%s!%s  hits=%d misses=%d (%.1f%% hit) bypassed=%d%n", s.module, s.function, s.hits, s.misses,
+					100 * s.hitRate(), s.bypassed));
+		}
+		return sb.length() == 0 ? "No pure functions called." : sb.toString();
+	}
+
+	// ---- keys ----
+
+	/**
+	 * Type tag of an argument; 0 means it cannot be part of a key.
+	 */
+	private static byte kind(Object a) {
+		if (a == null)
+			return 1;
+		Class<?> c = a.getClass();
+		if (c == Integer.class)
+			return 2;
+		if (c == Long.class)
+			return 3;
+		if (c == Double.class)
+			return 4;
+		if (c == Float.class)
+			return 5;
+		if (c == Short.class)
+			return 6;
+		if (c == Byte.class)
+			return 7;
+		if (c == Boolean.class)
+			return 8;
+		if (c == Character.class)
+			return 9;
+		return 0;
+	}
+
+	private static long bits(Object a) {
+		if (a instanceof Integer)
+			return (Integer) a;
+		if (a instanceof Long)
+			return (Long) a;
+		if (a instanceof Double)
+			return Double.doubleToRawLongBits((Double) a);
+		if (a instanceof Float)
+			return Float.floatToRawIntBits((Float) a);
+		if (a instanceof Short)
+			return (Short) a;
+		if (a instanceof Byte)
+			return (Byte) a;
+		if (a instanceof Boolean)
+			return (Boolean) a ? 1 : 0;
+		if (a instanceof Character)
+			return (Character) a;
+		return 0;
+	}
+
+	/**
+	 * Hash of the key, never 0; 0 if an argument cannot be part of a key.
+	 */
+	private static int hash(Object[] args, Class<?> returnType) {
+		long h = returnType.hashCode();
+		int n = args == null ? 0 : args.length;
+		for (int i = 0; i < n; i++) {
+			byte k = kind(args[i]);
+			if (k == 0)
+				return 0;
+			h = (h ^ k) * 0x9E3779B97F4A7C15L;
+			h = (h ^ bits(args[i])) * 0xC2B2AE3D27D4EB4FL;
+		}
+		h ^= h >>> 32;
+		int r = (int) (h ^ (h >>> 16));
+		return r != 0 ? r : 1;
+	}
+}
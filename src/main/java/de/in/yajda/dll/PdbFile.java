@@ -0,0 +1,792 @@
+package de.in.yajda.dll;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+import de.in.yajda.dll.HeaderParser.HeaderInfo;
+
+/**
+ * Lazy reader for MSF 7.0 program databases (PDB). Only the stream directory, the PDB info stream and the DBI header are read when it is
+ * opened. Signatures are resolved per symbol, when an export is first read from the {@link SymbolDatabase}: the globals hash finds the
+ * S_PROCREF of a name, which points into one module stream, whose S_GPROC32 record names a procedure type in the TPI stream. Type records
+ * are located through the TPI index-offset hints, so a lookup touches a handful of pages regardless of the size of the PDB.
+ *
+ * The file is not kept open or mapped: each lookup opens it, reads the MSF blocks it needs into a small block cache and closes it again, so
+ * the linker can rewrite the PDB while a DLL is loaded. A PDB whose length or modification time changed since it was opened resolves
+ * nothing further.
+ *
+ * Instances are safe for concurrent lookups.
+ */
+public class PdbFile {
+
+	private static final byte[] MSF_MAGIC = "Microsoft C/C++ MSF 7.00\r\n\u001ADS\0\0\0".getBytes(StandardCharsets.ISO_8859_1);
+
+	private static final int STREAM_PDB_INFO = 1;
+	private static final int STREAM_TPI = 2;
+	private static final int STREAM_DBI = 3;
+
+	private static final int S_GPROC32 = 0x1110;
+	private static final int S_LPROC32 = 0x110F;
+	private static final int S_PROCREF = 0x1125;
+	private static final int S_LPROCREF = 0x1127;
+
+	private static final int LF_MODIFIER = 0x1001;
+	private static final int LF_POINTER = 0x1002;
+	private static final int LF_PROCEDURE = 0x1008;
+	private static final int LF_MFUNCTION = 0x1009;
+	private static final int LF_ARGLIST = 0x1201;
+	private static final int LF_ARRAY = 0x1503;
+	private static final int LF_CLASS = 0x1504;
+	private static final int LF_STRUCTURE = 0x1505;
+	private static final int LF_UNION = 0x1506;
+	private static final int LF_ENUM = 0x1507;
+
+	private static final int GSI_BUCKETS = 4096;
+	/** MSF blocks kept in memory; the cache starts over when it is full. */
+	private static final int MAX_CACHED_BLOCKS = 1024;
+
+	/**
+	 * The CodeView (RSDS) entry of a PE debug directory: identifies the matching PDB.
+	 */
+	public static class CodeView {
+		public final byte[] guid;
+		public final int age;
+		public final String pdbPath;
+
+		CodeView(byte[] guid, int age, String pdbPath) {
+			this.guid = guid;
+			this.age = age;
+			this.pdbPath = pdbPath;
+		}
+
+		/**
+		 * Locations to look for the PDB, in order: the recorded path, next to the DLL under the recorded name, next to the DLL under the DLL's
+		 * base name.
+		 */
+		public List<File> candidates(File dll) {
+			List<File> res = new ArrayList<>();
+			File dir = dll.getAbsoluteFile().getParentFile();
+			if (pdbPath != null && !pdbPath.isEmpty()) {
+				res.add(new File(pdbPath));
+				String name = pdbPath.substring(Math.max(pdbPath.lastIndexOf('\\'), pdbPath.lastIndexOf('/')) + 1);
+				res.add(new File(dir, name));
+			}
+			String base = dll.getName();
+			int dot = base.lastIndexOf('.');
+			res.add(new File(dir, (dot > 0 ? base.substring(0, dot) : base) + ".pdb"));
+			return res;
+		}
+	}
+
+	/**
+	 * A stream of the multi-stream file: a list of blocks of the mapping, read with absolute offsets.
+	 */
+	private final class Stream {
+		final int size;
+		final int[] blocks;
+
+		Stream(int size, int[] blocks) {
+			this.size = size;
+			this.blocks = blocks;
+		}
+
+		private ByteBuffer blockAt(int off) {
+			return block(blocks[off / blockSize]);
+		}
+
+		int u8(int off) {
+			return blockAt(off).get(off % blockSize) & 0xFF;
+		}
+
+		int u16(int off) {
+			if (off % blockSize <= blockSize - 2)
+				return blockAt(off).getShort(off % blockSize) & 0xFFFF;
+			return u8(off) | u8(off + 1) << 8;
+		}
+
+		int i32(int off) {
+			if (off % blockSize <= blockSize - 4)
+				return blockAt(off).getInt(off % blockSize);
+			return u16(off) | u16(off + 2) << 16;
+		}
+
+		String cstring(int off) {
+			int end = off;
+			while (end < size && u8(end) != 0)
+				end++;
+			byte[] b = new byte[end - off];
+			for (int i = 0; i < b.length; i++)
+				b[i] = (byte) u8(off + i);
+			return new String(b, StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * A read that needs the file open; see {@link #withFile}.
+	 */
+	private interface Lookup<T> {
+		T run() throws IOException;
+	}
+
+	private final File file;
+	private final long length;
+	private final long lastModified;
+	// MSF block number -> block contents; read-only after they are put, so absolute gets need no locking
+	private final Map<Integer, ByteBuffer> blockCache = new ConcurrentHashMap<>();
+	// the file while a lookup runs on this thread
+	private final ThreadLocal<FileChannel> channel = new ThreadLocal<>();
+	private final int blockSize;
+	private final Stream[] streams;
+	private final byte[] guid;
+	private final int age;
+
+	// DBI
+	private final int globalsStream;
+	private final int symRecordStream;
+	private volatile int[] moduleStreams;
+
+	// globals hash, read on first lookup
+	private volatile int[] hashOffsets;
+	private volatile int[] bucketStarts;
+
+	// TPI
+	private final int typeBegin;
+	private final int typeEnd;
+	private final int typeHeaderSize;
+	private final int[] typeOffsets; // lazily filled, -1 = not yet located
+	private final int[] hintIndex;
+	private final int[] hintOffset;
+	private final Map<Integer, String> typeNames = new ConcurrentHashMap<>();
+	private final Map<String, Optional<HeaderInfo>> signatures = new ConcurrentHashMap<>();
+
+	private PdbFile(File file, FileChannel ch) throws IOException {
+		this.file = file;
+		this.length = file.length();
+		this.lastModified = file.lastModified();
+		ByteBuffer superBlock = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(ch, superBlock, 0);
+		for (int i = 0; i < MSF_MAGIC.length; i++) {
+			if (superBlock.get(i) != MSF_MAGIC[i])
+				throw new IOException("Not an MSF 7.0 PDB: " + file);
+		}
+		blockSize = superBlock.getInt(32);
+		int numDirectoryBytes = superBlock.getInt(44);
+		int blockMapAddr = superBlock.getInt(52);
+		if (blockSize <= 0 || (blockSize & (blockSize - 1)) != 0)
+			throw new IOException("Invalid PDB block size " + blockSize);
+
+		channel.set(ch);
+		try {
+			// the directory itself is a stream whose blocks are listed at blockMapAddr
+			int dirBlocks = (numDirectoryBytes + blockSize - 1) / blockSize;
+			int[] dirBlockList = new int[dirBlocks];
+			for (int i = 0; i < dirBlocks; i++)
+				dirBlockList[i] = block(blockMapAddr + i * 4 / blockSize).getInt(i * 4 % blockSize);
+			Stream dir = new Stream(numDirectoryBytes, dirBlockList);
+			int numStreams = dir.i32(0);
+			streams = new Stream[numStreams];
+			int p = 4 + numStreams * 4;
+			for (int i = 0; i < numStreams; i++) {
+				int size = dir.i32(4 + i * 4);
+				if (size == -1) // nil stream
+					size = 0;
+				int[] blocks = new int[(size + blockSize - 1) / blockSize];
+				for (int b = 0; b < blocks.length; b++, p += 4)
+					blocks[b] = dir.i32(p);
+				streams[i] = new Stream(size, blocks);
+			}
+
+			Stream info = stream(STREAM_PDB_INFO);
+			guid = new byte[16];
+			for (int i = 0; i < 16; i++)
+				guid[i] = (byte) info.u8(12 + i);
+
+			Stream dbi = stream(STREAM_DBI);
+			age = dbi.i32(8);
+			globalsStream = dbi.u16(12);
+			symRecordStream = dbi.u16(20);
+
+			Stream tpi = stream(STREAM_TPI);
+			typeHeaderSize = tpi.i32(4);
+			typeBegin = tpi.i32(8);
+			typeEnd = tpi.i32(12);
+			typeOffsets = new int[Math.max(0, typeEnd - typeBegin)];
+			Arrays.fill(typeOffsets, -1);
+			// index-offset hints from the TPI hash stream: (type index, record offset) pairs roughly every 8 KB
+			int hashStream = tpi.u16(20);
+			int hintOff = tpi.i32(40);
+			int hintLen = tpi.i32(44);
+			Stream hs = hashStream != 0xFFFF && hashStream < streams.length ? streams[hashStream] : null;
+			int hints = hs != null && hintLen > 0 && hintOff + hintLen <= hs.size ? hintLen / 8 : 0;
+			hintIndex = new int[hints + 1];
+			hintOffset = new int[hints + 1];
+			hintIndex[0] = typeBegin;
+			hintOffset[0] = typeHeaderSize;
+			for (int i = 0; i < hints; i++) {
+				hintIndex[i + 1] = hs.i32(hintOff + i * 8);
+				hintOffset[i + 1] = typeHeaderSize + hs.i32(hintOff + i * 8 + 4);
+			}
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		} finally {
+			channel.remove();
+		}
+	}
+
+	/**
+	 * Open a PDB. Only headers and the stream directory are read here; the file is closed again before this returns.
+	 */
+	public static PdbFile open(File pdb) throws IOException {
+		try (FileChannel ch = FileChannel.open(pdb.toPath(), StandardOpenOption.READ)) {
+			if (ch.size() > Integer.MAX_VALUE)
+				throw new IOException("PDB too large: " + pdb);
+			return new PdbFile(pdb, ch);
+		} catch (IndexOutOfBoundsException ex) {
+			throw new IOException("Truncated PDB: " + pdb, ex);
+		}
+	}
+
+	/**
+	 * The PDB matching a PE library, found through its CodeView entry, or null if there is none (or the file is not a PE image).
+	 */
+	public static PdbFile forLibrary(File dll) {
+		try {
+			if (ExportParser.isElf(dll))
+				return null;
+			try (RandomAccessFile raf = new RandomAccessFile(dll, "r")) {
+				CodeView cv = readCodeView(raf, PeImage.read(raf));
+				return cv != null ? openFor(dll, cv) : null;
+			}
+		} catch (IOException | RuntimeException ex) {
+			// a broken debug directory does not invalidate the exports
+			return null;
+		}
+	}
+
+	/**
+	 * Open the PDB matching a DLL's CodeView entry, or return null if none of the candidate locations holds a PDB with the same GUID and
+	 * age.
+	 */
+	public static PdbFile openFor(File dll, CodeView cv) {
+		for (File f : cv.candidates(dll)) {
+			if (!f.isFile())
+				continue;
+			try {
+				PdbFile pdb = open(f);
+				if (pdb.matches(cv))
+					return pdb;
+			} catch (IOException ex) {
+				// try the next candidate
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Read the CodeView RSDS entry from the debug directory of a PE image, or null if there is none.
+	 */
+	public static CodeView readCodeView(RandomAccessFile raf, PeImage image) throws IOException {
+		int dirRva = image.dataDirectoryRva(PeImage.DIR_DEBUG);
+		int dirSize = image.dataDirectorySize(PeImage.DIR_DEBUG);
+		long dirOffset = image.rvaToOffset(dirRva);
+		if (dirRva == 0 || dirOffset <= 0)
+			return null;
+		// IMAGE_DEBUG_DIRECTORY entries are 28 bytes; Type 2 is IMAGE_DEBUG_TYPE_CODEVIEW
+		byte[] entries = new byte[Math.min(dirSize, 28 * 32)];
+		raf.seek(dirOffset);
+		raf.readFully(entries);
+		ByteBuffer e = ByteBuffer.wrap(entries).order(ByteOrder.LITTLE_ENDIAN);
+		for (int off = 0; off + 28 <= entries.length; off += 28) {
+			int type = e.getInt(off + 12);
+			int sizeOfData = e.getInt(off + 16);
+			int pointerToRawData = e.getInt(off + 24);
+			if (type != 2 || sizeOfData < 24 || sizeOfData > 4096 || pointerToRawData <= 0)
+				continue;
+			byte[] data = new byte[sizeOfData];
+			raf.seek(pointerToRawData & 0xFFFFFFFFL);
+			raf.readFully(data);
+			ByteBuffer d = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+			if (d.getInt(0) != 0x53445352) // "RSDS"
+				continue;
+			byte[] g = Arrays.copyOfRange(data, 4, 20);
+			int cvAge = d.getInt(20);
+			int end = 24;
+			while (end < data.length && data[end] != 0)
+				end++;
+			return new CodeView(g, cvAge, new String(data, 24, end - 24, StandardCharsets.UTF_8));
+		}
+		return null;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getAge() {
+		return age;
+	}
+
+	/**
+	 * Whether this PDB was written by the link that produced the CodeView entry: same GUID and same age. A PDB with the right GUID but
+	 * another age belongs to an earlier or later incremental link of the same project.
+	 */
+	public boolean matches(CodeView cv) {
+		return Arrays.equals(guid, cv.guid) && age == cv.age;
+	}
+
+	/**
+	 * Signature of a global or static function, or null if the PDB has no procedure of that name. Results are cached.
+	 */
+	public HeaderInfo signatureOf(String name) {
+		return signatures.computeIfAbsent(name, n -> Optional.ofNullable(resolve(n))).orElse(null);
+	}
+
+	/**
+	 * Copy of an export with the PDB signature applied, or the export itself if the PDB does not know it. Names decorated as
+	 * {@code _name@N} are also tried undecorated; C++ decorated names carry their types already and are returned as they are.
+	 */
+	public FunctionInfo enrich(FunctionInfo fi) {
+		if (fi.name.startsWith("?") || fi.name.startsWith("_Z"))
+			return fi;
+		HeaderInfo hi = signatureOf(fi.name);
+		int at = fi.name.indexOf('@');
+		if (hi == null && fi.name.startsWith("_") && at > 1)
+			hi = signatureOf(fi.name.substring(1, at));
+		return hi != null ? fi.withSignature(hi.returnType, hi.paramTypes) : fi;
+	}
+
+	private Stream stream(int index) throws IOException {
+		if (index < 0 || index >= streams.length || index == 0xFFFF)
+			throw new IOException("Missing PDB stream " + index);
+		return streams[index];
+	}
+
+	private HeaderInfo resolve(String name) {
+		try {
+			return withFile(() -> {
+				int procType = findProcedureType(name);
+				return procType != 0 ? procedureSignature(procType) : null;
+			});
+		} catch (IOException | IndexOutOfBoundsException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Run a lookup with the file open on this thread, unless it already is. Fails if the PDB changed on disk since it was opened.
+	 */
+	private <T> T withFile(Lookup<T> lookup) throws IOException {
+		if (channel.get() != null)
+			return lookup.run();
+		if (file.length() != length || file.lastModified() != lastModified)
+			throw new IOException("PDB changed on disk: " + file);
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			channel.set(ch);
+			return lookup.run();
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		} finally {
+			channel.remove();
+		}
+	}
+
+	/**
+	 * Contents of an MSF block, from the cache or read from the file opened by the running lookup.
+	 */
+	private ByteBuffer block(int index) {
+		ByteBuffer b = blockCache.get(index);
+		if (b != null)
+			return b;
+		FileChannel ch = channel.get();
+		if (ch == null)
+			throw new IllegalStateException("PDB block read outside a lookup");
+		b = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			readFully(ch, b, (long) index * blockSize);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		if (blockCache.size() >= MAX_CACHED_BLOCKS)
+			blockCache.clear();
+		blockCache.put(index, b);
+		return b;
+	}
+
+	private static void readFully(FileChannel ch, ByteBuffer b, long position) throws IOException {
+		while (b.hasRemaining()) {
+			if (ch.read(b, position + b.position()) < 0)
+				throw new EOFException("Truncated PDB at offset " + (position + b.position()));
+		}
+		b.clear();
+	}
+
+	// --- globals hash (GSI)
+
+	/**
+	 * LLVM's hashStringV1, the hash used by the PDB globals and publics tables.
+	 */
+	private static int hashV1(byte[] s) {
+		int result = 0;
+		int longs = s.length / 4;
+		for (int i = 0; i < longs; i++)
+			result ^= (s[i * 4] & 0xFF) | (s[i * 4 + 1] & 0xFF) << 8 | (s[i * 4 + 2] & 0xFF) << 16 | (s[i * 4 + 3] & 0xFF) << 24;
+		int p = longs * 4;
+		int rem = s.length % 4;
+		if (rem >= 2) {
+			result ^= (s[p] & 0xFF) | (s[p + 1] & 0xFF) << 8;
+			p += 2;
+			rem -= 2;
+		}
+		if (rem == 1)
+			result ^= s[p] & 0xFF;
+		result |= 0x20202020;
+		result ^= result >>> 11;
+		return result ^ (result >>> 16);
+	}
+
+	private void loadGlobalsHash() throws IOException {
+		if (hashOffsets != null)
+			return;
+		synchronized (this) {
+			if (hashOffsets != null)
+				return;
+			Stream g = stream(globalsStream);
+			int hrSize = g.i32(8);
+			int records = hrSize / 8;
+			int[] offs = new int[records];
+			for (int i = 0; i < records; i++)
+				offs[i] = g.i32(16 + i * 8) - 1; // stored +1
+			int bitmap = 16 + hrSize;
+			int words = (GSI_BUCKETS + 1 + 31) / 32;
+			int[] starts = new int[GSI_BUCKETS + 2];
+			int next = bitmap + words * 4;
+			for (int b = 0; b <= GSI_BUCKETS; b++) {
+				boolean present = (g.i32(bitmap + (b / 32) * 4) & (1 << (b % 32))) != 0;
+				// bucket starts are stored in units of the 12-byte in-memory record size
+				starts[b] = present ? g.i32(next) / 12 : -1;
+				if (present)
+					next += 4;
+			}
+			starts[GSI_BUCKETS + 1] = records;
+			// empty buckets end where the next non-empty one starts
+			for (int b = GSI_BUCKETS; b >= 0; b--) {
+				if (starts[b] < 0)
+					starts[b] = starts[b + 1];
+			}
+			bucketStarts = starts;
+			hashOffsets = offs;
+		}
+	}
+
+	/**
+	 * Type index of the named procedure, or 0.
+	 */
+	private int findProcedureType(String name) throws IOException {
+		loadGlobalsHash();
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		int bucket = Integer.remainderUnsigned(hashV1(key), GSI_BUCKETS);
+		Stream sym = stream(symRecordStream);
+		for (int i = bucketStarts[bucket]; i < bucketStarts[bucket + 1]; i++) {
+			int rec = hashOffsets[i];
+			int kind = sym.u16(rec + 2);
+			if (kind != S_PROCREF && kind != S_LPROCREF)
+				continue;
+			if (!name.equals(sym.cstring(rec + 14)))
+				continue;
+			int symOffset = sym.i32(rec + 8);
+			int module = sym.u16(rec + 12);
+			return procTypeInModule(module - 1, symOffset);
+		}
+		return 0;
+	}
+
+	private int procTypeInModule(int module, int symOffset) throws IOException {
+		int[] mods = moduleStreams();
+		if (module < 0 || module >= mods.length)
+			return 0;
+		Stream m = stream(mods[module]);
+		int kind = m.u16(symOffset + 2);
+		if (kind != S_GPROC32 && kind != S_LPROC32)
+			return 0;
+		// Parent, End, Next, CodeSize, DbgStart, DbgEnd, FunctionType
+		return m.i32(symOffset + 4 + 24);
+	}
+
+	private int[] moduleStreams() throws IOException {
+		int[] mods = moduleStreams;
+		if (mods != null)
+			return mods;
+		Stream dbi = stream(STREAM_DBI);
+		int modInfoSize = dbi.i32(24);
+		List<Integer> list = new ArrayList<>();
+		int p = 64;
+		int end = 64 + modInfoSize;
+		while (p + 64 <= end) {
+			list.add(dbi.u16(p + 34));
+			int q = p + 64;
+			while (dbi.u8(q) != 0) // module name
+				q++;
+			q++;
+			while (dbi.u8(q) != 0) // object file name
+				q++;
+			q++;
+			p = (q + 3) & ~3;
+		}
+		mods = new int[list.size()];
+		for (int i = 0; i < mods.length; i++)
+			mods[i] = list.get(i);
+		moduleStreams = mods;
+		return mods;
+	}
+
+	// --- TPI
+
+	/**
+	 * Offset of a type record in the TPI stream, located from the nearest preceding hint and remembered.
+	 */
+	private int typeOffset(int ti) throws IOException {
+		if (ti < typeBegin || ti >= typeEnd)
+			return -1;
+		int known = typeOffsets[ti - typeBegin];
+		if (known >= 0)
+			return known;
+		int h = Arrays.binarySearch(hintIndex, ti);
+		if (h < 0)
+			h = -h - 2;
+		int index = hintIndex[h];
+		int off = hintOffset[h];
+		// continue from a closer record that an earlier lookup already located
+		for (int i = ti - 1; i > index; i--) {
+			if (typeOffsets[i - typeBegin] >= 0) {
+				index = i;
+				off = typeOffsets[i - typeBegin];
+				break;
+			}
+		}
+		Stream tpi = stream(STREAM_TPI);
+		while (index < ti) {
+			typeOffsets[index - typeBegin] = off;
+			off += 2 + tpi.u16(off);
+			index++;
+		}
+		typeOffsets[ti - typeBegin] = off;
+		return off;
+	}
+
+	private HeaderInfo procedureSignature(int ti) throws IOException {
+		Stream tpi = stream(STREAM_TPI);
+		int off = typeOffset(ti);
+		if (off < 0)
+			return null;
+		int leaf = tpi.u16(off + 2);
+		int returnType;
+		int argList;
+		if (leaf == LF_PROCEDURE) {
+			returnType = tpi.i32(off + 4);
+			argList = tpi.i32(off + 12);
+		} else if (leaf == LF_MFUNCTION) {
+			returnType = tpi.i32(off + 4);
+			argList = tpi.i32(off + 20);
+		} else {
+			return null;
+		}
+		List<String> params = new ArrayList<>();
+		int argOff = typeOffset(argList);
+		if (argOff >= 0 && tpi.u16(argOff + 2) == LF_ARGLIST) {
+			int count = tpi.i32(argOff + 4);
+			for (int i = 0; i < count; i++) {
+				int arg = tpi.i32(argOff + 8 + i * 4);
+				if (arg == 0) // T_NOTYPE terminates varargs lists
+					params.add("...");
+				else
+					params.add(typeName(arg, 0));
+			}
+		}
+		if (params.size() == 1 && "void".equals(params.get(0)))
+			params.clear();
+		return new HeaderInfo(typeName(returnType, 0), params);
+	}
+
+	/**
+	 * Name of a type. Only names computed from the top (depth 0) are cached: below that the depth limit may have cut the name short, and
+	 * a later lookup with depth to spare should not get the truncated one.
+	 */
+	private String typeName(int ti, int depth) throws IOException {
+		String cached = typeNames.get(ti);
+		if (cached != null)
+			return cached;
+		if (depth > 16)
+			return "unknown";
+		String name = computeTypeName(ti, depth);
+		if (depth == 0)
+			typeNames.put(ti, name);
+		return name;
+	}
+
+	private String computeTypeName(int ti, int depth) throws IOException {
+		if (ti < typeBegin)
+			return simpleTypeName(ti);
+		int off = typeOffset(ti);
+		if (off < 0)
+			return "unknown";
+		Stream tpi = stream(STREAM_TPI);
+		int leaf = tpi.u16(off + 2);
+		int d = off + 4;
+		switch (leaf) {
+		case LF_MODIFIER: {
+			int attrs = tpi.u16(d + 4);
+			String base = typeName(tpi.i32(d), depth + 1);
+			return ((attrs & 1) != 0 ? "const " : "") + ((attrs & 2) != 0 ? "volatile " : "") + base;
+		}
+		case LF_POINTER: {
+			int attrs = tpi.i32(d + 4);
+			int mode = (attrs >> 5) & 7;
+			String referent = typeName(tpi.i32(d), depth + 1);
+			String suffix = mode == 1 ? "&" : mode == 4 ? "&&" : "*";
+			return (referent.endsWith("*") || referent.endsWith("&") ? referent : referent + " ") + suffix;
+		}
+		case LF_ARRAY:
+			return typeName(tpi.i32(d), depth + 1) + " *";
+		case LF_CLASS:
+		case LF_STRUCTURE: {
+			int p = skipNumeric(tpi, d + 16);
+			return tpi.cstring(p);
+		}
+		case LF_UNION: {
+			int p = skipNumeric(tpi, d + 8);
+			return tpi.cstring(p);
+		}
+		case LF_ENUM:
+			return tpi.cstring(d + 12);
+		case LF_PROCEDURE:
+		case LF_MFUNCTION: {
+			HeaderInfo fn = procedureSignature(ti);
+			return fn != null ? fn.returnType + " (*)(" + String.join(", ", fn.paramTypes) + ")" : "void *";
+		}
+		default:
+			return "unknown";
+		}
+	}
+
+	/**
+	 * Skip a numeric leaf (value below 0x8000 inline, otherwise a typed value) and return the offset after it.
+	 */
+	private static int skipNumeric(Stream s, int off) {
+		int v = s.u16(off);
+		if (v < 0x8000)
+			return off + 2;
+		switch (v) {
+		case 0x8000:
+			return off + 3;
+		case 0x8001:
+		case 0x8002:
+			return off + 4;
+		case 0x8003:
+		case 0x8004:
+			return off + 6;
+		case 0x8009:
+		case 0x800A:
+			return off + 10;
+		default:
+			return off + 2;
+		}
+	}
+
+	/**
+	 * Names of the built-in types (type index below 0x1000): low byte is the kind, bits 8-10 the pointer mode.
+	 */
+	static String simpleTypeName(int ti) {
+		String base;
+		switch (ti & 0xFF) {
+		case 0x03:
+			base = "void";
+			break;
+		case 0x08:
+			base = "HRESULT";
+			break;
+		case 0x10:
+			base = "signed char";
+			break;
+		case 0x20:
+			base = "unsigned char";
+			break;
+		case 0x68:
+			base = "__int8";
+			break;
+		case 0x69:
+			base = "unsigned __int8";
+			break;
+		case 0x70:
+			base = "char";
+			break;
+		case 0x71:
+			base = "wchar_t";
+			break;
+		case 0x7A:
+			base = "char16_t";
+			break;
+		case 0x7B:
+			base = "char32_t";
+			break;
+		case 0x11:
+		case 0x72:
+			base = "short";
+			break;
+		case 0x21:
+		case 0x73:
+			base = "unsigned short";
+			break;
+		case 0x12:
+			base = "long";
+			break;
+		case 0x22:
+			base = "unsigned long";
+			break;
+		case 0x74:
+			base = "int";
+			break;
+		case 0x75:
+			base = "unsigned int";
+			break;
+		case 0x13:
+		case 0x76:
+			base = "__int64";
+			break;
+		case 0x23:
+		case 0x77:
+			base = "unsigned __int64";
+			break;
+		case 0x30:
+			base = "bool";
+			break;
+		case 0x40:
+			base = "float";
+			break;
+		case 0x41:
+			base = "double";
+			break;
+		case 0x42:
+			base = "long double";
+			break;
+		default:
+			base = "unknown";
+			break;
+		}
+		return ((ti >> 8) & 7) != 0 ? base + " *" : base;
+	}
+}
@@ -0,0 +1,204 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * PE/COFF headers of an image: machine, optional header basics, data directories and the section table, plus RVA to file offset
+ * translation. Only the header region is read; section contents are left to the callers (export parsing, code analysis), which read or map
+ * the parts they need.
+ */
+public class PeImage {
+	public static final int MACHINE_I386 = 0x14C;
+	public static final int MACHINE_AMD64 = 0x8664;
+	public static final int MACHINE_ARM64 = 0xAA64;
+
+	public static final int DIR_EXPORT = 0;
+	public static final int DIR_IMPORT = 1;
+	public static final int DIR_EXCEPTION = 3;
+	public static final int DIR_DEBUG = 6;
+
+	public static class Section {
+		public final String name;
+		public final int virtualAddress;
+		public final int virtualSize;
+		public final int pointerToRawData;
+		public final int sizeOfRawData;
+		public final int characteristics;
+
+		Section(String name, int virtualAddress, int virtualSize, int pointerToRawData, int sizeOfRawData, int characteristics) {
+			this.name = name;
+			this.virtualAddress = virtualAddress;
+			this.virtualSize = virtualSize;
+			this.pointerToRawData = pointerToRawData;
+			this.sizeOfRawData = sizeOfRawData;
+			this.characteristics = characteristics;
+		}
+
+		public boolean isCode() {
+			return (characteristics & 0x20000020) != 0; // CNT_CODE or MEM_EXECUTE
+		}
+
+		public boolean contains(int rva) {
+			return rva >= virtualAddress && rva < virtualAddress + Math.max(virtualSize, sizeOfRawData);
+		}
+	}
+
+	public final int machine;
+	public final boolean is64;
+	public final long imageBase;
+	public final int sizeOfImage;
+	public final int sizeOfHeaders;
+	private final Section[] sections;
+	private final int[] dirRva;
+	private final int[] dirSize;
+
+	private PeImage(int machine, boolean is64, long imageBase, int sizeOfImage, int sizeOfHeaders, Section[] sections, int[] dirRva, int[] dirSize) {
+		this.machine = machine;
+		this.is64 = is64;
+		this.imageBase = imageBase;
+		this.sizeOfImage = sizeOfImage;
+		this.sizeOfHeaders = sizeOfHeaders;
+		this.sections = sections;
+		this.dirRva = dirRva;
+		this.dirSize = dirSize;
+	}
+
+	/**
+	 * Read the headers of a PE file.
+	 */
+	public static PeImage read(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			return read(raf);
+		}
+	}
+
+	/**
+	 * Read the headers through an open file; the file pointer is left undefined.
+	 */
+	public static PeImage read(RandomAccessFile raf) throws IOException {
+		byte[] dos = new byte[64];
+		raf.seek(0);
+		raf.readFully(dos);
+		if (dos[0] != 'M' || dos[1] != 'Z') {
+			throw new IOException("Not a PE file (MZ header missing)");
+		}
+		int e_lfanew = ByteBuffer.wrap(dos).order(ByteOrder.LITTLE_ENDIAN).getInt(0x3C);
+		// signature + file header + largest optional header + a generous section table
+		int len = (int) Math.min(raf.length() - e_lfanew, 24 + 240 + 96 * 40);
+		if (e_lfanew <= 0 || len < 24)
+			throw new IOException("Invalid PE header offset");
+		byte[] hdr = new byte[len];
+		raf.seek(e_lfanew);
+		raf.readFully(hdr);
+		return parse(ByteBuffer.wrap(hdr).order(ByteOrder.LITTLE_ENDIAN), 0);
+	}
+
+	/**
+	 * Parse the headers from a buffer holding the whole file (e.g. a mapped view).
+	 */
+	public static PeImage parse(ByteBuffer file) throws IOException {
+		ByteBuffer b = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		if (b.limit() < 64 || b.get(0) != 'M' || b.get(1) != 'Z')
+			throw new IOException("Not a PE file (MZ header missing)");
+		return parse(b, b.getInt(0x3C));
+	}
+
+	private static PeImage parse(ByteBuffer b, int nt) throws IOException {
+		if (b.getInt(nt) != 0x00004550) { // "PE\0\0"
+			throw new IOException("Invalid PE signature");
+		}
+		int fileHeader = nt + 4;
+		int machine = b.getShort(fileHeader) & 0xFFFF;
+		int numberOfSections = b.getShort(fileHeader + 2) & 0xFFFF;
+		int sizeOfOptionalHeader = b.getShort(fileHeader + 16) & 0xFFFF;
+		int opt = fileHeader + 20;
+		int magic = b.getShort(opt) & 0xFFFF;
+		boolean is64 = (magic == 0x20B);
+		long imageBase = is64 ? b.getLong(opt + 24) : b.getInt(opt + 28) & 0xFFFFFFFFL;
+		int sizeOfImage = b.getInt(opt + 56);
+		int sizeOfHeaders = b.getInt(opt + 60);
+		// DataDirectory starts at offset 112 (PE32+) or 96 (PE32) of the optional header
+		int numberOfRvaAndSizes = b.getInt(opt + (is64 ? 108 : 92));
+		int dataDir = opt + (is64 ? 112 : 96);
+		int dirs = Math.max(0, Math.min(16, numberOfRvaAndSizes));
+		int[] dirRva = new int[16];
+		int[] dirSize = new int[16];
+		for (int i = 0; i < dirs; i++) {
+			dirRva[i] = b.getInt(dataDir + i * 8);
+			dirSize[i] = b.getInt(dataDir + i * 8 + 4);
+		}
+		int sectionHeaders = opt + sizeOfOptionalHeader;
+		int maxSections = Math.max(0, (b.limit() - sectionHeaders) / 40);
+		Section[] sections = new Section[Math.min(numberOfSections, maxSections)];
+		byte[] nameBytes = new byte[8];
+		for (int i = 0; i < sections.length; i++) {
+			int sh = sectionHeaders + i * 40;
+			b.get(sh, nameBytes);
+			String name = new String(nameBytes, StandardCharsets.US_ASCII).trim().replace("\0", "");
+			sections[i] = new Section(name, b.getInt(sh + 12), b.getInt(sh + 8), b.getInt(sh + 20), b.getInt(sh + 16), b.getInt(sh + 36));
+		}
+		return new PeImage(machine, is64, imageBase, sizeOfImage, sizeOfHeaders, sections, dirRva, dirSize);
+	}
+
+	public Section[] getSections() {
+		return sections.clone();
+	}
+
+	public int getSectionCount() {
+		return sections.length;
+	}
+
+	public Section getSection(int i) {
+		return sections[i];
+	}
+
+	public Section sectionOf(int rva) {
+		for (Section s : sections) {
+			if (s.contains(rva))
+				return s;
+		}
+		return null;
+	}
+
+	public int dataDirectoryRva(int index) {
+		return dirRva[index];
+	}
+
+	public int dataDirectorySize(int index) {
+		return dirSize[index];
+	}
+
+	/**
+	 * Translate an RVA to a file offset, or -1 if it is not backed by any section.
+	 */
+	public long rvaToOffset(int rva) {
+		for (Section s : sections) {
+			if (rva >= s.virtualAddress && rva < s.virtualAddress + Math.max(s.virtualSize, s.sizeOfRawData)) {
+				int delta = rva - s.virtualAddress;
+				return s.pointerToRawData + delta;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Translate a file offset to the RVA it is loaded at, or -1 if it lies outside the raw data of every section (headers, overlay).
+	 */
+	public long offsetToRva(long offset) {
+		for (Section s : sections) {
+			long start = s.pointerToRawData & 0xFFFFFFFFL;
+			if (offset >= start && offset < start + (s.sizeOfRawData & 0xFFFFFFFFL))
+				return (s.virtualAddress & 0xFFFFFFFFL) + (offset - start);
+		}
+		return -1;
+	}
+
+	public boolean isX64() {
+		return machine == MACHINE_AMD64;
+	}
+}
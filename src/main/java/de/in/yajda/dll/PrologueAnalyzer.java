@@ -0,0 +1,898 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates the parameters of exports that have neither a header prototype nor a decorated name by looking at the first basic blocks of
+ * their code. The analysis tracks which argument registers (RCX/RDX/R8/R9 and XMM0-3 under the Windows x64 convention) and which stack
+ * argument slots are read before being written, and derives a rough type from how they are used: the operand size for integers, scalar
+ * single/double instructions for floating point and use as a memory base for pointers.
+ *
+ * This is a heuristic. Unused parameters are invisible, and functions that only forward their arguments to another call report fewer
+ * parameters than they take. Results are meant as a starting point for a header, not as a replacement.
+ *
+ * The image is mapped once and the exports are analysed in parallel. Results are cached per file content hash, so re-opening or reloading an
+ * unchanged DLL costs only the hash. The hash itself is kept per file, length and modification time, so it is computed once per image.
+ */
+public class PrologueAnalyzer {
+
+	public enum Abi {
+		/** Microsoft x64: four positional register slots shared by integer and float arguments, stack arguments from [rsp+0x28]. */
+		WIN64,
+		/**
+		 * System V AMD64: six integer and eight vector registers counted independently, stack arguments from [rsp+8]. The relative order of
+		 * integer and float parameters is not recoverable; integer parameters are listed first.
+		 */
+		SYSV
+	}
+
+	/**
+	 * Translation from code addresses (RVA or virtual address) to offsets in the mapped file.
+	 */
+	public interface CodeMap {
+		/** File offset of an address, or -1 if it is not backed by the file. */
+		long toOffset(long address);
+
+		/** File offset just past the executable region holding the address, or -1 if the address is not in executable code. */
+		long codeEnd(long address);
+	}
+
+	/** Maximum instructions decoded per function. */
+	private static final int MAX_INSTRUCTIONS = 200;
+	/** Maximum basic blocks followed per function. */
+	private static final int MAX_BLOCKS = 16;
+	private static final int MAX_CACHED_FILES = 32;
+
+	private static final String T_CHAR = "char";
+	private static final String T_SHORT = "short";
+	private static final String T_INT = "int";
+	private static final String T_INT64 = "__int64";
+	private static final String T_POINTER = "void *";
+	private static final String T_FLOAT = "float";
+	private static final String T_DOUBLE = "double";
+	private static final String T_UNKNOWN = "unknown";
+
+	private static final int RAX = 0, RCX = 1, RDX = 2, RSP = 4, RBP = 5, RSI = 6, RDI = 7, R8 = 8, R9 = 9;
+
+	// file hash -> (address -> parameter types)
+	private static final Map<String, Map<Long, List<String>>> CACHE = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Map<Long, List<String>>> eldest) {
+			return size() > MAX_CACHED_FILES;
+		}
+	});
+
+	// file path -> content hash at a length and modification time
+	private static final Map<String, FileHash> HASHES = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FileHash> eldest) {
+			return size() > MAX_CACHED_FILES;
+		}
+	});
+
+	private static final class FileHash {
+		final long length;
+		final long lastModified;
+		final int hashed;
+		final String hash;
+
+		FileHash(long length, long lastModified, int hashed, String hash) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.hashed = hashed;
+			this.hash = hash;
+		}
+	}
+
+	private final Abi abi;
+
+	public PrologueAnalyzer() {
+		this(Abi.WIN64);
+	}
+
+	public PrologueAnalyzer(Abi abi) {
+		this.abi = abi;
+	}
+
+	/**
+	 * Infer parameters for the given export RVAs of a PE image. The returned map only holds entries for functions whose code could be
+	 * decoded; forwarders and data exports should not be passed in.
+	 */
+	public Map<Long, List<String>> analyzeExports(File dll, PeImage image, Collection<Integer> rvas) throws IOException {
+		List<Long> addresses = new ArrayList<>(rvas.size());
+		for (int rva : rvas)
+			addresses.add(rva & 0xFFFFFFFFL);
+		return analyze(dll, forPe(image), addresses);
+	}
+
+	/**
+	 * Infer parameters for functions at the given addresses of a file. The file is read onto the heap up to the end of the last code section
+	 * involved rather than mapped: a mapping outlives the channel until it is collected, and on Windows keeps the DLL from being rebuilt.
+	 */
+	public Map<Long, List<String>> analyze(File file, CodeMap map, Collection<Long> addresses) throws IOException {
+		if (addresses.isEmpty())
+			return Collections.emptyMap();
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long needed = 0;
+			for (Long a : addresses)
+				needed = Math.max(needed, map.codeEnd(a));
+			needed = Math.min(needed, ch.size());
+			if (needed <= 0 || needed > Integer.MAX_VALUE)
+				return Collections.emptyMap();
+			ByteBuffer data = ByteBuffer.allocate((int) needed);
+			while (data.hasRemaining()) {
+				if (ch.read(data, data.position()) < 0)
+					break;
+			}
+			data.flip();
+			String key = abi + ":" + contentHash(file, ch.size(), data);
+			Map<Long, List<String>> cached = CACHE.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+
+			List<Long> todo = new ArrayList<>();
+			for (Long a : addresses) {
+				if (!cached.containsKey(a))
+					todo.add(a);
+			}
+			todo.parallelStream().forEach(a -> {
+				// duplicates share the bytes but keep their own position and byte order
+				ByteBuffer buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+				List<String> params = analyzeFunction(buf, map, a);
+				if (params != null)
+					cached.put(a, params);
+			});
+
+			Map<Long, List<String>> res = new HashMap<>();
+			for (Long a : addresses) {
+				List<String> p = cached.get(a);
+				if (p != null)
+					res.put(a, p);
+			}
+			return res;
+		}
+	}
+
+	public static CodeMap forPe(PeImage image) {
+		return new CodeMap() {
+			@Override
+			public long toOffset(long address) {
+				return image.rvaToOffset((int) address);
+			}
+
+			@Override
+			public long codeEnd(long address) {
+				PeImage.Section s = image.sectionOf((int) address);
+				if (s == null || !s.isCode())
+					return -1;
+				return (s.pointerToRawData & 0xFFFFFFFFL) + (s.sizeOfRawData & 0xFFFFFFFFL);
+			}
+		};
+	}
+
+	public static int getCachedFileCount() {
+		return CACHE.size();
+	}
+
+	/**
+	 * SHA-256 of the bytes read from the file. Hashed again only if the file has changed length or modification time, or a different
+	 * stretch of it was read, since it was last hashed.
+	 */
+	private static String contentHash(File file, long length, ByteBuffer data) {
+		String path = file.getAbsolutePath();
+		long lastModified = file.lastModified();
+		FileHash h = HASHES.get(path);
+		if (h == null || h.length != length || h.lastModified != lastModified || h.hashed != data.remaining()) {
+			h = new FileHash(length, lastModified, data.remaining(), sha256(data));
+			HASHES.put(path, h);
+		}
+		return h.hash;
+	}
+
+	private static String sha256(ByteBuffer data) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(data.duplicate());
+			StringBuilder sb = new StringBuilder();
+			for (byte b : md.digest())
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Register and stack state along one path. Aliases record which parameter slot a register currently holds (-1 = none).
+	 */
+	private static final class State {
+		final int[] gpr = new int[16];
+		final int[] xmm = new int[16];
+		int rspDelta; // entry rsp minus current rsp
+		int rbpDelta = Integer.MIN_VALUE; // entry rsp minus rbp, if rbp is a frame pointer
+
+		State copy() {
+			State s = new State();
+			System.arraycopy(gpr, 0, s.gpr, 0, 16);
+			System.arraycopy(xmm, 0, s.xmm, 0, 16);
+			s.rspDelta = rspDelta;
+			s.rbpDelta = rbpDelta;
+			return s;
+		}
+	}
+
+	/**
+	 * Collected observations of one function: best type per parameter slot.
+	 */
+	private final class Slots {
+		// WIN64: positional slots; SYSV: integer slots 0..5, vector slots 16..23, stack slots 32..
+		final String[] types = new String[64];
+		final int[] ranks = new int[64];
+
+		void observe(int slot, String type) {
+			if (slot < 0 || slot >= types.length)
+				return;
+			int rank = rank(type);
+			if (types[slot] == null || rank > ranks[slot]) {
+				types[slot] = type;
+				ranks[slot] = rank;
+			}
+		}
+
+		List<String> toList() {
+			List<String> res = new ArrayList<>();
+			if (abi == Abi.WIN64) {
+				int n = 0;
+				for (int i = 0; i < types.length; i++) {
+					if (types[i] != null)
+						n = i + 1;
+				}
+				for (int i = 0; i < n; i++)
+					res.add(types[i] != null ? types[i] : T_UNKNOWN);
+			} else {
+				appendRange(res, 0, 6);
+				appendRange(res, 16, 24);
+				appendRange(res, 32, 64);
+			}
+			return res;
+		}
+
+		private void appendRange(List<String> res, int from, int to) {
+			int n = from;
+			for (int i = from; i < to; i++) {
+				if (types[i] != null)
+					n = i + 1;
+			}
+			for (int i = from; i < n; i++)
+				res.add(types[i] != null ? types[i] : T_UNKNOWN);
+		}
+	}
+
+	private static int rank(String type) {
+		switch (type) {
+		case T_POINTER:
+			return 6;
+		case T_DOUBLE:
+			return 5;
+		case T_FLOAT:
+			return 4;
+		case T_INT64:
+			return 3;
+		case T_INT:
+			return 2;
+		case T_SHORT:
+			return 1;
+		default:
+			return 0;
+		}
+	}
+
+	private static String gprType(int size) {
+		switch (size) {
+		case 1:
+			return T_CHAR;
+		case 2:
+			return T_SHORT;
+		case 4:
+			return T_INT;
+		default:
+			return T_INT64;
+		}
+	}
+
+	private State entryState() {
+		State s = new State();
+		Arrays.fill(s.gpr, -1);
+		Arrays.fill(s.xmm, -1);
+		if (abi == Abi.WIN64) {
+			s.gpr[RCX] = 0;
+			s.gpr[RDX] = 1;
+			s.gpr[R8] = 2;
+			s.gpr[R9] = 3;
+			for (int i = 0; i < 4; i++)
+				s.xmm[i] = i;
+		} else {
+			int[] regs = { RDI, RSI, RDX, RCX, R8, R9 };
+			for (int i = 0; i < regs.length; i++)
+				s.gpr[regs[i]] = i;
+			for (int i = 0; i < 8; i++)
+				s.xmm[i] = 16 + i;
+		}
+		return s;
+	}
+
+	/**
+	 * Slot of a stack argument at the given offset from the entry rsp, or -1.
+	 */
+	private int stackSlot(int entryOffset) {
+		if (abi == Abi.WIN64)
+			return entryOffset >= 0x28 ? 4 + (entryOffset - 0x28) / 8 : -1;
+		return entryOffset >= 8 ? 32 + (entryOffset - 8) / 8 : -1;
+	}
+
+	/**
+	 * Slot whose home area (Win64 only) is at the given offset from the entry rsp, or -1.
+	 */
+	private int homeSlot(int entryOffset) {
+		if (abi == Abi.WIN64 && entryOffset >= 8 && entryOffset < 0x28)
+			return (entryOffset - 8) / 8;
+		return -1;
+	}
+
+	private List<String> analyzeFunction(ByteBuffer buf, CodeMap map, long entry) {
+		if (map.codeEnd(entry) < 0)
+			return null;
+		Slots slots = new Slots();
+		X64Decoder.Instruction in = new X64Decoder.Instruction();
+		ArrayDeque<Long> work = new ArrayDeque<>();
+		Map<Long, State> pending = new HashMap<>();
+		Set<Long> visited = new HashSet<>();
+		work.add(entry);
+		pending.put(entry, entryState());
+		int instructions = 0;
+		int blocks = 0;
+		boolean decoded = false;
+
+		while (!work.isEmpty() && blocks < MAX_BLOCKS && instructions < MAX_INSTRUCTIONS) {
+			long start = work.poll();
+			State s = pending.remove(start);
+			if (s == null || !visited.add(start))
+				continue;
+			long off = map.toOffset(start);
+			long end = map.codeEnd(start);
+			if (off < 0 || end < 0 || end > buf.limit())
+				continue;
+			blocks++;
+			long address = start;
+			int pos = (int) off;
+			while (instructions < MAX_INSTRUCTIONS) {
+				if (!X64Decoder.decode(buf, pos, (int) end, in))
+					break;
+				decoded = true;
+				instructions++;
+				int flow = step(in, s, slots);
+				long next = address + in.length;
+				if (flow == FLOW_END)
+					break;
+				if (flow == FLOW_JUMP || flow == FLOW_BRANCH) {
+					long target = next + in.imm;
+					enqueue(work, pending, visited, target, s);
+					if (flow == FLOW_JUMP)
+						break;
+					// the fall-through becomes a block of its own so a loop back into it is not followed twice
+					enqueue(work, pending, visited, next, s);
+					break;
+				}
+				address = next;
+				pos += in.length;
+			}
+		}
+		return decoded ? slots.toList() : null;
+	}
+
+	private static void enqueue(ArrayDeque<Long> work, Map<Long, State> pending, Set<Long> visited, long address, State s) {
+		if (visited.contains(address) || pending.containsKey(address))
+			return;
+		pending.put(address, s.copy());
+		work.add(address);
+	}
+
+	private static final int FLOW_NEXT = 0;
+	private static final int FLOW_END = 1;
+	private static final int FLOW_JUMP = 2;
+	private static final int FLOW_BRANCH = 3;
+
+	/**
+	 * Apply one instruction to the state, record parameter observations and return how control continues.
+	 */
+	private int step(X64Decoder.Instruction in, State s, Slots slots) {
+		int op = in.opcode;
+		if (in.map == X64Decoder.MAP_PRIMARY) {
+			// ALU r/m,r / r,r/m / accumulator forms: add, or, adc, sbb, and, sub, xor, cmp
+			if (op < 0x40 && (op & 7) < 6) {
+				int kind = op & 7;
+				int alu = op >> 3;
+				if (kind >= 4) { // al/eax, imm
+					readGpr(s, slots, RAX, in.operandSize(kind == 4));
+					if (alu != 7)
+						writeGpr(s, RAX);
+					return FLOW_NEXT;
+				}
+				boolean byteForm = (kind & 1) == 0;
+				int size = in.operandSize(byteForm);
+				boolean toReg = kind >= 2;
+				if (!in.isMemory() && in.reg == in.rm && (alu == 6 || alu == 5)) { // xor/sub r, r: zeroing idiom
+					writeGpr(s, in.reg);
+					return FLOW_NEXT;
+				}
+				readGpr(s, slots, in.reg, size);
+				readRm(in, s, slots, gprType(size));
+				if (alu != 7) {
+					if (toReg)
+						writeGpr(s, in.reg);
+					else
+						writeRm(in, s);
+				}
+				return FLOW_NEXT;
+			}
+			if (op >= 0x50 && op <= 0x57) { // push
+				readGpr(s, slots, (op & 7) | ((in.rex & 1) << 3), 8);
+				s.rspDelta += 8;
+				return FLOW_NEXT;
+			}
+			if (op >= 0x58 && op <= 0x5F) { // pop
+				writeGpr(s, (op & 7) | ((in.rex & 1) << 3));
+				s.rspDelta -= 8;
+				return FLOW_NEXT;
+			}
+			if (op == 0x63) { // movsxd r, r/m32
+				int src = aliasOfRm(in, s, slots, T_INT);
+				setGpr(s, in.reg, src);
+				return FLOW_NEXT;
+			}
+			if (op == 0x68 || op == 0x6A) { // push imm
+				s.rspDelta += 8;
+				return FLOW_NEXT;
+			}
+			if (op == 0x69 || op == 0x6B) { // imul r, r/m, imm
+				readRm(in, s, slots, gprType(in.operandSize(false)));
+				writeGpr(s, in.reg);
+				return FLOW_NEXT;
+			}
+			if (op >= 0x70 && op <= 0x7F)
+				return FLOW_BRANCH;
+			if (op >= 0x80 && op <= 0x83) { // group 1 r/m, imm
+				int size = in.operandSize(op == 0x80 || op == 0x82);
+				if (!in.isMemory() && in.rm == RSP && in.rexW()) {
+					if (in.regField() == 5) {
+						s.rspDelta += (int) in.imm; // sub rsp, imm
+						return FLOW_NEXT;
+					}
+					if (in.regField() == 0) {
+						s.rspDelta -= (int) in.imm; // add rsp, imm
+						return FLOW_NEXT;
+					}
+				}
+				readRm(in, s, slots, gprType(size));
+				if (in.regField() != 7)
+					writeRm(in, s);
+				return FLOW_NEXT;
+			}
+			if (op == 0x84 || op == 0x85) { // test
+				int size = in.operandSize(op == 0x84);
+				readGpr(s, slots, in.reg, size);
+				readRm(in, s, slots, gprType(size));
+				return FLOW_NEXT;
+			}
+			if (op == 0x88 || op == 0x89) { // mov r/m, r
+				int size = in.operandSize(op == 0x88);
+				if (!in.isMemory()) {
+					if (in.rm == RBP && in.reg == RSP && in.rexW()) {
+						s.rbpDelta = s.rspDelta; // mov rbp, rsp
+						return FLOW_NEXT;
+					}
+					readGpr(s, slots, in.reg, size);
+					setGpr(s, in.rm, size == 8 ? s.gpr[in.reg] : -1);
+					return FLOW_NEXT;
+				}
+				readGpr(s, slots, in.reg, size);
+				memoryOperand(in, s, slots, null);
+				return FLOW_NEXT;
+			}
+			if (op == 0x8A || op == 0x8B) { // mov r, r/m
+				int size = in.operandSize(op == 0x8A);
+				if (!in.isMemory() && in.reg == RSP)
+					return FLOW_NEXT;
+				int src = aliasOfRm(in, s, slots, gprType(size));
+				setGpr(s, in.reg, size == 8 ? src : -1);
+				return FLOW_NEXT;
+			}
+			if (op == 0x8D) { // lea
+				if (in.reg == RBP && in.base == RSP && in.index < 0) {
+					s.rbpDelta = s.rspDelta - (int) in.disp;
+					return FLOW_NEXT;
+				}
+				if (in.reg == RSP && in.base == RBP && in.index < 0 && s.rbpDelta != Integer.MIN_VALUE) {
+					s.rspDelta = s.rbpDelta - (int) in.disp;
+					return FLOW_NEXT;
+				}
+				// address arithmetic (lea eax, [rcx+rdx]) does not dereference: the operands are integers of the result's width
+				readLeaOperands(in, s, slots, gprType(in.operandSize(false)));
+				writeGpr(s, in.reg);
+				return FLOW_NEXT;
+			}
+			if (op >= 0x91 && op <= 0x97) { // xchg rax, r
+				int r = (op & 7) | ((in.rex & 1) << 3);
+				int a = s.gpr[RAX];
+				s.gpr[RAX] = s.gpr[r];
+				s.gpr[r] = a;
+				return FLOW_NEXT;
+			}
+			if (op >= 0xA4 && op <= 0xAF) { // string ops
+				if (in.rep || in.repne)
+					readGpr(s, slots, RCX, 8);
+				readGpr(s, slots, RDI, 8);
+				readGpr(s, slots, RSI, 8);
+				return FLOW_NEXT;
+			}
+			if (op >= 0xB0 && op <= 0xBF) { // mov r, imm
+				writeGpr(s, (op & 7) | ((in.rex & 1) << 3));
+				return FLOW_NEXT;
+			}
+			if (op == 0xC0 || op == 0xC1 || (op >= 0xD0 && op <= 0xD3)) { // shifts
+				if (op == 0xD2 || op == 0xD3)
+					readGpr(s, slots, RCX, 1);
+				int size = in.operandSize(op == 0xC0 || op == 0xD0 || op == 0xD2);
+				readRm(in, s, slots, gprType(size));
+				writeRm(in, s);
+				return FLOW_NEXT;
+			}
+			if (op == 0xC2 || op == 0xC3 || op == 0xCC)
+				return FLOW_END;
+			if (op == 0xC6 || op == 0xC7) { // mov r/m, imm
+				if (in.isMemory())
+					memoryOperand(in, s, slots, null);
+				else
+					writeGpr(s, in.rm);
+				return FLOW_NEXT;
+			}
+			if (op == 0xC9) { // leave
+				if (s.rbpDelta != Integer.MIN_VALUE)
+					s.rspDelta = s.rbpDelta - 8;
+				s.rbpDelta = Integer.MIN_VALUE;
+				return FLOW_NEXT;
+			}
+			if (op == 0xE8) {
+				clobberVolatile(s);
+				return FLOW_NEXT;
+			}
+			if (op == 0xE9 || op == 0xEB)
+				return FLOW_JUMP;
+			if (op == 0xF6 || op == 0xF7) { // group 3: test/not/neg/mul/div
+				int size = in.operandSize(op == 0xF6);
+				readRm(in, s, slots, gprType(size));
+				int g = in.regField();
+				if (g == 2 || g == 3)
+					writeRm(in, s);
+				else if (g >= 4) {
+					readGpr(s, slots, RAX, size);
+					writeGpr(s, RAX);
+					writeGpr(s, RDX);
+				}
+				return FLOW_NEXT;
+			}
+			if (op == 0xFE || op == 0xFF) {
+				int g = in.regField();
+				if (op == 0xFF && (g == 2 || g == 3)) { // call indirect
+					readRm(in, s, slots, T_POINTER);
+					clobberVolatile(s);
+					return FLOW_NEXT;
+				}
+				if (op == 0xFF && (g == 4 || g == 5)) { // jmp indirect: tail call or switch
+					readRm(in, s, slots, T_POINTER);
+					return FLOW_END;
+				}
+				if (op == 0xFF && g == 6) { // push r/m
+					readRm(in, s, slots, T_INT64);
+					s.rspDelta += 8;
+					return FLOW_NEXT;
+				}
+				readRm(in, s, slots, gprType(in.operandSize(op == 0xFE)));
+				writeRm(in, s);
+				return FLOW_NEXT;
+			}
+			if (op == 0x98 || op == 0x99) { // cbw/cwde/cdqe, cwd/cdq/cqo
+				readGpr(s, slots, RAX, in.operandSize(false));
+				if (op == 0x99)
+					writeGpr(s, RDX);
+				else
+					writeGpr(s, RAX);
+				return FLOW_NEXT;
+			}
+			// anything else: only account for registers used in addressing
+			if (in.isMemory())
+				readAddress(in, s, slots);
+			return FLOW_NEXT;
+		}
+
+		if (in.map == X64Decoder.MAP_0F) {
+			if (op >= 0x80 && op <= 0x8F)
+				return FLOW_BRANCH;
+			if (op == 0x0B) // ud2
+				return FLOW_END;
+			if (op >= 0x40 && op <= 0x4F) { // cmovcc
+				int size = in.operandSize(false);
+				readGpr(s, slots, in.reg, size);
+				readRm(in, s, slots, gprType(size));
+				writeGpr(s, in.reg);
+				return FLOW_NEXT;
+			}
+			if (op == 0xB6 || op == 0xB7 || op == 0xBE || op == 0xBF) { // movzx/movsx
+				int srcSize = (op & 1) == 0 ? 1 : 2;
+				readRm(in, s, slots, gprType(srcSize));
+				writeGpr(s, in.reg);
+				return FLOW_NEXT;
+			}
+			if (op == 0xAF) { // imul r, r/m
+				int size = in.operandSize(false);
+				readGpr(s, slots, in.reg, size);
+				readRm(in, s, slots, gprType(size));
+				writeGpr(s, in.reg);
+				return FLOW_NEXT;
+			}
+			if (op >= 0x90 && op <= 0x9F) { // setcc
+				writeRm(in, s);
+				return FLOW_NEXT;
+			}
+			if (op == 0x2A) { // cvtsi2ss/sd xmm, r/m
+				readRm(in, s, slots, gprType(in.operandSize(false)));
+				writeXmm(s, in.reg);
+				return FLOW_NEXT;
+			}
+			if (op == 0x2C || op == 0x2D) { // cvt(t)ss2si/sd2si r, xmm/m
+				readXmmRm(in, s, slots, scalarType(in));
+				writeGpr(s, in.reg);
+				return FLOW_NEXT;
+			}
+			if (op == 0x6E) { // movd/movq xmm, r/m
+				readRm(in, s, slots, gprType(in.rexW() ? 8 : 4));
+				writeXmm(s, in.reg);
+				return FLOW_NEXT;
+			}
+			if (op == 0x7E && in.simdPrefix() == 1) { // movd/movq r/m, xmm
+				readXmm(s, slots, in.reg, T_DOUBLE);
+				if (in.isMemory())
+					memoryOperand(in, s, slots, null);
+				else
+					writeGpr(s, in.rm);
+				return FLOW_NEXT;
+			}
+			if (isSseOp(op)) {
+				sseOp(in, s, slots);
+				return FLOW_NEXT;
+			}
+		}
+		// other 0F/0F38/0F3A instructions: addressing registers only
+		if (in.isMemory())
+			readAddress(in, s, slots);
+		return FLOW_NEXT;
+	}
+
+	private static boolean isSseOp(int op) {
+		return (op >= 0x10 && op <= 0x17) || (op >= 0x28 && op <= 0x2F) || (op >= 0x51 && op <= 0x7F) || op == 0xC2 || op == 0xC6 || op >= 0xD0;
+	}
+
+	private static boolean isStore(int op) {
+		return op == 0x11 || op == 0x13 || op == 0x17 || op == 0x29 || op == 0x2B || op == 0x7F || op == 0xD6 || op == 0xE7;
+	}
+
+	/** Plain moves do not read their destination. */
+	private static boolean isMove(int op) {
+		return op == 0x10 || op == 0x12 || op == 0x16 || op == 0x28 || op == 0x6F || op == 0x7E || op == 0x51;
+	}
+
+	/** cvtps2pd/cvtss2sd/cvtpd2ps/cvtsd2ss, cvtdq2ps/cvt(t)ps2dq, cvtdq2pd/cvt(t)pd2dq. */
+	private static boolean isConversion(int op) {
+		return op == 0x5A || op == 0x5B || op == 0xE6;
+	}
+
+	/**
+	 * Type of the source operand of a conversion, which differs from the destination's.
+	 */
+	private static String conversionSource(X64Decoder.Instruction in) {
+		int pp = in.simdPrefix();
+		switch (in.opcode) {
+		case 0x5A:
+			return pp == 0 || pp == 2 ? T_FLOAT : T_DOUBLE;
+		case 0x5B:
+			return pp == 0 ? T_INT : T_FLOAT;
+		default:
+			return pp == 2 ? T_INT : T_DOUBLE;
+		}
+	}
+
+	private static String scalarType(X64Decoder.Instruction in) {
+		switch (in.simdPrefix()) {
+		case 2:
+		case 0:
+			return T_FLOAT;
+		default:
+			return T_DOUBLE;
+		}
+	}
+
+	private void sseOp(X64Decoder.Instruction in, State s, Slots slots) {
+		int op = in.opcode;
+		String type = scalarType(in);
+		if (!in.vex && !in.evex && !in.isMemory() && in.reg == in.rm && (op == 0x57 || op == 0xEF || op == 0x5C)) {
+			writeXmm(s, in.reg); // xorps/pxor/subps x, x: zeroing idiom
+			return;
+		}
+		if (isStore(op)) {
+			readXmm(s, slots, in.reg, type);
+			if (in.isMemory())
+				memoryOperand(in, s, slots, null);
+			else
+				setXmm(s, in.rm, s.xmm[in.reg]);
+			return;
+		}
+		if (isConversion(op)) {
+			// the result is a different type, so the destination does not keep the source's parameter identity
+			readXmmRm(in, s, slots, conversionSource(in));
+			writeXmm(s, in.reg);
+			return;
+		}
+		if (op == 0x2E || op == 0x2F) { // (u)comis
+			readXmm(s, slots, in.reg, type);
+			readXmmRm(in, s, slots, type);
+			return;
+		}
+		if (in.vex || in.evex) {
+			if (in.vexReg >= 0 && in.vexReg < 16 && !isMove(op))
+				readXmm(s, slots, in.vexReg, type);
+		} else if (!isMove(op)) {
+			readXmm(s, slots, in.reg, type);
+		}
+		int src = readXmmRm(in, s, slots, type);
+		setXmm(s, in.reg, isMove(op) && !in.vex ? src : -1);
+	}
+
+	// --- register and memory tracking
+
+	private void readGpr(State s, Slots slots, int reg, int size) {
+		int slot = s.gpr[reg];
+		if (slot >= 0)
+			slots.observe(slot, gprType(size));
+	}
+
+	private void readXmm(State s, Slots slots, int reg, String type) {
+		if (reg < 16 && s.xmm[reg] >= 0)
+			slots.observe(s.xmm[reg], type);
+	}
+
+	private static void writeGpr(State s, int reg) {
+		setGpr(s, reg, -1);
+	}
+
+	private static void setGpr(State s, int reg, int slot) {
+		if (reg == RSP)
+			return;
+		if (reg == RBP)
+			s.rbpDelta = Integer.MIN_VALUE;
+		s.gpr[reg] = slot;
+	}
+
+	private static void writeXmm(State s, int reg) {
+		setXmm(s, reg, -1);
+	}
+
+	private static void setXmm(State s, int reg, int slot) {
+		if (reg < 16)
+			s.xmm[reg] = slot;
+	}
+
+	private static void writeRm(X64Decoder.Instruction in, State s) {
+		if (!in.isMemory())
+			writeGpr(s, in.rm);
+	}
+
+	private static void clobberVolatile(State s) {
+		for (int r : new int[] { RAX, RCX, RDX, R8, R9, 10, 11 })
+			s.gpr[r] = -1;
+		for (int i = 0; i < 6; i++)
+			s.xmm[i] = -1;
+	}
+
+	/**
+	 * Read a general purpose r/m operand. Returns the parameter slot the value comes from, or -1.
+	 */
+	private int aliasOfRm(X64Decoder.Instruction in, State s, Slots slots, String type) {
+		if (!in.isMemory()) {
+			int slot = s.gpr[in.rm];
+			if (slot >= 0)
+				slots.observe(slot, type);
+			return slot;
+		}
+		return memoryOperand(in, s, slots, type);
+	}
+
+	private void readRm(X64Decoder.Instruction in, State s, Slots slots, String type) {
+		aliasOfRm(in, s, slots, type);
+	}
+
+	private int readXmmRm(X64Decoder.Instruction in, State s, Slots slots, String type) {
+		if (!in.isMemory()) {
+			int slot = in.rm < 16 ? s.xmm[in.rm] : -1;
+			if (slot >= 0)
+				slots.observe(slot, type);
+			return slot;
+		}
+		return memoryOperand(in, s, slots, type);
+	}
+
+	/**
+	 * Account for a memory operand: registers used to form the address, and stack argument slots it touches. A non-null loadType means the
+	 * operand is read with that type. Returns the parameter slot whose stack or home location is loaded, or -1.
+	 */
+	private int memoryOperand(X64Decoder.Instruction in, State s, Slots slots, String loadType) {
+		int entryOffset = Integer.MIN_VALUE;
+		if (in.index < 0) {
+			if (in.base == RSP)
+				entryOffset = (int) in.disp - s.rspDelta;
+			else if (in.base == RBP && s.rbpDelta != Integer.MIN_VALUE)
+				entryOffset = (int) in.disp - s.rbpDelta;
+		}
+		if (entryOffset == Integer.MIN_VALUE) {
+			readAddress(in, s, slots);
+			return -1;
+		}
+		int stack = stackSlot(entryOffset);
+		if (stack >= 0) {
+			slots.observe(stack, loadType != null ? loadType : T_UNKNOWN);
+			return stack;
+		}
+		// loading a spilled register back from its home area keeps its identity
+		return loadType != null ? homeSlot(entryOffset) : -1;
+	}
+
+	private void readLeaOperands(X64Decoder.Instruction in, State s, Slots slots, String type) {
+		if (in.base >= 0 && in.base < 16 && in.base != RSP && s.gpr[in.base] >= 0)
+			slots.observe(s.gpr[in.base], type);
+		if (in.index >= 0 && s.gpr[in.index] >= 0)
+			slots.observe(s.gpr[in.index], type);
+	}
+
+	private void readAddress(X64Decoder.Instruction in, State s, Slots slots) {
+		if (in.base >= 0 && in.base < 16 && in.base != RSP) {
+			int slot = s.gpr[in.base];
+			if (slot >= 0)
+				slots.observe(slot, T_POINTER);
+		}
+		if (in.index >= 0) {
+			int slot = s.gpr[in.index];
+			if (slot >= 0)
+				slots.observe(slot, T_INT64);
+		}
+	}
+}
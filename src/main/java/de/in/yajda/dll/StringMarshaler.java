@@ -0,0 +1,356 @@
+package de.in.yajda.dll;
+
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+
+/**
+ * Explicit char * / wchar_t * marshaling for native calls, driven by the parameter types of the loaded header.
+ *
+ * A Java string passed for a char * parameter is encoded in {@link #getCharset()} (JNA's default string encoding unless set), one passed
+ * for a wchar_t * parameter (LPCWSTR, PCWSTR, WCHAR * ...) as UTF-16, or UTF-32 where wchar_t has 4 bytes; without a header prototype
+ * JNA's own conversion applies. Strings for const parameters that a script passes again and again (format strings, keys, option names)
+ * are encoded once and the native copy is reused; all other strings are encoded into a per-thread scratch buffer that is reused by the
+ * next call. Either way the pointer is only valid for the duration of the call, as with JNA.
+ *
+ * A function whose prototype returns char * or wchar_t * gives a {@link NativeText}: the pointer, decoded the first time the script
+ * reads the text. Passing a NativeText back to the library passes the pointer itself.
+ *
+ * One instance ({@link #getDefault()}) is shared by the proxy factories and the script invoker; it is bound as 'strings' in scripts.
+ */
+public class StringMarshaler {
+	private static final StringMarshaler DEFAULT = new StringMarshaler();
+
+	/** Longest string (in chars) whose native copy is cached. */
+	public static final int MAX_CACHED_LENGTH = 256;
+	/** Cached native copies per encoding; the cache starts over when it is full. */
+	public static final int MAX_CACHED = 4096;
+	private static final int SCRATCH_SIZE = 4096;
+	// scratch buffers are not grown beyond this; larger strings get memory of their own
+	private static final int MAX_SCRATCH_SIZE = 1 << 20;
+
+	// parameter / return kinds
+	static final byte NONE = 0;
+	static final byte NARROW = 1;
+	static final byte WIDE = 2;
+	// parameter kind flag: the callee may write to the buffer, so it never gets a shared cached copy
+	static final byte MUTABLE = 4;
+
+	public static StringMarshaler getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * A char * or wchar_t * returned by a native function, decoded on first use.
+	 */
+	public static final class NativeText implements CharSequence {
+		private final Pointer pointer;
+		private final boolean wide;
+		private final Charset charset;
+		private volatile String text;
+
+		NativeText(Pointer pointer, boolean wide, Charset charset) {
+			this.pointer = pointer;
+			this.wide = wide;
+			this.charset = charset;
+		}
+
+		public Pointer getPointer() {
+			return pointer;
+		}
+
+		@Override
+		public String toString() {
+			String s = text;
+			if (s == null) {
+				s = wide ? pointer.getWideString(0) : pointer.getString(0, charset.name());
+				text = s;
+			}
+			return s;
+		}
+
+		@Override
+		public int length() {
+			return toString().length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return toString().charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof CharSequence && toString().contentEquals((CharSequence) o);
+		}
+
+		@Override
+		public int hashCode() {
+			return toString().hashCode();
+		}
+	}
+
+	/**
+	 * Kinds of the string parameters and of the return value of one function.
+	 */
+	static final class Prototype {
+		final byte[] params;
+		final byte returns;
+
+		Prototype(byte[] params, byte returns) {
+			this.params = params;
+			this.returns = returns;
+		}
+	}
+
+	/**
+	 * Scratch buffer of one thread, used as a stack: a lease takes what its strings need and gives it back when the call returns, so
+	 * a callback that calls the library again stacks on top.
+	 */
+	private static final class Scratch {
+		Memory memory = new Memory(SCRATCH_SIZE);
+		long used;
+	}
+
+	/**
+	 * Arguments of one native call with the strings replaced by native copies.
+	 */
+	public static final class Lease implements AutoCloseable {
+		public final Object[] args;
+		private final Scratch scratch;
+		private final long mark;
+
+		Lease(Object[] args, Scratch scratch, long mark) {
+			this.args = args;
+			this.scratch = scratch;
+			this.mark = mark;
+		}
+
+		@Override
+		public void close() {
+			scratch.used = mark;
+		}
+	}
+
+	private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+	private volatile Map<String, Prototype> prototypes = Map.of();
+	private volatile Charset charset = Charset.forName(Native.getDefaultStringEncoding());
+	private final Charset wideCharset = Native.WCHAR_SIZE == 2
+			? (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? StandardCharsets.UTF_16LE : StandardCharsets.UTF_16BE)
+			: Charset.forName(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? "UTF-32LE" : "UTF-32BE");
+	// native copies of reused const strings, and the strings seen once (admitted to the cache on the second use)
+	private final Map<String, Memory> narrowCache = new ConcurrentHashMap<>();
+	private final Map<String, Memory> wideCache = new ConcurrentHashMap<>();
+	private final Map<String, Boolean> seenNarrow = new ConcurrentHashMap<>();
+	private final Map<String, Boolean> seenWide = new ConcurrentHashMap<>();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder scratchCopies = new LongAdder();
+	private final LongAdder ownCopies = new LongAdder();
+	private final LongAdder decoded = new LongAdder();
+
+	/**
+	 * Remember the string parameters and return types of the functions.
+	 */
+	public void setPrototypes(Collection<FunctionInfo> functions) {
+		Map<String, Prototype> map = new HashMap<>();
+		for (FunctionInfo fi : functions) {
+			byte[] params = null;
+			for (int i = 0; i < fi.paramTypes.size(); i++) {
+				byte kind = kindOf(fi.paramTypes.get(i));
+				if (kind == NONE)
+					continue;
+				if (params == null)
+					params = new byte[fi.paramTypes.size()];
+				params[i] = kind;
+			}
+			byte returns = (byte) (kindOf(fi.returnType) & ~MUTABLE);
+			if (params != null || returns != NONE)
+				map.put(fi.name, new Prototype(params, returns));
+		}
+		prototypes = map;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Encoding of char * strings, e.g. "UTF-8" for libraries that expect UTF-8 regardless of the platform code page.
+	 */
+	public void setCharset(String name) {
+		charset = Charset.forName(name);
+		narrowCache.clear();
+		seenNarrow.clear();
+	}
+
+	/**
+	 * Replace the strings among the arguments by native copies. Returns null, without allocating, if there is nothing to replace;
+	 * otherwise the lease with the arguments to pass, to be closed when the call returns.
+	 */
+	public Lease lease(String function, Object[] args) {
+		if (args == null || args.length == 0)
+			return null;
+		Prototype proto = prototypes.get(function);
+		byte[] kinds = proto != null ? proto.params : null;
+		int first = -1;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] instanceof NativeText || (args[i] instanceof String && kinds != null && i < kinds.length && kinds[i] != NONE)) {
+				first = i;
+				break;
+			}
+		}
+		if (first < 0)
+			return null;
+		Scratch s = scratch.get();
+		Object[] a = args.clone();
+		Lease lease = new Lease(a, s, s.used);
+		for (int i = first; i < a.length; i++) {
+			if (a[i] instanceof NativeText)
+				a[i] = ((NativeText) a[i]).pointer;
+			else if (a[i] instanceof String && kinds != null && i < kinds.length && kinds[i] != NONE)
+				a[i] = encode((String) a[i], kinds[i], s);
+		}
+		return lease;
+	}
+
+	/**
+	 * Whether the function's prototype returns char * or wchar_t *; such calls return a pointer for {@link #result}.
+	 */
+	public boolean returnsString(String function) {
+		Prototype proto = prototypes.get(function);
+		return proto != null && proto.returns != NONE;
+	}
+
+	/**
+	 * Wrap the pointer returned by a function for which {@link #returnsString} holds; null stays null.
+	 */
+	public NativeText result(String function, Pointer p) {
+		if (p == null)
+			return null;
+		Prototype proto = prototypes.get(function);
+		decoded.increment();
+		return new NativeText(p, proto != null && proto.returns == WIDE, charset);
+	}
+
+	/**
+	 * Cache and scratch use since startup, for the console.
+	 */
+	public String report() {
+		return "Cached strings: " + (narrowCache.size() + wideCache.size()) + ", cache hits: " + cacheHits.sum() + ", scratch copies: "
+				+ scratchCopies.sum() + ", own copies: " + ownCopies.sum() + ", returned strings: " + decoded.sum();
+	}
+
+	private Pointer encode(String s, byte kind, Scratch scratch) {
+		boolean wide = (kind & WIDE) != 0;
+		if ((kind & MUTABLE) == 0 && s.length() <= MAX_CACHED_LENGTH) {
+			Map<String, Memory> cache = wide ? wideCache : narrowCache;
+			Memory cached = cache.get(s);
+			if (cached != null) {
+				cacheHits.increment();
+				return cached;
+			}
+			Map<String, Boolean> seen = wide ? seenWide : seenNarrow;
+			if (seen.remove(s) != null) {
+				// second use: keep a copy; a full cache starts over, calls in flight still hold their copies
+				if (cache.size() >= MAX_CACHED)
+					cache.clear();
+				Memory m = copy(bytes(s, wide), wide);
+				cache.put(s, m);
+				ownCopies.increment();
+				return m;
+			}
+			if (seen.size() >= MAX_CACHED)
+				seen.clear();
+			seen.put(s, Boolean.TRUE);
+		}
+		byte[] bytes = bytes(s, wide);
+		long size = bytes.length + (wide ? Native.WCHAR_SIZE : 1);
+		long aligned = (size + 7) & ~7L;
+		if (scratch.used + aligned > scratch.memory.size()) {
+			if (scratch.used > 0 || aligned > MAX_SCRATCH_SIZE) {
+				// the buffer is in use further down the stack, or the string is too large to keep a buffer for
+				ownCopies.increment();
+				return copy(bytes, wide);
+			}
+			scratch.memory = new Memory(Math.max(aligned, Math.min(MAX_SCRATCH_SIZE, scratch.memory.size() * 2)));
+		}
+		Pointer p = scratch.memory.share(scratch.used, size);
+		p.write(0, bytes, 0, bytes.length);
+		terminate(p, bytes.length, wide);
+		scratch.used += aligned;
+		scratchCopies.increment();
+		return p;
+	}
+
+	private byte[] bytes(String s, boolean wide) {
+		return s.getBytes(wide ? wideCharset : charset);
+	}
+
+	private static Memory copy(byte[] bytes, boolean wide) {
+		Memory m = new Memory(bytes.length + (wide ? Native.WCHAR_SIZE : 1));
+		m.write(0, bytes, 0, bytes.length);
+		terminate(m, bytes.length, wide);
+		return m;
+	}
+
+	private static void terminate(Pointer p, long offset, boolean wide) {
+		int n = wide ? Native.WCHAR_SIZE : 1;
+		for (int i = 0; i < n; i++)
+			p.setByte(offset + i, (byte) 0);
+	}
+
+	/**
+	 * String kind of a C type: NARROW or WIDE, with MUTABLE unless the characters are const; NONE for anything else.
+	 */
+	static byte kindOf(String cType) {
+		if (cType == null)
+			return NONE;
+		String t = cType.replaceAll("\\s*\\*", "*").replaceAll("\\s+", " ").trim();
+		boolean constant = false;
+		if (t.startsWith("const ")) {
+			constant = true;
+			t = t.substring(6);
+		}
+		if (t.endsWith(" const*")) {
+			constant = true;
+			t = t.substring(0, t.length() - 7) + "*";
+		}
+		switch (t) {
+		case "char*":
+			return constant ? NARROW : NARROW | MUTABLE;
+		case "wchar_t*":
+		case "WCHAR*":
+			return constant ? WIDE : WIDE | MUTABLE;
+		case "LPCSTR":
+		case "PCSTR":
+			return NARROW;
+		case "LPSTR":
+		case "PSTR":
+			return NARROW | MUTABLE;
+		case "LPCWSTR":
+		case "PCWSTR":
+			return WIDE;
+		case "LPWSTR":
+		case "PWSTR":
+			return WIDE | MUTABLE;
+		default:
+			return NONE;
+		}
+	}
+}
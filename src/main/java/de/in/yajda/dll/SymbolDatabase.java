@@ -0,0 +1,628 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+import de.in.yajda.dll.HeaderParser.HeaderInfo;
+
+/**
+ * In-memory symbol store shared by all modules of a {@link Workspace}.
+ *
+ * Exports are kept column-wise in primitive arrays (name id, module id, ordinal, RVA), one contiguous block per module. Names are interned
+ * to ids once; each name id heads a chain through all exports of that name, which is the inverted index behind {@link #exporters(String)}.
+ * Prototypes from headers are keyed by name id and merged into exports on read, so there is a single place where header information meets
+ * export information. The same goes for a module's PDB: its signatures are looked up when an export is read, so only the exports someone
+ * looks at cost a lookup, and header prototypes still take precedence.
+ *
+ * Reloading a module appends a new block and leaves the old one dead; dead rows are dropped by {@link #compact()}, which runs automatically
+ * once they outnumber live rows. All access is guarded by a read/write lock, so queries from the UI can run while modules are added from
+ * loader threads.
+ *
+ * Nothing per symbol is kept as an object. Names live as UTF-8 in one byte arena, found through an open-addressing table of name ids.
+ * Return and parameter types are interned to type ids, and every distinct parameter list is stored once as an immutable tuple shared by
+ * all exports with that signature; the rows hold only the ids. {@link #functionsOf} returns a view that builds a {@link FunctionInfo} for
+ * a row when it is read. Rows, once written, are never changed in place (compaction and header updates write new arrays), so a view stays
+ * a consistent snapshot of the moment it was taken without holding the lock.
+ */
+public class SymbolDatabase {
+
+	public static class Module {
+		public final int id;
+		public final File file;
+		public final String name;
+		// block of export rows, guarded by the database lock
+		int start;
+		int count;
+		boolean removed;
+		// matching program database, null if none
+		PdbFile pdb;
+
+		Module(int id, File file) {
+			this.id = id;
+			this.file = file;
+			this.name = file.getName();
+		}
+
+		public boolean isRemoved() {
+			return removed;
+		}
+
+		public int getExportCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * One row of the export table, as returned by queries.
+	 */
+	public static class Export {
+		public final Module module;
+		public final String name;
+		public final int ordinal;
+		public final int rva;
+		public final HeaderInfo prototype;
+
+		Export(Module module, String name, int ordinal, int rva, HeaderInfo prototype) {
+			this.module = module;
+			this.name = name;
+			this.ordinal = ordinal;
+			this.rva = rva;
+			this.prototype = prototype;
+		}
+	}
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final List<Module> modules = new ArrayList<>();
+
+	// interned names: UTF-8 bytes of name id i at nameOffset[i] .. nameOffset[i + 1]; nameTable holds id + 1, probed linearly
+	private byte[] nameArena = new byte[16 * 1024];
+	private int[] nameOffset = new int[1025];
+	private int[] nameHash = new int[1024];
+	private int[] nameTable = new int[2048];
+	private int[] firstExport = new int[1024];
+	// replaced, not written in place, when headers change (see class comment)
+	private HeaderInfo[] prototypes = new HeaderInfo[1024];
+	private int nameCount;
+
+	// interned type names and parameter tuples
+	private final Map<String, Integer> typeIds = new HashMap<>();
+	private String[] types = new String[64];
+	private int typeCount;
+	private final Map<List<String>, Integer> tupleIds = new HashMap<>();
+	private List<?>[] tuples = new List<?>[64];
+	private int tupleCount;
+
+	// export rows; return type and parameters as type and tuple ids, -1 for null
+	private int[] expName = new int[4096];
+	private int[] expModule = new int[4096];
+	private int[] expOrdinal = new int[4096];
+	private int[] expRva = new int[4096];
+	private int[] expNext = new int[4096];
+	private int[] expReturn = new int[4096];
+	private int[] expParams = new int[4096];
+	private int exportCount;
+	private int liveExports;
+
+	// prototypes per header file, in load order (later headers win)
+	private final Map<File, Map<String, HeaderInfo>> headers = new LinkedHashMap<>();
+
+	/**
+	 * Add a module with its parsed exports.
+	 */
+	public Module addModule(File file, List<FunctionInfo> exports) {
+		return addModule(file, exports, null);
+	}
+
+	/**
+	 * Add a module with its parsed exports and the PDB its signatures are resolved from on read (may be null).
+	 */
+	public Module addModule(File file, List<FunctionInfo> exports, PdbFile pdb) {
+		lock.writeLock().lock();
+		try {
+			Module m = new Module(modules.size(), file);
+			modules.add(m);
+			m.pdb = pdb;
+			appendBlock(m, exports);
+			return m;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Add a module for an identical copy of another module's file: the rows and the PDB are taken over as they are.
+	 */
+	public Module addCopy(File file, Module original) {
+		lock.writeLock().lock();
+		try {
+			Module m = new Module(modules.size(), file);
+			modules.add(m);
+			m.pdb = original.pdb;
+			int from = original.start;
+			int n = original.removed ? 0 : original.count;
+			ensureExportCapacity(exportCount + n);
+			m.start = exportCount;
+			for (int i = 0; i < n; i++) {
+				int src = from + i;
+				int row = exportCount++;
+				int id = expName[src];
+				expName[row] = id;
+				expModule[row] = m.id;
+				expOrdinal[row] = expOrdinal[src];
+				expRva[row] = expRva[src];
+				expReturn[row] = expReturn[src];
+				expParams[row] = expParams[src];
+				expNext[row] = firstExport[id];
+				firstExport[id] = row;
+			}
+			m.count = n;
+			liveExports += n;
+			return m;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace the exports of a module after it was re-parsed. The module keeps its PDB.
+	 */
+	public void replaceExports(Module m, List<FunctionInfo> exports) {
+		lock.writeLock().lock();
+		try {
+			replaceExports(m, exports, m.pdb);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replace the exports of a module after it was re-parsed, together with its PDB (which a rebuild replaces as well).
+	 */
+	public void replaceExports(Module m, List<FunctionInfo> exports, PdbFile pdb) {
+		lock.writeLock().lock();
+		try {
+			liveExports -= m.count;
+			m.pdb = pdb;
+			appendBlock(m, exports);
+			compactIfSparse();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void removeModule(Module m) {
+		lock.writeLock().lock();
+		try {
+			if (m.removed)
+				return;
+			m.removed = true;
+			liveExports -= m.count;
+			m.count = 0;
+			compactIfSparse();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Add or replace the prototypes contributed by a header file.
+	 */
+	public void putHeader(File header, Map<String, HeaderInfo> infos) {
+		lock.writeLock().lock();
+		try {
+			Map<String, HeaderInfo> old = headers.remove(header);
+			headers.put(header, new LinkedHashMap<>(infos));
+			prototypes = prototypes.clone();
+			if (old != null) {
+				for (String name : old.keySet())
+					prototypes[intern(name)] = resolvePrototype(name);
+			}
+			for (Map.Entry<String, HeaderInfo> e : infos.entrySet())
+				prototypes[intern(e.getKey())] = e.getValue();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void removeHeader(File header) {
+		lock.writeLock().lock();
+		try {
+			Map<String, HeaderInfo> old = headers.remove(header);
+			if (old != null) {
+				prototypes = prototypes.clone();
+				for (String name : old.keySet())
+					prototypes[intern(name)] = resolvePrototype(name);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Prototypes last registered for the given header file, empty if unknown.
+	 */
+	public Map<String, HeaderInfo> getHeader(File header) {
+		lock.readLock().lock();
+		try {
+			Map<String, HeaderInfo> m = headers.get(header);
+			return m != null ? Collections.unmodifiableMap(m) : Map.of();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public List<Module> getModules() {
+		lock.readLock().lock();
+		try {
+			List<Module> res = new ArrayList<>();
+			for (Module m : modules) {
+				if (!m.removed)
+					res.add(m);
+			}
+			return res;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int getSymbolCount() {
+		lock.readLock().lock();
+		try {
+			return liveExports;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Inverted index lookup: all live exports of the given name, across modules.
+	 */
+	public List<Export> exporters(String name) {
+		lock.readLock().lock();
+		try {
+			int id = nameId(name);
+			if (id < 0)
+				return Collections.emptyList();
+			List<Export> res = new ArrayList<>(2);
+			for (int row = firstExport[id]; row >= 0; row = expNext[row]) {
+				Module m = modules.get(expModule[row]);
+				if (isLive(m, row))
+					res.add(new Export(m, name, expOrdinal[row], expRva[row], prototypes[id]));
+			}
+			return res;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public HeaderInfo getPrototype(String name) {
+		lock.readLock().lock();
+		try {
+			int id = nameId(name);
+			return id >= 0 ? prototypes[id] : null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Exports of one module with PDB signatures and header prototypes merged in, as an unmodifiable view over the rows: each get builds a
+	 * fresh {@link FunctionInfo}, sharing the interned type strings and parameter tuples. Later changes to the database do not show through.
+	 */
+	public List<FunctionInfo> functionsOf(Module m) {
+		lock.readLock().lock();
+		try {
+			return new FunctionView(this, m.start, m.removed ? 0 : m.count, m.pdb);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Name of one function of a list. For a view from {@link #functionsOf} the name is read from the rows, without building the function
+	 * and looking it up in the PDB.
+	 */
+	public static String nameOf(List<FunctionInfo> functions, int index) {
+		if (functions instanceof FunctionView)
+			return ((FunctionView) functions).nameAt(index);
+		FunctionInfo fi = functions.get(index);
+		return fi != null ? fi.name : null;
+	}
+
+	/**
+	 * The row arrays as they were when the view was taken. All of them are append-only or replaced as a whole (see class comment).
+	 */
+	private static final class FunctionView extends AbstractList<FunctionInfo> implements RandomAccess {
+		private final int start;
+		private final int size;
+		private final byte[] nameArena;
+		private final int[] nameOffset;
+		private final int[] expName;
+		private final int[] expOrdinal;
+		private final int[] expRva;
+		private final int[] expReturn;
+		private final int[] expParams;
+		private final String[] types;
+		private final List<?>[] tuples;
+		private final HeaderInfo[] prototypes;
+		private final PdbFile pdb;
+
+		FunctionView(SymbolDatabase db, int start, int size, PdbFile pdb) {
+			this.start = start;
+			this.size = size;
+			this.nameArena = db.nameArena;
+			this.nameOffset = db.nameOffset;
+			this.expName = db.expName;
+			this.expOrdinal = db.expOrdinal;
+			this.expRva = db.expRva;
+			this.expReturn = db.expReturn;
+			this.expParams = db.expParams;
+			this.types = db.types;
+			this.tuples = db.tuples;
+			this.prototypes = db.prototypes;
+			this.pdb = pdb;
+		}
+
+		String nameAt(int index) {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException(index);
+			int id = expName[start + index];
+			return new String(nameArena, nameOffset[id], nameOffset[id + 1] - nameOffset[id], StandardCharsets.UTF_8);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public FunctionInfo get(int index) {
+			String name = nameAt(index);
+			int row = start + index;
+			int id = expName[row];
+			String ret = expReturn[row] >= 0 ? types[expReturn[row]] : null;
+			List<String> params = expParams[row] >= 0 ? (List<String>) tuples[expParams[row]] : null;
+			FunctionInfo fi = new FunctionInfo(name, ret, params, expOrdinal[row], expRva[row]);
+			// PDB types replace demangled or estimated ones; the PDB caches its answers, so re-reading a row is cheap
+			if (pdb != null)
+				fi = pdb.enrich(fi);
+			return withPrototype(fi, prototypes[id]);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * All prototypes of all loaded headers as functions; used when no DLL is loaded.
+	 */
+	public List<FunctionInfo> prototypeFunctions() {
+		lock.readLock().lock();
+		try {
+			List<FunctionInfo> res = new ArrayList<>();
+			for (int id = 0; id < nameCount; id++) {
+				if (prototypes[id] != null)
+					res.add(withPrototype(new FunctionInfo(nameAt(id), "unknown", List.of()), prototypes[id]));
+			}
+			return res;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Merge a header prototype into an export; the export is returned unchanged when there is no prototype.
+	 */
+	public static FunctionInfo withPrototype(FunctionInfo fi, HeaderInfo hi) {
+		if (hi == null)
+			return fi;
+		return fi.withSignature(hi.returnType != null ? hi.returnType : fi.returnType, hi.paramTypes != null ? hi.paramTypes : fi.paramTypes);
+	}
+
+	private boolean isLive(Module m, int row) {
+		return !m.removed && row >= m.start && row < m.start + m.count;
+	}
+
+	private HeaderInfo resolvePrototype(String name) {
+		HeaderInfo res = null;
+		for (Map<String, HeaderInfo> h : headers.values()) {
+			HeaderInfo hi = h.get(name);
+			if (hi != null)
+				res = hi;
+		}
+		return res;
+	}
+
+	private String nameAt(int id) {
+		return new String(nameArena, nameOffset[id], nameOffset[id + 1] - nameOffset[id], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Id of an interned name, or -1.
+	 */
+	private int nameId(String name) {
+		byte[] b = name.getBytes(StandardCharsets.UTF_8);
+		return find(b, hash(b));
+	}
+
+	private int find(byte[] b, int h) {
+		int mask = nameTable.length - 1;
+		for (int slot = h & mask;; slot = (slot + 1) & mask) {
+			int id = nameTable[slot] - 1;
+			if (id < 0)
+				return -1;
+			if (nameHash[id] == h && Arrays.equals(nameArena, nameOffset[id], nameOffset[id + 1], b, 0, b.length))
+				return id;
+		}
+	}
+
+	private static int hash(byte[] b) {
+		int h = 0x811C9DC5;
+		for (byte x : b)
+			h = (h ^ (x & 0xFF)) * 0x01000193;
+		return h ^ (h >>> 16);
+	}
+
+	private int intern(String name) {
+		byte[] b = name.getBytes(StandardCharsets.UTF_8);
+		int h = hash(b);
+		int found = find(b, h);
+		if (found >= 0)
+			return found;
+		if (nameCount == nameHash.length) {
+			int n = nameHash.length * 2;
+			nameHash = Arrays.copyOf(nameHash, n);
+			nameOffset = Arrays.copyOf(nameOffset, n + 1);
+			prototypes = Arrays.copyOf(prototypes, n);
+			firstExport = Arrays.copyOf(firstExport, n);
+		}
+		int end = nameOffset[nameCount];
+		if (end + b.length > nameArena.length)
+			nameArena = Arrays.copyOf(nameArena, Math.max(end + b.length, nameArena.length * 2));
+		System.arraycopy(b, 0, nameArena, end, b.length);
+		int newId = nameCount++;
+		nameOffset[newId + 1] = end + b.length;
+		nameHash[newId] = h;
+		firstExport[newId] = -1;
+		// keep the table at most half full
+		if (nameCount * 2 > nameTable.length) {
+			nameTable = new int[nameTable.length * 2];
+			for (int id = 0; id < nameCount; id++)
+				place(id);
+		} else {
+			place(newId);
+		}
+		return newId;
+	}
+
+	private void place(int id) {
+		int mask = nameTable.length - 1;
+		int slot = nameHash[id] & mask;
+		while (nameTable[slot] != 0)
+			slot = (slot + 1) & mask;
+		nameTable[slot] = id + 1;
+	}
+
+	private int typeId(String type) {
+		if (type == null)
+			return -1;
+		Integer id = typeIds.get(type);
+		if (id != null)
+			return id;
+		if (typeCount == types.length)
+			types = Arrays.copyOf(types, typeCount * 2);
+		types[typeCount] = type;
+		typeIds.put(type, typeCount);
+		return typeCount++;
+	}
+
+	private int tupleId(List<String> params) {
+		if (params == null)
+			return -1;
+		Integer id = tupleIds.get(params);
+		if (id != null)
+			return id;
+		// the tuple holds the interned type strings, so equal types are one object however many signatures use them
+		String[] interned = new String[params.size()];
+		for (int i = 0; i < interned.length; i++)
+			interned[i] = types[typeId(params.get(i))];
+		List<String> tuple = List.of(interned);
+		if (tupleCount == tuples.length)
+			tuples = Arrays.copyOf(tuples, tupleCount * 2);
+		tuples[tupleCount] = tuple;
+		tupleIds.put(tuple, tupleCount);
+		return tupleCount++;
+	}
+
+	private void appendBlock(Module m, List<FunctionInfo> exports) {
+		ensureExportCapacity(exportCount + exports.size());
+		m.start = exportCount;
+		for (FunctionInfo fi : exports) {
+			int row = exportCount++;
+			int id = intern(fi.name);
+			expName[row] = id;
+			expModule[row] = m.id;
+			expOrdinal[row] = fi.ordinal;
+			expRva[row] = fi.rva;
+			expReturn[row] = typeId(fi.returnType);
+			expParams[row] = tupleId(fi.paramTypes);
+			expNext[row] = firstExport[id];
+			firstExport[id] = row;
+		}
+		m.count = exports.size();
+		liveExports += m.count;
+	}
+
+	private void ensureExportCapacity(int needed) {
+		if (needed <= expName.length)
+			return;
+		int n = Math.max(needed, expName.length * 2);
+		expName = Arrays.copyOf(expName, n);
+		expModule = Arrays.copyOf(expModule, n);
+		expOrdinal = Arrays.copyOf(expOrdinal, n);
+		expRva = Arrays.copyOf(expRva, n);
+		expNext = Arrays.copyOf(expNext, n);
+		expReturn = Arrays.copyOf(expReturn, n);
+		expParams = Arrays.copyOf(expParams, n);
+	}
+
+	private void compactIfSparse() {
+		if (exportCount > 4096 && liveExports < exportCount / 2)
+			compact();
+	}
+
+	/**
+	 * Drop the rows of removed or reloaded modules and rebuild the exporter chains.
+	 */
+	public void compact() {
+		lock.writeLock().lock();
+		try {
+			int[] oldName = expName, oldOrdinal = expOrdinal, oldRva = expRva, oldReturn = expReturn, oldParams = expParams;
+			int cap = Math.max(4096, liveExports);
+			expName = new int[cap];
+			expModule = new int[cap];
+			expOrdinal = new int[cap];
+			expRva = new int[cap];
+			expNext = new int[cap];
+			expReturn = new int[cap];
+			expParams = new int[cap];
+			Arrays.fill(firstExport, 0, nameCount, -1);
+			exportCount = 0;
+			for (Module m : modules) {
+				int from = m.start;
+				m.start = exportCount;
+				if (m.removed)
+					continue;
+				for (int i = 0; i < m.count; i++) {
+					int src = from + i;
+					int row = exportCount++;
+					int id = oldName[src];
+					expName[row] = id;
+					expModule[row] = m.id;
+					expOrdinal[row] = oldOrdinal[src];
+					expRva[row] = oldRva[src];
+					expReturn[row] = oldReturn[src];
+					expParams[row] = oldParams[src];
+					expNext[row] = firstExport[id];
+					firstExport[id] = row;
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package de.in.yajda.dll;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+import de.in.yajda.dll.HeaderParser.HeaderInfo;
+
+/**
+ * Name-keyed difference between two symbol sets: exports of two builds of a DLL, or prototypes of two versions of a header. Used when a
+ * watched file changes so that only the affected symbols are pushed to the function table, the completions and the script wrapper.
+ *
+ * Exports whose signature stayed the same but whose address or ordinal changed are {@link #moved}: their rows must be replaced, since the
+ * code view and the fuzzer work from the address, while the script wrapper and the completions are not affected.
+ */
+public class SymbolDiff {
+	public final List<String> added;
+	public final List<String> removed;
+	public final List<String> changed;
+	public final List<String> moved;
+
+	public SymbolDiff(List<String> added, List<String> removed, List<String> changed) {
+		this(added, removed, changed, List.of());
+	}
+
+	public SymbolDiff(List<String> added, List<String> removed, List<String> changed, List<String> moved) {
+		this.added = Collections.unmodifiableList(added);
+		this.removed = Collections.unmodifiableList(removed);
+		this.changed = Collections.unmodifiableList(changed);
+		this.moved = Collections.unmodifiableList(moved);
+	}
+
+	public boolean isEmpty() {
+		return added.isEmpty() && removed.isEmpty() && changed.isEmpty() && moved.isEmpty();
+	}
+
+	/**
+	 * All names whose entry must be refreshed: added, removed, changed and moved.
+	 */
+	public List<String> affected() {
+		List<String> all = new ArrayList<>(added.size() + removed.size() + changed.size() + moved.size());
+		all.addAll(added);
+		all.addAll(removed);
+		all.addAll(changed);
+		all.addAll(moved);
+		return all;
+	}
+
+	public static SymbolDiff ofExports(List<FunctionInfo> before, List<FunctionInfo> after) {
+		Map<String, FunctionInfo> old = index(before);
+		Map<String, FunctionInfo> now = index(after);
+		SymbolDiff diff = of(old, now);
+		List<String> moved = new ArrayList<>();
+		for (Map.Entry<String, FunctionInfo> e : now.entrySet()) {
+			FunctionInfo o = old.get(e.getKey());
+			FunctionInfo n = e.getValue();
+			// FunctionInfo.equals leaves the address out, so these are not in changed
+			if (o != null && o.equals(n) && (o.rva != n.rva || o.ordinal != n.ordinal))
+				moved.add(e.getKey());
+		}
+		return moved.isEmpty() ? diff : new SymbolDiff(diff.added, diff.removed, diff.changed, moved);
+	}
+
+	public static SymbolDiff ofPrototypes(Map<String, HeaderInfo> before, Map<String, HeaderInfo> after) {
+		return of(before != null ? before : Map.of(), after != null ? after : Map.of());
+	}
+
+	private static Map<String, FunctionInfo> index(List<FunctionInfo> functions) {
+		Map<String, FunctionInfo> m = new LinkedHashMap<>();
+		if (functions != null) {
+			for (FunctionInfo fi : functions) {
+				if (fi != null && fi.name != null)
+					m.put(fi.name, fi);
+			}
+		}
+		return m;
+	}
+
+	private static <T> SymbolDiff of(Map<String, T> before, Map<String, T> after) {
+		List<String> added = new ArrayList<>();
+		List<String> removed = new ArrayList<>();
+		List<String> changed = new ArrayList<>();
+		for (Map.Entry<String, T> e : after.entrySet()) {
+			T old = before.get(e.getKey());
+			if (old == null)
+				added.add(e.getKey());
+			else if (!Objects.equals(old, e.getValue()))
+				changed.add(e.getKey());
+		}
+		for (String name : before.keySet()) {
+			if (!after.containsKey(name))
+				removed.add(name);
+		}
+		return new SymbolDiff(added, removed, changed);
+	}
+
+	@Override
+	public String toString() {
+		return "+" + added.size() + " -" + removed.size() + " ~" + changed.size() + (moved.isEmpty() ? "" : " moved " + moved.size());
+	}
+}
@@ -0,0 +1,323 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Function table of an x64 PE image, from the exception directory (.pdata): one RUNTIME_FUNCTION entry (begin, end, unwind info) per
+ * function or function fragment that touches the stack, plus what its UNWIND_INFO says about the frame.
+ *
+ * Entries are held in parallel primitive arrays sorted by begin address, so {@link #indexOf} is a binary search and no lookup allocates.
+ * Leaf functions that neither call nor allocate have no entry. A function split into fragments (hot/cold parts, shrink-wrapped prologues)
+ * has one entry per fragment; the fragments point to the entry of the function they belong to ({@link #parent}), and
+ * {@link #functionOf} resolves that chain.
+ *
+ * The frame figures come from the unwind codes of the entry's prologue: bytes pushed and allocated below the return address, the
+ * non-volatile registers saved, and the frame pointer register if one is established.
+ */
+public class UnwindTable {
+	public static final int UNW_FLAG_EHANDLER = 1;
+	public static final int UNW_FLAG_UHANDLER = 2;
+	public static final int UNW_FLAG_CHAININFO = 4;
+
+	private static final String[] REGISTERS = { "rax", "rcx", "rdx", "rbx", "rsp", "rbp", "rsi", "rdi", "r8", "r9", "r10", "r11", "r12", "r13",
+			"r14", "r15" };
+	private static final UnwindTable EMPTY = new UnwindTable(new int[0], new int[0], new int[0], new int[0], new short[0], new int[0]);
+
+	private final int[] begin;
+	private final int[] end;
+	// unwind flags (bits 0-2), prologue size (8-15), frame register + 1 (16-20, 0 = none), scaled frame offset (24-27)
+	private final int[] info;
+	// bytes pushed and allocated by the prologue, excluding the return address
+	private final int[] stack;
+	// bit set of the non-volatile general purpose registers saved
+	private final short[] saved;
+	// entry of the function a chained fragment belongs to, -1 for primary entries
+	private final int[] parent;
+
+	private UnwindTable(int[] begin, int[] end, int[] info, int[] stack, short[] saved, int[] parent) {
+		this.begin = begin;
+		this.end = end;
+		this.info = info;
+		this.stack = stack;
+		this.saved = saved;
+		this.parent = parent;
+	}
+
+	/**
+	 * Read the function table of a PE file. Images without an exception directory, or that are not x64, give an empty table.
+	 */
+	public static UnwindTable read(File file) throws IOException {
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (ch.size() > Integer.MAX_VALUE)
+				throw new IOException("File too large to map: " + file);
+			ByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+			return parse(PeImage.parse(mapped), mapped);
+		}
+	}
+
+	/**
+	 * Parse the function table from a buffer holding the whole file (e.g. a mapped view) whose headers are {@code image}.
+	 */
+	public static UnwindTable parse(PeImage image, ByteBuffer file) throws IOException {
+		int dirRva = image.dataDirectoryRva(PeImage.DIR_EXCEPTION);
+		int dirSize = image.dataDirectorySize(PeImage.DIR_EXCEPTION);
+		long dir = image.rvaToOffset(dirRva);
+		if (!image.isX64() || dirRva == 0 || dirSize < 12 || dir < 0)
+			return EMPTY;
+		ByteBuffer b = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int n = (int) Math.min(dirSize / 12, (b.limit() - dir) / 12);
+		int[] begin = new int[n];
+		int[] end = new int[n];
+		int[] unwind = new int[n];
+		for (int i = 0; i < n; i++) {
+			int e = (int) dir + i * 12;
+			begin[i] = b.getInt(e);
+			end[i] = b.getInt(e + 4);
+			unwind[i] = b.getInt(e + 8);
+		}
+		if (!sorted(begin))
+			sort(begin, end, unwind);
+
+		int[] info = new int[n];
+		int[] stack = new int[n];
+		short[] saved = new short[n];
+		int[] parent = new int[n];
+		int[] chainTo = new int[n];
+		try {
+			for (int i = 0; i < n; i++) {
+				parent[i] = -1;
+				chainTo[i] = -1;
+				if ((unwind[i] & 1) != 0) {
+					// an odd unwind address is the RVA of the RUNTIME_FUNCTION this fragment shares its unwind info with
+					long rf = image.rvaToOffset(unwind[i] & ~1);
+					chainTo[i] = rf >= 0 ? b.getInt((int) rf) : -1;
+					continue;
+				}
+				long ui = image.rvaToOffset(unwind[i]);
+				if (ui >= 0)
+					chainTo[i] = unwindInfo(b, (int) ui, i, info, stack, saved);
+			}
+		} catch (IndexOutOfBoundsException ex) {
+			throw new IOException("Truncated unwind information", ex);
+		}
+		UnwindTable table = new UnwindTable(begin, end, info, stack, saved, parent);
+		for (int i = 0; i < n; i++) {
+			if (chainTo[i] != -1) {
+				int p = table.indexOf(chainTo[i]);
+				parent[i] = p != i ? p : -1;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Decode one UNWIND_INFO into the arrays at {@code i}. Returns the begin RVA of the parent function of a chained entry, else -1.
+	 */
+	private static int unwindInfo(ByteBuffer b, int ui, int i, int[] info, int[] stack, short[] saved) {
+		int head = b.get(ui) & 0xFF;
+		int flags = head >> 3;
+		int prolog = b.get(ui + 1) & 0xFF;
+		int codes = b.get(ui + 2) & 0xFF;
+		int frame = b.get(ui + 3) & 0xFF;
+		int frameReg = frame & 0xF;
+		info[i] = (flags & 7) | prolog << 8 | (frameReg != 0 ? frameReg + 1 : 0) << 16 | (frame >> 4) << 24;
+
+		int bytes = 0;
+		int regs = 0;
+		int c = 0;
+		while (c < codes) {
+			int slot = ui + 4 + c * 2;
+			int op = b.get(slot + 1) & 0xF;
+			int opInfo = (b.get(slot + 1) & 0xFF) >> 4;
+			switch (op) {
+			case 0: // UWOP_PUSH_NONVOL
+				bytes += 8;
+				regs |= 1 << opInfo;
+				c += 1;
+				break;
+			case 1: // UWOP_ALLOC_LARGE
+				if (opInfo == 0) {
+					bytes += (b.getShort(slot + 2) & 0xFFFF) * 8;
+					c += 2;
+				} else {
+					bytes += b.getInt(slot + 2);
+					c += 3;
+				}
+				break;
+			case 2: // UWOP_ALLOC_SMALL
+				bytes += opInfo * 8 + 8;
+				c += 1;
+				break;
+			case 4: // UWOP_SAVE_NONVOL
+				regs |= 1 << opInfo;
+				c += 2;
+				break;
+			case 5: // UWOP_SAVE_NONVOL_FAR
+				regs |= 1 << opInfo;
+				c += 3;
+				break;
+			case 6: // UWOP_EPILOG in version 2, UWOP_SAVE_XMM before
+			case 8: // UWOP_SAVE_XMM128
+				c += 2;
+				break;
+			case 7: // UWOP_SAVE_XMM_FAR before version 2
+			case 9: // UWOP_SAVE_XMM128_FAR
+				c += 3;
+				break;
+			case 10: // UWOP_PUSH_MACHFRAME
+				bytes += opInfo == 0 ? 40 : 48;
+				c += 1;
+				break;
+			default: // UWOP_SET_FPREG
+				c += 1;
+				break;
+			}
+		}
+		stack[i] = bytes;
+		saved[i] = (short) regs;
+		if ((flags & UNW_FLAG_CHAININFO) == 0)
+			return -1;
+		// the parent's RUNTIME_FUNCTION follows the codes, which are padded to an even count
+		return b.getInt(ui + 4 + ((codes + 1) & ~1) * 2);
+	}
+
+	private static boolean sorted(int[] begin) {
+		for (int i = 1; i < begin.length; i++) {
+			if (Integer.compareUnsigned(begin[i - 1], begin[i]) > 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static void sort(int[] begin, int[] end, int[] unwind) {
+		// begin in the high half, flipped so that signed order is unsigned RVA order
+		long[] keys = new long[begin.length];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = ((begin[i] & 0xFFFFFFFFL) << 32 | i) ^ Long.MIN_VALUE;
+		Arrays.sort(keys);
+		int[] e = end.clone();
+		int[] u = unwind.clone();
+		for (int i = 0; i < keys.length; i++) {
+			int from = (int) keys[i];
+			begin[i] = (int) ((keys[i] ^ Long.MIN_VALUE) >>> 32);
+			end[i] = e[from];
+			unwind[i] = u[from];
+		}
+	}
+
+	public int size() {
+		return begin.length;
+	}
+
+	/**
+	 * Entry whose range contains the RVA, or -1 if none does (leaf code, data, padding).
+	 */
+	public int indexOf(int rva) {
+		int lo = 0, hi = begin.length - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (Integer.compareUnsigned(begin[mid], rva) <= 0)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return hi >= 0 && Integer.compareUnsigned(rva, end[hi]) < 0 ? hi : -1;
+	}
+
+	/**
+	 * Primary entry of the function containing the RVA, following fragment chains; -1 if no entry contains it.
+	 */
+	public int functionOf(int rva) {
+		int i = indexOf(rva);
+		// bounded, in case of a cyclic chain in a damaged image
+		for (int hops = 0; i >= 0 && parent[i] >= 0 && hops < 32; hops++)
+			i = parent[i];
+		return i;
+	}
+
+	/**
+	 * Bytes from the RVA to the end of the entry containing it, 0 if none does.
+	 */
+	public int sizeAt(int rva) {
+		int i = indexOf(rva);
+		return i >= 0 ? end[i] - rva : 0;
+	}
+
+	public int begin(int i) {
+		return begin[i];
+	}
+
+	public int end(int i) {
+		return end[i];
+	}
+
+	public int size(int i) {
+		return end[i] - begin[i];
+	}
+
+	/** Entry of the function a chained fragment belongs to, -1 for a primary entry. */
+	public int parent(int i) {
+		return parent[i];
+	}
+
+	/** UNW_FLAG_* bits of the entry. */
+	public int flags(int i) {
+		return info[i] & 7;
+	}
+
+	public boolean hasHandler(int i) {
+		return (info[i] & (UNW_FLAG_EHANDLER | UNW_FLAG_UHANDLER)) != 0;
+	}
+
+	public int prologSize(int i) {
+		return (info[i] >> 8) & 0xFF;
+	}
+
+	/** Register number (0 = rax ... 15 = r15) of the frame pointer, -1 if the function has none. */
+	public int frameRegister(int i) {
+		return ((info[i] >> 16) & 0x1F) - 1;
+	}
+
+	/** Offset of the frame pointer from rsp after the prologue, in bytes. */
+	public int frameOffset(int i) {
+		return ((info[i] >> 24) & 0xF) * 16;
+	}
+
+	/** Bytes pushed and allocated by the prologue, below the return address. */
+	public int stackSize(int i) {
+		return stack[i];
+	}
+
+	/** Bit set of the non-volatile registers (bit n = register n) the prologue saves. */
+	public int savedRegisters(int i) {
+		return saved[i] & 0xFFFF;
+	}
+
+	/**
+	 * One-line summary of an entry, e.g. "412 bytes, frame 72, rbp, saves rbx rsi rdi, handler".
+	 */
+	public String describe(int i) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(size(i)).append(" bytes, frame ").append(stackSize(i));
+		if (frameRegister(i) >= 0)
+			sb.append(", ").append(REGISTERS[frameRegister(i)]);
+		if (savedRegisters(i) != 0) {
+			sb.append(", saves");
+			for (int r = 0; r < 16; r++) {
+				if ((savedRegisters(i) & 1 << r) != 0)
+					sb.append(' ').append(REGISTERS[r]);
+			}
+		}
+		if (hasHandler(i))
+			sb.append(", handler");
+		if (parent(i) >= 0)
+			sb.append(String.format(", part of 0x%X", begin(parent(i))));
+		return sb.toString();
+	}
+}
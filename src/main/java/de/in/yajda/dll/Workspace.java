@@ -0,0 +1,271 @@
+package de.in.yajda.dll;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+import de.in.yajda.dll.HeaderParser.HeaderInfo;
+import de.in.yajda.dll.SymbolDatabase.Module;
+
+/**
+ * A set of DLLs and headers loaded at once. Parsing runs in parallel on a small loader pool; results land in one shared
+ * {@link SymbolDatabase}. Native proxies are created lazily, one per module, the first time a script asks for a module so that loading
+ * hundreds of modules does not load hundreds of libraries.
+ *
+ * Bulk loads hash the files first ({@link ImageHashes}) and parse each distinct image once: further copies, in the same batch or already in
+ * the workspace, are added with the exports of the copy that was parsed and remembered as its duplicates ({@link #originalOf}).
+ */
+public class Workspace {
+	private final SymbolDatabase db = new SymbolDatabase();
+	private final Map<Integer, JnaProxyFactory> factories = new ConcurrentHashMap<>();
+	private final Map<Integer, JnaProxyFactory.ProxyWrapper> proxies = new ConcurrentHashMap<>();
+	// image hash -> hashes and module of the first copy parsed
+	private final Map<String, Parsed> parsedImages = new ConcurrentHashMap<>();
+	// module id -> module whose exports it shares
+	private final Map<Integer, Module> duplicates = new ConcurrentHashMap<>();
+	private final ExecutorService loader = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+		Thread t = new Thread(r, "workspace-loader");
+		t.setDaemon(true);
+		return t;
+	});
+
+	/**
+	 * Script-facing view of the per-module proxies, bound as 'modules'. Usage (BeanShell): modules.get("add.dll").invoke("Add", new
+	 * Object[]{1, 2});
+	 */
+	public class ModuleProxies {
+		public JnaProxyFactory.ProxyWrapper get(String moduleName) {
+			Module m = findModule(moduleName);
+			if (m == null)
+				throw new IllegalArgumentException("No module '" + moduleName + "' in workspace");
+			return proxyFor(m);
+		}
+
+		public Object invoke(String moduleName, String function, Object[] args) {
+			return get(moduleName).invoke(function, args);
+		}
+
+		/**
+		 * Call a function in whichever module exports it (first exporter wins).
+		 */
+		public Object call(String function, Object[] args) {
+			List<SymbolDatabase.Export> ex = db.exporters(function);
+			if (ex.isEmpty())
+				throw new IllegalArgumentException("No module in workspace exports '" + function + "'");
+			return proxyFor(ex.get(0).module).invoke(function, args);
+		}
+
+		public List<String> names() {
+			List<String> res = new ArrayList<>();
+			for (Module m : db.getModules())
+				res.add(m.name);
+			return res;
+		}
+
+		@Override
+		public String toString() {
+			return "modules" + names();
+		}
+	}
+
+	private final ModuleProxies moduleProxies = new ModuleProxies();
+
+	private static final class Parsed {
+		final ImageHashes hashes;
+		final Module module;
+
+		Parsed(ImageHashes hashes, Module module) {
+			this.hashes = hashes;
+			this.module = module;
+		}
+	}
+
+	public SymbolDatabase getDatabase() {
+		return db;
+	}
+
+	public ModuleProxies getModuleProxies() {
+		return moduleProxies;
+	}
+
+	/**
+	 * Parse and add a single DLL or shared object on the calling thread. A matching PDB is attached to the module; its signatures are
+	 * looked up when exports are read.
+	 */
+	public Module addDll(File dll) throws IOException {
+		return db.addModule(dll, ExportParser.forFile(dll).parseExports(dll), PdbFile.forLibrary(dll));
+	}
+
+	/**
+	 * Parse the given DLLs in parallel and add them to the database. Files whose content was parsed before, earlier in the list or by a
+	 * previous call, are not parsed again but share the exports of that copy. Files that fail to parse are reported to onError and skipped.
+	 */
+	public List<Module> addDlls(List<File> dlls, Consumer<String> onError) {
+		// hash everything first, so that of each group of identical files exactly one is parsed
+		List<CompletableFuture<ImageHashes>> hashes = new ArrayList<>();
+		for (File f : dlls) {
+			hashes.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return ImageHashes.of(f);
+				} catch (IOException ex) {
+					return null; // parsed without deduplication; a real read problem shows up there
+				}
+			}, loader));
+		}
+		Map<String, CompletableFuture<Module>> byImage = new HashMap<>();
+		List<CompletableFuture<Module>> futures = new ArrayList<>();
+		List<Boolean> isCopy = new ArrayList<>();
+		for (int i = 0; i < dlls.size(); i++) {
+			File f = dlls.get(i);
+			ImageHashes h = hashes.get(i).join();
+			Parsed known = h != null ? parsedImages.get(h.imageHash) : null;
+			if (known != null && (known.module.isRemoved() || !known.hashes.isCurrent())) {
+				parsedImages.remove(h.imageHash, known);
+				known = null;
+			}
+			CompletableFuture<Module> original = known != null ? CompletableFuture.completedFuture(known.module)
+					: h != null ? byImage.get(h.imageHash) : null;
+			if (original != null) {
+				futures.add(original.thenApply(o -> addCopy(f, o)));
+				isCopy.add(true);
+				continue;
+			}
+			CompletableFuture<Module> parse = CompletableFuture.supplyAsync(() -> {
+				try {
+					Module m = addDll(f);
+					if (h != null)
+						parsedImages.put(h.imageHash, new Parsed(h, m));
+					return m;
+				} catch (IOException ex) {
+					throw new CompletionException(ex);
+				}
+			}, loader);
+			if (h != null)
+				byImage.put(h.imageHash, parse);
+			futures.add(parse);
+			isCopy.add(false);
+		}
+		List<Module> res = new ArrayList<>();
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				res.add(futures.get(i).join());
+			} catch (CompletionException ex) {
+				// a copy of a file that failed to parse fails the same way; report the original only
+				if (isCopy.get(i))
+					continue;
+				Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+				onError.accept(dlls.get(i).getAbsolutePath() + ": " + cause.getMessage());
+			}
+		}
+		return res;
+	}
+
+	private Module addCopy(File file, Module original) {
+		Module m = db.addCopy(file, original);
+		duplicates.put(m.id, original);
+		return m;
+	}
+
+	/**
+	 * The module whose exports a module shares because the files are identical, or the module itself if it was parsed on its own.
+	 */
+	public Module originalOf(Module m) {
+		Module o = duplicates.get(m.id);
+		return o != null ? o : m;
+	}
+
+	/**
+	 * Number of modules added as copies of an identical, already parsed file.
+	 */
+	public int getDuplicateCount() {
+		return duplicates.size();
+	}
+
+	/**
+	 * Parse and add headers in parallel. Prototypes are registered in the given order so later headers win on duplicates.
+	 */
+	public void addHeaders(List<File> headerFiles, Consumer<String> onError) {
+		List<CompletableFuture<Map<String, HeaderInfo>>> futures = new ArrayList<>();
+		for (File f : headerFiles) {
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					return new HeaderParser().parseHeader(f);
+				} catch (IOException ex) {
+					throw new CompletionException(ex);
+				}
+			}, loader));
+		}
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				db.putHeader(headerFiles.get(i), futures.get(i).join());
+			} catch (CompletionException ex) {
+				Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+				onError.accept(headerFiles.get(i).getAbsolutePath() + ": " + cause.getMessage());
+			}
+		}
+	}
+
+	public void removeModule(Module m) {
+		db.removeModule(m);
+		duplicates.remove(m.id);
+		proxies.remove(m.id);
+		JnaProxyFactory f = factories.remove(m.id);
+		if (f != null)
+			f.dispose();
+	}
+
+	/**
+	 * Register a proxy created elsewhere (e.g. the primary DLL's shadow-copied proxy) for a module.
+	 */
+	public void setProxy(Module m, JnaProxyFactory.ProxyWrapper proxy) {
+		if (proxy != null)
+			proxies.put(m.id, proxy);
+		else
+			proxies.remove(m.id);
+	}
+
+	public JnaProxyFactory.ProxyWrapper proxyFor(Module m) {
+		return proxies.computeIfAbsent(m.id, id -> {
+			JnaProxyFactory f = new JnaProxyFactory(m.file.getAbsolutePath());
+			factories.put(id, f);
+			return f.createNativeProxy();
+		});
+	}
+
+	/**
+	 * Find a module by file name, with or without extension, ignoring case.
+	 */
+	public Module findModule(String moduleName) {
+		String key = moduleName.toLowerCase(Locale.ROOT);
+		for (Module m : db.getModules()) {
+			String n = m.name.toLowerCase(Locale.ROOT);
+			int dot = n.lastIndexOf('.');
+			if (n.equals(key) || (dot > 0 && n.substring(0, dot).equals(key)))
+				return m;
+		}
+		return null;
+	}
+
+	public List<FunctionInfo> functionsOf(Module m) {
+		return db.functionsOf(m);
+	}
+
+	public void shutdown() {
+		loader.shutdownNow();
+		for (JnaProxyFactory f : factories.values())
+			f.dispose();
+		factories.clear();
+		proxies.clear();
+	}
+}
@@ -0,0 +1,402 @@
+package de.in.yajda.dll;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lightweight x86-64 instruction decoder. It determines instruction length and the operand fields needed for analysis (prefixes, REX/VEX,
+ * opcode map, ModRM/SIB, displacement, immediate) but does not build a full operand model. Legacy, 0F, 0F38 and 0F3A maps are covered
+ * together with VEX and EVEX prefixes, which is enough to walk compiler-generated code.
+ *
+ * The decoder reads with absolute gets only, so many threads can decode from one shared (mapped) buffer.
+ */
+public final class X64Decoder {
+
+	public static final int MAP_PRIMARY = 0;
+	public static final int MAP_0F = 1;
+	public static final int MAP_0F38 = 2;
+	public static final int MAP_0F3A = 3;
+
+	/** Register number used for RIP-relative addressing in {@link Instruction#base}. */
+	public static final int RIP = 16;
+
+	/**
+	 * Decoded fields of one instruction. Register numbers include the REX/VEX extension bits (0-15); -1 means "none".
+	 */
+	public static final class Instruction {
+		public int offset;
+		public int length;
+		public int map;
+		public int opcode;
+		public boolean opSize16;
+		public boolean addrSize32;
+		public boolean rep;
+		public boolean repne;
+		public boolean lock;
+		public int rex;
+		public boolean vex;
+		public boolean evex;
+		/** VEX/EVEX extra source register (vvvv), -1 if unused. */
+		public int vexReg;
+		public int vexL;
+		/** VEX implied SIMD prefix: 0 none, 1 = 66, 2 = F3, 3 = F2. */
+		public int vexPP;
+		public boolean vexW;
+		public boolean hasModrm;
+		public int mod;
+		/** ModRM.reg with REX.R, or the opcode extension for group opcodes (use {@link #regField()}). */
+		public int reg;
+		/** ModRM.rm with REX.B; a register when mod == 3. */
+		public int rm;
+		public int base;
+		public int index;
+		public int scale;
+		public long disp;
+		public long imm;
+		public int immSize;
+
+		void reset(int off) {
+			offset = off;
+			length = 0;
+			map = MAP_PRIMARY;
+			opcode = 0;
+			opSize16 = addrSize32 = rep = repne = lock = false;
+			rex = 0;
+			vex = evex = false;
+			vexReg = -1;
+			vexL = 0;
+			vexPP = 0;
+			vexW = false;
+			hasModrm = false;
+			mod = reg = rm = 0;
+			base = index = -1;
+			scale = 1;
+			disp = 0;
+			imm = 0;
+			immSize = 0;
+		}
+
+		public boolean rexW() {
+			return (rex & 8) != 0 || vexW;
+		}
+
+		/** The 3-bit ModRM.reg field without REX.R, i.e. the opcode extension of group instructions. */
+		public int regField() {
+			return reg & 7;
+		}
+
+		public boolean isMemory() {
+			return hasModrm && mod != 3;
+		}
+
+		/** Operand size in bytes of a general purpose operand, for opcodes with a byte/full-size pair. */
+		public int operandSize(boolean byteForm) {
+			if (byteForm)
+				return 1;
+			if (rexW())
+				return 8;
+			return opSize16 ? 2 : 4;
+		}
+
+		/** SIMD prefix in effect: 0 none, 1 = 66, 2 = F3, 3 = F2. */
+		public int simdPrefix() {
+			if (vex || evex)
+				return vexPP;
+			if (repne)
+				return 3;
+			if (rep)
+				return 2;
+			return opSize16 ? 1 : 0;
+		}
+
+		/** Absolute target offset of a relative branch (relative to the decoded buffer). */
+		public long branchTarget() {
+			return offset + length + imm;
+		}
+	}
+
+	private X64Decoder() {
+	}
+
+	// bit set per primary opcode: has ModRM
+	private static final boolean[] MODRM1 = new boolean[256];
+	// immediate size per primary opcode: 0, 1, 2, 4 ('z' size), -1 = 'v' size (mov r, imm64), -2 = enter (Iw + Ib), -3 = moffs
+	private static final int[] IMM1 = new int[256];
+	private static final boolean[] MODRM_0F = new boolean[256];
+	private static final int[] IMM_0F = new int[256];
+
+	static {
+		for (int op = 0; op < 0x40; op++) {
+			int low = op & 7;
+			if (low < 4)
+				MODRM1[op] = true;
+			else if (low == 4)
+				IMM1[op] = 1;
+			else if (low == 5)
+				IMM1[op] = 4;
+		}
+		for (int op : new int[] { 0x62, 0x63, 0x69, 0x6B, 0xC0, 0xC1, 0xC4, 0xC5, 0xC6, 0xC7, 0xD0, 0xD1, 0xD2, 0xD3, 0xF6, 0xF7, 0xFE, 0xFF })
+			MODRM1[op] = true;
+		for (int op = 0x80; op <= 0x8F; op++)
+			MODRM1[op] = true;
+		for (int op = 0xD8; op <= 0xDF; op++)
+			MODRM1[op] = true;
+		IMM1[0x68] = 4;
+		IMM1[0x69] = 4;
+		IMM1[0x6A] = 1;
+		IMM1[0x6B] = 1;
+		for (int op = 0x70; op <= 0x7F; op++)
+			IMM1[op] = 1;
+		IMM1[0x80] = 1;
+		IMM1[0x81] = 4;
+		IMM1[0x82] = 1;
+		IMM1[0x83] = 1;
+		for (int op = 0xA0; op <= 0xA3; op++)
+			IMM1[op] = -3;
+		IMM1[0xA8] = 1;
+		IMM1[0xA9] = 4;
+		for (int op = 0xB0; op <= 0xB7; op++)
+			IMM1[op] = 1;
+		for (int op = 0xB8; op <= 0xBF; op++)
+			IMM1[op] = -1;
+		IMM1[0xC0] = 1;
+		IMM1[0xC1] = 1;
+		IMM1[0xC2] = 2;
+		IMM1[0xC6] = 1;
+		IMM1[0xC7] = 4;
+		IMM1[0xC8] = -2;
+		IMM1[0xCA] = 2;
+		IMM1[0xCD] = 1;
+		for (int op = 0xE0; op <= 0xE7; op++)
+			IMM1[op] = 1;
+		IMM1[0xE8] = 4;
+		IMM1[0xE9] = 4;
+		IMM1[0xEB] = 1;
+
+		for (int op = 0; op < 256; op++)
+			MODRM_0F[op] = true;
+		for (int op : new int[] { 0x05, 0x06, 0x07, 0x08, 0x09, 0x0B, 0x0E, 0x30, 0x31, 0x32, 0x33, 0x34, 0x35, 0x37, 0x77, 0xA0, 0xA1, 0xA2, 0xA8,
+				0xA9, 0xAA })
+			MODRM_0F[op] = false;
+		for (int op = 0x80; op <= 0x8F; op++) {
+			MODRM_0F[op] = false;
+			IMM_0F[op] = 4;
+		}
+		for (int op = 0xC8; op <= 0xCF; op++)
+			MODRM_0F[op] = false;
+		for (int op : new int[] { 0x70, 0x71, 0x72, 0x73, 0xA4, 0xAC, 0xBA, 0xC2, 0xC4, 0xC5, 0xC6 })
+			IMM_0F[op] = 1;
+	}
+
+	/**
+	 * Decode the instruction at {@code offset}. Returns false if it runs past {@code limit} or is not decodable.
+	 */
+	public static boolean decode(ByteBuffer buf, int offset, int limit, Instruction in) {
+		in.reset(offset);
+		int p = offset;
+		int end = Math.min(limit, buf.limit());
+		try {
+			// legacy prefixes
+			while (p < end) {
+				int b = buf.get(p) & 0xFF;
+				if (b == 0x66)
+					in.opSize16 = true;
+				else if (b == 0x67)
+					in.addrSize32 = true;
+				else if (b == 0xF3)
+					in.rep = true;
+				else if (b == 0xF2)
+					in.repne = true;
+				else if (b == 0xF0)
+					in.lock = true;
+				else if (b != 0x2E && b != 0x36 && b != 0x3E && b != 0x26 && b != 0x64 && b != 0x65)
+					break;
+				p++;
+			}
+			if (p >= end)
+				return false;
+			int b = buf.get(p) & 0xFF;
+			if (b >= 0x40 && b <= 0x4F) {
+				in.rex = b;
+				p++;
+				b = buf.get(p) & 0xFF;
+			}
+
+			boolean modrm;
+			int immKind;
+			if ((b == 0xC4 || b == 0xC5) && in.rex == 0) {
+				in.vex = true;
+				int b1 = buf.get(p + 1) & 0xFF;
+				int r, x, bb, mmmmm;
+				if (b == 0xC5) {
+					r = (~b1 >> 7) & 1;
+					x = 0;
+					bb = 0;
+					mmmmm = 1;
+					in.vexReg = (~b1 >> 3) & 0xF;
+					in.vexL = (b1 >> 2) & 1;
+					in.vexPP = b1 & 3;
+					p += 2;
+				} else {
+					int b2 = buf.get(p + 2) & 0xFF;
+					r = (~b1 >> 7) & 1;
+					x = (~b1 >> 6) & 1;
+					bb = (~b1 >> 5) & 1;
+					mmmmm = b1 & 0x1F;
+					in.vexW = (b2 & 0x80) != 0;
+					in.vexReg = (~b2 >> 3) & 0xF;
+					in.vexL = (b2 >> 2) & 1;
+					in.vexPP = b2 & 3;
+					p += 3;
+				}
+				in.rex = 0x40 | (r << 2) | (x << 1) | bb | (in.vexW ? 8 : 0);
+				in.map = mmmmm;
+				if (in.map < MAP_0F || in.map > MAP_0F3A)
+					return false;
+				in.opcode = buf.get(p++) & 0xFF;
+				modrm = !(in.map == MAP_0F && in.opcode == 0x77);
+				immKind = in.map == MAP_0F3A ? 1 : (in.map == MAP_0F ? IMM_0F[in.opcode] : 0);
+				if (in.map == MAP_0F && in.opcode >= 0x80 && in.opcode <= 0x8F)
+					return false;
+			} else if (b == 0x62 && in.rex == 0) {
+				in.evex = true;
+				int p0 = buf.get(p + 1) & 0xFF;
+				int p1 = buf.get(p + 2) & 0xFF;
+				int p2 = buf.get(p + 3) & 0xFF;
+				int r = (~p0 >> 7) & 1;
+				int x = (~p0 >> 6) & 1;
+				int bb = (~p0 >> 5) & 1;
+				in.map = p0 & 3;
+				in.vexW = (p1 & 0x80) != 0;
+				in.vexReg = ((~p1 >> 3) & 0xF) | (((~p2 >> 3) & 1) << 4);
+				in.vexPP = p1 & 3;
+				in.vexL = (p2 >> 5) & 3;
+				in.rex = 0x40 | (r << 2) | (x << 1) | bb | (in.vexW ? 8 : 0);
+				p += 4;
+				if (in.map == MAP_PRIMARY)
+					return false;
+				in.opcode = buf.get(p++) & 0xFF;
+				modrm = true;
+				immKind = in.map == MAP_0F3A ? 1 : (in.map == MAP_0F ? IMM_0F[in.opcode] : 0);
+			} else if (b == 0x0F) {
+				int b1 = buf.get(p + 1) & 0xFF;
+				if (b1 == 0x38) {
+					in.map = MAP_0F38;
+					in.opcode = buf.get(p + 2) & 0xFF;
+					p += 3;
+					modrm = true;
+					immKind = 0;
+				} else if (b1 == 0x3A) {
+					in.map = MAP_0F3A;
+					in.opcode = buf.get(p + 2) & 0xFF;
+					p += 3;
+					modrm = true;
+					immKind = 1;
+				} else {
+					in.map = MAP_0F;
+					in.opcode = b1;
+					p += 2;
+					modrm = MODRM_0F[b1];
+					immKind = IMM_0F[b1];
+				}
+			} else {
+				in.map = MAP_PRIMARY;
+				in.opcode = b;
+				p++;
+				modrm = MODRM1[b];
+				immKind = IMM1[b];
+			}
+
+			if (modrm) {
+				in.hasModrm = true;
+				int m = buf.get(p++) & 0xFF;
+				in.mod = m >> 6;
+				in.reg = ((m >> 3) & 7) | ((in.rex & 4) << 1);
+				int rm = m & 7;
+				if (in.mod == 3) {
+					in.rm = rm | ((in.rex & 1) << 3);
+				} else {
+					in.rm = rm | ((in.rex & 1) << 3);
+					if (rm == 4) {
+						int sib = buf.get(p++) & 0xFF;
+						in.scale = 1 << (sib >> 6);
+						int idx = ((sib >> 3) & 7) | ((in.rex & 2) << 2);
+						in.index = idx == 4 ? -1 : idx;
+						int base = sib & 7;
+						if (base == 5 && in.mod == 0) {
+							in.base = -1;
+							in.disp = buf.getInt(p);
+							p += 4;
+						} else {
+							in.base = base | ((in.rex & 1) << 3);
+						}
+					} else if (rm == 5 && in.mod == 0) {
+						in.base = RIP;
+						in.disp = buf.getInt(p);
+						p += 4;
+					} else {
+						in.base = in.rm;
+					}
+					if (in.mod == 1) {
+						in.disp = buf.get(p);
+						p += 1;
+					} else if (in.mod == 2) {
+						in.disp = buf.getInt(p);
+						p += 4;
+					}
+				}
+				// group 3 (test r/m, imm) is the only ModRM group whose immediate depends on the reg field
+				if (in.map == MAP_PRIMARY && (in.opcode == 0xF6 || in.opcode == 0xF7) && (in.reg & 7) < 2)
+					immKind = in.opcode == 0xF6 ? 1 : 4;
+			}
+
+			switch (immKind) {
+			case 1:
+				in.imm = buf.get(p);
+				in.immSize = 1;
+				break;
+			case 2:
+				in.imm = buf.getShort(p) & 0xFFFF;
+				in.immSize = 2;
+				break;
+			case 4:
+				if (in.opSize16 && !(in.map == MAP_PRIMARY && (in.opcode == 0xE8 || in.opcode == 0xE9))) {
+					in.imm = buf.getShort(p);
+					in.immSize = 2;
+				} else {
+					in.imm = buf.getInt(p);
+					in.immSize = 4;
+				}
+				break;
+			case -1:
+				if (in.rexW()) {
+					in.imm = buf.getLong(p);
+					in.immSize = 8;
+				} else if (in.opSize16) {
+					in.imm = buf.getShort(p) & 0xFFFF;
+					in.immSize = 2;
+				} else {
+					in.imm = buf.getInt(p) & 0xFFFFFFFFL;
+					in.immSize = 4;
+				}
+				break;
+			case -2:
+				in.imm = buf.getShort(p) & 0xFFFF;
+				in.immSize = 3;
+				break;
+			case -3:
+				in.immSize = in.addrSize32 ? 4 : 8;
+				in.imm = in.addrSize32 ? buf.getInt(p) : buf.getLong(p);
+				break;
+			default:
+				break;
+			}
+			p += in.immSize;
+			if (p > end)
+				return false;
+			in.length = p - offset;
+			return in.length <= 15;
+		} catch (IndexOutOfBoundsException ex) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,463 @@
+package de.in.yajda.dll;
+
+import de.in.yajda.dll.X64Decoder.Instruction;
+
+/**
+ * Intel-syntax text of instructions decoded by {@link X64Decoder}, for display. The general purpose instructions compilers emit and the
+ * common scalar/packed SSE moves and arithmetic get mnemonic and operands; anything else (VEX/EVEX encoded, 0F38/0F3A maps, x87) is shown
+ * by its opcode map and byte. Relative branch targets and RIP-relative operands are resolved against the address of the instruction.
+ */
+public final class X64Format {
+	private static final String[] R64 = { "rax", "rcx", "rdx", "rbx", "rsp", "rbp", "rsi", "rdi", "r8", "r9", "r10", "r11", "r12", "r13",
+			"r14", "r15" };
+	private static final String[] R32 = { "eax", "ecx", "edx", "ebx", "esp", "ebp", "esi", "edi", "r8d", "r9d", "r10d", "r11d", "r12d",
+			"r13d", "r14d", "r15d" };
+	private static final String[] R16 = { "ax", "cx", "dx", "bx", "sp", "bp", "si", "di", "r8w", "r9w", "r10w", "r11w", "r12w", "r13w",
+			"r14w", "r15w" };
+	private static final String[] R8 = { "al", "cl", "dl", "bl", "spl", "bpl", "sil", "dil", "r8b", "r9b", "r10b", "r11b", "r12b", "r13b",
+			"r14b", "r15b" };
+	// byte registers 4-7 without a REX prefix
+	private static final String[] R8_LEGACY = { "ah", "ch", "dh", "bh" };
+	private static final String[] ALU = { "add", "or", "adc", "sbb", "and", "sub", "xor", "cmp" };
+	private static final String[] SHIFT = { "rol", "ror", "rcl", "rcr", "shl", "shr", "sal", "sar" };
+	private static final String[] GROUP3 = { "test", "test", "not", "neg", "mul", "imul", "div", "idiv" };
+	private static final String[] GROUP5 = { "inc", "dec", "call", "call far", "jmp", "jmp far", "push", null };
+	private static final String[] CC = { "o", "no", "b", "ae", "e", "ne", "be", "a", "s", "ns", "p", "np", "l", "ge", "le", "g" };
+	// SSE arithmetic in the 0F 5x row, by opcode - 0x50
+	private static final String[] SSE_5X = { null, "sqrt", null, null, "and", "andn", "or", "xor", "add", "mul", null, null, "sub", "min",
+			"div", "max" };
+	// ps, pd, ss, sd by SIMD prefix (none, 66, F3, F2)
+	private static final String[] SSE_SUFFIX = { "ps", "pd", "ss", "sd" };
+
+	private X64Format() {
+	}
+
+	/**
+	 * Text of a decoded instruction located at {@code address}, e.g. "mov rax, qword ptr [rsp+0x28]" or "call 0x180001230".
+	 */
+	public static String format(Instruction in, long address) {
+		StringBuilder sb = new StringBuilder(40);
+		if (in.lock)
+			sb.append("lock ");
+		Operands ops = new Operands(in, address);
+		boolean known = !in.vex && !in.evex
+				&& (in.map == X64Decoder.MAP_PRIMARY ? primary(in, ops) : in.map == X64Decoder.MAP_0F && twoByte(in, ops));
+		if (!known)
+			return raw(in);
+		sb.append(ops.mnemonic);
+		for (int i = 0; i < ops.count; i++)
+			sb.append(i == 0 ? " " : ", ").append(ops.text[i]);
+		if (ops.comment != null)
+			sb.append("    ; ").append(ops.comment);
+		return sb.toString();
+	}
+
+	/**
+	 * Mnemonic and operand texts being collected for one instruction.
+	 */
+	private static final class Operands {
+		final Instruction in;
+		final long next;
+		String mnemonic;
+		final String[] text = new String[3];
+		int count;
+		String comment;
+
+		Operands(Instruction in, long address) {
+			this.in = in;
+			this.next = address + in.length;
+		}
+
+		Operands name(String m) {
+			mnemonic = m;
+			return this;
+		}
+
+		Operands add(String operand) {
+			text[count++] = operand;
+			return this;
+		}
+
+		Operands reg(int size) {
+			return add(register(in.reg, size, in.rex != 0));
+		}
+
+		Operands rm(int size) {
+			return add(in.mod == 3 ? register(in.rm, size, in.rex != 0) : memory(size));
+		}
+
+		Operands xmm() {
+			return add("xmm" + in.reg);
+		}
+
+		Operands xmmRm(int size) {
+			return add(in.mod == 3 ? "xmm" + in.rm : memory(size));
+		}
+
+		Operands imm() {
+			return add(hex(in.imm));
+		}
+
+		Operands target() {
+			return add("0x" + Long.toHexString(next + in.imm));
+		}
+
+		String memory(int size) {
+			StringBuilder sb = new StringBuilder();
+			if (size > 0)
+				sb.append(sizeName(size)).append(" ptr ");
+			sb.append('[');
+			String[] regs = in.addrSize32 ? R32 : R64;
+			boolean first = true;
+			if (in.base == X64Decoder.RIP) {
+				sb.append("rip");
+				first = false;
+				comment = "0x" + Long.toHexString(next + in.disp);
+			} else if (in.base >= 0) {
+				sb.append(regs[in.base]);
+				first = false;
+			}
+			if (in.index >= 0) {
+				if (!first)
+					sb.append('+');
+				sb.append(regs[in.index]);
+				if (in.scale > 1)
+					sb.append('*').append(in.scale);
+				first = false;
+			}
+			if (in.disp != 0 || first) {
+				if (!first)
+					sb.append(in.disp < 0 ? '-' : '+');
+				sb.append("0x").append(Long.toHexString(first ? in.disp : Math.abs(in.disp)));
+			}
+			return sb.append(']').toString();
+		}
+	}
+
+	private static boolean primary(Instruction in, Operands ops) {
+		int op = in.opcode;
+		boolean byteForm = (op & 1) == 0;
+		int size = in.operandSize(byteForm);
+		if (op < 0x40 && (op & 7) < 6) {
+			ops.name(ALU[op >> 3]);
+			switch (op & 7) {
+			case 0:
+			case 1:
+				ops.rm(size).reg(size);
+				break;
+			case 2:
+			case 3:
+				ops.reg(size).rm(size);
+				break;
+			default:
+				ops.add(register(0, size, false)).imm();
+				break;
+			}
+			return true;
+		}
+		if (op >= 0x50 && op <= 0x5F) {
+			ops.name(op < 0x58 ? "push" : "pop").add(register((op & 7) | ((in.rex & 1) << 3), in.opSize16 ? 2 : 8, true));
+			return true;
+		}
+		if (op >= 0x70 && op <= 0x7F) {
+			ops.name("j" + CC[op & 0xF]).target();
+			return true;
+		}
+		if (op >= 0x80 && op <= 0x83) {
+			ops.name(ALU[in.regField()]).rm(size).imm();
+			return true;
+		}
+		if (op >= 0x91 && op <= 0x97) {
+			ops.name("xchg").add(register((op & 7) | ((in.rex & 1) << 3), size, true)).add(register(0, in.operandSize(false), false));
+			return true;
+		}
+		if (op >= 0xB0 && op <= 0xBF) {
+			size = in.operandSize(op < 0xB8);
+			ops.name("mov").add(register((op & 7) | ((in.rex & 1) << 3), size, in.rex != 0)).imm();
+			return true;
+		}
+		switch (op) {
+		case 0x63:
+			ops.name("movsxd").reg(size).rm(4);
+			return true;
+		case 0x68:
+		case 0x6A:
+			ops.name("push").imm();
+			return true;
+		case 0x69:
+		case 0x6B:
+			size = in.operandSize(false);
+			ops.name("imul").reg(size).rm(size).imm();
+			return true;
+		case 0x84:
+		case 0x85:
+			ops.name("test").rm(size).reg(size);
+			return true;
+		case 0x86:
+		case 0x87:
+			ops.name("xchg").rm(size).reg(size);
+			return true;
+		case 0x88:
+		case 0x89:
+			ops.name("mov").rm(size).reg(size);
+			return true;
+		case 0x8A:
+		case 0x8B:
+			ops.name("mov").reg(size).rm(size);
+			return true;
+		case 0x8D:
+			ops.name("lea").reg(in.operandSize(false)).rm(0);
+			return true;
+		case 0x8F:
+			ops.name("pop").rm(8);
+			return true;
+		case 0x90:
+			ops.name(in.rep ? "pause" : "nop");
+			return true;
+		case 0x98:
+			ops.name(in.rexW() ? "cdqe" : in.opSize16 ? "cbw" : "cwde");
+			return true;
+		case 0x99:
+			ops.name(in.rexW() ? "cqo" : in.opSize16 ? "cwd" : "cdq");
+			return true;
+		case 0xA4:
+		case 0xA5:
+		case 0xA6:
+		case 0xA7:
+		case 0xAA:
+		case 0xAB:
+		case 0xAC:
+		case 0xAD:
+		case 0xAE:
+		case 0xAF:
+			ops.name((in.rep ? "rep " : in.repne ? "repne " : "") + string(op) + sizeSuffix(size));
+			return true;
+		case 0xA8:
+		case 0xA9:
+			ops.name("test").add(register(0, size, false)).imm();
+			return true;
+		case 0xC0:
+		case 0xC1:
+			ops.name(SHIFT[in.regField()]).rm(size).imm();
+			return true;
+		case 0xD0:
+		case 0xD1:
+		case 0xD2:
+		case 0xD3:
+			ops.name(SHIFT[in.regField()]).rm(size).add(op < 0xD2 ? "1" : "cl");
+			return true;
+		case 0xC2:
+			ops.name("ret").imm();
+			return true;
+		case 0xC3:
+			ops.name(in.rep ? "rep ret" : "ret");
+			return true;
+		case 0xC6:
+		case 0xC7:
+			ops.name("mov").rm(size).imm();
+			return true;
+		case 0xC9:
+			ops.name("leave");
+			return true;
+		case 0xCC:
+			ops.name("int3");
+			return true;
+		case 0xCD:
+			ops.name("int").add(hex(in.imm & 0xFF));
+			return true;
+		case 0xE3:
+			ops.name("jrcxz").target();
+			return true;
+		case 0xE8:
+			ops.name("call").target();
+			return true;
+		case 0xE9:
+		case 0xEB:
+			ops.name("jmp").target();
+			return true;
+		case 0xF4:
+			ops.name("hlt");
+			return true;
+		case 0xF6:
+		case 0xF7:
+			ops.name(GROUP3[in.regField()]).rm(size);
+			if (in.regField() < 2)
+				ops.imm();
+			return true;
+		case 0xFE:
+			if (in.regField() > 1)
+				return false;
+			ops.name(GROUP5[in.regField()]).rm(1);
+			return true;
+		case 0xFF:
+			if (GROUP5[in.regField()] == null)
+				return false;
+			ops.name(GROUP5[in.regField()]).rm(in.regField() < 2 ? in.operandSize(false) : 8);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private static boolean twoByte(Instruction in, Operands ops) {
+		int op = in.opcode;
+		int size = in.operandSize(false);
+		int simd = in.simdPrefix();
+		int scalar = simd == 2 ? 4 : simd == 3 ? 8 : 16;
+		if (op >= 0x40 && op <= 0x4F) {
+			ops.name("cmov" + CC[op & 0xF]).reg(size).rm(size);
+			return true;
+		}
+		if (op >= 0x80 && op <= 0x8F) {
+			ops.name("j" + CC[op & 0xF]).target();
+			return true;
+		}
+		if (op >= 0x90 && op <= 0x9F) {
+			ops.name("set" + CC[op & 0xF]).rm(1);
+			return true;
+		}
+		if (op >= 0xC8 && op <= 0xCF) {
+			ops.name("bswap").add(register((op & 7) | ((in.rex & 1) << 3), size, true));
+			return true;
+		}
+		if (op >= 0x50 && op <= 0x5F && SSE_5X[op - 0x50] != null) {
+			ops.name(SSE_5X[op - 0x50] + SSE_SUFFIX[simd]).xmm().xmmRm(scalar);
+			return true;
+		}
+		switch (op) {
+		case 0x05:
+			ops.name("syscall");
+			return true;
+		case 0x0B:
+			ops.name("ud2");
+			return true;
+		case 0x1F:
+			ops.name("nop").rm(size);
+			return true;
+		case 0x10:
+			ops.name("mov" + (simd < 2 ? "u" : "") + SSE_SUFFIX[simd]).xmm().xmmRm(scalar);
+			return true;
+		case 0x11:
+			ops.name("mov" + (simd < 2 ? "u" : "") + SSE_SUFFIX[simd]).xmmRm(scalar).xmm();
+			return true;
+		case 0x28:
+			ops.name("mova" + SSE_SUFFIX[simd & 1]).xmm().xmmRm(16);
+			return true;
+		case 0x29:
+			ops.name("mova" + SSE_SUFFIX[simd & 1]).xmmRm(16).xmm();
+			return true;
+		case 0x2E:
+		case 0x2F:
+			ops.name((op == 0x2E ? "ucomis" : "comis") + (simd == 1 ? "d" : "s")).xmm().xmmRm(simd == 1 ? 8 : 4);
+			return true;
+		case 0x6E:
+			ops.name(in.rexW() ? "movq" : "movd").xmm().rm(in.rexW() ? 8 : 4);
+			return true;
+		case 0x7E:
+			if (simd == 2) {
+				ops.name("movq").xmm().xmmRm(8);
+				return true;
+			}
+			ops.name(in.rexW() ? "movq" : "movd").rm(in.rexW() ? 8 : 4).xmm();
+			return true;
+		case 0x6F:
+		case 0x7F:
+			if (simd != 1 && simd != 2)
+				return false;
+			ops.name(simd == 1 ? "movdqa" : "movdqu");
+			if (op == 0x6F)
+				ops.xmm().xmmRm(16);
+			else
+				ops.xmmRm(16).xmm();
+			return true;
+		case 0xD6:
+			ops.name("movq").xmmRm(8).xmm();
+			return true;
+		case 0xEF:
+			if (simd != 1)
+				return false;
+			ops.name("pxor").xmm().xmmRm(16);
+			return true;
+		case 0x31:
+			ops.name("rdtsc");
+			return true;
+		case 0xA2:
+			ops.name("cpuid");
+			return true;
+		case 0xA3:
+			ops.name("bt").rm(size).reg(size);
+			return true;
+		case 0xAF:
+			ops.name("imul").reg(size).rm(size);
+			return true;
+		case 0xB6:
+		case 0xB7:
+		case 0xBE:
+		case 0xBF:
+			ops.name(op < 0xB8 ? "movzx" : "movsx").reg(size).rm((op & 1) == 0 ? 1 : 2);
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Opcode map and byte of an instruction without text form, e.g. "(vex 0F 58)".
+	 */
+	private static String raw(Instruction in) {
+		String map = in.map == X64Decoder.MAP_0F ? "0F " : in.map == X64Decoder.MAP_0F38 ? "0F38 " : in.map == X64Decoder.MAP_0F3A ? "0F3A " : "";
+		String prefix = in.evex ? "evex " : in.vex ? "vex " : "";
+		return String.format("(%s%s%02X)", prefix, map, in.opcode);
+	}
+
+	private static String register(int n, int size, boolean rex) {
+		switch (size) {
+		case 1:
+			return !rex && n >= 4 && n < 8 ? R8_LEGACY[n - 4] : R8[n];
+		case 2:
+			return R16[n];
+		case 4:
+			return R32[n];
+		default:
+			return R64[n];
+		}
+	}
+
+	private static String sizeName(int size) {
+		switch (size) {
+		case 1:
+			return "byte";
+		case 2:
+			return "word";
+		case 4:
+			return "dword";
+		case 8:
+			return "qword";
+		default:
+			return "xmmword";
+		}
+	}
+
+	private static String sizeSuffix(int size) {
+		return size == 1 ? "b" : size == 2 ? "w" : size == 4 ? "d" : "q";
+	}
+
+	private static String string(int op) {
+		switch (op & ~1) {
+		case 0xA4:
+			return "movs";
+		case 0xA6:
+			return "cmps";
+		case 0xAA:
+			return "stos";
+		case 0xAC:
+			return "lods";
+		default:
+			return "scas";
+		}
+	}
+
+	private static String hex(long v) {
+		return v < 0 ? "-0x" + Long.toHexString(-v) : "0x" + Long.toHexString(v);
+	}
+}
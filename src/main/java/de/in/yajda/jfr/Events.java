@@ -0,0 +1,181 @@
+package de.in.yajda.jfr;
+
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event types of the parse, bind and execute pipeline. The duration of an event is its begin/end span; the fields carry
+ * sizes, counts and the outcome ("ok" or the exception). Call sites create the event, begin() it, and hand the values to finish(), which
+ * only fills in and commits the event if a recording wants it; with no recording running that is a check of the enabled state.
+ */
+public final class Events {
+	private Events() {
+	}
+
+	/**
+	 * "ok" or the exception's type and message.
+	 */
+	public static String outcome(Throwable t) {
+		if (t == null)
+			return "ok";
+		return t.getMessage() != null ? t.getClass().getSimpleName() + ": " + t.getMessage() : t.getClass().getSimpleName();
+	}
+
+	@Name("de.in.yajda.ParseExports")
+	@Label("Parse Exports")
+	@Category({ "yajda", "Parsing" })
+	@Description("Reading the exports of a DLL or shared object")
+	@StackTrace(false)
+	public static final class ParseExports extends Event {
+		@Label("File")
+		public String file;
+		@Label("File Size")
+		@DataAmount
+		public long fileSize;
+		@Label("Format")
+		public String format;
+		@Label("Exports")
+		public int exports;
+		@Label("Outcome")
+		public String outcome;
+
+		public void finish(File f, String format, int exports, Throwable failure) {
+			end();
+			if (!shouldCommit())
+				return;
+			this.file = f.getPath();
+			this.fileSize = f.length();
+			this.format = format;
+			this.exports = exports;
+			this.outcome = outcome(failure);
+			commit();
+		}
+	}
+
+	@Name("de.in.yajda.ParseHeader")
+	@Label("Parse Header")
+	@Category({ "yajda", "Parsing" })
+	@Description("Reading the prototypes of a C header")
+	@StackTrace(false)
+	public static final class ParseHeader extends Event {
+		@Label("File")
+		public String file;
+		@Label("File Size")
+		@DataAmount
+		public long fileSize;
+		@Label("Prototypes")
+		public int prototypes;
+		@Label("Outcome")
+		public String outcome;
+
+		public void finish(File f, int prototypes, Throwable failure) {
+			end();
+			if (!shouldCommit())
+				return;
+			this.file = f.getPath();
+			this.fileSize = f.length();
+			this.prototypes = prototypes;
+			this.outcome = outcome(failure);
+			commit();
+		}
+	}
+
+	@Name("de.in.yajda.WrapperGeneration")
+	@Label("Script Wrapper Generation")
+	@Category({ "yajda", "Scripting" })
+	@Description("Generating and binding the 'dll' wrapper in the interpreter")
+	@StackTrace(false)
+	public static final class WrapperGeneration extends Event {
+		@Label("Functions")
+		public int functions;
+		@Label("Added")
+		public int added;
+		@Label("Removed")
+		public int removed;
+		@Label("After Re-parse")
+		@Description("Rebuilt after a re-parse, reusing the method sources of unchanged names")
+		public boolean update;
+		@Label("Source Length")
+		@DataAmount
+		public long sourceLength;
+		@Label("Outcome")
+		public String outcome;
+
+		public void finish(int functions, int added, int removed, boolean update, long sourceLength, Throwable failure) {
+			end();
+			if (!shouldCommit())
+				return;
+			this.functions = functions;
+			this.added = added;
+			this.removed = removed;
+			this.update = update;
+			this.sourceLength = sourceLength;
+			this.outcome = outcome(failure);
+			commit();
+		}
+	}
+
+	@Name("de.in.yajda.ScriptExecution")
+	@Label("Script Execution")
+	@Category({ "yajda", "Scripting" })
+	@Description("One script run on the script-runner thread")
+	@StackTrace(false)
+	public static final class ScriptExecution extends Event {
+		@Label("Language")
+		public String language;
+		@Label("Script Length")
+		@DataAmount
+		public long scriptLength;
+		@Label("Profiled")
+		public boolean profiled;
+		@Label("Outcome")
+		public String outcome;
+
+		public void finish(String language, long scriptLength, boolean profiled, Throwable failure) {
+			end();
+			if (!shouldCommit())
+				return;
+			this.language = language;
+			this.scriptLength = scriptLength;
+			this.profiled = profiled;
+			this.outcome = outcome(failure);
+			commit();
+		}
+	}
+
+	@Name("de.in.yajda.NativeCall")
+	@Label("Native Call")
+	@Category({ "yajda", "Native" })
+	@Description("A call into a native function that took longer than the threshold")
+	@Threshold("1 ms")
+	@StackTrace(false)
+	public static final class NativeCall extends Event {
+		@Label("Module")
+		public String module;
+		@Label("Function")
+		public String function;
+		@Label("Arguments")
+		public int arguments;
+		@Label("Outcome")
+		public String outcome;
+
+		public void finish(String module, String function, Object[] args, boolean failed) {
+			end();
+			if (!shouldCommit())
+				return;
+			this.module = module;
+			this.function = function;
+			this.arguments = args == null ? 0 : args.length;
+			this.outcome = failed ? "failed" : "ok";
+			commit();
+		}
+	}
+}
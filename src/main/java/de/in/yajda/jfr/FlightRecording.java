@@ -0,0 +1,73 @@
+package de.in.yajda.jfr;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * One in-process Flight Recorder recording with the JDK "profile" settings plus the yajda events, for the Tools menu and the --jfr
+ * command line flag. The result is a regular .jfr file for JDK Mission Control or the jfr tool.
+ */
+public final class FlightRecording {
+	private static Recording recording;
+
+	private FlightRecording() {
+	}
+
+	public static synchronized boolean isRecording() {
+		return recording != null;
+	}
+
+	/**
+	 * Start recording unless a recording is already running.
+	 */
+	public static synchronized void start() throws IOException {
+		if (recording != null)
+			return;
+		Configuration config;
+		try {
+			config = Configuration.getConfiguration("profile");
+		} catch (ParseException ex) {
+			throw new IOException("Cannot read JFR settings 'profile': " + ex.getMessage(), ex);
+		}
+		Recording r = new Recording(config);
+		r.setName("yajda");
+		r.enable(Events.ParseExports.class);
+		r.enable(Events.ParseHeader.class);
+		r.enable(Events.WrapperGeneration.class);
+		r.enable(Events.ScriptExecution.class);
+		// keeps the 1 ms threshold of the event type
+		r.enable(Events.NativeCall.class);
+		r.start();
+		recording = r;
+	}
+
+	/**
+	 * Write what has been recorded so far; the recording keeps running.
+	 */
+	public static synchronized void dump(Path file) throws IOException {
+		if (recording == null)
+			throw new IllegalStateException("No flight recording is running");
+		recording.dump(file);
+	}
+
+	/**
+	 * Stop the recording, writing it to the given file first unless that is null.
+	 */
+	public static synchronized void stop(Path file) throws IOException {
+		if (recording == null)
+			return;
+		Recording r = recording;
+		recording = null;
+		try {
+			r.stop();
+			if (file != null)
+				r.dump(file);
+		} finally {
+			r.close();
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package de.in.yajda.script;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Parallel loops and futures for scripts, bound as 'parallel' next to 'dll':
+ *
+ * <pre>
+ * parallel.parallelFor(0, files.length, new Parallel.Body() { Object call(Object i) { return dll.Checksum(files[i].getPath()); } });
+ * sums = parallel.map(files, new Parallel.Body() { Object call(Object f) { return dll.Checksum(f.getPath()); } });
+ * f = parallel.submit(new java.util.concurrent.Callable() { Object call() { return dll.Slow(); } }); ... f.get();
+ * </pre>
+ *
+ * Work runs on a ForkJoinPool of its own (one thread per core), since the bodies mostly sit in native calls; ranges are split into a few
+ * chunks per thread, and a loop started from inside a body is run by the same workers instead of blocking one.
+ *
+ * The bodies are script closures. Each call of a BeanShell closure gets its own call stack and method namespace, so variables assigned in
+ * the body stay local to that call; the interpreter itself is never entered from a worker. Results are collected on the Java side, in
+ * item order, so a body does not need to write to shared script variables (which would race). Engines that are single-threaded by design
+ * (GraalJS) refuse calls from the workers.
+ *
+ * Everything started during a script run belongs to its {@link Run}. When the run ends, times out or is cancelled, loops stop before the
+ * next item and futures that have not started are cancelled; a native call in progress cannot be interrupted and finishes first.
+ */
+public class Parallel {
+	/**
+	 * Loop body: called with the index (parallelFor over a range) or the element; the return value is what {@link #map} collects.
+	 */
+	public interface Body {
+		Object call(Object item) throws Exception;
+	}
+
+	/**
+	 * Work started by one script run.
+	 */
+	public static final class Run {
+		private volatile boolean cancelled;
+		private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+
+		/**
+		 * Stop loops before their next item and cancel futures that have not started.
+		 */
+		public void cancel() {
+			cancelled = true;
+			for (CompletableFuture<?> f : pending)
+				f.cancel(false);
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private volatile Run run = new Run();
+
+	public Parallel() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public Parallel(int parallelism) {
+		pool = new ForkJoinPool(Math.max(1, parallelism), p -> {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+			t.setName("script-parallel-" + t.getPoolIndex());
+			t.setDaemon(true);
+			return t;
+		}, null, false);
+	}
+
+	/**
+	 * Start a new run; work started from now on belongs to it. The previous run is not touched (it is cancelled by whoever ends it).
+	 */
+	Run beginRun() {
+		Run r = new Run();
+		run = r;
+		return r;
+	}
+
+	public int parallelism() {
+		return pool.getParallelism();
+	}
+
+	/**
+	 * Call the body for every index in [from, to) in parallel and wait for all of them.
+	 */
+	public void parallelFor(int from, int to, Body body) throws Exception {
+		execute(Math.max(0, to - from), i -> from + i, body, false);
+	}
+
+	/**
+	 * Call the body for every element in parallel and wait for all of them.
+	 */
+	public void parallelFor(Collection<?> items, Body body) throws Exception {
+		Object[] a = items.toArray();
+		execute(a.length, i -> a[i], body, false);
+	}
+
+	public void parallelFor(Object[] items, Body body) throws Exception {
+		execute(items.length, i -> items[i], body, false);
+	}
+
+	/**
+	 * The body's results for every index in [from, to), computed in parallel, in index order.
+	 */
+	public List<Object> map(int from, int to, Body body) throws Exception {
+		return Arrays.asList(execute(Math.max(0, to - from), i -> from + i, body, true));
+	}
+
+	/**
+	 * The body's results for every element, computed in parallel, in element order.
+	 */
+	public List<Object> map(Collection<?> items, Body body) throws Exception {
+		Object[] a = items.toArray();
+		return Arrays.asList(execute(a.length, i -> a[i], body, true));
+	}
+
+	public List<Object> map(Object[] items, Body body) throws Exception {
+		return Arrays.asList(execute(items.length, i -> items[i], body, true));
+	}
+
+	/**
+	 * Run a task in the background. The future is cancelled if the script run ends before the task has started.
+	 */
+	public Future<Object> submit(Callable<?> task) {
+		Run r = run;
+		CompletableFuture<Object> f = new CompletableFuture<>();
+		if (r.cancelled) {
+			f.cancel(false);
+			return f;
+		}
+		r.pending.add(f);
+		pool.execute(() -> {
+			try {
+				if (r.cancelled)
+					f.cancel(false);
+				else if (!f.isDone())
+					f.complete(task.call());
+			} catch (Throwable t) {
+				f.completeExceptionally(t);
+			} finally {
+				r.pending.remove(f);
+			}
+		});
+		return f;
+	}
+
+	/**
+	 * Wait for all futures and return their results in order. The first failure is thrown.
+	 */
+	public List<Object> all(Collection<? extends Future<?>> futures) throws Exception {
+		List<Object> results = new ArrayList<>(futures.size());
+		for (Future<?> f : futures) {
+			try {
+				results.add(f.get());
+			} catch (ExecutionException ex) {
+				throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+			}
+		}
+		return results;
+	}
+
+	public void shutdown() {
+		run.cancel();
+		pool.shutdownNow();
+	}
+
+	private Object[] execute(int n, IntFunction<Object> item, Body body, boolean collect) throws Exception {
+		Object[] results = collect ? new Object[n] : null;
+		if (n == 0)
+			return results;
+		Run r = run;
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		int chunk = Math.max(1, n / (pool.getParallelism() * 4));
+		Chunk root = new Chunk(0, n, chunk, item, body, results, r, failure);
+		Thread current = Thread.currentThread();
+		if (current instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) current).getPool() == pool) {
+			// nested loop: fork into the pool we are running on and help with the work while waiting
+			root.invoke();
+		} else {
+			pool.execute(root);
+			try {
+				root.get();
+			} catch (InterruptedException ex) {
+				// the run was timed out or cancelled: let the workers stop as well
+				r.cancel();
+				throw ex;
+			} catch (ExecutionException ex) {
+				throw new RuntimeException("Parallel loop failed: " + ex.getCause(), ex.getCause());
+			}
+		}
+		if (failure.get() != null)
+			throw failure.get();
+		if (r.cancelled)
+			throw new InterruptedException("Script run cancelled");
+		return results;
+	}
+
+	/**
+	 * A range of items, split in halves until it is small enough to run as one loop.
+	 */
+	private static final class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		private final int chunk;
+		private final transient IntFunction<Object> item;
+		private final transient Body body;
+		private final Object[] results;
+		private final transient Run run;
+		private final AtomicReference<Exception> failure;
+
+		Chunk(int from, int to, int chunk, IntFunction<Object> item, Body body, Object[] results, Run run,
+				AtomicReference<Exception> failure) {
+			this.from = from;
+			this.to = to;
+			this.chunk = chunk;
+			this.item = item;
+			this.body = body;
+			this.results = results;
+			this.run = run;
+			this.failure = failure;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > chunk) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Chunk(from, mid, chunk, item, body, results, run, failure),
+						new Chunk(mid, to, chunk, item, body, results, run, failure));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				// stop early once the run is over or another item failed
+				if (run.cancelled || failure.get() != null)
+					return;
+				Object it = item.apply(i);
+				try {
+					Object result = body.call(it);
+					if (results != null)
+						results[i] = result;
+				} catch (Throwable t) {
+					failure.compareAndSet(null, new RuntimeException("Parallel body failed for " + it + ": " + t.getMessage(), t));
+					return;
+				}
+			}
+		}
+	}
+}
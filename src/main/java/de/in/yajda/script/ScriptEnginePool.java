@@ -0,0 +1,234 @@
+package de.in.yajda.script;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * Pools of JSR-223 engines for the script languages other than BeanShell. Any engine registered on the classpath
+ * (META-INF/services/javax.script.ScriptEngineFactory) can be used: a language is resolved through the aliases below, then by engine name,
+ * language name or file extension of the installed factories.
+ *
+ * An engine is set up once when it is created: its output goes to the script output pipeline and the shared bindings (dll, dllInvoker,
+ * modules, metrics, ...) are put into its engine scope. A later change of a binding is applied when the engine is next borrowed. For
+ * engines that are {@link Compilable}, compiled scripts are kept per engine, so running the same text again skips parsing.
+ */
+public class ScriptEnginePool {
+	/** Idle engines kept per language. */
+	private static final int MAX_IDLE = 4;
+	/** Compiled scripts kept per engine. */
+	private static final int MAX_COMPILED = 16;
+
+	// UI language name -> engine names to try, most preferred first
+	private static final Map<String, List<String>> ALIASES = Map.of("javascript", List.of("graal.js", "nashorn", "javascript", "js"), "python",
+			List.of("python", "jython", "graalpy"));
+
+	/**
+	 * Script binding 'dll' for JSR-223 languages: dll.invoke("Add", 1, 2). The generated per-function methods of the BeanShell wrapper are
+	 * not available here.
+	 */
+	public static final class Dll {
+		private final ScriptManager.NativeInvoker invoker;
+
+		Dll(ScriptManager.NativeInvoker invoker) {
+			this.invoker = invoker;
+		}
+
+		public Object invoke(String name, Object... args) throws Exception {
+			return invoker.invoke(name, args);
+		}
+	}
+
+	/**
+	 * An engine with the version of the bindings it carries and its compiled scripts.
+	 */
+	static final class PooledEngine {
+		final String language;
+		final ScriptEngine engine;
+		final PrintWriter writer;
+		int bindingsVersion = -1;
+		final Map<String, CompiledScript> compiled = new LinkedHashMap<>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+				return size() > MAX_COMPILED;
+			}
+		};
+
+		PooledEngine(String language, ScriptEngine engine, PrintWriter writer) {
+			this.language = language;
+			this.engine = engine;
+			this.writer = writer;
+		}
+	}
+
+	private final ScriptEngineManager manager = new ScriptEngineManager();
+	private final OutputStream output;
+	private final Map<String, Deque<PooledEngine>> idle = new ConcurrentHashMap<>();
+	private final Map<String, ScriptEngineFactory> factories = new ConcurrentHashMap<>();
+	private final Map<String, Object> globals = new ConcurrentHashMap<>();
+	private final Set<String> boundNames = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger bindingsVersion = new AtomicInteger();
+
+	ScriptEnginePool(OutputStream output) {
+		this.output = output;
+	}
+
+	/**
+	 * Set a binding in all engines of the pool, current and future. A null value removes it.
+	 */
+	void bind(String name, Object value) {
+		boundNames.add(name);
+		if (value == null)
+			globals.remove(name);
+		else
+			globals.put(name, value);
+		bindingsVersion.incrementAndGet();
+	}
+
+	/**
+	 * The factory used for a language, or null if no engine on the classpath provides it.
+	 */
+	public ScriptEngineFactory factoryFor(String language) {
+		String key = language.toLowerCase(Locale.ROOT);
+		ScriptEngineFactory f = factories.get(key);
+		if (f != null)
+			return f;
+		List<String> names = new ArrayList<>(ALIASES.getOrDefault(key, List.of()));
+		names.add(key);
+		for (String name : names) {
+			for (ScriptEngineFactory candidate : manager.getEngineFactories()) {
+				if (matches(candidate, name)) {
+					factories.put(key, candidate);
+					return candidate;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static boolean matches(ScriptEngineFactory f, String name) {
+		for (String n : f.getNames()) {
+			if (n.equalsIgnoreCase(name))
+				return true;
+		}
+		if (f.getLanguageName().equalsIgnoreCase(name))
+			return true;
+		for (String ext : f.getExtensions()) {
+			if (ext.equalsIgnoreCase(name))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Create engines for a language ahead of the first run, up to the given number of idle engines. Does nothing if the language has no
+	 * engine.
+	 */
+	public void prewarm(String language, int count) {
+		ScriptEngineFactory f = factoryFor(language);
+		if (f == null)
+			return;
+		Deque<PooledEngine> q = idleOf(language);
+		while (q.size() < Math.min(count, MAX_IDLE)) {
+			PooledEngine pe = create(language, f);
+			refreshBindings(pe);
+			try {
+				// engines that initialize lazily do it on the first eval
+				pe.engine.eval("");
+			} catch (ScriptException ex) {
+				// an empty script is valid in the usual languages; the engine is usable either way
+			}
+			q.offer(pe);
+		}
+	}
+
+	/**
+	 * Run a script on a pooled engine of the language and return its result.
+	 */
+	public Object eval(String language, String script) throws ScriptException {
+		PooledEngine pe = borrow(language);
+		try {
+			if (pe.engine instanceof Compilable) {
+				CompiledScript cs = pe.compiled.get(script);
+				if (cs == null) {
+					cs = ((Compilable) pe.engine).compile(script);
+					pe.compiled.put(script, cs);
+				}
+				return cs.eval();
+			}
+			return pe.engine.eval(script);
+		} finally {
+			pe.writer.flush();
+			release(pe);
+		}
+	}
+
+	private PooledEngine borrow(String language) throws ScriptException {
+		PooledEngine pe = idleOf(language).poll();
+		if (pe == null) {
+			ScriptEngineFactory f = factoryFor(language);
+			if (f == null) {
+				List<String> tried = ALIASES.getOrDefault(language.toLowerCase(Locale.ROOT), List.of(language));
+				throw new ScriptException("No JSR-223 engine for " + language + " on the classpath (tried " + String.join(", ", tried) + ")");
+			}
+			pe = create(language, f);
+		}
+		refreshBindings(pe);
+		return pe;
+	}
+
+	private void release(PooledEngine pe) {
+		Deque<PooledEngine> q = idleOf(pe.language);
+		if (q.size() < MAX_IDLE)
+			q.offerFirst(pe); // most recently used first: its compiled scripts are the likeliest to be reused
+	}
+
+	private Deque<PooledEngine> idleOf(String language) {
+		return idle.computeIfAbsent(language.toLowerCase(Locale.ROOT), k -> new ConcurrentLinkedDeque<>());
+	}
+
+	private PooledEngine create(String language, ScriptEngineFactory f) {
+		ScriptEngine engine = f.getScriptEngine();
+		PrintWriter w = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), true);
+		engine.getContext().setWriter(w);
+		engine.getContext().setErrorWriter(w);
+		return new PooledEngine(language, engine, w);
+	}
+
+	private void refreshBindings(PooledEngine pe) {
+		int v = bindingsVersion.get();
+		if (pe.bindingsVersion == v)
+			return;
+		Bindings b = pe.engine.getBindings(ScriptContext.ENGINE_SCOPE);
+		for (String name : boundNames) {
+			Object value = globals.get(name);
+			if (value != null)
+				b.put(name, value);
+			else
+				b.remove(name);
+		}
+		pe.bindingsVersion = v;
+	}
+}
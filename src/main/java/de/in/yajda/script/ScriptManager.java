@@ -1,24 +1,31 @@
 package de.in.yajda.script;
 
-import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
-import com.sun.jna.Function;
-import com.sun.jna.NativeLibrary;
-
 import bsh.Interpreter;
+import de.in.yajda.dll.CallMetrics;
+import de.in.yajda.dll.Callbacks;
 import de.in.yajda.dll.JnaProxyFactory;
+import de.in.yajda.dll.MemoCache;
+import de.in.yajda.dll.StringMarshaler;
+import de.in.yajda.jfr.Events;
 
 /**
  * ScriptManager that: - binds a native proxy (wrapper) into BeanShell as 'dll' - can generate a BeanShell wrapper object with methods for
@@ -34,10 +41,19 @@ public class ScriptManager {
 		public boolean timedOut;
 		public Throwable threw;
 		public Object result;
+		/** Output of the run, capped at the capture limit; it has already been shown on the console. */
 		public String output;
+		/** Set if the run was profiled. */
+		public ScriptProfiler.Profile profile;
 	}
 
+	/** Bytes of script output that may wait for the console before the script is held back. */
+	private static final long OUTPUT_BACKLOG_BYTES = 1 << 20;
+
 	private final Consumer<String> consoleAppender;
+	private final ScriptOutput output;
+	private final ScriptEnginePool engines;
+	private volatile int outputCaptureLimit = 256 * 1024;
 	private final long timeoutMs;
 	private final Interpreter interpreter;
 	private final ExecutorService exec = Executors.newSingleThreadExecutor(r -> {
@@ -45,58 +61,48 @@ public class ScriptManager {
 		t.setDaemon(true);
 		return t;
 	});
+	// waits for the runs with their timeout; must not be the runner itself, or a run can never time out
+	private final ExecutorService watchdog = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "script-watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+	private final Parallel parallel = new Parallel();
 
 	private volatile JnaProxyFactory.ProxyWrapper nativeProxy; // wrapper object as provided by your factory
 	private volatile java.io.File currentDllFile; // used for JNA fallback lookups
+	// proxy on currentDllFile for the fallback path; guarded by this
+	private JnaProxyFactory.ProxyWrapper fallbackProxy;
+	private java.io.File fallbackDll;
+	private volatile boolean profiling;
+	private volatile int profileIntervalMs = ScriptProfiler.DEFAULT_INTERVAL_MS;
+	// profiler of the run in progress; null when not profiling, which is all the native call path checks
+	private volatile ScriptProfiler profiler;
 
 	// Merken der zuletzt übergebenen Namen, damit Wrapper bei Bedarf neu erzeugt werden kann
 	private volatile Collection<String> availableFunctionNames = Collections.emptyList();
+	// generated wrapper method source per function name, reused when the wrapper is rebuilt after a re-parse
+	private final Map<String, String> wrapperMethods = new LinkedHashMap<>();
 
+	/**
+	 * Script output reaches the console line by line; a line without line break shows up only when it is completed or the run ends.
+	 */
 	public ScriptManager(Consumer<String> consoleAppender, long timeoutMs) {
+		this(consoleAppender, lineBuffered(consoleAppender), timeoutMs);
+	}
+
+	/**
+	 * @param consoleAppender appends a message as a line of its own
+	 * @param consoleText     appends script output as given, which may end within a line
+	 */
+	public ScriptManager(Consumer<String> consoleAppender, Consumer<String> consoleText, long timeoutMs) {
 		this.consoleAppender = consoleAppender;
 		this.timeoutMs = timeoutMs;
 		this.interpreter = new Interpreter();
 
-		// create PrintStream forwarding to consoleAppender
-		PrintStream ps;
-		try {
-			ps = new PrintStream(new java.io.OutputStream() {
-				private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
-
-				@Override
-				public synchronized void write(int b) {
-					buf.write(b);
-					if (b == '\n')
-						flushBuffer();
-				}
-
-				@Override
-				public synchronized void write(byte[] b, int off, int len) {
-					buf.write(b, off, len);
-					for (int i = off; i < off + len; i++) {
-						if (b[i] == '\n')
-							flushBuffer();
-					}
-				}
-
-				@Override
-				public synchronized void flush() {
-					flushBuffer();
-				}
-
-				private void flushBuffer() {
-					if (buf.size() == 0)
-						return;
-					String s = buf.toString(StandardCharsets.UTF_8);
-					buf.reset();
-					if (s != null && !s.isEmpty()) {
-						consoleAppender.accept(s);
-					}
-				}
-			}, true, StandardCharsets.UTF_8.name());
-		} catch (Exception e) {
-			ps = new PrintStream(System.out, true);
-		}
+		// interpreter output goes through the asynchronous pipeline to the console
+		output = new ScriptOutput(consoleText, OUTPUT_BACKLOG_BYTES);
+		PrintStream ps = new PrintStream(output, false, StandardCharsets.UTF_8);
 
 		// bind interpreter output to our PrintStream
 		try {
@@ -108,11 +114,47 @@ public class ScriptManager {
 
 		// provide an invoker object in the interpreter which will be called from the
 		// dynamically generated wrapper
+		NativeInvoker invoker = new NativeInvoker();
 		try {
-			interpreter.set("dllInvoker", new NativeInvoker());
+			interpreter.set("dllInvoker", invoker);
 		} catch (Exception e) {
 			consoleAppender.accept("Warning: could not bind dllInvoker: " + e.getMessage());
 		}
+		try {
+			interpreter.set("metrics", CallMetrics.getDefault());
+		} catch (Exception e) {
+			consoleAppender.accept("Warning: could not bind metrics: " + e.getMessage());
+		}
+		try {
+			interpreter.set("memo", MemoCache.getDefault());
+		} catch (Exception e) {
+			consoleAppender.accept("Warning: could not bind memo: " + e.getMessage());
+		}
+		try {
+			interpreter.set("callbacks", Callbacks.getDefault());
+		} catch (Exception e) {
+			consoleAppender.accept("Warning: could not bind callbacks: " + e.getMessage());
+		}
+		try {
+			interpreter.set("strings", StringMarshaler.getDefault());
+		} catch (Exception e) {
+			consoleAppender.accept("Warning: could not bind strings: " + e.getMessage());
+		}
+		try {
+			interpreter.set("parallel", parallel);
+		} catch (Exception e) {
+			consoleAppender.accept("Warning: could not bind parallel: " + e.getMessage());
+		}
+
+		// the same objects for JSR-223 languages; set once per engine when it is created
+		engines = new ScriptEnginePool(output);
+		engines.bind("dllInvoker", invoker);
+		engines.bind("dll", new ScriptEnginePool.Dll(invoker));
+		engines.bind("metrics", CallMetrics.getDefault());
+		engines.bind("memo", MemoCache.getDefault());
+		engines.bind("callbacks", Callbacks.getDefault());
+		engines.bind("strings", StringMarshaler.getDefault());
+		engines.bind("parallel", parallel);
 	}
 
 	/**
@@ -124,6 +166,19 @@ public class ScriptManager {
 			interpreter.set("nativeProxy", proxy);
 		} catch (Exception ignored) {
 		}
+		engines.bind("nativeProxy", proxy);
+	}
+
+	/**
+	 * Bind the per-module proxies of the workspace as 'modules', e.g. modules.get("foo.dll").invoke("Bar", args).
+	 */
+	public void setModuleProxies(Object moduleProxies) {
+		try {
+			interpreter.set("modules", moduleProxies);
+		} catch (Exception e) {
+			consoleAppender.accept("Warning: could not bind modules: " + e.getMessage());
+		}
+		engines.bind("modules", moduleProxies);
 	}
 
 	/**
@@ -133,6 +188,21 @@ public class ScriptManager {
 		this.currentDllFile = dllFile;
 	}
 
+	/**
+	 * Profile the following runs with the sampling {@link ScriptProfiler}; the result is returned in {@link ScriptResult#profile}.
+	 */
+	public void setProfiling(boolean profiling) {
+		this.profiling = profiling;
+	}
+
+	public boolean isProfiling() {
+		return profiling;
+	}
+
+	public void setProfileIntervalMs(int ms) {
+		this.profileIntervalMs = ms;
+	}
+
 	/**
 	 * Generate a BeanShell wrapper class with methods for each function name and bind an instance as "dll". Call this after you've loaded
 	 * the DLL and know its exported names.
@@ -142,46 +212,84 @@ public class ScriptManager {
 	public synchronized void setAvailableFunctionNames(Collection<String> names) {
 		if (names == null)
 			names = Collections.emptyList();
+		Events.WrapperGeneration ev = new Events.WrapperGeneration();
+		ev.begin();
 		// store for future re-creation if necessary
 		this.availableFunctionNames = Collections.unmodifiableCollection(names);
 
+		wrapperMethods.clear();
+		for (String raw : names)
+			addWrapperMethods(raw);
+		bindWrapper(names.size(), ev, names.size(), 0, false);
+	}
+
+	/**
+	 * Update the 'dll' wrapper after a re-parse: method sources are generated only for added names, those of unchanged names are reused.
+	 * The wrapper class itself is still evaluated again as a whole, since BeanShell cannot add methods to a class it has already defined;
+	 * only 'dll' is rebound, all other interpreter variables are left alone, so script state survives a DLL rebuild.
+	 */
+	public synchronized void updateAvailableFunctionNames(Collection<String> added, Collection<String> removed) {
+		Events.WrapperGeneration ev = new Events.WrapperGeneration();
+		ev.begin();
+		LinkedHashSet<String> names = new LinkedHashSet<>(availableFunctionNames);
+		if (removed != null) {
+			for (String name : removed) {
+				names.remove(name);
+				wrapperMethods.remove(name.trim());
+			}
+		}
+		if (added != null) {
+			for (String name : added) {
+				if (names.add(name))
+					addWrapperMethods(name);
+			}
+		}
+		this.availableFunctionNames = Collections.unmodifiableCollection(names);
+		bindWrapper(names.size(), ev, added != null ? added.size() : 0, removed != null ? removed.size() : 0, true);
+	}
+
+	private void addWrapperMethods(String raw) {
+		if (raw == null || raw.isBlank())
+			return;
+		String name = raw.trim();
+		if (!name.matches("[A-Za-z_$][A-Za-z0-9_$]*"))
+			return;
+
+		StringBuilder sb = new StringBuilder();
+		// 0-arg
+		sb.append("  Object ").append(name).append("() { return invoker.invoke(\"").append(name).append("\", new Object[]{}); }\n");
+
+		// overloads 1..6
+		for (int ar = 1; ar <= 6; ar++) {
+			sb.append("  Object ").append(name).append("(");
+			for (int i = 1; i <= ar; i++) {
+				if (i > 1)
+					sb.append(", ");
+				sb.append("Object a").append(i);
+			}
+			sb.append(") {\n");
+			sb.append("    Object[] arr = new Object[").append(ar).append("];\n");
+			for (int i = 1; i <= ar; i++) {
+				sb.append("    arr[").append(i - 1).append("] = a").append(i).append(";\n");
+			}
+			sb.append("    return invoker.invoke(\"").append(name).append("\", arr);\n");
+			sb.append("  }\n");
+		}
+
+		// varargs array form
+		sb.append("  Object ").append(name).append("_v(Object[] args) { return invoker.invoke(\"").append(name)
+				.append("\", args); }\n");
+		wrapperMethods.put(name, sb.toString());
+	}
+
+	private void bindWrapper(int functionCount, Events.WrapperGeneration ev, int added, int removed, boolean update) {
 		StringBuilder sb = new StringBuilder();
 		String className = "_DLLWrapper_" + System.nanoTime();
 		sb.append("class ").append(className).append(" {\n");
 		sb.append("  Object invoker;\n");
 		sb.append("  ").append(className).append("(Object inv) { this.invoker = inv; }\n");
-
-		for (String raw : names) {
-			if (raw == null || raw.isBlank())
-				continue;
-			String name = raw.trim();
-			if (!name.matches("[A-Za-z_$][A-Za-z0-9_$]*"))
-				continue;
-
-			// 0-arg
-			sb.append("  Object ").append(name).append("() { return invoker.invoke(\"").append(name).append("\", new Object[]{}); }\n");
-
-			// overloads 1..6
-			for (int ar = 1; ar <= 6; ar++) {
-				sb.append("  Object ").append(name).append("(");
-				for (int i = 1; i <= ar; i++) {
-					if (i > 1)
-						sb.append(", ");
-					sb.append("Object a").append(i);
-				}
-				sb.append(") {\n");
-				sb.append("    Object[] arr = new Object[").append(ar).append("];\n");
-				for (int i = 1; i <= ar; i++) {
-					sb.append("    arr[").append(i - 1).append("] = a").append(i).append(";\n");
-				}
-				sb.append("    return invoker.invoke(\"").append(name).append("\", arr);\n");
-				sb.append("  }\n");
-			}
-
-			// varargs array form
-			sb.append("  Object ").append(name).append("_v(Object[] args) { return invoker.invoke(\"").append(name)
-					.append("\", args); }\n");
-		}
+		for (String methods : wrapperMethods.values())
+			sb.append(methods);
 
 		// generic invoke
 		sb.append("  Object invoke(String name, Object[] args) { return invoker.invoke(name, args); }\n");
@@ -191,8 +299,10 @@ public class ScriptManager {
 			interpreter.eval(sb.toString());
 			Object wrapper = interpreter.eval("new " + className + "(dllInvoker)");
 			interpreter.set("dll", wrapper);
-			consoleAppender.accept("Script wrapper 'dll' created with " + names.size() + " functions.");
+			ev.finish(functionCount, added, removed, update, sb.length(), null);
+			consoleAppender.accept("Script wrapper 'dll' created with " + functionCount + " functions.");
 		} catch (Throwable t) {
+			ev.finish(functionCount, added, removed, update, sb.length(), t);
 			consoleAppender.accept("Failed to create DLL wrapper in script interpreter: " + t.getMessage());
 		}
 	}
@@ -214,36 +324,67 @@ public class ScriptManager {
 	}
 
 	/**
-	 * Execute a script (BeanShell). Callback receives ScriptResult on completion.
+	 * Create an engine for a JSR-223 language in the background, so that its first run does not pay for the engine start. BeanShell needs
+	 * no warm-up.
+	 */
+	public void prewarm(String language) {
+		if (isBeanShell(language))
+			return;
+		CompletableFuture.runAsync(() -> {
+			try {
+				engines.prewarm(language, 1);
+			} catch (RuntimeException ex) {
+				consoleAppender.accept("Warning: could not start " + language + " engine: " + ex.getMessage());
+			}
+		});
+	}
+
+	private static boolean isBeanShell(String language) {
+		return language == null || language.equalsIgnoreCase("BeanShell");
+	}
+
+	/**
+	 * Execute a script in the given language: BeanShell in the interpreter, anything else on a pooled JSR-223 engine. Callback receives
+	 * ScriptResult on completion.
 	 */
 	public void executeScript(String scriptText, String language, Consumer<ScriptResult> callback) {
+		AtomicReference<Parallel.Run> run = new AtomicReference<>();
 		Future<ScriptResult> fut = exec.submit(() -> {
+			// parallel work of this run is cancelled when it ends, so none of it overlaps the next run
+			Parallel.Run parallelRun = parallel.beginRun();
+			run.set(parallelRun);
 			ScriptResult res = new ScriptResult();
+			boolean beanShell = isBeanShell(language);
+			// line mapping of the profiler works on the BeanShell call stack only
+			boolean profiled = profiling && beanShell;
+			Events.ScriptExecution ev = new Events.ScriptExecution();
+			ev.begin();
+			output.beginCapture(outputCaptureLimit);
 			try {
-				// ensure up-to-date binding for nativeProxy (used by NativeInvoker)
-				try {
-					interpreter.set("nativeProxy", nativeProxy);
-				} catch (Exception ignored) {
-				}
-
-				// ensure wrapper exists (in case it was not created or binding got lost)
-				ensureWrapperPresent();
-
-				Object r = interpreter.eval(scriptText);
-				res.result = r;
+				if (beanShell)
+					runBeanShell(scriptText, profiled, res);
+				else
+					res.result = engines.eval(language, scriptText);
 			} catch (Throwable t) {
 				res.threw = t;
+			} finally {
+				parallelRun.cancel();
 			}
+			res.output = output.endCapture();
+			ev.finish(language, scriptText.length(), profiled, res.threw);
 			return res;
 		});
 
 		// manage timeout separately
-		exec.submit(() -> {
+		watchdog.submit(() -> {
 			try {
 				ScriptResult r = fut.get(timeoutMs, TimeUnit.MILLISECONDS);
 				callback.accept(r);
 			} catch (TimeoutException te) {
 				fut.cancel(true);
+				Parallel.Run r = run.get();
+				if (r != null)
+					r.cancel();
 				ScriptResult rr = new ScriptResult();
 				rr.timedOut = true;
 				callback.accept(rr);
@@ -260,21 +401,95 @@ public class ScriptManager {
 		});
 	}
 
+	private void runBeanShell(String scriptText, boolean profiled, ScriptResult res) throws Exception {
+		// ensure up-to-date binding for nativeProxy (used by NativeInvoker)
+		try {
+			interpreter.set("nativeProxy", nativeProxy);
+		} catch (Exception ignored) {
+		}
+
+		// ensure wrapper exists (in case it was not created or binding got lost)
+		ensureWrapperPresent();
+
+		if (profiled) {
+			runProfiled(scriptText, res);
+		} else {
+			Object r = interpreter.eval(scriptText);
+			res.result = r;
+		}
+	}
+
+	/**
+	 * Run on the script-runner thread under the profiler. The prologue hands the BeanShell call stack to the profiler; it is put on the
+	 * first line so that line numbers of the script stay as they are.
+	 */
+	private void runProfiled(String scriptText, ScriptResult res) throws Exception {
+		ScriptProfiler p = new ScriptProfiler(Thread.currentThread(), profileIntervalMs);
+		interpreter.set("_profiler", p);
+		profiler = p;
+		p.start();
+		try {
+			res.result = interpreter.eval("try { _profiler.attach(this.callstack); } catch (Throwable e) {} " + scriptText);
+		} finally {
+			profiler = null;
+			res.profile = p.stop();
+			interpreter.unset("_profiler");
+		}
+	}
+
+	/**
+	 * Maximum number of chars of a run's output kept in {@link ScriptResult#output}.
+	 */
+	public void setOutputCaptureLimit(int chars) {
+		this.outputCaptureLimit = chars;
+	}
+
 	public long getTimeoutMs() {
 		return timeoutMs;
 	}
 
+	// complete lines only, for a console that can only append lines; called on the output thread alone
+	private static Consumer<String> lineBuffered(Consumer<String> lines) {
+		StringBuilder open = new StringBuilder();
+		return text -> {
+			open.append(text);
+			int end = open.lastIndexOf("\n");
+			if (end >= 0) {
+				lines.accept(open.substring(0, end));
+				open.delete(0, end + 1);
+			}
+		};
+	}
+
 	public void shutdown() {
 		exec.shutdownNow();
+		watchdog.shutdownNow();
+		parallel.shutdown();
+		output.close();
 	}
 
 	/**
 	 * NativeInvoker: exposed into BeanShell as 'dllInvoker'.invoke(name, args) Attempts: 1) resolve proxied object and call method by name
-	 * via reflection 2) if method not found, try to call an 'invoke' style method on the wrapper via reflection 3) fallback: try JNA
-	 * Function lookup on currentDllFile and call it
+	 * via reflection 2) if method not found, try to call an 'invoke' style method on the wrapper via reflection 3) fallback: call it
+	 * through a proxy of its own on currentDllFile
+	 *
+	 * All three paths end in the proxy factory's invoke, which memoizes, times and records the call, so every call lands in
+	 * {@link CallMetrics} once and pure functions are cached the same way on each path.
 	 */
 	public class NativeInvoker {
 		public Object invoke(String name, Object[] args) throws Exception {
+			ScriptProfiler p = profiler;
+			if (p == null || !p.isSampledThread())
+				return dispatch(name, args);
+			p.enterNative(name);
+			try {
+				return dispatch(name, args);
+			} finally {
+				p.exitNative();
+			}
+		}
+
+		private Object dispatch(String name, Object[] args) throws Exception {
 			// 1) try direct reflection on proxied object
 			Object proxyObj = resolveProxyObject(nativeProxy);
 			if (proxyObj != null) {
@@ -301,6 +516,10 @@ public class ScriptManager {
 						if (p.length == 2 && p[0] == String.class && p[1] == Object[].class) {
 							try {
 								return m.invoke(nativeProxy, name, args == null ? new Object[] {} : args);
+							} catch (InvocationTargetException ite) {
+								// the wrapper is bound to a library: report its failure instead of loading the original DLL again
+								Throwable cause = ite.getCause() != null ? ite.getCause() : ite;
+								throw new RuntimeException("Native call failed for " + name + ": " + cause.getMessage(), cause);
 							} catch (Throwable t) {
 								/* ignore */ }
 						}
@@ -308,13 +527,11 @@ public class ScriptManager {
 				}
 			}
 
-			// 3) fallback: try JNA Function lookup by name (requires currentDllFile)
-			if (currentDllFile != null && currentDllFile.exists()) {
+			// 3) fallback: call through a proxy factory of its own on currentDllFile
+			java.io.File dll = currentDllFile;
+			if (dll != null && dll.exists()) {
 				try {
-					NativeLibrary lib = NativeLibrary.getInstance(currentDllFile.getAbsolutePath());
-					Function f = lib.getFunction(name);
-					Object[] a = args == null ? new Object[] {} : args;
-					return f.invoke(Object.class, a);
+					return fallbackProxy(dll).invoke(name, args);
 				} catch (Throwable t) {
 					throw new RuntimeException("Native call failed for " + name + ": " + t.getMessage(), t);
 				}
@@ -324,6 +541,18 @@ public class ScriptManager {
 		}
 	}
 
+	/**
+	 * Proxy on the given DLL for the invoker's fallback path, created on first use and kept until the DLL changes. The replaced one is
+	 * not disposed, since JNA shares the loaded library with other unshadowed proxies of the same file.
+	 */
+	private synchronized JnaProxyFactory.ProxyWrapper fallbackProxy(java.io.File dll) {
+		if (fallbackProxy == null || !dll.equals(fallbackDll)) {
+			fallbackProxy = new JnaProxyFactory(dll.getAbsolutePath()).createNativeProxy();
+			fallbackDll = dll;
+		}
+		return fallbackProxy;
+	}
+
 	/**
 	 * Try to obtain the underlying proxied object from the wrapper using common accessor names. If nothing found, return the wrapper itself
 	 * (may still be usable).
@@ -0,0 +1,352 @@
+package de.in.yajda.script;
+
+import java.awt.EventQueue;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Output stream behind the interpreter's out/err. Writers copy each bulk write into a chunk on a lock-free queue and return; a daemon
+ * thread decodes the chunks as UTF-8 and hands the text to the consumer whenever the queue runs empty, all text that piled up since the
+ * last delivery in one call. A line without line break yet is delivered as it is, so progress output shows up while the script runs; the
+ * consumer appends text as given. Single-byte writes are collected per writing thread and handed on at a line break, when the buffer is
+ * full, before the next bulk write of that thread, or after a short pause.
+ *
+ * The console appends on the event dispatch thread, so after each delivery the thread waits until the event queue has got past it; bytes
+ * count as pending until then. Writers are held back once more than the given number of bytes is pending, so a script printing in a tight
+ * loop runs at the pace of the console instead of filling the heap or the event queue.
+ *
+ * While a capture is active, the decoded text is also copied into it, up to a size limit; this is what ends up in
+ * {@link ScriptManager.ScriptResult#output}.
+ */
+public final class ScriptOutput extends OutputStream {
+	private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+	private static final long DRAIN_TIMEOUT_MS = 5000;
+	private static final int SINGLES_SIZE = 256;
+	// how long collected single bytes may wait for their line to be completed
+	private static final long SINGLES_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+	private static final class Chunk {
+		final byte[] bytes;
+		final CountDownLatch drained;
+
+		Chunk(byte[] bytes, CountDownLatch drained) {
+			this.bytes = bytes;
+			this.drained = drained;
+		}
+	}
+
+	/**
+	 * Bytes of single-byte writes of one thread. Only that thread adds to it; it and the drainer take the bytes out, under the lock.
+	 */
+	private static final class Singles {
+		final byte[] bytes = new byte[SINGLES_SIZE];
+		int count;
+
+		synchronized byte[] take() {
+			if (count == 0)
+				return null;
+			byte[] b = new byte[count];
+			System.arraycopy(bytes, 0, b, 0, count);
+			count = 0;
+			return b;
+		}
+	}
+
+	/**
+	 * Size-capped copy of the output of one run.
+	 */
+	private static final class Capture {
+		final int limit;
+		final StringBuilder text = new StringBuilder();
+		long dropped;
+
+		Capture(int limit) {
+			this.limit = limit;
+		}
+
+		void append(CharSequence s) {
+			int room = limit - text.length();
+			if (room >= s.length()) {
+				text.append(s);
+			} else {
+				if (room > 0)
+					text.append(s, 0, room);
+				dropped += s.length() - Math.max(0, room);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return dropped == 0 ? text.toString() : text + System.lineSeparator() + "... [output truncated, " + dropped + " more chars]";
+		}
+	}
+
+	private final Consumer<String> text;
+	private final long capacity;
+	private final Queue<Chunk> queue = new ConcurrentLinkedQueue<>();
+	private final AtomicLong pending = new AtomicLong();
+	private final ThreadLocal<Singles> singles = ThreadLocal.withInitial(Singles::new);
+	// buffers that may hold single bytes; the drainer hands them on when the queue runs empty
+	private final Set<Singles> openSingles = ConcurrentHashMap.newKeySet();
+	private final Thread drainer;
+	private volatile boolean parked;
+	private volatile boolean closed;
+	private volatile Capture capture;
+
+	// drainer thread only
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer carry = ByteBuffer.allocate(0);
+	private final CharBuffer decoded = CharBuffer.allocate(8192);
+	// text not yet handed to the consumer; a '\r' at its end waits for the next chunk, it may start a "\r\n"
+	private final StringBuilder batch = new StringBuilder();
+	// bytes decoded since the last delivery, released from pending once the console has shown them
+	private long batchBytes;
+	// the last delivered text did not end with a line break
+	private boolean lineOpen;
+
+	/**
+	 * @param text     receives the output as text with '\n' line breaks, one or more lines per call; the last line may be incomplete and
+	 *                 is continued by the next call
+	 * @param capacity bytes that may wait for delivery before writers are held back
+	 */
+	public ScriptOutput(Consumer<String> text, long capacity) {
+		this.text = text;
+		this.capacity = capacity;
+		drainer = new Thread(this::drainLoop, "script-output");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	@Override
+	public void write(int b) {
+		if (closed)
+			return;
+		Singles s = singles.get();
+		byte[] full;
+		synchronized (s) {
+			if (s.count == 0)
+				openSingles.add(s);
+			s.bytes[s.count++] = (byte) b;
+			if (b != '\n' && s.count < SINGLES_SIZE)
+				return;
+			full = s.take();
+		}
+		submit(full, true);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) {
+		if (len <= 0 || closed)
+			return;
+		// single bytes of this thread go first
+		submit(singles.get().take(), true);
+		byte[] copy = new byte[len];
+		System.arraycopy(b, off, copy, 0, len);
+		submit(copy, true);
+	}
+
+	private void submit(byte[] bytes, boolean wait) {
+		if (bytes == null)
+			return;
+		while (wait && pending.get() > capacity && !closed)
+			LockSupport.parkNanos(BACKOFF_NANOS);
+		pending.addAndGet(bytes.length);
+		enqueue(new Chunk(bytes, null));
+	}
+
+	/**
+	 * Writes are delivered asynchronously; use {@link #drain()} to wait for them.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Wait until everything written so far has been delivered. A last line without line break is ended, so what the console shows next
+	 * starts on a line of its own.
+	 */
+	public void drain() {
+		if (closed)
+			return;
+		submit(singles.get().take(), false);
+		CountDownLatch done = new CountDownLatch(1);
+		enqueue(new Chunk(null, done));
+		try {
+			done.await(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Start copying output into a capture of at most the given number of chars. Output written before is delivered first and not captured.
+	 */
+	public void beginCapture(int limit) {
+		drain();
+		capture = new Capture(limit);
+	}
+
+	/**
+	 * Stop capturing and return what was captured, or null if no capture was active.
+	 */
+	public String endCapture() {
+		drain();
+		Capture c = capture;
+		capture = null;
+		return c != null ? c.toString() : null;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(drainer);
+	}
+
+	private void enqueue(Chunk c) {
+		queue.offer(c);
+		if (parked)
+			LockSupport.unpark(drainer);
+	}
+
+	private void drainLoop() {
+		while (!closed) {
+			Chunk c = queue.poll();
+			if (c == null) {
+				if (takeSingles())
+					continue;
+				deliver(false);
+				parked = true;
+				// re-check after announcing, so an offer in between is not missed
+				if (queue.isEmpty() && !closed) {
+					// single bytes do not wake the drainer; look again after a short pause while some may be waiting
+					if (openSingles.isEmpty())
+						LockSupport.park(this);
+					else
+						LockSupport.parkNanos(this, SINGLES_DELAY_NANOS);
+				}
+				parked = false;
+				continue;
+			}
+			if (c.bytes != null) {
+				decode(c.bytes);
+				batchBytes += c.bytes.length;
+			} else {
+				// single bytes of other threads count as written before the drain
+				for (Singles s : openSingles) {
+					openSingles.remove(s);
+					byte[] b = s.take();
+					if (b != null)
+						decode(b);
+				}
+				deliver(true);
+				c.drained.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Queue the single bytes that are waiting; true if there were any.
+	 */
+	private boolean takeSingles() {
+		boolean any = false;
+		for (Singles s : openSingles) {
+			openSingles.remove(s);
+			byte[] b = s.take();
+			if (b != null) {
+				// the drainer must not wait for itself
+				submit(b, false);
+				any = true;
+			}
+		}
+		return any;
+	}
+
+	private void decode(byte[] bytes) {
+		ByteBuffer in;
+		if (carry.hasRemaining()) {
+			in = ByteBuffer.allocate(carry.remaining() + bytes.length);
+			in.put(carry).put(bytes).flip();
+		} else {
+			in = ByteBuffer.wrap(bytes);
+		}
+		while (true) {
+			decoded.clear();
+			boolean overflow = decoder.decode(in, decoded, false).isOverflow();
+			decoded.flip();
+			Capture cap = capture;
+			if (cap != null)
+				cap.append(decoded);
+			append(decoded);
+			if (!overflow)
+				break;
+		}
+		// an incomplete multi-byte sequence at the end waits for the next chunk
+		carry = in.hasRemaining() ? ByteBuffer.allocate(in.remaining()).put(in).flip() : ByteBuffer.allocate(0);
+	}
+
+	// appends to the batch, dropping the '\r' of "\r\n"
+	private void append(CharBuffer chars) {
+		int n = chars.remaining();
+		for (int i = 0; i < n; i++) {
+			char ch = chars.charAt(i);
+			int len = batch.length();
+			if (ch == '\n' && len > 0 && batch.charAt(len - 1) == '\r')
+				batch.setLength(len - 1);
+			batch.append(ch);
+		}
+	}
+
+	/**
+	 * Hand the batch to the consumer; with {@code end}, a line left open is ended.
+	 */
+	private void deliver(boolean end) {
+		int len = batch.length();
+		// a trailing '\r' may belong to a "\r\n" whose '\n' is still to come
+		int keep = !end && len > 0 && batch.charAt(len - 1) == '\r' ? 1 : 0;
+		String s = batch.substring(0, len - keep);
+		batch.delete(0, len - keep);
+		if (end && (s.isEmpty() ? lineOpen : !s.endsWith("\n")))
+			s += "\n";
+		if (!s.isEmpty()) {
+			lineOpen = !s.endsWith("\n");
+			try {
+				text.accept(s);
+				awaitConsole();
+			} catch (RuntimeException ex) {
+				// a failing console must not stop the pipeline
+			}
+		}
+		pending.addAndGet(-batchBytes);
+		batchBytes = 0;
+	}
+
+	/**
+	 * Wait until the event dispatch thread has run everything posted so far, including the append of the last batch. Bounded, so a
+	 * blocked event thread slows the output down but does not stop it.
+	 */
+	private void awaitConsole() {
+		if (EventQueue.isDispatchThread())
+			return;
+		CountDownLatch shown = new CountDownLatch(1);
+		EventQueue.invokeLater(shown::countDown);
+		try {
+			shown.await(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			// the drainer is only interrupted on shutdown
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package de.in.yajda.script;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import bsh.CallStack;
+import bsh.NameSpace;
+
+/**
+ * Sampling profiler for one script run. A daemon thread takes the Java stack of the script-runner thread at a fixed interval and
+ * attributes each sample to a script line and to one of three categories: interpreting BeanShell, marshaling arguments (JNA and the
+ * invoker), or running native code (with the symbol named by the {@link ScriptManager.NativeInvoker}).
+ *
+ * Lines are taken from the BeanShell call stack, which the script hands over in a one-line prologue: the innermost frame with a call
+ * site gives the line. Calls through 'dll' and to script methods are therefore attributed to the line of the call; statements at top
+ * level that call no method (e.g. a plain loop) are counted as line 0.
+ *
+ * Nothing of this runs unless profiling is switched on in the {@link ScriptManager}.
+ */
+public class ScriptProfiler {
+	public static final int DEFAULT_INTERVAL_MS = 5;
+
+	public enum Category {
+		INTERPRETER, MARSHALING, NATIVE
+	}
+
+	/**
+	 * Samples of one script line.
+	 */
+	public static final class LineStats {
+		/** 1-based script line; 0 if no line was known. */
+		public final int line;
+		public long samples;
+		public final long[] byCategory = new long[Category.values().length];
+		/** Native samples per symbol. */
+		public final Map<String, Long> natives = new HashMap<>();
+
+		LineStats(int line) {
+			this.line = line;
+		}
+
+		public long samples(Category c) {
+			return byCategory[c.ordinal()];
+		}
+	}
+
+	/**
+	 * Result of a profiled run.
+	 */
+	public static final class Profile {
+		public final long samples;
+		public final long durationNanos;
+		public final int intervalMs;
+		/** Hottest line first. */
+		public final List<LineStats> lines;
+		/** Native samples per symbol, hottest first. */
+		public final Map<String, Long> natives;
+
+		Profile(long samples, long durationNanos, int intervalMs, List<LineStats> lines, Map<String, Long> natives) {
+			this.samples = samples;
+			this.durationNanos = durationNanos;
+			this.intervalMs = intervalMs;
+			this.lines = lines;
+			this.natives = natives;
+		}
+
+		public double share(LineStats l) {
+			return samples == 0 ? 0 : (double) l.samples / samples;
+		}
+
+		/**
+		 * Plain text report of the hottest lines, for the console and headless runs.
+		 */
+		public String report(int maxLines) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("Profile: %d samples every %d ms over %d ms%n", samples, intervalMs, durationNanos / 1_000_000));
+			int n = 0;
+			for (LineStats l : lines) {
+				if (n++ == maxLines)
+					break;
+				sb.append(String.format("  %s %5.1f%%  interp %d  marshal %d  native %d", l.line > 0 ? "line " + l.line : "top-level", 100 * share(l),
+						l.samples(Category.INTERPRETER), l.samples(Category.MARSHALING), l.samples(Category.NATIVE)));
+				if (!l.natives.isEmpty())
+					sb.append("  ").append(l.natives);
+				sb.append(System.lineSeparator());
+			}
+			return sb.toString();
+		}
+	}
+
+	private final Thread target;
+	private final int intervalMs;
+	private volatile CallStack callstack;
+	private volatile String currentNative;
+	private volatile boolean running;
+	private Thread sampler;
+	private long startNanos;
+	// written by the sampler thread only, read after it has been joined
+	private final Map<Integer, LineStats> lines = new HashMap<>();
+	private long samples;
+
+	ScriptProfiler(Thread target, int intervalMs) {
+		this.target = target;
+		this.intervalMs = Math.max(1, intervalMs);
+	}
+
+	/**
+	 * Called by the script prologue with 'this.callstack'.
+	 */
+	public void attach(Object cs) {
+		if (cs instanceof CallStack)
+			callstack = (CallStack) cs;
+	}
+
+	/**
+	 * Whether the calling thread is the sampled one. Native calls made from other threads (parallel workers) are not attributed to the
+	 * line the script thread is on.
+	 */
+	boolean isSampledThread() {
+		return Thread.currentThread() == target;
+	}
+
+	void enterNative(String name) {
+		currentNative = name;
+	}
+
+	void exitNative() {
+		currentNative = null;
+	}
+
+	void start() {
+		running = true;
+		startNanos = System.nanoTime();
+		sampler = new Thread(() -> {
+			long interval = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+			while (running) {
+				LockSupport.parkNanos(interval);
+				if (running)
+					sample();
+			}
+		}, "script-profiler");
+		sampler.setDaemon(true);
+		sampler.start();
+	}
+
+	Profile stop() {
+		running = false;
+		long duration = System.nanoTime() - startNanos;
+		try {
+			sampler.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		List<LineStats> sorted = new ArrayList<>(lines.values());
+		sorted.sort((a, b) -> Long.compare(b.samples, a.samples));
+		Map<String, Long> perSymbol = new HashMap<>();
+		for (LineStats l : sorted)
+			l.natives.forEach((k, v) -> perSymbol.merge(k, v, Long::sum));
+		List<Map.Entry<String, Long>> entries = new ArrayList<>(perSymbol.entrySet());
+		entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+		Map<String, Long> natives = new LinkedHashMap<>();
+		for (Map.Entry<String, Long> e : entries)
+			natives.put(e.getKey(), e.getValue());
+		return new Profile(samples, duration, intervalMs, Collections.unmodifiableList(sorted), Collections.unmodifiableMap(natives));
+	}
+
+	private void sample() {
+		StackTraceElement[] stack = target.getStackTrace();
+		if (stack.length == 0)
+			return;
+		Category cat = categorize(stack);
+		int line = currentLine();
+		LineStats l = lines.computeIfAbsent(line, LineStats::new);
+		l.samples++;
+		l.byCategory[cat.ordinal()]++;
+		if (cat == Category.NATIVE) {
+			String sym = currentNative;
+			l.natives.merge(sym != null ? sym : "?", 1L, Long::sum);
+		}
+		samples++;
+	}
+
+	/**
+	 * Native if the thread is inside a JNA native method, marshaling if JNA or the invoker is on the stack above the first interpreter
+	 * frame, interpreter otherwise.
+	 */
+	static Category categorize(StackTraceElement[] stack) {
+		StackTraceElement top = stack[0];
+		if (top.isNativeMethod() && top.getClassName().startsWith("com.sun.jna."))
+			return Category.NATIVE;
+		for (StackTraceElement e : stack) {
+			String cls = e.getClassName();
+			if (cls.startsWith("bsh."))
+				break;
+			if (cls.startsWith("com.sun.jna.") || cls.startsWith(ScriptManager.NativeInvoker.class.getName())
+					|| cls.equals("de.in.yajda.dll.JnaProxyFactory"))
+				return Category.MARSHALING;
+		}
+		return Category.INTERPRETER;
+	}
+
+	private int currentLine() {
+		CallStack cs = callstack;
+		if (cs == null)
+			return 0;
+		NameSpace[] frames;
+		try {
+			frames = cs.toArray();
+		} catch (RuntimeException ex) {
+			// the stack changed while it was copied; count the sample as top level
+			return 0;
+		}
+		// index 0 is the innermost frame
+		for (NameSpace ns : frames) {
+			int line = ns != null ? ns.getInvocationLine() : -1;
+			if (line > 0)
+				return line;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,380 @@
+package de.in.yajda.ui;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+import de.in.yajda.dll.ElfImage;
+import de.in.yajda.dll.PeImage;
+import de.in.yajda.dll.UnwindTable;
+import de.in.yajda.dll.X64Decoder;
+import de.in.yajda.dll.X64Format;
+
+/**
+ * Hex dump or x86-64 disassembly of the library's bytes at a function's entry point.
+ *
+ * The library is mapped read-only once per file and only the lines that fit the view are decoded when it is painted; the OS pages in
+ * what is looked at, so opening and scrolling a multi-hundred-MB image costs no heap. The scroll bar runs over file offsets. Addresses
+ * shown are RVAs (PE) or virtual addresses (ELF), translated with the section/segment tables of the image.
+ */
+public class CodeViewPanel extends JPanel {
+    private static final String DISASSEMBLY = "Disassembly";
+    private static final String HEX = "Hex";
+    private static final int HEX_BYTES = 16;
+    // bytes shown per disassembly line; longer instructions end in ".."
+    private static final int CODE_BYTES = 8;
+    // how far back to look for an instruction chain that ends exactly at the current line
+    private static final int BACKTRACK = 32;
+
+    private final JComboBox<String> mode = new JComboBox<>(new String[] { DISASSEMBLY, HEX });
+    private final JLabel title = new JLabel(" ");
+    private final Page page = new Page();
+    private final JScrollBar scrollBar = new JScrollBar(JScrollBar.VERTICAL);
+    private final X64Decoder.Instruction insn = new X64Decoder.Instruction();
+
+    private File file;
+    private long fileLength;
+    private long fileModified;
+    private ByteBuffer map;
+    private PeImage pe;
+    private ElfImage elf;
+    private UnwindTable unwind;
+    private boolean x64;
+    // file offset of the first visible line, and the range of the function shown (highlighted), mark = -1 if none
+    private int top;
+    private int mark = -1;
+    private int markEnd = -1;
+    private boolean syncing;
+
+    public CodeViewPanel() {
+        super(new BorderLayout());
+        JPanel header = new JPanel(new BorderLayout(4, 0));
+        header.add(title, BorderLayout.CENTER);
+        header.add(mode, BorderLayout.EAST);
+        add(header, BorderLayout.NORTH);
+        add(page, BorderLayout.CENTER);
+        add(scrollBar, BorderLayout.EAST);
+
+        mode.addActionListener(e -> {
+            updateScrollBar();
+            page.repaint();
+        });
+        scrollBar.addAdjustmentListener(e -> {
+            if (!syncing)
+                scrolled(e.getValue());
+        });
+        page.addMouseWheelListener(e -> scrollLines(e.getWheelRotation() * 3));
+        page.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                updateScrollBar();
+            }
+        });
+        page.setFocusable(true);
+        page.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                page.requestFocusInWindow();
+            }
+        });
+        page.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                int code = e.getKeyCode();
+                if (code == KeyEvent.VK_UP)
+                    scrollLines(-1);
+                else if (code == KeyEvent.VK_DOWN)
+                    scrollLines(1);
+                else if (code == KeyEvent.VK_PAGE_UP)
+                    scrollLines(-page.lines());
+                else if (code == KeyEvent.VK_PAGE_DOWN)
+                    scrollLines(page.lines());
+                else if (code == KeyEvent.VK_HOME)
+                    scrollTo(Math.max(mark, 0));
+                else
+                    return;
+                e.consume();
+            }
+        });
+        clear();
+    }
+
+    /**
+     * Map the library for viewing. Does nothing if the file is already open and unchanged on disk; the previous mapping is released
+     * when it is collected.
+     */
+    public void open(File library) throws IOException {
+        if (library.equals(file) && library.length() == fileLength && library.lastModified() == fileModified)
+            return;
+        clear();
+        long modified = library.lastModified();
+        ByteBuffer mapped;
+        try (FileChannel ch = FileChannel.open(library.toPath(), StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE)
+                throw new IOException("File too large to view: " + library);
+            mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        try {
+            pe = PeImage.parse(mapped);
+            x64 = pe.isX64();
+        } catch (IOException | RuntimeException notPe) {
+            try {
+                elf = ElfImage.parse(mapped);
+                x64 = elf.isX64();
+            } catch (IOException | RuntimeException notElf) {
+                // neither: plain hex view over file offsets
+            }
+        }
+        if (pe != null && x64) {
+            try {
+                unwind = UnwindTable.parse(pe, mapped);
+            } catch (IOException | RuntimeException ex) {
+                // damaged .pdata: show functions without their extent
+            }
+        }
+        map = mapped;
+        file = library;
+        fileLength = mapped.limit();
+        fileModified = modified;
+        title.setText(library.getName());
+        updateScrollBar();
+        page.repaint();
+    }
+
+    /**
+     * Drop the mapping and show nothing.
+     */
+    public void clear() {
+        map = null;
+        pe = null;
+        elf = null;
+        unwind = null;
+        x64 = false;
+        file = null;
+        top = 0;
+        mark = -1;
+        markEnd = -1;
+        title.setText("No library");
+        title.setToolTipText(null);
+        updateScrollBar();
+        page.repaint();
+    }
+
+    /**
+     * Scroll to the entry point of an export and highlight it.
+     */
+    public void showFunction(FunctionInfo fi) {
+        if (map == null || fi == null)
+            return;
+        long offset = offsetOf(fi.rva & 0xFFFFFFFFL);
+        if (fi.rva == 0 || offset < 0 || offset >= map.limit()) {
+            mark = -1;
+            markEnd = -1;
+            title.setText(fi.name + ": no code in " + file.getName());
+            page.repaint();
+            return;
+        }
+        mark = (int) offset;
+        markEnd = mark + 1;
+        String extent = "";
+        int entry = unwind != null ? unwind.indexOf(fi.rva) : -1;
+        if (entry >= 0) {
+            // highlight the body up to the end of its unwind entry
+            markEnd = mark + unwind.end(entry) - fi.rva;
+            extent = "  " + unwind.describe(entry);
+        }
+        title.setText(String.format("%s  @ 0x%X  (file 0x%X)%s", fi.name, fi.rva & 0xFFFFFFFFL, offset, extent));
+        title.setToolTipText(title.getText());
+        scrollTo(mark);
+    }
+
+    private boolean disassembling() {
+        return x64 && DISASSEMBLY.equals(mode.getSelectedItem());
+    }
+
+    private long offsetOf(long address) {
+        if (pe != null)
+            return pe.rvaToOffset((int) address);
+        if (elf != null)
+            return elf.toOffset(address);
+        return address;
+    }
+
+    /**
+     * Address the byte at a file offset is loaded at, or -1 if it is not part of the loaded image.
+     */
+    private long addressOf(long offset) {
+        if (pe != null)
+            return pe.offsetToRva(offset);
+        if (elf != null)
+            return elf.toAddress(offset);
+        return offset;
+    }
+
+    private void scrollTo(int offset) {
+        top = Math.max(0, offset);
+        updateScrollBar();
+        page.repaint();
+    }
+
+    /**
+     * The scroll bar moved: small moves step whole lines (a disassembly line has no fixed size), larger ones jump to the offset.
+     */
+    private void scrolled(int value) {
+        int delta = value - top;
+        if (delta == 0)
+            return;
+        int unit = scrollBar.getUnitIncrement();
+        if (Math.abs(delta) == unit)
+            scrollLines(Integer.signum(delta));
+        else
+            scrollTo(disassembling() ? value : value - value % HEX_BYTES);
+    }
+
+    private void scrollLines(int lines) {
+        if (map == null)
+            return;
+        int offset = top;
+        if (!disassembling()) {
+            offset += lines * HEX_BYTES;
+        } else {
+            for (int i = 0; i < lines && offset < map.limit(); i++)
+                offset += instructionLength(offset);
+            for (int i = 0; i > lines && offset > 0; i--)
+                offset = previousInstruction(offset);
+        }
+        scrollTo(Math.min(offset, Math.max(0, map.limit() - 1)));
+    }
+
+    private void updateScrollBar() {
+        syncing = true;
+        try {
+            if (map == null) {
+                scrollBar.setValues(0, 1, 0, 1);
+                scrollBar.setEnabled(false);
+                return;
+            }
+            int perLine = disassembling() ? 4 : HEX_BYTES;
+            int visible = Math.max(1, page.lines() * perLine);
+            scrollBar.setEnabled(true);
+            scrollBar.setValues(Math.min(top, map.limit()), visible, 0, map.limit() + visible);
+            scrollBar.setUnitIncrement(disassembling() ? 1 : HEX_BYTES);
+            scrollBar.setBlockIncrement(visible);
+        } finally {
+            syncing = false;
+        }
+    }
+
+    /**
+     * Length of the instruction at a file offset; undecodable bytes count as one.
+     */
+    private int instructionLength(int offset) {
+        return X64Decoder.decode(map, offset, map.limit(), insn) ? insn.length : 1;
+    }
+
+    /**
+     * Start of the instruction before the one at {@code offset}. x86 cannot be decoded backwards, so this decodes forward from up to
+     * {@link #BACKTRACK} bytes earlier and takes the first chain of instructions that ends exactly at the offset.
+     */
+    private int previousInstruction(int offset) {
+        for (int start = Math.max(0, offset - BACKTRACK); start < offset; start++) {
+            int p = start;
+            int last = start;
+            while (p < offset) {
+                last = p;
+                p += instructionLength(p);
+            }
+            if (p == offset)
+                return last;
+        }
+        return offset - 1;
+    }
+
+    /**
+     * The visible page, painted straight from the mapping.
+     */
+    private class Page extends JComponent {
+        private final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+        int lines() {
+            int h = getFontMetrics(font).getHeight();
+            return Math.max(1, getHeight() / h);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            g.setColor(UIManager.getColor("TextArea.background"));
+            g.fillRect(0, 0, getWidth(), getHeight());
+            g.setFont(font);
+            FontMetrics fm = g.getFontMetrics();
+            int h = fm.getHeight();
+            Color fg = UIManager.getColor("TextArea.foreground");
+            if (map == null) {
+                g.setColor(fg);
+                g.drawString("Open a library and select a function.", 4, fm.getAscent() + 2);
+                return;
+            }
+            boolean code = disassembling();
+            StringBuilder line = new StringBuilder(96);
+            int offset = top;
+            int limit = map.limit();
+            for (int y = 0; y < getHeight() && offset < limit; y += h) {
+                line.setLength(0);
+                long address = addressOf(offset);
+                line.append(address >= 0 ? String.format("%08X  ", address) : "--------  ");
+                int length = code ? disassemble(offset, address, line) : dump(offset, line);
+                if (offset < markEnd && mark < offset + length) {
+                    g.setColor(UIManager.getColor("TextArea.selectionBackground"));
+                    g.fillRect(0, y, getWidth(), h);
+                }
+                g.setColor(fg);
+                g.drawString(line.toString(), 4, y + fm.getAscent());
+                offset += length;
+            }
+        }
+
+        private int disassemble(int offset, long address, StringBuilder line) {
+            boolean ok = X64Decoder.decode(map, offset, map.limit(), insn);
+            int length = ok ? insn.length : 1;
+            for (int i = 0; i < CODE_BYTES; i++) {
+                if (i < Math.min(length, CODE_BYTES - 1) || i == length - 1)
+                    line.append(String.format("%02X ", map.get(offset + i) & 0xFF));
+                else if (i == CODE_BYTES - 1 && length > CODE_BYTES)
+                    line.append(".. ");
+                else
+                    line.append("   ");
+            }
+            line.append(' ');
+            if (ok)
+                line.append(X64Format.format(insn, address >= 0 ? address : offset));
+            else
+                line.append(String.format("db 0x%02X", map.get(offset) & 0xFF));
+            return length;
+        }
+
+        private int dump(int offset, StringBuilder line) {
+            int length = Math.min(HEX_BYTES, map.limit() - offset);
+            for (int i = 0; i < HEX_BYTES; i++) {
+                if (i < length)
+                    line.append(String.format("%02X ", map.get(offset + i) & 0xFF));
+                else
+                    line.append("   ");
+                if (i == HEX_BYTES / 2 - 1)
+                    line.append(' ');
+            }
+            line.append(' ');
+            for (int i = 0; i < length; i++) {
+                int b = map.get(offset + i) & 0xFF;
+                line.append(b >= 0x20 && b < 0x7F ? (char) b : '.');
+            }
+            return length;
+        }
+    }
+}
@@ -19,8 +19,15 @@ public class ConsolePanel extends JPanel {
     }
 
     public void append(String s) {
+        appendText(s + "\n");
+    }
+
+    /**
+     * Append text as given, without adding a line break.
+     */
+    public void appendText(String s) {
         SwingUtilities.invokeLater(() -> {
-            area.append(s + "\n");
+            area.append(s);
             area.setCaretPosition(area.getDocument().getLength());
         });
     }
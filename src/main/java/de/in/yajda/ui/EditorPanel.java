@@ -1,14 +1,17 @@
 package de.in.yajda.ui;
 
 import java.awt.BorderLayout;
+import java.awt.Color;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.AbstractAction;
 import javax.swing.Action;
@@ -17,28 +20,36 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.KeyStroke;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.undo.CompoundEdit;
 import javax.swing.undo.UndoManager;
 
 import org.fife.ui.autocomplete.AutoCompletion;
-import org.fife.ui.autocomplete.BasicCompletion;
-import org.fife.ui.autocomplete.DefaultCompletionProvider;
 import org.fife.ui.rsyntaxtextarea.RSyntaxTextArea;
 import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.fife.ui.rsyntaxtextarea.Token;
+import org.fife.ui.rsyntaxtextarea.TokenTypes;
 import org.fife.ui.rtextarea.RTextScrollPane;
 
+import de.in.yajda.dll.DllParser.FunctionInfo;
+
 /**
- * RSyntaxTextArea-based editor panel with basic autocomplete and undo/redo. Implements a minimal "rename symbol within current file"
+ * RSyntaxTextArea-based editor panel with basic autocomplete and undo/redo. Implements a token-based "rename symbol within current file"
  * refactoring.
  *
  * Changes: - Undo/Redo/Rename are provided via context menu (right-click) and keyboard shortcuts. - Autocompletion provider can be updated
  * dynamically (DLL functions, BeanShell symbols). - Ctrl+Space triggers completion (handled by AutoCompletion itself). - Word-at-caret
- * detection implemented without relying on org.fife Utilities class.
+ * detection uses the token under the caret.
  */
 public class EditorPanel extends JPanel {
 	private RSyntaxTextArea textArea;
 	private UndoManager undoManager = new UndoManager();
+	// collects the document edits of a multi-step operation (rename) into one undo step
+	private CompoundEdit compoundEdit;
 
-	private final DefaultCompletionProvider completionProvider;
+	private final SymbolCompletionProvider completionProvider;
 	private final AutoCompletion ac;
 
 	public EditorPanel() {
@@ -49,7 +60,12 @@ public class EditorPanel extends JPanel {
 		add(sp, BorderLayout.CENTER);
 
 		// Undo/Redo
-		textArea.getDocument().addUndoableEditListener(e -> undoManager.addEdit(e.getEdit()));
+		textArea.getDocument().addUndoableEditListener(e -> {
+			if (compoundEdit != null)
+				compoundEdit.addEdit(e.getEdit());
+			else
+				undoManager.addEdit(e.getEdit());
+		});
 		Action undoAction = new AbstractAction("Undo") {
 			public void actionPerformed(java.awt.event.ActionEvent e) {
 				if (undoManager.canUndo())
@@ -127,13 +143,9 @@ public class EditorPanel extends JPanel {
 			}
 		});
 
-		// Autocomplete provider setup
-		completionProvider = new DefaultCompletionProvider();
-		// Add some basic completions to begin with
-		completionProvider.addCompletion(new BasicCompletion(completionProvider, "native"));
-		completionProvider.addCompletion(new BasicCompletion(completionProvider, "nativeLib"));
-		completionProvider.addCompletion(new BasicCompletion(completionProvider, "print"));
-		completionProvider.addCompletion(new BasicCompletion(completionProvider, "println"));
+		// Autocomplete provider setup: fixed script words plus the symbols of the loaded DLL/header
+		completionProvider = new SymbolCompletionProvider();
+		completionProvider.setKeywords(List.of("native", "nativeLib", "print", "println", "int", "long", "float", "double"));
 
 		ac = new AutoCompletion(completionProvider);
 		ac.setParameterAssistanceEnabled(true);
@@ -146,38 +158,14 @@ public class EditorPanel extends JPanel {
 	}
 
 	/**
-	 * Find the Java-like word at the caret position. Scans left/right for Java identifier parts.
+	 * The identifier token at (or right before) the caret, or "" if there is none.
 	 */
 	private String getWordAtCaret() {
-		try {
-			int pos = textArea.getCaretPosition();
-			String txt = textArea.getText();
-			if (txt == null || txt.isEmpty())
-				return "";
-			int len = txt.length();
-			if (pos > len)
-				pos = len;
-			// find start
-			int start = pos;
-			while (start > 0) {
-				char c = txt.charAt(start - 1);
-				if (!Character.isJavaIdentifierPart(c))
-					break;
-				start--;
-			}
-			int end = pos;
-			while (end < len) {
-				char c = txt.charAt(end);
-				if (!Character.isJavaIdentifierPart(c))
-					break;
-				end++;
-			}
-			if (start == end)
-				return "";
-			return txt.substring(start, end);
-		} catch (Exception e) {
-			return "";
-		}
+		int pos = textArea.getCaretPosition();
+		Token t = textArea.modelToToken(pos);
+		if ((t == null || !isIdentifier(t)) && pos > 0)
+			t = textArea.modelToToken(pos - 1);
+		return t != null && isIdentifier(t) ? t.getLexeme() : "";
 	}
 
 	/**
@@ -218,6 +206,42 @@ public class EditorPanel extends JPanel {
 		}
 	}
 
+	/**
+	 * Highlight 1-based script lines with a strength from 0 to 1 (e.g. their share of profile samples). Replaces earlier highlights.
+	 */
+	public void highlightLines(Map<Integer, Double> weights) {
+		textArea.removeAllLineHighlights();
+		for (Map.Entry<Integer, Double> e : weights.entrySet()) {
+			int line = e.getKey() - 1;
+			if (line < 0 || line >= textArea.getLineCount())
+				continue;
+			int alpha = (int) (40 + 150 * Math.min(1.0, Math.max(0.0, e.getValue())));
+			try {
+				textArea.addLineHighlight(line, new Color(255, 96, 0, alpha));
+			} catch (BadLocationException ex) {
+				// line checked above
+			}
+		}
+	}
+
+	public void clearLineHighlights() {
+		textArea.removeAllLineHighlights();
+	}
+
+	/**
+	 * Move the caret to the start of a 1-based line and scroll it into view.
+	 */
+	public void goToLine(int line) {
+		if (line < 1 || line > textArea.getLineCount())
+			return;
+		try {
+			textArea.setCaretPosition(textArea.getLineStartOffset(line - 1));
+			textArea.requestFocusInWindow();
+		} catch (BadLocationException ex) {
+			// line checked above
+		}
+	}
+
 	public void insertSnippet(String snippet) {
 		textArea.insert(snippet, textArea.getCaretPosition());
 	}
@@ -231,35 +255,80 @@ public class EditorPanel extends JPanel {
 	}
 
 	/**
-	 * Very small rename: replace word boundaries occurrences of oldName with newName in the current document.
+	 * Rename an identifier in the current document. Works on the token stream, so matches inside strings and comments are left alone, and
+	 * only the matching tokens are replaced in place (back to front, so earlier offsets stay valid). The whole rename is a single undoable
+	 * edit; caret and folds are kept. Returns the number of replaced occurrences.
 	 */
-	public void renameSymbol(String oldName, String newName) {
-		String txt = textArea.getText();
-		String replaced = txt.replaceAll("\\b" + Pattern.quote(oldName) + "\\b", newName);
-		textArea.setText(replaced);
+	public int renameSymbol(String oldName, String newName) {
+		int oldLen = oldName.length();
+		int[] offsets = new int[64];
+		int count = 0;
+		int lines = textArea.getLineCount();
+		for (int line = 0; line < lines; line++) {
+			for (Token t = textArea.getTokenListForLine(line); t != null && t.isPaintable(); t = t.getNextToken()) {
+				if (t.length() == oldLen && isIdentifier(t) && t.is(t.getType(), oldName)) {
+					if (count == offsets.length)
+						offsets = Arrays.copyOf(offsets, count * 2);
+					offsets[count++] = t.getOffset();
+				}
+			}
+		}
+		if (count == 0)
+			return 0;
+
+		int caret = textArea.getCaretPosition();
+		int newCaret = caret;
+		int delta = newName.length() - oldLen;
+		for (int i = 0; i < count; i++) {
+			int off = offsets[i];
+			if (off + oldLen <= caret)
+				newCaret += delta;
+			else if (off < caret) // caret inside the renamed token
+				newCaret = off + i * delta + Math.min(caret - off, newName.length());
+		}
+
+		Document doc = textArea.getDocument();
+		CompoundEdit rename = new CompoundEdit();
+		compoundEdit = rename;
+		textArea.beginAtomicEdit();
+		try {
+			for (int i = count - 1; i >= 0; i--)
+				((AbstractDocument) doc).replace(offsets[i], oldLen, newName, null);
+		} catch (BadLocationException ex) {
+			// offsets come from the token stream of this document; cannot happen unless it changed concurrently
+		} finally {
+			textArea.endAtomicEdit();
+			compoundEdit = null;
+			rename.end();
+			undoManager.addEdit(rename);
+		}
+		textArea.setCaretPosition(Math.min(newCaret, doc.getLength()));
+		return count;
+	}
+
+	private static boolean isIdentifier(Token t) {
+		int type = t.getType();
+		return type == TokenTypes.IDENTIFIER || type == TokenTypes.FUNCTION || type == TokenTypes.VARIABLE;
 	}
 
 	/**
-	 * Update the autocomplete suggestions. This replaces existing dynamic completions. Typical usage: pass DLL function names and available
-	 * BeanShell globals.
+	 * Replace the dynamic completions with plain names (no signatures). The fixed keywords are kept.
 	 */
 	public void updateCompletions(Collection<String> names) {
-		// Remove all completions and add baseline ones
-		completionProvider.clear();
-		completionProvider.addCompletion(new BasicCompletion(completionProvider, "native"));
-		completionProvider.addCompletion(new BasicCompletion(completionProvider, "nativeLib"));
-		completionProvider.addCompletion(new BasicCompletion(completionProvider, "print"));
-		completionProvider.addCompletion(new BasicCompletion(completionProvider, "println"));
-		// Add provided names
-		if (names != null) {
-			for (String n : names) {
-				if (n == null || n.isBlank())
-					continue;
-				String label = n;
-				if (!n.endsWith("()"))
-					label = n + "()";
-				completionProvider.addCompletion(new BasicCompletion(completionProvider, label));
-			}
-		}
+		completionProvider.setNames(names != null ? names : List.of());
+	}
+
+	/**
+	 * Replace the dynamic completions with functions; parameter hints are taken from their signatures.
+	 */
+	public void setFunctionCompletions(Collection<FunctionInfo> functions) {
+		completionProvider.setFunctions(functions != null ? functions : List.of());
+	}
+
+	/**
+	 * Incrementally update the dynamic completions: only the given functions are added or refreshed and the given names removed.
+	 */
+	public void updateFunctionCompletions(Collection<FunctionInfo> addedOrChanged, Collection<String> removed) {
+		completionProvider.update(addedOrChanged, removed);
 	}
-}
\ No newline at end of file
+}
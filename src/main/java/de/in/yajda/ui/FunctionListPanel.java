@@ -1,18 +1,23 @@
 package de.in.yajda.ui;
 
 import de.in.yajda.dll.DllParser.FunctionInfo;
+import de.in.yajda.dll.SymbolDatabase;
 
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import javax.swing.table.AbstractTableModel;
-import javax.swing.table.TableRowSorter;
-import javax.swing.RowFilter;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.function.Consumer;
 
 /**
@@ -23,7 +28,7 @@ public class FunctionListPanel extends JPanel {
     private final JTextField searchField;
     private final JTable table;
     private final FunctionTableModel model;
-    private final TableRowSorter<FunctionTableModel> sorter;
+    private final FunctionRowSorter sorter;
 
     public FunctionListPanel() {
         super(new BorderLayout());
@@ -38,7 +43,7 @@ public class FunctionListPanel extends JPanel {
         model = new FunctionTableModel(Collections.emptyList());
         table = new JTable(model);
         table.setFillsViewportHeight(true);
-        sorter = new TableRowSorter<>(model);
+        sorter = new FunctionRowSorter(model);
         table.setRowSorter(sorter);
 
         add(new JScrollPane(table), BorderLayout.CENTER);
@@ -64,6 +69,30 @@ public class FunctionListPanel extends JPanel {
         return model.getFunctions();
     }
 
+    /**
+     * Apply an incremental update: rows of removed names are deleted, rows of changed names are replaced in place and
+     * added functions are appended. Sorting, filter and the selected function (if it still exists) are kept.
+     */
+    public void applyChanges(Collection<String> removed, Collection<FunctionInfo> changedOrAdded) {
+        FunctionInfo selected = getSelectedFunction();
+        sorter.expectPatch(model.applyChanges(removed, changedOrAdded));
+        model.fireTableDataChanged();
+        if (selected != null) {
+            int row = model.rowOf(selected.name);
+            int viewRow = row >= 0 ? table.convertRowIndexToView(row) : -1;
+            if (viewRow >= 0)
+                table.getSelectionModel().setSelectionInterval(viewRow, viewRow);
+        }
+    }
+
+    /**
+     * The function in the selected row, or null if no row is selected.
+     */
+    public FunctionInfo getSelectedFunction() {
+        int viewRow = table.getSelectedRow();
+        return viewRow >= 0 ? model.getFunctionAt(table.convertRowIndexToModel(viewRow)) : null;
+    }
+
     public void addFunctionDoubleClickListener(Consumer<FunctionInfo> listener) {
         table.addMouseListener(new MouseAdapter() {
             public void mouseClicked(MouseEvent e) {
@@ -79,56 +108,436 @@ public class FunctionListPanel extends JPanel {
         });
     }
 
+    /**
+     * Called with the newly selected function whenever the selection settles on a row.
+     */
+    public void addFunctionSelectionListener(Consumer<FunctionInfo> listener) {
+        table.getSelectionModel().addListSelectionListener(e -> {
+            if (e.getValueIsAdjusting())
+                return;
+            FunctionInfo fi = getSelectedFunction();
+            if (fi != null) listener.accept(fi);
+        });
+    }
+
     private void applyFilter(String text) {
-        if (text == null || text.trim().isEmpty()) {
-            sorter.setRowFilter(null);
-            return;
-        }
-        final String lc = text.trim().toLowerCase();
-        RowFilter<FunctionTableModel,Integer> rf = new RowFilter<FunctionTableModel,Integer>() {
-            public boolean include(Entry<? extends FunctionTableModel, ? extends Integer> entry) {
-                FunctionTableModel m = entry.getModel();
-                int row = entry.getIdentifier();
-                FunctionInfo fi = m.getFunctionAt(row);
-                if (fi == null) return false;
-                if (fi.name != null && fi.name.toLowerCase().contains(lc)) return true;
-                if (fi.returnType != null && fi.returnType.toLowerCase().contains(lc)) return true;
-                if (fi.paramTypes != null) {
-                    for (String p : fi.paramTypes) {
-                        if (p != null && p.toLowerCase().contains(lc)) return true;
-                    }
-                }
-                return false;
-            }
-        };
-        sorter.setRowFilter(rf);
+        sorter.setFilterText(text == null || text.trim().isEmpty() ? null : text.trim().toLowerCase());
     }
 
-    // Simple table model encapsulated here
+    /**
+     * Table model over a function list in columns. The list itself is kept as given (the symbol database hands out lazy views) and
+     * rows refer to it by index; return types and parameter lists become ids into small pools of distinct values whose display
+     * strings are built once. A row is read from the list only when one of its cells is painted, or when the whole list is sorted or
+     * filtered on a type column; names come from {@link SymbolDatabase#nameOf}, which does not build the function. Sorting and
+     * filtering go through {@link FunctionRowSorter}, which works on the ids and on one sort permutation per column, computed on
+     * first use.
+     *
+     * {@link #applyChanges} patches the columns, the name index and the permutations in place: removed rows are dropped, changed
+     * rows are pointed at their new function and added rows are appended, each placed into the computed permutations by binary search.
+     */
     static class FunctionTableModel extends AbstractTableModel {
+        private static final int NAME_CACHE = 1024; // power of two, comfortably more than the visible rows
         private final String[] cols = {"Name", "Return", "Params"};
         private List<FunctionInfo> functions;
+        // functions that replaced or were added to the list; append-only, so snapshots can share it
+        private List<FunctionInfo> replaced;
+        // per row: index into functions (>= 0), or -(index into replaced) - 1
+        private int[] refs;
+        private int rowCount;
+        // -1 until the row has been read
+        private int[] returnIds;
+        private int[] paramIds;
+        // distinct return types and parameter lists, and their display strings
+        private final List<String> returnPool = new ArrayList<>();
+        private final List<List<String>> paramPool = new ArrayList<>();
+        private final List<String> paramText = new ArrayList<>();
+        private final Map<String, Integer> returnIndex = new HashMap<>();
+        private final Map<List<String>, Integer> paramIndex = new HashMap<>();
+        // name -> row, built on first use
+        private Map<String, Integer> rowIndex;
+        private final String[] nameCache = new String[NAME_CACHE];
+        private final int[] nameCacheRow = new int[NAME_CACHE];
+        private final int[][] ascending = new int[3][];
+
+        /**
+         * What {@link #applyChanges} did to the rows: where each old row went (-1 if removed), and the rows that were replaced or
+         * added, ascending.
+         */
+        static final class Patch {
+            final int[] oldToNew;
+            final int[] touched;
+
+            Patch(int[] oldToNew, int[] touched) {
+                this.oldToNew = oldToNew;
+                this.touched = touched;
+            }
+        }
 
         FunctionTableModel(List<FunctionInfo> functions) {
-            this.functions = new ArrayList<>(functions);
+            load(functions);
         }
 
         void setFunctions(List<FunctionInfo> f) {
-            this.functions = new ArrayList<>(f);
+            load(f);
             fireTableDataChanged();
         }
 
+        /**
+         * The rows as they are now, as a list that keeps this state when the model is changed later.
+         */
         List<FunctionInfo> getFunctions() {
-            return new ArrayList<>(functions);
+            List<FunctionInfo> base = functions;
+            List<FunctionInfo> extra = replaced;
+            int[] rows = Arrays.copyOf(refs, rowCount);
+            return new AbstractList<FunctionInfo>() {
+                @Override
+                public FunctionInfo get(int index) {
+                    int ref = rows[index];
+                    return ref >= 0 ? base.get(ref) : extra.get(-ref - 1);
+                }
+
+                @Override
+                public int size() {
+                    return rows.length;
+                }
+            };
+        }
+
+        private void load(List<FunctionInfo> f) {
+            functions = f;
+            replaced = new ArrayList<>();
+            rowCount = f.size();
+            refs = new int[rowCount];
+            for (int row = 0; row < rowCount; row++) refs[row] = row;
+            returnIds = new int[rowCount];
+            paramIds = new int[rowCount];
+            Arrays.fill(returnIds, -1);
+            Arrays.fill(paramIds, -1);
+            returnPool.clear();
+            paramPool.clear();
+            paramText.clear();
+            returnIndex.clear();
+            paramIndex.clear();
+            rowIndex = null;
+            Arrays.fill(nameCacheRow, -1);
+            Arrays.fill(ascending, null);
+        }
+
+        /**
+         * Patch the model for removed names and changed or added functions, without reading the rows that stay as they are. Fires
+         * no event; the caller hands the patch to the sorter and then fires.
+         */
+        Patch applyChanges(Collection<String> removed, Collection<FunctionInfo> changedOrAdded) {
+            Map<String, Integer> index = rowIndex();
+            int oldCount = rowCount;
+            int[] oldToNew = new int[oldCount];
+            boolean[] gone = new boolean[oldCount];
+            if (removed != null) {
+                for (String name : removed) {
+                    Integer row = index.remove(name);
+                    if (row != null) gone[row] = true;
+                }
+            }
+            int count = 0;
+            for (int row = 0; row < oldCount; row++) {
+                if (gone[row]) {
+                    oldToNew[row] = -1;
+                    continue;
+                }
+                oldToNew[row] = count;
+                refs[count] = refs[row];
+                returnIds[count] = returnIds[row];
+                paramIds[count] = paramIds[row];
+                count++;
+            }
+            rowCount = count;
+            if (count != oldCount) index.replaceAll((name, row) -> oldToNew[row]);
+            int[] touched = new int[changedOrAdded != null ? changedOrAdded.size() : 0];
+            int t = 0;
+            if (changedOrAdded != null) {
+                for (FunctionInfo fi : changedOrAdded) {
+                    Integer row = index.get(fi.name);
+                    if (row == null) {
+                        row = rowCount++;
+                        if (rowCount > refs.length) grow();
+                        index.put(fi.name, row);
+                    }
+                    replaced.add(fi);
+                    refs[row] = -replaced.size();
+                    setColumns(row, fi);
+                    touched[t++] = row;
+                }
+            }
+            touched = Arrays.copyOf(touched, t);
+            Arrays.sort(touched);
+            patchOrders(oldToNew, touched);
+            Arrays.fill(nameCacheRow, -1);
+            return new Patch(oldToNew, touched);
+        }
+
+        private void grow() {
+            int capacity = Math.max(16, refs.length + (refs.length >> 1));
+            refs = Arrays.copyOf(refs, capacity);
+            returnIds = Arrays.copyOf(returnIds, capacity);
+            paramIds = Arrays.copyOf(paramIds, capacity);
+        }
+
+        /**
+         * Drop removed rows from the computed permutations, renumber the rest and insert the touched rows where they belong. With
+         * many touched rows a fresh sort on next use is cheaper, so the permutation is dropped instead.
+         */
+        private void patchOrders(int[] oldToNew, int[] touched) {
+            boolean[] isTouched = new boolean[rowCount];
+            for (int row : touched) isTouched[row] = true;
+            for (int column = 0; column < ascending.length; column++) {
+                int[] perm = ascending[column];
+                if (perm == null) continue;
+                if (touched.length > 64 && touched.length > rowCount / 16) {
+                    ascending[column] = null;
+                    continue;
+                }
+                int[] order = new int[rowCount];
+                int k = 0;
+                for (int old : perm) {
+                    int row = oldToNew[old];
+                    if (row >= 0 && !isTouched[row]) order[k++] = row;
+                }
+                for (int row : touched) {
+                    int lo = 0, hi = k;
+                    while (lo < hi) {
+                        int mid = (lo + hi) >>> 1;
+                        if (compareRows(column, order[mid], row) < 0) lo = mid + 1;
+                        else hi = mid;
+                    }
+                    System.arraycopy(order, lo, order, lo + 1, k - lo);
+                    order[lo] = row;
+                    k++;
+                }
+                ascending[column] = order;
+            }
+        }
+
+        // the order of ascending(column): folded name or pooled value, ties in row order
+        private int compareRows(int column, int a, int b) {
+            int c;
+            if (column == 0) {
+                c = folded(a).compareTo(folded(b));
+            } else if (column == 1) {
+                c = compareNames(returnPool.get(returnIds[a]), returnPool.get(returnIds[b]));
+            } else {
+                c = compareNames(paramText.get(paramIds[a]), paramText.get(paramIds[b]));
+            }
+            return c != 0 ? c : Integer.compare(a, b);
+        }
+
+        private String folded(int row) {
+            String name = nameOfRow(row);
+            return name != null ? name.toLowerCase(Locale.ROOT) : "";
         }
 
         FunctionInfo getFunctionAt(int row) {
-            return functions.get(row);
+            int ref = refs[row];
+            return ref >= 0 ? functions.get(ref) : replaced.get(-ref - 1);
+        }
+
+        /**
+         * Model row of the function with the given name, or -1.
+         */
+        int rowOf(String name) {
+            Integer row = rowIndex().get(name);
+            return row != null ? row : -1;
+        }
+
+        private Map<String, Integer> rowIndex() {
+            if (rowIndex == null) {
+                Map<String, Integer> index = new HashMap<>(rowCount * 4 / 3 + 1);
+                for (int row = 0; row < rowCount; row++) index.put(nameOfRow(row), row);
+                rowIndex = index;
+            }
+            return rowIndex;
+        }
+
+        String nameAt(int row) {
+            int slot = row & (NAME_CACHE - 1);
+            if (nameCacheRow[slot] != row) {
+                nameCache[slot] = nameOfRow(row);
+                nameCacheRow[slot] = row;
+            }
+            return nameCache[slot];
+        }
+
+        private String nameOfRow(int row) {
+            int ref = refs[row];
+            return ref >= 0 ? SymbolDatabase.nameOf(functions, ref) : replaced.get(-ref - 1).name;
+        }
+
+        private void resolve(int row) {
+            if (returnIds[row] < 0) setColumns(row, getFunctionAt(row));
+        }
+
+        private void resolveAll() {
+            for (int row = 0; row < rowCount; row++) resolve(row);
+        }
+
+        private void setColumns(int row, FunctionInfo fi) {
+            String ret = fi.returnType != null ? fi.returnType : "unknown";
+            List<String> p = fi.paramTypes != null ? fi.paramTypes : List.of();
+            returnIds[row] = returnIndex.computeIfAbsent(ret, k -> {
+                returnPool.add(k);
+                return returnPool.size() - 1;
+            });
+            paramIds[row] = paramIndex.computeIfAbsent(p, k -> {
+                paramPool.add(k);
+                paramText.add(String.join(", ", k));
+                return paramPool.size() - 1;
+            });
+        }
+
+        /**
+         * Model rows in ascending order of a column (case-insensitive, ties in model order). Computed once per data set and kept
+         * up to date by {@link #applyChanges}.
+         */
+        int[] ascending(int column) {
+            int[] perm = ascending[column];
+            if (perm == null) {
+                if (column != 0) resolveAll();
+                perm = column == 0 ? sortByName() : sortByPool(column == 1 ? returnIds : paramIds, column == 1 ? returnPool : paramText);
+                ascending[column] = perm;
+            }
+            return perm;
+        }
+
+        private static final int ROW_BITS = 28;
+        private static final int PREFIX_CHARS = 5;
+
+        /**
+         * Sorts primitive keys of a short folded prefix and the row number, then orders rows that share a prefix by the full
+         * folded name. Names rarely share long prefixes, so almost all of the work is one primitive sort.
+         */
+        private int[] sortByName() {
+            int n = rowCount;
+            String[] folded = new String[n];
+            long[] keys = new long[n];
+            for (int row = 0; row < n; row++) {
+                String name = nameOfRow(row);
+                folded[row] = name != null ? name.toLowerCase(Locale.ROOT) : "";
+                keys[row] = prefixKey(folded[row]) << ROW_BITS | row;
+            }
+            Arrays.sort(keys);
+            int[] perm = new int[n];
+            for (int i = 0; i < n; i++) perm[i] = (int) (keys[i] & ((1L << ROW_BITS) - 1));
+            int[] tmp = null;
+            for (int from = 0; from < n;) {
+                int to = from + 1;
+                while (to < n && keys[to] >>> ROW_BITS == keys[from] >>> ROW_BITS) to++;
+                if (to - from > 1) {
+                    if (tmp == null) tmp = new int[n];
+                    mergeSort(perm, tmp, from, to, folded);
+                }
+                from = to;
+            }
+            return perm;
+        }
+
+        // 7 bits per char, 0 past the end, so the key orders like the folded names themselves (non-ASCII chars tie at the top)
+        private static long prefixKey(String folded) {
+            long key = 0;
+            for (int i = 0; i < PREFIX_CHARS; i++) {
+                int c = i < folded.length() ? Math.min(folded.charAt(i) + 1, 127) : 0;
+                key = key << 7 | c;
+            }
+            return key;
+        }
+
+        // stable merge sort of row indices by folded name, without boxing the indices
+        private static void mergeSort(int[] a, int[] tmp, int from, int to, String[] folded) {
+            if (to - from < 2) return;
+            int mid = (from + to) >>> 1;
+            mergeSort(a, tmp, from, mid, folded);
+            mergeSort(a, tmp, mid, to, folded);
+            if (folded[a[mid - 1]].compareTo(folded[a[mid]]) <= 0) return;
+            System.arraycopy(a, from, tmp, from, to - from);
+            int i = from, j = mid, k = from;
+            while (i < mid && j < to) a[k++] = folded[tmp[j]].compareTo(folded[tmp[i]]) < 0 ? tmp[j++] : tmp[i++];
+            while (i < mid) a[k++] = tmp[i++];
+            while (j < to) a[k++] = tmp[j++];
+        }
+
+        private static int compareNames(String a, String b) {
+            if (a == null || b == null) return a == null ? (b == null ? 0 : -1) : 1;
+            return String.CASE_INSENSITIVE_ORDER.compare(a, b);
+        }
+
+        // counting sort over the few distinct values of a pooled column
+        private int[] sortByPool(int[] ids, List<String> pool) {
+            Integer[] order = new Integer[pool.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (a, b) -> compareNames(pool.get(a), pool.get(b)));
+            int[] rank = new int[pool.size()];
+            for (int i = 0; i < order.length; i++) rank[order[i]] = i;
+            int[] start = new int[pool.size() + 1];
+            for (int row = 0; row < rowCount; row++) start[rank[ids[row]] + 1]++;
+            for (int i = 0; i < pool.size(); i++) start[i + 1] += start[i];
+            int[] perm = new int[rowCount];
+            for (int row = 0; row < rowCount; row++) perm[start[rank[ids[row]]]++] = row;
+            return perm;
+        }
+
+        /**
+         * Rows whose name, return type or one of whose parameter types contains the lower-case text. Types are tested once per
+         * distinct value, names once per row; if {@code within} is given, only rows set there are tested.
+         */
+        boolean[] matches(String lc, boolean[] within) {
+            resolveAll();
+            boolean[] retMatch = new boolean[returnPool.size()];
+            for (int i = 0; i < retMatch.length; i++) retMatch[i] = returnPool.get(i).toLowerCase().contains(lc);
+            boolean[] paramMatch = new boolean[paramPool.size()];
+            for (int i = 0; i < paramMatch.length; i++) {
+                for (String p : paramPool.get(i)) {
+                    if (p != null && p.toLowerCase().contains(lc)) {
+                        paramMatch[i] = true;
+                        break;
+                    }
+                }
+            }
+            int n = rowCount;
+            boolean[] res = new boolean[n];
+            for (int row = 0; row < n; row++) {
+                if (within != null && !within[row]) continue;
+                if (retMatch[returnIds[row]] || paramMatch[paramIds[row]]) {
+                    res[row] = true;
+                } else {
+                    String name = nameOfRow(row);
+                    res[row] = name != null && containsIgnoreCase(name, lc);
+                }
+            }
+            return res;
+        }
+
+        /**
+         * Whether one row matches the lower-case text; for rows touched by a patch.
+         */
+        boolean matches(String lc, int row) {
+            resolve(row);
+            if (returnPool.get(returnIds[row]).toLowerCase().contains(lc)) return true;
+            for (String p : paramPool.get(paramIds[row])) {
+                if (p != null && p.toLowerCase().contains(lc)) return true;
+            }
+            String name = nameOfRow(row);
+            return name != null && containsIgnoreCase(name, lc);
+        }
+
+        private static boolean containsIgnoreCase(String s, String lc) {
+            int max = s.length() - lc.length();
+            for (int i = 0; i <= max; i++) {
+                if (s.regionMatches(true, i, lc, 0, lc.length())) return true;
+            }
+            return false;
         }
 
         @Override
         public int getRowCount() {
-            return functions.size();
+            return rowCount;
         }
 
         @Override
@@ -141,15 +550,194 @@ public class FunctionListPanel extends JPanel {
             return cols[column];
         }
 
+        @Override
+        public Class<?> getColumnClass(int columnIndex) {
+            return String.class;
+        }
+
         @Override
         public Object getValueAt(int rowIndex, int columnIndex) {
-            FunctionInfo fi = functions.get(rowIndex);
             switch (columnIndex) {
-                case 0: return fi.name;
-                case 1: return fi.returnType != null ? fi.returnType : "unknown";
-                case 2: return fi.paramTypes != null ? String.join(", ", fi.paramTypes) : "";
+                case 0: return nameAt(rowIndex);
+                case 1: resolve(rowIndex); return returnPool.get(returnIds[rowIndex]);
+                case 2: resolve(rowIndex); return paramText.get(paramIds[rowIndex]);
                 default: return "";
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Row sorter on the model's per-column permutations: a sort is a walk over the precomputed order (backwards for descending)
+     * that drops filtered rows, with no comparisons and no boxing of cell values.
+     */
+    static class FunctionRowSorter extends RowSorter<FunctionTableModel> {
+        private final FunctionTableModel model;
+        private List<SortKey> sortKeys = Collections.emptyList();
+        private String filterText;
+        // rows matching filterText; narrowed instead of recomputed while the text is extended
+        private boolean[] included;
+        private String includedText;
+        // null: identity (unsorted, unfiltered)
+        private int[] viewToModel;
+        private int[] modelToView;
+        // applied instead of a full refresh on the next all-rows-changed event
+        private FunctionTableModel.Patch pending;
+
+        FunctionRowSorter(FunctionTableModel model) {
+            this.model = model;
+        }
+
+        void setFilterText(String lc) {
+            filterText = lc;
+            update();
+        }
+
+        /**
+         * Take the model's next all-rows-changed event as this patch: the filter result is carried over for the rows that stayed and
+         * only the touched rows are tested again.
+         */
+        void expectPatch(FunctionTableModel.Patch patch) {
+            pending = patch;
+        }
+
+        @Override
+        public FunctionTableModel getModel() {
+            return model;
+        }
+
+        @Override
+        public void toggleSortOrder(int column) {
+            SortOrder order = SortOrder.ASCENDING;
+            if (!sortKeys.isEmpty() && sortKeys.get(0).getColumn() == column && sortKeys.get(0).getSortOrder() == SortOrder.ASCENDING)
+                order = SortOrder.DESCENDING;
+            setSortKeys(List.of(new SortKey(column, order)));
+        }
+
+        @Override
+        public int convertRowIndexToModel(int index) {
+            if (index < 0 || index >= getViewRowCount()) throw new IndexOutOfBoundsException("Invalid index");
+            return viewToModel == null ? index : viewToModel[index];
+        }
+
+        @Override
+        public int convertRowIndexToView(int index) {
+            if (index < 0 || index >= model.getRowCount()) throw new IndexOutOfBoundsException("Invalid index");
+            if (viewToModel == null) return index;
+            if (modelToView == null) {
+                int[] inverse = new int[model.getRowCount()];
+                Arrays.fill(inverse, -1);
+                for (int v = 0; v < viewToModel.length; v++) inverse[viewToModel[v]] = v;
+                modelToView = inverse;
+            }
+            return modelToView[index];
+        }
+
+        @Override
+        public void setSortKeys(List<? extends SortKey> keys) {
+            sortKeys = keys == null || keys.isEmpty() ? Collections.emptyList() : List.of(keys.get(0));
+            fireSortOrderChanged();
+            update();
+        }
+
+        @Override
+        public List<? extends SortKey> getSortKeys() {
+            return sortKeys;
+        }
+
+        @Override
+        public int getViewRowCount() {
+            return viewToModel == null ? model.getRowCount() : viewToModel.length;
+        }
+
+        @Override
+        public int getModelRowCount() {
+            return model.getRowCount();
+        }
+
+        @Override
+        public void modelStructureChanged() {
+            dataChanged();
+        }
+
+        @Override
+        public void allRowsChanged() {
+            FunctionTableModel.Patch patch = pending;
+            pending = null;
+            if (patch == null) {
+                dataChanged();
+                return;
+            }
+            if (included != null) {
+                boolean[] carried = new boolean[model.getRowCount()];
+                for (int old = 0; old < patch.oldToNew.length && old < included.length; old++) {
+                    int row = patch.oldToNew[old];
+                    if (row >= 0 && included[old]) carried[row] = true;
+                }
+                for (int row : patch.touched) carried[row] = model.matches(includedText, row);
+                included = carried;
+            }
+            update();
+        }
+
+        @Override
+        public void rowsInserted(int firstRow, int endRow) {
+            dataChanged();
+        }
+
+        @Override
+        public void rowsDeleted(int firstRow, int endRow) {
+            dataChanged();
+        }
+
+        @Override
+        public void rowsUpdated(int firstRow, int endRow) {
+            dataChanged();
+        }
+
+        @Override
+        public void rowsUpdated(int firstRow, int endRow, int column) {
+            dataChanged();
+        }
+
+        private void dataChanged() {
+            included = null;
+            update();
+        }
+
+        private void update() {
+            int[] previous = viewToModel;
+            int n = model.getRowCount();
+            if (previous == null) {
+                // JTable maps its selection through the previous order; hand it the identity it was showing
+                previous = new int[n];
+                for (int i = 0; i < previous.length; i++) previous[i] = i;
+            }
+            SortKey key = sortKeys.isEmpty() || sortKeys.get(0).getSortOrder() == SortOrder.UNSORTED ? null : sortKeys.get(0);
+            if (key == null && filterText == null) {
+                viewToModel = null;
+            } else {
+                int[] order = key != null ? model.ascending(key.getColumn()) : null;
+                boolean descending = key != null && key.getSortOrder() == SortOrder.DESCENDING;
+                boolean[] include = filterText != null ? included(n) : null;
+                int[] view = new int[n];
+                int count = 0;
+                for (int i = 0; i < n; i++) {
+                    int row = order == null ? i : order[descending ? n - 1 - i : i];
+                    if (include == null || include[row]) view[count++] = row;
+                }
+                viewToModel = count == n ? view : Arrays.copyOf(view, count);
+            }
+            modelToView = null;
+            fireRowSorterChanged(previous);
+        }
+
+        private boolean[] included(int n) {
+            if (included != null && included.length == n && filterText.equals(includedText))
+                return included;
+            boolean narrowing = included != null && included.length == n && filterText.contains(includedText);
+            included = model.matches(filterText, narrowing ? included : null);
+            includedText = filterText;
+            return included;
+        }
+    }
+}
@@ -7,11 +7,14 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
+import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JMenu;
@@ -20,20 +23,39 @@ import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JSplitPane;
+import javax.swing.SwingUtilities;
+import javax.swing.filechooser.FileFilter;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 
 import com.formdev.flatlaf.extras.FlatSVGIcon;
 
 import de.in.yajda.Main;
-import de.in.yajda.dll.DllParser;
+import de.in.yajda.dll.BuildDiff;
+import de.in.yajda.dll.CallMetrics;
+import de.in.yajda.dll.CallRecorder;
+import de.in.yajda.dll.CallReplay;
+import de.in.yajda.dll.Callbacks;
 import de.in.yajda.dll.DllParser.FunctionInfo;
+import de.in.yajda.dll.ExportParser;
+import de.in.yajda.dll.FileWatcher;
+import de.in.yajda.dll.Fuzzer;
 import de.in.yajda.dll.HeaderParser;
 import de.in.yajda.dll.HeaderParser.HeaderInfo;
 import de.in.yajda.dll.JnaProxyFactory;
+import de.in.yajda.dll.MemoCache;
+import de.in.yajda.dll.PdbFile;
+import de.in.yajda.dll.StringMarshaler;
+import de.in.yajda.dll.SymbolDatabase;
+import de.in.yajda.dll.SymbolDatabase.Module;
+import de.in.yajda.dll.SymbolDiff;
+import de.in.yajda.dll.Workspace;
+import de.in.yajda.jfr.FlightRecording;
 import de.in.yajda.script.ScriptManager;
+import de.in.yajda.script.ScriptProfiler;
 
 /**
  * Slimmed MainWindow that composes smaller components:
@@ -47,7 +69,21 @@ import de.in.yajda.script.ScriptManager;
  * The behavior is unchanged; functionality is moved into the smaller components.
  */
 public class MainWindow extends JFrame {
+	// Windows DLLs and ELF shared objects, including versioned names like libfoo.so.1.2
+	private static final FileFilter NATIVE_LIBRARY_FILTER = new FileFilter() {
+		@Override
+		public boolean accept(File f) {
+			return f.isDirectory() || ExportParser.isLibraryName(f.getName());
+		}
+
+		@Override
+		public String getDescription() {
+			return "Native libraries (*.dll, *.so)";
+		}
+	};
+
 	private final FunctionListPanel functionListPanel;
+	private final CodeViewPanel codeViewPanel;
 	private final EditorPanel editorPanel;
 	private final TopControlPanel topControlPanel;
 	private final ConsolePanel consolePanel;
@@ -57,6 +93,18 @@ public class MainWindow extends JFrame {
 	private File currentDll;
 	private File currentHeader;
 	private JnaProxyFactory.ProxyWrapper nativeProxy;
+	// read by the watcher thread on reload
+	private volatile JnaProxyFactory proxyFactory;
+	private FileWatcher fileWatcher;
+	// all loaded modules and headers; currentDll is the primary module shown in the table and bound as 'dll'
+	private final Workspace workspace = new Workspace();
+	private Module primaryModule;
+	private final List<File> workspaceHeaders = new ArrayList<>();
+	private JDialog metricsDialog;
+	// the running fuzz session, if any; set and cleared on the EDT
+	private Fuzzer fuzzer;
+	private JDialog profileDialog;
+	private ProfilePanel profilePanel;
 
 	public MainWindow() {
 		super("yajda - Java DLL Analyzer");
@@ -66,6 +114,7 @@ public class MainWindow extends JFrame {
 
 		// panels
 		functionListPanel = new FunctionListPanel();
+		codeViewPanel = new CodeViewPanel();
 		editorPanel = new EditorPanel();
 		topControlPanel = new TopControlPanel();
 		consolePanel = new ConsolePanel();
@@ -87,13 +136,22 @@ public class MainWindow extends JFrame {
 			// ignore
 		}
 
-		scriptManager = new ScriptManager(consolePanel::append, 5000);
+		scriptManager = new ScriptManager(consolePanel::append, consolePanel::appendText, 5000);
+		scriptManager.setModuleProxies(workspace.getModuleProxies());
+
+		try {
+			fileWatcher = new FileWatcher();
+		} catch (Exception ex) {
+			consolePanel.append("File watching disabled: " + ex.getMessage());
+		}
 	}
 
 	private void layoutUi() {
-		// left = function list
+		// left = function list with the code of the selected function below
+		JSplitPane functionSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT, functionListPanel, codeViewPanel);
+		functionSplit.setResizeWeight(0.6);
 		JPanel left = new JPanel(new BorderLayout());
-		left.add(functionListPanel, BorderLayout.CENTER);
+		left.add(functionSplit, BorderLayout.CENTER);
 
 		// center = editor with top controls and console below
 		JPanel center = new JPanel(new BorderLayout());
@@ -130,6 +188,45 @@ public class MainWindow extends JFrame {
 		file.addSeparator();
 		file.add(exit);
 		mb.add(file);
+
+		JMenu ws = new JMenu("Workspace");
+		JMenuItem addDlls = new JMenuItem("Add DLLs / Shared Objects...");
+		addDlls.addActionListener(e -> onAddWorkspaceDlls());
+		JMenuItem addHeaders = new JMenuItem("Add Headers...");
+		addHeaders.addActionListener(e -> onAddWorkspaceHeaders());
+		JMenuItem findExporters = new JMenuItem("Who Exports...");
+		findExporters.addActionListener(e -> onFindExporters());
+		ws.add(addDlls);
+		ws.add(addHeaders);
+		ws.addSeparator();
+		ws.add(findExporters);
+		mb.add(ws);
+
+		JMenu tools = new JMenu("Tools");
+		JMenuItem callMetrics = new JMenuItem("Call Metrics...");
+		callMetrics.addActionListener(e -> onShowCallMetrics());
+		JMenuItem flightRecording = new JMenuItem(FlightRecording.isRecording() ? "Stop Flight Recording..." : "Start Flight Recording");
+		flightRecording.addActionListener(e -> onToggleFlightRecording(flightRecording));
+		JMenuItem dumpRecording = new JMenuItem("Dump Flight Recording...");
+		dumpRecording.addActionListener(e -> onDumpFlightRecording());
+		JMenuItem fuzz = new JMenuItem("Fuzz Selected Function...");
+		fuzz.addActionListener(e -> onFuzzSelectedFunction(fuzz));
+		JMenuItem callRecording = new JMenuItem("Start Call Recording...");
+		callRecording.addActionListener(e -> onToggleCallRecording(callRecording));
+		JMenuItem replay = new JMenuItem("Replay Call Recording...");
+		replay.addActionListener(e -> onReplayCallRecording());
+		JMenuItem compareBuilds = new JMenuItem("Compare Builds...");
+		compareBuilds.addActionListener(e -> onCompareBuilds());
+		tools.add(callMetrics);
+		tools.add(fuzz);
+		tools.add(compareBuilds);
+		tools.addSeparator();
+		tools.add(callRecording);
+		tools.add(replay);
+		tools.addSeparator();
+		tools.add(flightRecording);
+		tools.add(dumpRecording);
+		mb.add(tools);
 		setJMenuBar(mb);
 	}
 
@@ -140,10 +237,14 @@ public class MainWindow extends JFrame {
 			editorPanel.insertSnippet(snippet);
 		});
 
+		// selection -> show the function's code
+		functionListPanel.addFunctionSelectionListener(codeViewPanel::showFunction);
+
 		// language change -> update editor highlighting
 		topControlPanel.addLanguageChangeListener(e -> {
 			String lang = topControlPanel.getSelectedLanguage();
 			editorPanel.setLanguage(lang);
+			scriptManager.prewarm(lang);
 		});
 
 		// run button -> execute script
@@ -151,7 +252,7 @@ public class MainWindow extends JFrame {
 	}
 
 	private void onOpenDll() {
-		fileChooser.setFileFilter(new FileNameExtensionFilter("Windows DLL", "dll"));
+		fileChooser.setFileFilter(NATIVE_LIBRARY_FILTER);
 		int r = fileChooser.showOpenDialog(this);
 		if (r != JFileChooser.APPROVE_OPTION)
 			return;
@@ -160,71 +261,88 @@ public class MainWindow extends JFrame {
 			return;
 
 		try {
-			// 1) Parse exports from the DLL
-			DllParser parser = new DllParser();
-			List<FunctionInfo> functions = parser.parseExports(dll);
-
-			// 2) Update UI model
-			functionListPanel.setFunctions(functions);
-			currentDll = dll;
-			consolePanel.append("Loaded DLL: " + dll.getAbsolutePath());
-
-			// 3) Prepare scripting environment (always provide wrapper methods so scripts can call dll.X())
-			// Even if native proxy creation fails, we can still try JNA fallback if available.
-			List<String> functionNames = new ArrayList<>();
-			for (FunctionInfo f : functions) {
-				if (f != null && f.name != null && !f.name.isBlank()) {
-					functionNames.add(f.name);
-				}
+			loadPrimaryDll(dll);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			JOptionPane.showMessageDialog(this, "Failed to load DLL: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Make the given DLL the primary module: the one listed in the function table and bound as 'dll' in scripts. A previous primary
+	 * module is removed from the workspace.
+	 */
+	private void loadPrimaryDll(File dll) throws Exception {
+		// 1) Parse exports from the DLL into the workspace
+		Module module = workspace.addDll(dll);
+		if (primaryModule != null)
+			workspace.removeModule(primaryModule);
+		primaryModule = module;
+		List<FunctionInfo> functions = workspace.functionsOf(module);
+		Callbacks.getDefault().setPrototypes(functions);
+		StringMarshaler.getDefault().setPrototypes(functions);
+
+		// 2) Update UI model
+		functionListPanel.setFunctions(functions);
+		unwatch(currentDll);
+		currentDll = dll;
+		consolePanel.append("Loaded DLL: " + dll.getAbsolutePath());
+
+		// 3) Prepare scripting environment (always provide wrapper methods so scripts can call dll.X())
+		// Even if native proxy creation fails, we can still try JNA fallback if available.
+		List<String> functionNames = new ArrayList<>();
+		for (FunctionInfo f : functions) {
+			if (f != null && f.name != null && !f.name.isBlank()) {
+				functionNames.add(f.name);
 			}
+		}
 
-			// 4) Create/attach native proxy (Windows only). If it fails, continue but inform the user.
-			if (!Main.IS_WINDOWS) {
-				consolePanel
-						.append("Platform is not Windows — skipping JNA proxy creation. Script JNA-fallback may still work if available.");
+		// 4) Create/attach native proxy (DLLs on Windows, shared objects elsewhere). If it fails, continue but inform the user.
+		if (!ExportParser.isLoadableHere(dll, Main.IS_WINDOWS)) {
+			consolePanel.append("This library cannot be loaded on this platform — skipping JNA proxy creation.");
+			nativeProxy = null;
+			// still set current DLL file and function names so JNA fallback is available in scripts
+			try {
+				scriptManager.setNativeProxy(null);
+				scriptManager.setCurrentDllFile(currentDll);
+				scriptManager.setAvailableFunctionNames(functionNames);
+			} catch (Throwable t) {
+				consolePanel.append("Failed to prepare scripting wrapper: " + t.getMessage());
+			}
+		} else {
+			try {
+				nativeProxy = createProxy(dll);
+				workspace.setProxy(module, nativeProxy);
+				scriptManager.setNativeProxy(nativeProxy);
+				scriptManager.setCurrentDllFile(currentDll);
+				scriptManager.setAvailableFunctionNames(functionNames);
+				consolePanel.append("Scripting wrapper 'dll' created with " + functionNames.size() + " functions.");
+			} catch (Throwable t) {
+				// proxy creation failed — still try to provide wrapper that may use JNA fallback
+				consolePanel.append("Failed to create JNA proxy: " + t.getMessage());
 				nativeProxy = null;
-				// still set current DLL file and function names so JNA fallback is available in scripts
 				try {
 					scriptManager.setNativeProxy(null);
 					scriptManager.setCurrentDllFile(currentDll);
 					scriptManager.setAvailableFunctionNames(functionNames);
-				} catch (Throwable t) {
-					consolePanel.append("Failed to prepare scripting wrapper: " + t.getMessage());
-				}
-			} else {
-				try {
-					JnaProxyFactory factory = new JnaProxyFactory(dll.getAbsolutePath());
-					nativeProxy = factory.createNativeProxy();
-					scriptManager.setNativeProxy(nativeProxy);
-					scriptManager.setCurrentDllFile(currentDll);
-					scriptManager.setAvailableFunctionNames(functionNames);
-					consolePanel.append("Scripting wrapper 'dll' created with " + functionNames.size() + " functions.");
-				} catch (Throwable t) {
-					// proxy creation failed — still try to provide wrapper that may use JNA fallback
-					consolePanel.append("Failed to create JNA proxy: " + t.getMessage());
-					nativeProxy = null;
-					try {
-						scriptManager.setNativeProxy(null);
-						scriptManager.setCurrentDllFile(currentDll);
-						scriptManager.setAvailableFunctionNames(functionNames);
-						consolePanel.append("Scripting wrapper 'dll' created (JNA fallback enabled).");
-					} catch (Throwable tt) {
-						consolePanel.append("Failed to prepare scripting wrapper after proxy failure: " + tt.getMessage());
-					}
+					consolePanel.append("Scripting wrapper 'dll' created (JNA fallback enabled).");
+				} catch (Throwable tt) {
+					consolePanel.append("Failed to prepare scripting wrapper after proxy failure: " + tt.getMessage());
 				}
 			}
+		}
 
-			// 5) Update editor completions with function names (so Ctrl+Space will propose native methods)
-			try {
-				updateEditorCompletionsFromFunctions(functions);
-			} catch (Throwable t) {
-				consolePanel.append("Failed to update completions: " + t.getMessage());
-			}
+		openCodeView();
 
-		} catch (Exception ex) {
-			ex.printStackTrace();
-			JOptionPane.showMessageDialog(this, "Failed to load DLL: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		// 5) Update editor completions with function names (so Ctrl+Space will propose native methods)
+		try {
+			updateEditorCompletionsFromFunctions(functions);
+		} catch (Throwable t) {
+			consolePanel.append("Failed to update completions: " + t.getMessage());
 		}
+
+		// 6) Pick up rebuilds of the DLL automatically
+		watch(currentDll, this::reloadDll);
 	}
 
 	private void onOpenHeader() {
@@ -236,41 +354,303 @@ public class MainWindow extends JFrame {
 		if (header == null || !header.exists())
 			return;
 		try {
-			HeaderParser hp = new HeaderParser();
-			Map<String, HeaderInfo> infos = hp.parseHeader(header);
-			consolePanel.append("Loaded header: " + header.getAbsolutePath() + " (" + infos.size() + " prototypes)");
-
-			currentHeader = header;
-
-			// merge with existing exports
-			List<FunctionInfo> existing = functionListPanel.getFunctions();
-			List<FunctionInfo> merged = new ArrayList<>();
-			if (existing.isEmpty()) {
-				for (Map.Entry<String, HeaderInfo> e : infos.entrySet()) {
-					HeaderInfo hi = e.getValue();
-					merged.add(new FunctionInfo(e.getKey(), hi.returnType != null ? hi.returnType : "unknown",
-							hi.paramTypes != null ? hi.paramTypes : new ArrayList<>()));
-				}
-			} else {
-				for (FunctionInfo fi : existing) {
-					HeaderInfo hi = infos.get(fi.name);
-					if (hi != null) {
-						merged.add(new FunctionInfo(fi.name, hi.returnType != null ? hi.returnType : fi.returnType,
-								hi.paramTypes != null ? hi.paramTypes : fi.paramTypes));
-					} else {
-						merged.add(fi);
+			loadHeader(header);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			JOptionPane.showMessageDialog(this, "Failed to load header: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	/**
+	 * Register a header's prototypes in the workspace and refresh the view. The merge into exports happens in the symbol database.
+	 */
+	private void loadHeader(File header) throws Exception {
+		Map<String, HeaderInfo> infos = new HeaderParser().parseHeader(header);
+		consolePanel.append("Loaded header: " + header.getAbsolutePath() + " (" + infos.size() + " prototypes)");
+
+		workspace.getDatabase().putHeader(header, infos);
+		unwatch(currentHeader);
+		currentHeader = header;
+		watch(currentHeader, this::reloadHeader);
+
+		List<FunctionInfo> merged = currentView();
+		functionListPanel.setFunctions(merged);
+
+		// update completions
+		updateEditorCompletionsFromFunctions(merged);
+		updateScriptWrapper(merged);
+	}
+
+	/**
+	 * Functions shown in the table: exports of the primary module with prototypes merged in, or all prototypes if no DLL is loaded.
+	 */
+	private List<FunctionInfo> currentView() {
+		return primaryModule != null ? workspace.functionsOf(primaryModule) : workspace.getDatabase().prototypeFunctions();
+	}
+
+	private void onAddWorkspaceDlls() {
+		fileChooser.setFileFilter(NATIVE_LIBRARY_FILTER);
+		fileChooser.setMultiSelectionEnabled(true);
+		try {
+			if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+				return;
+			List<File> files = List.of(fileChooser.getSelectedFiles());
+			consolePanel.append("Loading " + files.size() + " DLL(s) into workspace...");
+			// parse off the EDT; the workspace itself parses in parallel
+			new Thread(() -> {
+				long t0 = System.nanoTime();
+				int duplicates = workspace.getDuplicateCount();
+				List<Module> added = workspace.addDlls(files, msg -> consolePanel.append("Failed to load " + msg));
+				long ms = (System.nanoTime() - t0) / 1_000_000;
+				duplicates = workspace.getDuplicateCount() - duplicates;
+				consolePanel.append("Workspace: added " + added.size() + " module(s) in " + ms + " ms"
+						+ (duplicates > 0 ? " (" + duplicates + " identical copies not parsed again)" : "") + "; "
+						+ workspace.getDatabase().getModules().size() + " modules, " + workspace.getDatabase().getSymbolCount() + " symbols.");
+			}, "workspace-add").start();
+		} finally {
+			fileChooser.setMultiSelectionEnabled(false);
+		}
+	}
+
+	private void onAddWorkspaceHeaders() {
+		fileChooser.setFileFilter(new FileNameExtensionFilter("C Header", "h", "hpp"));
+		fileChooser.setMultiSelectionEnabled(true);
+		try {
+			if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+				return;
+			List<File> files = List.of(fileChooser.getSelectedFiles());
+			new Thread(() -> {
+				workspace.addHeaders(files, msg -> consolePanel.append("Failed to load header " + msg));
+				consolePanel.append("Workspace: added " + files.size() + " header(s).");
+				SwingUtilities.invokeLater(() -> {
+					workspaceHeaders.addAll(files);
+					List<FunctionInfo> view = currentView();
+					functionListPanel.setFunctions(view);
+					updateEditorCompletionsFromFunctions(view);
+					updateScriptWrapper(view);
+				});
+			}, "workspace-add").start();
+		} finally {
+			fileChooser.setMultiSelectionEnabled(false);
+		}
+	}
+
+	private void onFindExporters() {
+		String name = JOptionPane.showInputDialog(this, "Symbol name:", "Who exports...", JOptionPane.QUESTION_MESSAGE);
+		if (name == null || name.isBlank())
+			return;
+		List<SymbolDatabase.Export> exporters = workspace.getDatabase().exporters(name.trim());
+		if (exporters.isEmpty()) {
+			consolePanel.append("No module exports '" + name.trim() + "'");
+			return;
+		}
+		for (SymbolDatabase.Export e : exporters) {
+			String proto = e.prototype != null ? e.prototype.returnType + " " + e.name + "(" + String.join(", ", e.prototype.paramTypes) + ")" : e.name;
+			consolePanel.append(String.format("%s  ordinal=%d  rva=0x%08X  %s", e.module.name, e.ordinal, e.rva, proto));
+		}
+	}
+
+	private void onShowCallMetrics() {
+		if (metricsDialog == null) {
+			metricsDialog = new JDialog(this, "Call Metrics", false);
+			metricsDialog.getContentPane().add(new MetricsPanel(CallMetrics.getDefault()), BorderLayout.CENTER);
+			metricsDialog.setSize(800, 400);
+			metricsDialog.setLocationRelativeTo(this);
+		}
+		metricsDialog.setVisible(true);
+	}
+
+	private void onFuzzSelectedFunction(JMenuItem item) {
+		if (fuzzer != null) {
+			fuzzer.stop();
+			return;
+		}
+		FunctionInfo fi = functionListPanel.getSelectedFunction();
+		if (currentDll == null || fi == null) {
+			JOptionPane.showMessageDialog(this, "Open a DLL and select a function to fuzz.", "Fuzz", JOptionPane.INFORMATION_MESSAGE);
+			return;
+		}
+		String seconds = JOptionPane.showInputDialog(this, "Fuzz " + fi.name + " for how many seconds?", "60");
+		if (seconds == null)
+			return;
+		long durationMs;
+		try {
+			durationMs = Long.parseLong(seconds.trim()) * 1000;
+		} catch (NumberFormatException ex) {
+			JOptionPane.showMessageDialog(this, "Not a number: " + seconds, "Error", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		Fuzzer f = new Fuzzer(currentDll, fi.name, new HeaderInfo(fi.returnType, fi.paramTypes));
+		File corpusDir = new File(currentDll.getParentFile(), "fuzz-" + fi.name);
+		f.setCorpusDir(corpusDir);
+		fuzzer = f;
+		item.setText("Stop Fuzzing");
+		consolePanel.append("Fuzzing " + fi.returnType + " " + fi.name + "(" + String.join(", ", fi.paramTypes) + ") for " + seconds.trim() + " s...");
+		new Thread(() -> {
+			try {
+				long[] lastReport = { System.nanoTime() };
+				Fuzzer.Stats stats = f.run(durationMs, s -> {
+					if (System.nanoTime() - lastReport[0] >= 10_000_000_000L) {
+						lastReport[0] = System.nanoTime();
+						consolePanel.append("Fuzz " + fi.name + ": " + s);
 					}
+				});
+				consolePanel.append("Fuzz " + fi.name + " done: " + stats);
+				f.getCorpus().stream().filter(e -> e.outcome != Fuzzer.Outcome.NEW_RESULT).limit(20).forEach(e -> consolePanel.append("  " + e));
+				if (!f.getCorpus().isEmpty())
+					consolePanel.append("Corpus written to " + corpusDir.getAbsolutePath());
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} finally {
+				SwingUtilities.invokeLater(() -> {
+					fuzzer = null;
+					item.setText("Fuzz Selected Function...");
+				});
+			}
+		}, "fuzz").start();
+	}
+
+	private void onCompareBuilds() {
+		// two libraries, or two install trees
+		fileChooser.setFileFilter(NATIVE_LIBRARY_FILTER);
+		fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+		File oldFile, newFile;
+		try {
+			fileChooser.setDialogTitle("Old build (library or install directory)");
+			if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+				return;
+			oldFile = fileChooser.getSelectedFile();
+			fileChooser.setDialogTitle("New build (library or install directory)");
+			if (currentDll != null && oldFile.isFile())
+				fileChooser.setSelectedFile(currentDll);
+			if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+				return;
+			newFile = fileChooser.getSelectedFile();
+		} finally {
+			fileChooser.setDialogTitle(null);
+			fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+		}
+		if (oldFile.isDirectory() != newFile.isDirectory()) {
+			JOptionPane.showMessageDialog(this, "Select two libraries or two directories.", "Compare Builds", JOptionPane.WARNING_MESSAGE);
+			return;
+		}
+		consolePanel.append("Comparing " + oldFile.getAbsolutePath() + " with " + newFile.getAbsolutePath() + "...");
+		new Thread(() -> {
+			try {
+				long t0 = System.nanoTime();
+				String summary;
+				if (oldFile.isDirectory()) {
+					BuildDiff.TreeReport report = BuildDiff.diffTrees(oldFile.toPath(), newFile.toPath());
+					report.lines().forEach(consolePanel::append);
+					summary = report.summary();
+				} else {
+					BuildDiff.Report report = BuildDiff.diff(oldFile, newFile);
+					report.changes.forEach(c -> consolePanel.append("  " + c));
+					summary = report.summary();
 				}
+				consolePanel.append(summary + " (" + (System.nanoTime() - t0) / 1_000_000 + " ms)");
+			} catch (Exception ex) {
+				consolePanel.append("Compare failed: " + ex.getMessage());
+			}
+		}, "build-diff").start();
+	}
+
+	private void onToggleCallRecording(JMenuItem item) {
+		CallRecorder running = CallRecorder.active();
+		if (running != null) {
+			running.close();
+			consolePanel.append("Call recording stopped: " + running.getCalls() + " calls in " + running.getFile());
+		} else {
+			fileChooser.setFileFilter(new FileNameExtensionFilter("Call Log", "calls"));
+			if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+				return;
+			File f = fileChooser.getSelectedFile();
+			if (!f.getName().toLowerCase().endsWith(".calls"))
+				f = new File(f.getParentFile(), f.getName() + ".calls");
+			try {
+				CallRecorder.start(f.toPath());
+				consolePanel.append("Recording native calls to " + f.getAbsolutePath());
+			} catch (Exception ex) {
+				ex.printStackTrace();
+				JOptionPane.showMessageDialog(this, "Failed to start call recording: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
 			}
-			functionListPanel.setFunctions(merged);
+		}
+		item.setText(CallRecorder.active() != null ? "Stop Call Recording" : "Start Call Recording...");
+	}
 
-			// update completions
-			updateEditorCompletionsFromFunctions(merged);
-			updateScriptWrapper(merged);
+	private void onReplayCallRecording() {
+		fileChooser.setFileFilter(new FileNameExtensionFilter("Call Log", "calls"));
+		if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		File log = fileChooser.getSelectedFile();
+		fileChooser.setFileFilter(NATIVE_LIBRARY_FILTER);
+		if (currentDll != null)
+			fileChooser.setSelectedFile(currentDll);
+		if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION)
+			return;
+		File dll = fileChooser.getSelectedFile();
+		// declared return types tell void and pointer results apart from plain integers
+		Map<String, String> returnTypes = new HashMap<>();
+		for (FunctionInfo fi : currentView()) {
+			if (fi.returnType != null && !fi.returnType.equals("unknown"))
+				returnTypes.put(fi.name, fi.returnType);
+		}
+		consolePanel.append("Replaying " + log.getName() + " against " + dll.getAbsolutePath() + "...");
+		new Thread(() -> {
+			try {
+				CallReplay.Report report = CallReplay.replay(log.toPath(), dll, returnTypes);
+				consolePanel.append("Replay: " + report.summary());
+				report.divergences.stream().limit(20).forEach(d -> consolePanel.append("  " + d));
+				if (report.divergenceCount > 20)
+					consolePanel.append("  ... " + (report.divergenceCount - 20) + " more");
+			} catch (Exception ex) {
+				consolePanel.append("Replay failed: " + ex.getMessage());
+			}
+		}, "call-replay").start();
+	}
+
+	private void onToggleFlightRecording(JMenuItem item) {
+		try {
+			if (FlightRecording.isRecording()) {
+				File f = chooseRecordingFile();
+				FlightRecording.stop(f != null ? f.toPath() : null);
+				consolePanel.append(f != null ? "Flight recording written to " + f.getAbsolutePath() : "Flight recording discarded.");
+			} else {
+				FlightRecording.start();
+				consolePanel.append("Flight recording started.");
+			}
 		} catch (Exception ex) {
 			ex.printStackTrace();
-			JOptionPane.showMessageDialog(this, "Failed to load header: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+			JOptionPane.showMessageDialog(this, "Flight recording failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		}
+		item.setText(FlightRecording.isRecording() ? "Stop Flight Recording..." : "Start Flight Recording");
+	}
+
+	private void onDumpFlightRecording() {
+		if (!FlightRecording.isRecording()) {
+			consolePanel.append("No flight recording is running.");
+			return;
 		}
+		File f = chooseRecordingFile();
+		if (f == null)
+			return;
+		try {
+			FlightRecording.dump(f.toPath());
+			consolePanel.append("Flight recording dumped to " + f.getAbsolutePath());
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			JOptionPane.showMessageDialog(this, "Failed to dump flight recording: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+	private File chooseRecordingFile() {
+		fileChooser.setFileFilter(new FileNameExtensionFilter("Flight Recording", "jfr"));
+		if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+			return null;
+		File f = fileChooser.getSelectedFile();
+		if (f != null && !f.getName().toLowerCase().endsWith(".jfr"))
+			f = new File(f.getParentFile(), f.getName() + ".jfr");
+		return f;
 	}
 
 	private void onOpenProject() {
@@ -289,22 +669,7 @@ public class MainWindow extends JFrame {
 			if (dllPath != null && !dllPath.isEmpty()) {
 				File dll = new File(dllPath);
 				if (dll.exists()) {
-					DllParser parser = new DllParser();
-					List<FunctionInfo> functions = parser.parseExports(dll);
-					functionListPanel.setFunctions(functions);
-					currentDll = dll;
-					// update completions
-					updateEditorCompletionsFromFunctions(functions);
-					updateScriptWrapper(functions);
-					try {
-						JnaProxyFactory factory = new JnaProxyFactory(dll.getAbsolutePath());
-						nativeProxy = factory.createNativeProxy();
-						scriptManager.setNativeProxy(nativeProxy);
-					} catch (Throwable t) {
-						consolePanel.append("Failed to create JNA proxy: " + t.getMessage());
-						nativeProxy = null;
-						scriptManager.setNativeProxy(null);
-					}
+					loadPrimaryDll(dll);
 				} else {
 					consolePanel.append("DLL from project not found: " + dllPath);
 				}
@@ -312,36 +677,21 @@ public class MainWindow extends JFrame {
 			if (headerPath != null && !headerPath.isEmpty()) {
 				File hf = new File(headerPath);
 				if (hf.exists()) {
-					HeaderParser hp = new HeaderParser();
-					Map<String, HeaderInfo> infos = hp.parseHeader(hf);
-					// merge as in onOpenHeader
-					List<FunctionInfo> existing = functionListPanel.getFunctions();
-					List<FunctionInfo> merged = new ArrayList<>();
-					if (existing.isEmpty()) {
-						for (Map.Entry<String, HeaderInfo> e : infos.entrySet()) {
-							HeaderInfo hi = e.getValue();
-							merged.add(new FunctionInfo(e.getKey(), hi.returnType != null ? hi.returnType : "unknown",
-									hi.paramTypes != null ? hi.paramTypes : new ArrayList<>()));
-						}
-					} else {
-						for (FunctionInfo fi : existing) {
-							HeaderInfo hi = infos.get(fi.name);
-							if (hi != null) {
-								merged.add(new FunctionInfo(fi.name, hi.returnType != null ? hi.returnType : fi.returnType,
-										hi.paramTypes != null ? hi.paramTypes : fi.paramTypes));
-							} else {
-								merged.add(fi);
-							}
-						}
-					}
-					functionListPanel.setFunctions(merged);
-					currentHeader = hf;
-					updateEditorCompletionsFromFunctions(merged);
-					updateScriptWrapper(merged);
+					loadHeader(hf);
 				} else {
 					consolePanel.append("Header file from project not found: " + headerPath);
 				}
 			}
+			List<String> pure = new ArrayList<>();
+			if (obj.get("pureFunctions") instanceof List) {
+				for (Object o : (List<?>) obj.get("pureFunctions"))
+					pure.add(String.valueOf(o));
+			}
+			MemoCache.getDefault().setPureFunctions(pure);
+			List<File> wsDlls = existingFiles(obj.get("workspaceDlls"), "Workspace DLL");
+			List<File> wsHeaders = existingFiles(obj.get("workspaceHeaders"), "Workspace header");
+			if (!wsDlls.isEmpty() || !wsHeaders.isEmpty())
+				loadProjectWorkspace(wsDlls, wsHeaders);
 			if (lang != null)
 				topControlPanel.setSelectedLanguage(lang);
 			if (scriptContent != null && !scriptContent.isEmpty()) {
@@ -365,6 +715,45 @@ public class MainWindow extends JFrame {
 		}
 	}
 
+	/**
+	 * Parse the workspace libraries and headers of a project off the EDT, like the Workspace menu does, and refresh the view on the EDT
+	 * when they are in.
+	 */
+	private void loadProjectWorkspace(List<File> dlls, List<File> headers) {
+		consolePanel.append("Loading " + dlls.size() + " DLL(s) and " + headers.size() + " header(s) into workspace...");
+		new Thread(() -> {
+			long t0 = System.nanoTime();
+			List<Module> added = workspace.addDlls(dlls, msg -> consolePanel.append("Failed to load " + msg));
+			workspace.addHeaders(headers, msg -> consolePanel.append("Failed to load header " + msg));
+			long ms = (System.nanoTime() - t0) / 1_000_000;
+			consolePanel.append("Workspace: added " + added.size() + " module(s) and " + headers.size() + " header(s) in " + ms + " ms; "
+					+ workspace.getDatabase().getModules().size() + " modules, " + workspace.getDatabase().getSymbolCount() + " symbols.");
+			if (headers.isEmpty())
+				return;
+			SwingUtilities.invokeLater(() -> {
+				workspaceHeaders.addAll(headers);
+				List<FunctionInfo> view = currentView();
+				functionListPanel.setFunctions(view);
+				updateEditorCompletionsFromFunctions(view);
+				updateScriptWrapper(view);
+			});
+		}, "workspace-add").start();
+	}
+
+	private List<File> existingFiles(Object jsonArray, String what) {
+		List<File> res = new ArrayList<>();
+		if (!(jsonArray instanceof List))
+			return res;
+		for (Object o : (List<?>) jsonArray) {
+			File file = new File(String.valueOf(o));
+			if (file.exists())
+				res.add(file);
+			else
+				consolePanel.append(what + " from project not found: " + o);
+		}
+		return res;
+	}
+
 	private void onSaveProject() {
 		fileChooser.setFileFilter(new FileNameExtensionFilter("JDAN Project JSON", "json"));
 		int r = fileChooser.showSaveDialog(this);
@@ -378,6 +767,19 @@ public class MainWindow extends JFrame {
 		obj.put("dllPath", currentDll != null ? currentDll.getAbsolutePath() : "");
 		obj.put("scriptLanguage", topControlPanel.getSelectedLanguage());
 		obj.put("headerFile", currentHeader != null ? currentHeader.getAbsolutePath() : "");
+		JSONArray wsDlls = new JSONArray();
+		for (Module m : workspace.getDatabase().getModules()) {
+			if (m != primaryModule)
+				wsDlls.add(m.file.getAbsolutePath());
+		}
+		obj.put("workspaceDlls", wsDlls);
+		JSONArray wsHeaders = new JSONArray();
+		for (File h : workspaceHeaders)
+			wsHeaders.add(h.getAbsolutePath());
+		obj.put("workspaceHeaders", wsHeaders);
+		JSONArray pure = new JSONArray();
+		pure.addAll(new TreeSet<>(MemoCache.getDefault().getPureFunctions()));
+		obj.put("pureFunctions", pure);
 		// embed script content
 		obj.put("scriptContent", editorPanel.getText());
 		obj.put("scriptFile", ""); // kept empty as script is embedded
@@ -390,22 +792,148 @@ public class MainWindow extends JFrame {
 		}
 	}
 
-	private void updateEditorCompletionsFromFunctions(List<FunctionInfo> functions) {
-		Set<String> names = new LinkedHashSet<>();
-		// basic tokens
-		names.add("print");
-		names.add("println");
-		names.add("int");
-		names.add("long");
-		names.add("float");
-		names.add("double");
-		names.add("native");
-		names.add("nativeLib");
-		if (functions != null) {
-			for (FunctionInfo fi : functions)
-				names.add(fi.name);
+	/**
+	 * Create the native proxy on a shadow copy of the DLL so that the native build can overwrite the original while it is loaded.
+	 */
+	private JnaProxyFactory.ProxyWrapper createProxy(File dll) {
+		JnaProxyFactory old = proxyFactory;
+		if (old != null) {
+			// waits for calls still running in the old library, so not on the EDT
+			proxyFactory = null;
+			new Thread(old::dispose, "proxy-dispose").start();
+		}
+		JnaProxyFactory factory = new JnaProxyFactory(dll.getAbsolutePath(), true);
+		proxyFactory = factory;
+		return factory.createNativeProxy();
+	}
+
+	/**
+	 * Map the primary DLL into the code view, through the proxy's shadow copy if there is one so the original stays writable.
+	 */
+	private void openCodeView() {
+		File file = proxyFactory != null && nativeProxy != null ? proxyFactory.getLoadedFile() : currentDll;
+		try {
+			codeViewPanel.open(file);
+			codeViewPanel.showFunction(functionListPanel.getSelectedFunction());
+		} catch (Exception ex) {
+			codeViewPanel.clear();
+			consolePanel.append("Cannot show code of " + currentDll.getName() + ": " + ex.getMessage());
+		}
+	}
+
+	private void watch(File file, Runnable onChange) {
+		if (fileWatcher == null || file == null)
+			return;
+		try {
+			fileWatcher.watch(file, onChange);
+		} catch (Exception ex) {
+			consolePanel.append("Cannot watch " + file.getAbsolutePath() + ": " + ex.getMessage());
+		}
+	}
+
+	private void unwatch(File file) {
+		if (fileWatcher != null)
+			fileWatcher.unwatch(file);
+	}
+
+	/**
+	 * Called on the watcher thread when the DLL was rebuilt: re-parses only the DLL and rebinds the proxy to a fresh copy here, then
+	 * applies the export diff on the EDT.
+	 */
+	private void reloadDll() {
+		File dll = currentDll;
+		Module module = primaryModule;
+		JnaProxyFactory factory = proxyFactory;
+		if (dll == null || module == null)
+			return;
+		try {
+			List<FunctionInfo> exports = ExportParser.forFile(dll).parseExports(dll);
+			PdbFile pdb = PdbFile.forLibrary(dll);
+			// copying and loading the new image, and waiting for calls still running in the old one, stays off the EDT
+			String rebindError = null;
+			if (factory != null) {
+				try {
+					factory.reload();
+				} catch (Throwable t) {
+					rebindError = t.getMessage();
+				}
+			}
+			String error = rebindError;
+			SwingUtilities.invokeLater(() -> {
+				if (module != primaryModule)
+					return;
+				if (error != null)
+					consolePanel.append("Failed to rebind JNA proxy: " + error);
+				List<FunctionInfo> before = functionListPanel.getFunctions();
+				workspace.getDatabase().replaceExports(module, exports, pdb);
+				List<FunctionInfo> after = currentView();
+				SymbolDiff diff = SymbolDiff.ofExports(before, after);
+				applySymbolDiff(diff, after);
+				openCodeView();
+				consolePanel.append("DLL changed on disk, reloaded: " + dll.getName() + " (" + diff + ")");
+			});
+		} catch (Exception ex) {
+			consolePanel.append("Failed to reload DLL " + dll.getAbsolutePath() + ": " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Called on the watcher thread when the header was edited: re-parses only the header and refreshes the entries of prototypes that
+	 * were added, removed or changed.
+	 */
+	private void reloadHeader() {
+		File header = currentHeader;
+		if (header == null)
+			return;
+		try {
+			Map<String, HeaderInfo> infos = new HeaderParser().parseHeader(header);
+			SwingUtilities.invokeLater(() -> {
+				if (!header.equals(currentHeader))
+					return;
+				SymbolDiff protoDiff = SymbolDiff.ofPrototypes(workspace.getDatabase().getHeader(header), infos);
+				if (protoDiff.isEmpty())
+					return;
+				List<FunctionInfo> before = functionListPanel.getFunctions();
+				workspace.getDatabase().putHeader(header, infos);
+				List<FunctionInfo> after = currentView();
+				applySymbolDiff(SymbolDiff.ofExports(before, after), after);
+				consolePanel.append("Header changed on disk, reloaded: " + header.getName() + " (" + protoDiff + ")");
+			});
+		} catch (Exception ex) {
+			consolePanel.append("Failed to reload header " + header.getAbsolutePath() + ": " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Push only the affected symbols to the function table, the completions and the script wrapper. Moved exports only replace their
+	 * rows, so the code view and the fuzzer pick up the new address.
+	 */
+	private void applySymbolDiff(SymbolDiff diff, List<FunctionInfo> functions) {
+		if (diff.isEmpty())
+			return;
+		Set<String> touched = new HashSet<>(diff.added);
+		touched.addAll(diff.changed);
+		Set<String> moved = new HashSet<>(diff.moved);
+		List<FunctionInfo> updates = new ArrayList<>();
+		List<FunctionInfo> rows = new ArrayList<>();
+		for (FunctionInfo fi : functions) {
+			if (touched.contains(fi.name)) {
+				updates.add(fi);
+				rows.add(fi);
+			} else if (moved.contains(fi.name)) {
+				rows.add(fi);
+			}
 		}
-		editorPanel.updateCompletions(names);
+		functionListPanel.applyChanges(diff.removed, rows);
+		editorPanel.updateFunctionCompletions(updates, diff.removed);
+		if (!diff.added.isEmpty() || !diff.removed.isEmpty())
+			scriptManager.updateAvailableFunctionNames(diff.added, diff.removed);
+		Callbacks.getDefault().setPrototypes(functions);
+		StringMarshaler.getDefault().setPrototypes(functions);
+	}
+
+	private void updateEditorCompletionsFromFunctions(List<FunctionInfo> functions) {
+		editorPanel.setFunctionCompletions(functions);
 	}
 
 	private String makeSnippet(FunctionInfo fi) {
@@ -437,7 +965,11 @@ public class MainWindow extends JFrame {
 		String scriptText = editorPanel.getText();
 		String language = topControlPanel.getSelectedLanguage();
 		consolePanel.append("Running script (" + language + ")...");
+		editorPanel.clearLineHighlights();
+		scriptManager.setProfiling(topControlPanel.isProfileSelected());
 		scriptManager.executeScript(scriptText, language, result -> {
+			if (result.profile != null)
+				SwingUtilities.invokeLater(() -> showProfile(result.profile, scriptText));
 			if (result.timedOut) {
 				consolePanel.append("*** Script timed out after " + scriptManager.getTimeoutMs() + " ms");
 			} else {
@@ -446,12 +978,33 @@ public class MainWindow extends JFrame {
 				} else {
 					consolePanel.append("*** Script finished. Result: " + result.result);
 				}
-				if (result.output != null)
-					consolePanel.append(result.output);
 			}
 		});
 	}
 
+	/**
+	 * Show the hot lines of a profiled run and highlight them in the editor, stronger for a larger share of the samples.
+	 */
+	private void showProfile(ScriptProfiler.Profile profile, String scriptText) {
+		Map<Integer, Double> weights = new HashMap<>();
+		for (ScriptProfiler.LineStats l : profile.lines) {
+			double share = profile.share(l);
+			if (l.line > 0 && share >= 0.01)
+				weights.put(l.line, share);
+		}
+		editorPanel.highlightLines(weights);
+		if (profileDialog == null) {
+			profilePanel = new ProfilePanel(editorPanel::goToLine);
+			profileDialog = new JDialog(this, "Hot Lines", false);
+			profileDialog.getContentPane().add(profilePanel, BorderLayout.CENTER);
+			profileDialog.setSize(800, 300);
+			profileDialog.setLocationRelativeTo(this);
+		}
+		profilePanel.setProfile(profile, scriptText);
+		profileDialog.setVisible(true);
+		consolePanel.append(profile.report(5));
+	}
+
 	private void updateScriptWrapper(List<FunctionInfo> functions) {
 		List<String> names = new ArrayList<>();
 		if (functions != null) {
@@ -461,5 +1014,7 @@ public class MainWindow extends JFrame {
 			}
 		}
 		scriptManager.setAvailableFunctionNames(names);
+		Callbacks.getDefault().setPrototypes(functions != null ? functions : List.of());
+		StringMarshaler.getDefault().setPrototypes(functions != null ? functions : List.of());
 	}
 }
\ No newline at end of file
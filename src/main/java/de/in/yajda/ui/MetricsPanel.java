@@ -0,0 +1,141 @@
+package de.in.yajda.ui;
+
+import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.in.yajda.dll.CallMetrics;
+
+/**
+ * Live table of the native call metrics, refreshed once a second while shown. Times are taken from the log2 histogram, so percentiles
+ * are bucket upper bounds.
+ */
+public class MetricsPanel extends JPanel {
+    private static final String[] COLUMNS = { "Module", "Function", "Calls", "Errors", "Total ms", "Mean µs", "p50 µs", "p99 µs",
+            "Max µs" };
+
+    private final CallMetrics metrics;
+    private final MetricsModel model = new MetricsModel();
+    private final Timer timer;
+    private final JFileChooser chooser = new JFileChooser(".");
+
+    public MetricsPanel(CallMetrics metrics) {
+        super(new BorderLayout());
+        this.metrics = metrics;
+
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JButton reset = new JButton("Reset");
+        reset.addActionListener(e -> {
+            metrics.reset();
+            refresh();
+        });
+        JButton json = new JButton("Export JSON...");
+        json.addActionListener(e -> export("json"));
+        JButton csv = new JButton("Export CSV...");
+        csv.addActionListener(e -> export("csv"));
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(reset);
+        buttons.add(json);
+        buttons.add(csv);
+        add(buttons, BorderLayout.SOUTH);
+
+        timer = new Timer(1000, e -> refresh());
+        refresh();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        timer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        timer.stop();
+        super.removeNotify();
+    }
+
+    public void refresh() {
+        model.setRows(metrics.snapshot());
+    }
+
+    private void export(String ext) {
+        chooser.setFileFilter(new FileNameExtensionFilter(ext.toUpperCase() + " file", ext));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION)
+            return;
+        File f = chooser.getSelectedFile();
+        if (!f.getName().toLowerCase().endsWith("." + ext))
+            f = new File(f.getParentFile(), f.getName() + "." + ext);
+        try {
+            if (ext.equals("json"))
+                metrics.writeJson(f.getAbsolutePath());
+            else
+                metrics.writeCsv(f.getAbsolutePath());
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Failed to export metrics: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private static class MetricsModel extends AbstractTableModel {
+        private List<CallMetrics.Snapshot> rows = new ArrayList<>();
+
+        void setRows(List<CallMetrics.Snapshot> rows) {
+            this.rows = rows;
+            // the row sorter keeps its sort keys across a data change
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column < 2 ? String.class : column < 4 ? Long.class : Double.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            CallMetrics.Snapshot s = rows.get(row);
+            switch (column) {
+            case 0:
+                return s.module;
+            case 1:
+                return s.function;
+            case 2:
+                return s.calls;
+            case 3:
+                return s.errors;
+            case 4:
+                return s.totalNanos / 1_000_000.0;
+            case 5:
+                return s.meanNanos() / 1000.0;
+            case 6:
+                return s.percentileNanos(50) / 1000.0;
+            case 7:
+                return s.percentileNanos(99) / 1000.0;
+            default:
+                return s.maxNanos / 1000.0;
+            }
+        }
+    }
+}
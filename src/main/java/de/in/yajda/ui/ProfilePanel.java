@@ -0,0 +1,114 @@
+package de.in.yajda.ui;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import de.in.yajda.script.ScriptProfiler;
+import de.in.yajda.script.ScriptProfiler.Category;
+import de.in.yajda.script.ScriptProfiler.LineStats;
+
+/**
+ * Ranked hot lines of a profiled script run. Selecting a row reports its line to the listener (the editor jumps there).
+ */
+public class ProfilePanel extends JPanel {
+    private static final String[] COLUMNS = { "Line", "Samples", "%", "Interpreter %", "Marshaling %", "Native %", "Native symbols", "Code" };
+
+    private final HotLinesModel model = new HotLinesModel();
+    private final JTable table;
+    private final JLabel summary = new JLabel(" ");
+
+    public ProfilePanel(IntConsumer onLineSelected) {
+        super(new BorderLayout());
+        table = new JTable(model);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getSelectionModel().addListSelectionListener(e -> {
+            if (e.getValueIsAdjusting() || table.getSelectedRow() < 0)
+                return;
+            int line = model.rows.get(table.convertRowIndexToModel(table.getSelectedRow())).line;
+            if (line > 0)
+                onLineSelected.accept(line);
+        });
+        table.setAutoCreateRowSorter(true);
+        add(summary, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+    }
+
+    public void setProfile(ScriptProfiler.Profile profile, String scriptText) {
+        summary.setText(String.format("%d samples every %d ms over %d ms", profile.samples, profile.intervalMs, profile.durationNanos / 1_000_000));
+        model.set(profile, scriptText.split("\\R", -1));
+    }
+
+    private static class HotLinesModel extends AbstractTableModel {
+        private List<LineStats> rows = new ArrayList<>();
+        private ScriptProfiler.Profile profile;
+        private String[] source = new String[0];
+
+        void set(ScriptProfiler.Profile profile, String[] source) {
+            this.profile = profile;
+            this.rows = profile.lines;
+            this.source = source;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+            case 0:
+                return Integer.class;
+            case 1:
+                return Long.class;
+            case 6:
+            case 7:
+                return String.class;
+            default:
+                return Double.class;
+            }
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            LineStats l = rows.get(row);
+            switch (column) {
+            case 0:
+                return l.line;
+            case 1:
+                return l.samples;
+            case 2:
+                return 100 * profile.share(l);
+            case 3:
+                return percent(l, Category.INTERPRETER);
+            case 4:
+                return percent(l, Category.MARSHALING);
+            case 5:
+                return percent(l, Category.NATIVE);
+            case 6:
+                return l.natives.isEmpty() ? "" : l.natives.toString();
+            default:
+                return l.line > 0 && l.line <= source.length ? source[l.line - 1].trim() : "(top level)";
+            }
+        }
+
+        private static double percent(LineStats l, Category c) {
+            return l.samples == 0 ? 0 : 100.0 * l.samples(c) / l.samples;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package de.in.yajda.ui;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.Segment;
+
+import org.fife.ui.autocomplete.BasicCompletion;
+import org.fife.ui.autocomplete.Completion;
+import org.fife.ui.autocomplete.CompletionProviderBase;
+import org.fife.ui.autocomplete.FunctionCompletion;
+import org.fife.ui.autocomplete.ParameterizedCompletion;
+
+import de.in.yajda.dll.DllParser.FunctionInfo;
+
+/**
+ * Completion provider for large symbol sets. Names are kept in one sorted array and a popup is a binary search for the entered prefix
+ * followed by a scan over the matches. Completion objects are only built for the entries that are actually shown: {@link FunctionCompletion}
+ * with parameter hints when a signature is known, a plain {@link BasicCompletion} otherwise. Built completions are cached until their symbol
+ * changes.
+ *
+ * Updates are diffs: removed names are filtered out and added names merged into the sorted array in one pass, without re-sorting the rest.
+ * All methods are meant to be called on the EDT.
+ */
+public class SymbolCompletionProvider extends CompletionProviderBase {
+	/** Upper bound of entries in one popup; typing more of the name narrows the list. */
+	private static final int MAX_RESULTS = 1000;
+	private static final int MAX_BUILT = 4096;
+
+	// case-insensitive first so prefix matches are contiguous, then case-sensitive to make the order total
+	private static final Comparator<String> ORDER = String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+	private final List<Completion> keywords = new ArrayList<>();
+	private String[] names = new String[0];
+	// name -> signature; null value = name without signature
+	private final Map<String, FunctionInfo> symbols = new HashMap<>();
+	private final Map<String, Completion> built = new LinkedHashMap<>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Completion> eldest) {
+			return size() > MAX_BUILT;
+		}
+	};
+	private final Segment seg = new Segment();
+
+	/**
+	 * Fixed words offered in addition to the symbols (script keywords, bound variables).
+	 */
+	public void setKeywords(Collection<String> words) {
+		keywords.clear();
+		for (String w : words)
+			keywords.add(new BasicCompletion(this, w));
+	}
+
+	/**
+	 * Replace all symbols.
+	 */
+	public void setFunctions(Collection<FunctionInfo> functions) {
+		symbols.clear();
+		built.clear();
+		for (FunctionInfo fi : functions) {
+			if (fi != null && fi.name != null && !fi.name.isBlank())
+				symbols.put(fi.name, fi);
+		}
+		names = symbols.keySet().toArray(new String[0]);
+		Arrays.sort(names, ORDER);
+	}
+
+	/**
+	 * Replace all symbols with names that carry no signature.
+	 */
+	public void setNames(Collection<String> newNames) {
+		symbols.clear();
+		built.clear();
+		for (String n : newNames) {
+			if (n != null && !n.isBlank())
+				symbols.put(n, null);
+		}
+		names = symbols.keySet().toArray(new String[0]);
+		Arrays.sort(names, ORDER);
+	}
+
+	/**
+	 * Apply a diff: remove the given names, add or refresh the given functions.
+	 */
+	public void update(Collection<FunctionInfo> addedOrChanged, Collection<String> removed) {
+		Set<String> gone = new HashSet<>();
+		if (removed != null) {
+			for (String n : removed) {
+				if (n != null && symbols.containsKey(n)) {
+					symbols.remove(n);
+					built.remove(n);
+					gone.add(n);
+				}
+			}
+		}
+		List<String> fresh = new ArrayList<>();
+		if (addedOrChanged != null) {
+			for (FunctionInfo fi : addedOrChanged) {
+				if (fi == null || fi.name == null || fi.name.isBlank())
+					continue;
+				built.remove(fi.name);
+				boolean known = symbols.containsKey(fi.name);
+				symbols.put(fi.name, fi);
+				if (!known) {
+					if (!gone.remove(fi.name))
+						fresh.add(fi.name);
+					// a name removed and re-added in the same diff keeps its slot
+				}
+			}
+		}
+		if (gone.isEmpty() && fresh.isEmpty())
+			return;
+		fresh.sort(ORDER);
+		String[] merged = new String[names.length - gone.size() + fresh.size()];
+		int i = 0, j = 0, k = 0;
+		while (i < names.length || j < fresh.size()) {
+			if (i < names.length && gone.contains(names[i])) {
+				i++;
+				continue;
+			}
+			if (j >= fresh.size() || (i < names.length && ORDER.compare(names[i], fresh.get(j)) <= 0))
+				merged[k++] = names[i++];
+			else
+				merged[k++] = fresh.get(j++);
+		}
+		names = merged;
+	}
+
+	public int getSymbolCount() {
+		return names.length;
+	}
+
+	@Override
+	protected List<Completion> getCompletionsImpl(JTextComponent comp) {
+		String prefix = getAlreadyEnteredText(comp);
+		List<Completion> res = new ArrayList<>();
+		for (Completion c : keywords) {
+			if (startsWithIgnoreCase(c.getInputText(), prefix))
+				res.add(c);
+		}
+		for (int i = lowerBound(prefix); i < names.length && res.size() < MAX_RESULTS; i++) {
+			if (!startsWithIgnoreCase(names[i], prefix))
+				break;
+			res.add(completionFor(names[i]));
+		}
+		return res;
+	}
+
+	/**
+	 * First index whose name is not less than the prefix, ignoring case.
+	 */
+	private int lowerBound(String prefix) {
+		int lo = 0, hi = names.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (String.CASE_INSENSITIVE_ORDER.compare(names[mid], prefix) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private static boolean startsWithIgnoreCase(String s, String prefix) {
+		return s != null && s.regionMatches(true, 0, prefix, 0, prefix.length());
+	}
+
+	private Completion completionFor(String name) {
+		Completion c = built.get(name);
+		if (c != null)
+			return c;
+		FunctionInfo fi = symbols.get(name);
+		if (fi == null) {
+			c = new BasicCompletion(this, name);
+		} else {
+			boolean known = !"unknown".equals(fi.returnType);
+			FunctionCompletion fc = new FunctionCompletion(this, name, known ? fi.returnType : null);
+			List<ParameterizedCompletion.Parameter> params = new ArrayList<>();
+			for (int i = 0; i < fi.paramTypes.size(); i++)
+				params.add(new ParameterizedCompletion.Parameter(fi.paramTypes.get(i), "arg" + i));
+			fc.setParams(params);
+			fc.setShortDescription((known ? fi.returnType : "unknown") + " " + name + "(" + String.join(", ", fi.paramTypes) + ")");
+			c = fc;
+		}
+		built.put(name, c);
+		return c;
+	}
+
+	private List<Completion> exact(String name) {
+		if (name.isEmpty())
+			return Collections.emptyList();
+		if (symbols.containsKey(name))
+			return Collections.singletonList(completionFor(name));
+		for (Completion c : keywords) {
+			if (name.equals(c.getInputText()))
+				return Collections.singletonList(c);
+		}
+		return Collections.emptyList();
+	}
+
+	private static boolean isValidChar(char ch) {
+		return Character.isLetterOrDigit(ch) || ch == '_';
+	}
+
+	@Override
+	public String getAlreadyEnteredText(JTextComponent comp) {
+		Document doc = comp.getDocument();
+		int dot = comp.getCaretPosition();
+		Element root = doc.getDefaultRootElement();
+		Element line = root.getElement(root.getElementIndex(dot));
+		int start = line.getStartOffset();
+		int len = dot - start;
+		try {
+			doc.getText(start, len, seg);
+		} catch (BadLocationException ex) {
+			return "";
+		}
+		int segEnd = seg.offset + len;
+		int p = segEnd - 1;
+		while (p >= seg.offset && isValidChar(seg.array[p]))
+			p--;
+		p++;
+		return segEnd > p ? new String(seg.array, p, segEnd - p) : "";
+	}
+
+	/**
+	 * The symbol under the mouse, for tool tips.
+	 */
+	@Override
+	public List<Completion> getCompletionsAt(JTextComponent comp, Point p) {
+		int offset = comp.viewToModel2D(p);
+		Document doc = comp.getDocument();
+		if (offset < 0 || offset >= doc.getLength())
+			return null;
+		Element root = doc.getDefaultRootElement();
+		Element line = root.getElement(root.getElementIndex(offset));
+		int start = line.getStartOffset();
+		int len = line.getEndOffset() - start - 1;
+		try {
+			doc.getText(start, Math.max(0, len), seg);
+		} catch (BadLocationException ex) {
+			return null;
+		}
+		int pos = seg.offset + (offset - start);
+		int from = pos;
+		while (from > seg.offset && isValidChar(seg.array[from - 1]))
+			from--;
+		int to = pos;
+		while (to < seg.offset + seg.count && isValidChar(seg.array[to]))
+			to++;
+		List<Completion> res = exact(new String(seg.array, from, to - from));
+		return res.isEmpty() ? null : res;
+	}
+
+	/**
+	 * Called by the parameter assistance after the list start character was typed: the function named right before it.
+	 */
+	@Override
+	public List<ParameterizedCompletion> getParameterizedCompletions(JTextComponent tc) {
+		int dot = tc.getCaretPosition();
+		Document doc = tc.getDocument();
+		Element root = doc.getDefaultRootElement();
+		Element line = root.getElement(root.getElementIndex(dot));
+		int start = line.getStartOffset();
+		int len = dot - start - 1; // skip the '(' just typed
+		if (len <= 0)
+			return null;
+		try {
+			doc.getText(start, len, seg);
+		} catch (BadLocationException ex) {
+			return null;
+		}
+		int end = seg.offset + len - 1;
+		while (end >= seg.offset && Character.isWhitespace(seg.array[end]))
+			end--;
+		int from = end;
+		while (from >= seg.offset && isValidChar(seg.array[from]))
+			from--;
+		String name = new String(seg.array, from + 1, end - from);
+		List<ParameterizedCompletion> res = new ArrayList<>();
+		for (Completion c : exact(name)) {
+			if (c instanceof ParameterizedCompletion)
+				res.add((ParameterizedCompletion) c);
+		}
+		return res.isEmpty() ? null : res;
+	}
+}
@@ -11,15 +11,19 @@ import java.awt.event.ActionListener;
 public class TopControlPanel extends JPanel {
     private final JComboBox<String> languageCombo;
     private final JButton runButton;
+    private final JCheckBox profileBox;
 
     public TopControlPanel() {
         super(new FlowLayout(FlowLayout.LEFT));
         languageCombo = new JComboBox<>(new String[]{"BeanShell", "Python", "JavaScript"});
         languageCombo.setSelectedItem("BeanShell");
         runButton = new JButton("Run Script");
+        profileBox = new JCheckBox("Profile");
+        profileBox.setToolTipText("Sample the run and show the hot script lines");
         add(new JLabel("Script language:"));
         add(languageCombo);
         add(runButton);
+        add(profileBox);
     }
 
     public void addRunListener(ActionListener l) {
@@ -38,6 +42,10 @@ public class TopControlPanel extends JPanel {
         languageCombo.setSelectedItem(lang);
     }
 
+    public boolean isProfileSelected() {
+        return profileBox.isSelected();
+    }
+
     public JButton getRunButton() {
         return runButton;
     }
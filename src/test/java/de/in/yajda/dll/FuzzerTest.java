@@ -0,0 +1,64 @@
+package de.in.yajda.dll;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.in.yajda.dll.Fuzzer.Entry;
+import de.in.yajda.dll.Fuzzer.Outcome;
+import de.in.yajda.dll.HeaderParser.HeaderInfo;
+
+/**
+ * Fuzzes the native fixture built from src/test/native/fuzzfixture.c (the native-fixture profile, Linux only). fixture_check crashes its
+ * worker JVM for the input INT_MAX and for nothing else, so every crash in the corpus must be blamed on exactly that input.
+ */
+class FuzzerTest {
+	private static final String CRASHING_INPUT = "x7fffffff";
+
+	@TempDir
+	Path corpusDir;
+
+	@Test
+	void crashIsAttributedToItsInput() throws Exception {
+		String path = System.getProperty("yajda.fuzzfixture");
+		assumeTrue(path != null && new File(path).isFile(), "native fixture not built");
+
+		Fuzzer fuzzer = new Fuzzer(new File(path), "fixture_check", new HeaderInfo("int", List.of("int")));
+		fuzzer.setWorkers(2);
+		fuzzer.setHangTimeoutMs(5000);
+		fuzzer.setCorpusDir(corpusDir.toFile());
+		Fuzzer.Stats stats = fuzzer.run(5000, null);
+
+		List<Entry> crashes = fuzzer.getCorpus().stream().filter(e -> e.outcome == Outcome.CRASH).collect(Collectors.toList());
+		assertFalse(crashes.isEmpty(), "no crash found: " + stats);
+		for (Entry e : crashes)
+			assertEquals(CRASHING_INPUT, e.input, "crash blamed on the wrong input: " + e);
+		// the workers were restarted after each crash and went on answering
+		assertTrue(stats.calls > stats.crashes, stats.toString());
+		assertTrue(fuzzer.getCorpus().stream().anyMatch(e -> e.outcome == Outcome.NEW_RESULT), "no results recorded");
+		assertTrue(fuzzer.getCorpus().stream().noneMatch(e -> e.outcome == Outcome.HANG), "unexpected hang");
+
+		try (var files = Files.list(corpusDir)) {
+			List<String> written = files.filter(f -> f.getFileName().toString().startsWith("crash-")).map(f -> {
+				try {
+					return Files.readAllLines(f).get(1);
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			}).collect(Collectors.toList());
+			assertEquals(List.of(CRASHING_INPUT), written);
+		}
+	}
+}
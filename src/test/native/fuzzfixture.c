@@ -0,0 +1,12 @@
+/*
+ * Native fixture for FuzzerTest: fixture_check crashes for exactly one input, INT_MAX, which the fuzzer reaches through its boundary
+ * values. Every other input returns a small value, so the run also collects new results.
+ */
+#include <limits.h>
+
+int fixture_check(int key)
+{
+	if (key == INT_MAX)
+		*(volatile int *)0 = key;
+	return key & 7;
+}